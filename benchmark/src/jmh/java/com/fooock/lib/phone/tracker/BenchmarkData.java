@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the observations used by the benchmarks. Scan results can't be created outside of a
+ * device, so they are mocks with the public fields filled
+ */
+final class BenchmarkData {
+
+    private static final String[] CAPABILITIES = {
+            "[WPA2-PSK-CCMP][ESS]", "[WPA-PSK-TKIP+CCMP][WPA2-PSK-TKIP+CCMP][WPS][ESS]", "[ESS]"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create a wifi scan. The same count always returns the same access points, and the seed
+     * only changes the RSSI of each one
+     *
+     * @param accessPoints Number of access points
+     * @param seed         Seed of the RSSI values
+     * @return Scan results
+     */
+    static List<ScanResult> wifiScans(int accessPoints, long seed) {
+        final Random random = new Random(seed);
+        final List<ScanResult> scans = new ArrayList<>(accessPoints);
+        for (int i = 0; i < accessPoints; i++) {
+            final ScanResult scan = Mockito.mock(ScanResult.class);
+            scan.BSSID = String.format("02:00:5e:%02x:%02x:%02x", i >> 16 & 0xff, i >> 8 & 0xff,
+                    i & 0xff);
+            scan.SSID = "network-" + (i % 32);
+            scan.capabilities = CAPABILITIES[i % CAPABILITIES.length];
+            scan.level = -40 - random.nextInt(50);
+            scan.frequency = i % 2 == 0 ? 2412 + 5 * (i % 13) : 5180 + 20 * (i % 8);
+            scan.timestamp = 1000000L * i;
+            scans.add(scan);
+        }
+        return scans;
+    }
+
+    /**
+     * Create a cell scan with the first cell registered
+     *
+     * @param cells Number of cells
+     * @param seed  Seed of the signal values
+     * @return Cells
+     */
+    static List<CellRecord> cells(int cells, long seed) {
+        final Random random = new Random(seed);
+        final List<CellRecord> records = new ArrayList<>(cells);
+        for (int i = 0; i < cells; i++) {
+            final CellKey key = new CellKey(CellRecord.RADIO_LTE, 214070000000L + 7919L * i);
+            records.add(new CellRecord(key, -70 - random.nextInt(40), i == 0));
+        }
+        return records;
+    }
+}
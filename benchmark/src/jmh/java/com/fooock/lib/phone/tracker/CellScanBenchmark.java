@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the detection of repeated cell scans, done for each cell scan before the
+ * observation is created
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CellScanBenchmark {
+
+    @Param({"1", "8", "32"})
+    public int cells;
+
+    private List<CellRecord> scan;
+    private List<CellRecord> nextScan;
+    private CellChangeDetector detector;
+    private boolean next;
+
+    @Setup
+    public void setUp() {
+        scan = BenchmarkData.cells(cells, 1);
+        nextScan = BenchmarkData.cells(cells, 2);
+        detector = new CellChangeDetector();
+    }
+
+    @Benchmark
+    public boolean unchanged() {
+        return detect(scan);
+    }
+
+    @Benchmark
+    public boolean changed() {
+        next = !next;
+        return detect(next ? nextScan : scan);
+    }
+
+    private boolean detect(List<CellRecord> records) {
+        detector.begin();
+        for (int i = 0, size = records.size(); i < size; i++) {
+            final CellRecord cell = records.get(i);
+            detector.add(cell.getGlobalId(), (cell.getDbm() << 1) | (cell.isRegistered() ? 1 : 0));
+        }
+        return detector.commit();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the binary encoding of the observations, used by the journal, the uploads and the
+ * traces, and of its decoding
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+
+    @Param({"10", "50"})
+    public int accessPoints;
+
+    private final ObservationEncoder encoder = new ObservationEncoder();
+    private final ObservationDecoder decoder = new ObservationDecoder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private final ChecksumVisitor visitor = new ChecksumVisitor();
+
+    private WifiObservation wifi;
+    private CellObservation cell;
+    private ByteBuffer encodedWifi;
+
+    @Setup
+    public void setUp() {
+        wifi = new WifiObservation(1533000000000L, 86400000L,
+                BenchmarkData.wifiScans(accessPoints, 1));
+        cell = new CellObservation(1533000000000L, 86400000L, BenchmarkData.cells(8, 1));
+
+        encodedWifi = ByteBuffer.allocate(64 * 1024);
+        encoder.writeHeader(encodedWifi);
+        encoder.encode(wifi, encodedWifi);
+        encodedWifi.flip();
+    }
+
+    @Benchmark
+    public int encodeWifi() {
+        buffer.clear();
+        encoder.reset();
+        encoder.encode(wifi, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public int encodeCells() {
+        buffer.clear();
+        encoder.reset();
+        encoder.encode(cell, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public int encodeLocation() {
+        buffer.clear();
+        encoder.reset();
+        encoder.encodeLocation(buffer, 1533000000000L, 86400000L, "gps", 40.4167754, -3.7037902,
+                12.5f, 657.0, 1.4f, 270.0f);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public long decodeWifi() {
+        encodedWifi.rewind();
+        decoder.readHeader(encodedWifi);
+        decoder.decode(encodedWifi, visitor);
+        return visitor.checksum;
+    }
+
+    /**
+     * Visitor that touches the decoded values, so they are not optimized away
+     */
+    private static final class ChecksumVisitor implements ObservationVisitor {
+        private long checksum;
+
+        @Override
+        public void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints) {
+            checksum += timestamp;
+        }
+
+        @Override
+        public void onAccessPoint(long bssid, String ssid, int level, int frequency) {
+            checksum += bssid + ssid.length() + level + frequency;
+        }
+
+        @Override
+        public void onCellScan(long timestamp, long elapsedRealtime, int cells) {
+            checksum += timestamp;
+        }
+
+        @Override
+        public void onCell(int radioType, long globalId, int dbm, boolean registered) {
+            checksum += globalId + dbm;
+        }
+
+        @Override
+        public void onLocation(long timestamp, long elapsedRealtime, String provider,
+                               double latitude, double longitude, float accuracy,
+                               double altitude, float speed, float bearing) {
+            checksum += timestamp;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a configuration update: the creation of the new configuration and the comparison
+ * done by each receiver to know if it must be reloaded
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConfigurationBenchmark {
+
+    private Configuration current;
+    private Configuration same;
+    private Configuration changed;
+
+    @Setup
+    public void setUp() {
+        current = create(15000);
+        same = create(15000);
+        changed = create(30000);
+    }
+
+    private static Configuration create(long minTimeUpdate) {
+        final Configuration.Wifi wifiConf = new Configuration.Wifi();
+        wifiConf.setAdaptiveScan(true);
+        wifiConf.setDeltaMode(true);
+
+        final Configuration.Gps gpsConf = new Configuration.Gps();
+        gpsConf.setMinTimeUpdate(minTimeUpdate);
+        gpsConf.setFused(true);
+
+        return new Configuration.Builder()
+                .wifi(wifiConf)
+                .cell(new Configuration.Cell())
+                .gps(gpsConf)
+                .create();
+    }
+
+    @Benchmark
+    public Configuration create() {
+        return create(15000);
+    }
+
+    @Benchmark
+    public boolean reloadUnchanged() {
+        return reload(same);
+    }
+
+    @Benchmark
+    public boolean reloadChanged() {
+        return reload(changed);
+    }
+
+    /**
+     * @return True if any receiver must be reloaded
+     */
+    private boolean reload(Configuration conf) {
+        boolean reload = !current.wifiConfiguration().equals(conf.wifiConfiguration());
+        reload |= !current.cellConfiguration().equals(conf.cellConfiguration());
+        reload |= !current.gpsConfiguration().equals(conf.gpsConfiguration());
+        return reload;
+    }
+}
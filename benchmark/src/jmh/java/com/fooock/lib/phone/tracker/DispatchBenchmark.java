@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the delivery of one observation to the consumers: the ring buffer readers and the
+ * subscriptions, and of the dispatch of a cell scan from the receiver to the listener and the
+ * subscriptions. The subscriptions deliver in the calling thread, so the measure includes the
+ * queueing and the callback but not a thread switch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The clock of the device can't be read outside of it
+     */
+    private static final Clock FIXED_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return 1533000000000L;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return 86400000L;
+        }
+    };
+
+    @Param({"1", "4"})
+    public int consumers;
+
+    private final List<ObservationSubscription> subscriptions = new ArrayList<>();
+    private final ObservationBus bus = new ObservationBus(256);
+    private final List<ObservationReader> readers = new ArrayList<>();
+    private final CountingCallback callback = new CountingCallback();
+
+    private WifiObservation observation;
+    private List<CellRecord> cells;
+    private ObservationDispatcher dispatcher;
+
+    @Setup
+    public void setUp() {
+        observation = new WifiObservation(1533000000000L, 86400000L,
+                BenchmarkData.wifiScans(10, 1));
+        for (int i = 0; i < consumers; i++) {
+            subscriptions.add(new ObservationSubscription(subscriptions, DIRECT_EXECUTOR, 16,
+                    OverflowPolicy.DROP_OLDEST, callback));
+            readers.add(bus.openReader());
+        }
+        cells = BenchmarkData.cells(6, 1);
+        dispatcher = new ObservationDispatcher(null, FIXED_CLOCK, new ObservationBus(256),
+                subscriptions, new DemandPublisher<WifiObservation>(),
+                new DemandPublisher<CellObservation>(),
+                new DemandPublisher<LocationObservation>(), null, null, null,
+                callback, null, null, null);
+    }
+
+    @Benchmark
+    public long subscriptions() {
+        for (int i = 0, size = subscriptions.size(); i < size; i++) {
+            subscriptions.get(i).offer(observation);
+        }
+        return callback.count;
+    }
+
+    @Benchmark
+    public long ringBuffer() {
+        bus.publish(observation);
+        for (int i = 0, size = readers.size(); i < size; i++) {
+            readers.get(i).drain(callback, 16);
+        }
+        return callback.count;
+    }
+
+    @Benchmark
+    public long dispatcher() {
+        dispatcher.onCellRecordsReceived(FIXED_CLOCK.currentTimeMillis(), cells);
+        return callback.count;
+    }
+
+    /**
+     * Callback that only counts the observations and the cell scans
+     */
+    private static final class CountingCallback implements ObservationReader.Callback,
+            PhoneTracker.CellRecordListener {
+        private long count;
+
+        @Override
+        public void onObservation(long sequence, Observation observation) {
+            count++;
+        }
+
+        @Override
+        public void onCellRecordsReceived(long timestamp, List<CellRecord> cells) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the work done for each wifi scan: the conversion of the scan results to the compact
+ * representation and the comparison with the previous scan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WifiScanBenchmark {
+
+    @Param({"10", "50", "200"})
+    public int accessPoints;
+
+    private List<ScanResult> scans;
+    private List<ScanResult> nextScans;
+    private WifiScanCompactor compactor;
+    private WifiScanDelta delta;
+    private boolean next;
+
+    @Setup
+    public void setUp() {
+        scans = BenchmarkData.wifiScans(accessPoints, 1);
+        nextScans = BenchmarkData.wifiScans(accessPoints, 2);
+        compactor = new WifiScanCompactor();
+        delta = new WifiScanDelta();
+    }
+
+    @Benchmark
+    public CompactWifiScan compact() {
+        return compactor.compact(scans);
+    }
+
+    @Benchmark
+    public boolean deltaUnchanged() {
+        return delta.update(scans, 5);
+    }
+
+    @Benchmark
+    public boolean deltaChanged() {
+        // the same access points with different RSSI in each scan
+        next = !next;
+        return delta.update(next ? nextScans : scans, 5);
+    }
+
+    @Benchmark
+    public long packBssid() {
+        return WifiScanCompactor.packBssid(scans.get(0).BSSID);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+
+/**
+ * Runs the collection windows with alarms, in the android versions without job scheduler.
+ * These versions don't have doze, so the alarm wakes up the device in the window and the
+ * next alarm is set when the collection finishes. The alarm only keeps the device awake while
+ * it is received, so the scans requested at the start of the window are collected but the
+ * device can sleep before the collection time ends
+ */
+final class AlarmBackgroundScheduler implements BackgroundScheduler {
+    private static final String ACTION_WINDOW = ".PHONE_TRACKER_BACKGROUND_WINDOW";
+
+    private final Context context;
+    private final Clock clock;
+    private final CheckVersion checkVersion = new CheckVersion();
+
+    private Configuration.Background backgroundConfiguration;
+    private Callback callback;
+    private PendingIntent pendingIntent;
+
+    private final BroadcastReceiver alarmReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Callback current = callback;
+            if (current == null) {
+                return;
+            }
+            current.onWindowStart(new Runnable() {
+                @Override
+                public void run() {
+                    onWindowFinished(current);
+                }
+            });
+        }
+    };
+
+    AlarmBackgroundScheduler(Context context, Clock clock) {
+        this.context = context;
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized void schedule(Configuration.Background backgroundConfiguration,
+                                      Callback callback) {
+        cancel();
+        final Context appContext = context.getApplicationContext();
+        final String action = appContext.getPackageName() + ACTION_WINDOW;
+        this.backgroundConfiguration = backgroundConfiguration;
+        this.callback = callback;
+        this.pendingIntent = PendingIntent.getBroadcast(appContext, 0,
+                new Intent(action).setPackage(appContext.getPackageName()),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        appContext.registerReceiver(alarmReceiver, new IntentFilter(action));
+        setAlarm();
+    }
+
+    @Override
+    public synchronized void cancel() {
+        if (callback == null) {
+            return;
+        }
+        alarmManager().cancel(pendingIntent);
+        context.getApplicationContext().unregisterReceiver(alarmReceiver);
+        callback = null;
+        pendingIntent = null;
+    }
+
+    private synchronized void onWindowFinished(Callback finished) {
+        // not rescheduled if cancelled or scheduled again during the window
+        if (callback == finished) {
+            setAlarm();
+        }
+    }
+
+    private void setAlarm() {
+        final long start = clock.elapsedRealtime() + backgroundConfiguration.getInterval()
+                - backgroundConfiguration.getFlex();
+        if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.KITKAT)) {
+            alarmManager().setWindow(AlarmManager.ELAPSED_REALTIME_WAKEUP, start,
+                    backgroundConfiguration.getFlex(), pendingIntent);
+        } else {
+            alarmManager().set(AlarmManager.ELAPSED_REALTIME_WAKEUP, start, pendingIntent);
+        }
+    }
+
+    private AlarmManager alarmManager() {
+        return (AlarmManager) context.getApplicationContext().getSystemService(
+                Context.ALARM_SERVICE);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free {@link TrackerMetrics} that can be polled from any thread with {@link #snapshot()}
+ * or {@link #snapshotAndReset()}. The latencies are kept in log-linear histograms with four
+ * buckets per power of two, so the percentiles have an error lower than 25%. Recording never
+ * allocates
+ */
+public final class AtomicTrackerMetrics implements TrackerMetrics {
+
+    private static final int BUCKETS = 256;
+    private static final int HISTOGRAMS = SENSORS * LATENCIES;
+
+    private final AtomicLongArray counters = new AtomicLongArray(SENSORS * COUNTERS);
+    private final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAMS * BUCKETS);
+    private final AtomicLongArray sums = new AtomicLongArray(HISTOGRAMS);
+    private final AtomicLongArray maxes = new AtomicLongArray(HISTOGRAMS);
+    private final AtomicLong start = new AtomicLong(System.nanoTime());
+
+    @Override
+    public void increment(int sensor, int counter) {
+        counters.incrementAndGet(sensor * COUNTERS + counter);
+    }
+
+    @Override
+    public void recordLatency(int sensor, int latency, long nanos) {
+        final long value = nanos < 0 ? 0 : nanos;
+        final int histogram = sensor * LATENCIES + latency;
+        buckets.incrementAndGet(histogram * BUCKETS + bucketOf(value));
+        sums.addAndGet(histogram, value);
+        long max = maxes.get(histogram);
+        while (value > max && !maxes.compareAndSet(histogram, max, value)) {
+            max = maxes.get(histogram);
+        }
+    }
+
+    /**
+     * @return The current values. Each value is read atomically, but values recorded during
+     * the copy may be seen only in some of them
+     */
+    public Snapshot snapshot() {
+        return copy(false);
+    }
+
+    /**
+     * @return The current values, resetting them to zero. Each value is read and reset
+     * atomically, so the counts and the sums add up across the snapshots. A latency recorded
+     * during the copy may be counted in the histogram of this snapshot and in the sum or the
+     * maximum of the next one
+     */
+    public Snapshot snapshotAndReset() {
+        return copy(true);
+    }
+
+    private Snapshot copy(boolean reset) {
+        final long now = System.nanoTime();
+        final long from = reset ? start.getAndSet(now) : start.get();
+        final long[] counterValues = copy(counters, reset);
+        final long[] bucketValues = copy(buckets, reset);
+        final long[] sumValues = copy(sums, reset);
+        final long[] maxValues = copy(maxes, reset);
+        return new Snapshot(now - from, counterValues, bucketValues, sumValues, maxValues);
+    }
+
+    private static long[] copy(AtomicLongArray array, boolean reset) {
+        final long[] values = new long[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = reset ? array.getAndSet(i, 0) : array.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * @param value Non negative value
+     * @return Index of the bucket of the value
+     */
+    static int bucketOf(long value) {
+        if (value < 4) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - 2)) & 3;
+        return (exponent - 1) * 4 + sub;
+    }
+
+    /**
+     * @param bucket Index of a bucket
+     * @return Greatest value stored in the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        final int exponent = bucket / 4 + 1;
+        final int sub = bucket % 4;
+        return ((5L + sub) << (exponent - 2)) - 1;
+    }
+
+    /**
+     * Immutable copy of the metrics
+     */
+    public static final class Snapshot {
+        private final long interval;
+        private final long[] counters;
+        private final long[] buckets;
+        private final long[] sums;
+        private final long[] maxes;
+
+        Snapshot(long interval, long[] counters, long[] buckets, long[] sums, long[] maxes) {
+            this.interval = interval;
+            this.counters = counters;
+            this.buckets = buckets;
+            this.sums = sums;
+            this.maxes = maxes;
+        }
+
+        /**
+         * @return Nanoseconds covered by this snapshot, from the creation of the metrics or
+         * from the last reset
+         */
+        public long getInterval() {
+            return interval;
+        }
+
+        /**
+         * @param sensor  One of the {@code SENSOR_*} values
+         * @param counter One of the {@code COUNTER_*} values
+         * @return Value of the counter
+         */
+        public long getCount(int sensor, int counter) {
+            return counters[sensor * COUNTERS + counter];
+        }
+
+        /**
+         * @param sensor  One of the {@code SENSOR_*} values
+         * @param counter One of the {@code COUNTER_*} values
+         * @return Increments of the counter per second during the interval
+         */
+        public double getRate(int sensor, int counter) {
+            if (interval <= 0) {
+                return 0;
+            }
+            return getCount(sensor, counter) * 1e9 / interval;
+        }
+
+        /**
+         * @param sensor  One of the {@code SENSOR_*} values
+         * @param latency One of the {@code LATENCY_*} values
+         * @return Number of recorded latencies
+         */
+        public long getLatencyCount(int sensor, int latency) {
+            final int offset = (sensor * LATENCIES + latency) * BUCKETS;
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets[offset + i];
+            }
+            return count;
+        }
+
+        /**
+         * @param sensor  One of the {@code SENSOR_*} values
+         * @param latency One of the {@code LATENCY_*} values
+         * @return Mean latency in nanoseconds, zero if none was recorded
+         */
+        public double getLatencyMean(int sensor, int latency) {
+            final long count = getLatencyCount(sensor, latency);
+            if (count == 0) {
+                return 0;
+            }
+            return (double) sums[sensor * LATENCIES + latency] / count;
+        }
+
+        /**
+         * @param sensor  One of the {@code SENSOR_*} values
+         * @param latency One of the {@code LATENCY_*} values
+         * @return Maximum latency in nanoseconds
+         */
+        public long getLatencyMax(int sensor, int latency) {
+            return maxes[sensor * LATENCIES + latency];
+        }
+
+        /**
+         * @param sensor     One of the {@code SENSOR_*} values
+         * @param latency    One of the {@code LATENCY_*} values
+         * @param percentile Percentile between 0 and 100
+         * @return Upper bound in nanoseconds of the bucket that contains the percentile, zero if
+         * no latency was recorded
+         */
+        public long getLatencyPercentile(int sensor, int latency, double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile " + percentile);
+            }
+            final long count = getLatencyCount(sensor, latency);
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            final int offset = (sensor * LATENCIES + latency) * BUCKETS;
+            final long max = getLatencyMax(sensor, latency);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[offset + i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
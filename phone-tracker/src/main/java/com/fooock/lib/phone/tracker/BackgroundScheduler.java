@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Schedules the collection windows of the tracker while the app is in background. The
+ * windows are run by the system, so they are not delayed by doze more than the system allows
+ * and don't need wakelocks of the tracker
+ */
+interface BackgroundScheduler {
+
+    /**
+     * Receives the collection windows
+     */
+    interface Callback {
+        /**
+         * A collection window started, called in the main thread. The device is kept awake
+         * until the given runnable is called
+         *
+         * @param finished Must be called, from any thread, when the collection ends
+         */
+        void onWindowStart(Runnable finished);
+
+        /**
+         * The system stopped the window before it finished, called in the main thread
+         */
+        void onWindowStop();
+    }
+
+    /**
+     * Start scheduling collection windows periodically, replacing the previous schedule
+     *
+     * @param backgroundConfiguration Background configuration
+     * @param callback                Receives the windows
+     */
+    void schedule(Configuration.Background backgroundConfiguration, Callback callback);
+
+    /**
+     * Stop scheduling collection windows
+     */
+    void cancel();
+}
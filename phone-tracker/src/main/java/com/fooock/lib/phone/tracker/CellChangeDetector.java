@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.Arrays;
+
+/**
+ * Detect if a cell scan is different from the previous one. Each cell is reduced to a 64 bit
+ * fingerprint of its identity and its state (signal level and registered flag), and the sorted
+ * fingerprints are compared, so the order of the cells doesn't matter.
+ * <p>
+ * Usage: call {@link #begin()}, then {@link #add(long, int)} for each cell and
+ * finally {@link #commit()}
+ */
+class CellChangeDetector {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] previous = new long[DEFAULT_CAPACITY];
+    private long[] current = new long[DEFAULT_CAPACITY];
+    private int previousSize = -1;
+    private int currentSize;
+
+    /**
+     * Start a new cell scan
+     */
+    void begin() {
+        currentSize = 0;
+    }
+
+    /**
+     * Add a cell to the current scan
+     *
+     * @param cellKey Value that identifies the cell
+     * @param state   Value with the state of the cell
+     */
+    void add(long cellKey, int state) {
+        if (currentSize == current.length) {
+            current = Arrays.copyOf(current, currentSize * 2);
+        }
+        current[currentSize++] = mix(cellKey) ^ mix(state + 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Finish the current scan and compare it with the previous one
+     *
+     * @return True if the scan changed or if it is the first one, false if not
+     */
+    boolean commit() {
+        Arrays.sort(current, 0, currentSize);
+        boolean changed = previousSize != currentSize;
+        for (int i = 0; !changed && i < currentSize; i++) {
+            changed = previous[i] != current[i];
+        }
+        final long[] tmp = previous;
+        previous = current;
+        previousSize = currentSize;
+        current = tmp;
+        return changed;
+    }
+
+    /**
+     * Forget the previous scan, so the next one is always reported as changed
+     */
+    void reset() {
+        previousSize = -1;
+        currentSize = 0;
+    }
+
+    /**
+     * Finalizer of the MurmurHash3 64 bit hash
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
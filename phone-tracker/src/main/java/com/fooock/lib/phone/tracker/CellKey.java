@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Immutable global identifier of a cell. The identity is packed in a 64 bit value with the
+ * layout {@code [mcc:10][mnc:10][area:16][cid:28]}. For CDMA cells the layout is
+ * {@code [system id:20][network id:16][base station id:28]}. Fields not available or out of
+ * range are stored with all their bits set and decoded as {@link CellRecord#UNAVAILABLE}.
+ * <p>
+ * Keys are interned by the tracker, so repeated sightings of the same cell return the same
+ * instance and can be compared by reference.
+ */
+public final class CellKey {
+
+    private static final int MCC_BITS = 10;
+    private static final int MNC_BITS = 10;
+    private static final int OPERATOR_BITS = MCC_BITS + MNC_BITS;
+    private static final int AREA_BITS = 16;
+    private static final int CID_BITS = 28;
+
+    private static final int MCC_SHIFT = MNC_BITS + AREA_BITS + CID_BITS;
+    private static final int MNC_SHIFT = AREA_BITS + CID_BITS;
+    private static final int AREA_SHIFT = CID_BITS;
+
+    private final int radioType;
+    private final long globalId;
+
+    CellKey(int radioType, long globalId) {
+        this.radioType = radioType;
+        this.globalId = globalId;
+    }
+
+    /**
+     * Pack the cell identity
+     *
+     * @param radioType One of the {@code CellRecord.RADIO_*} values
+     * @param mcc       Mobile country code, or the system id for CDMA
+     * @param mnc       Mobile network code, ignored for CDMA
+     * @param area      Location or tracking area code, or the network id for CDMA
+     * @param cid       Cell id, or the base station id for CDMA
+     * @return Packed global id
+     */
+    static long pack(int radioType, int mcc, int mnc, int area, int cid) {
+        final long operator;
+        if (radioType == CellRecord.RADIO_CDMA) {
+            operator = field(mcc, OPERATOR_BITS);
+        } else {
+            final long packedMcc = mcc >= 0 && mcc <= 999 ? mcc : mask(MCC_BITS);
+            final long packedMnc = mnc >= 0 && mnc <= 999 ? mnc : mask(MNC_BITS);
+            operator = (packedMcc << MNC_BITS) | packedMnc;
+        }
+        return (operator << MNC_SHIFT)
+                | (field(area, AREA_BITS) << AREA_SHIFT)
+                | field(cid, CID_BITS);
+    }
+
+    private static long field(int value, int bits) {
+        return value >= 0 && value < mask(bits) ? value : mask(bits);
+    }
+
+    private static long mask(int bits) {
+        return (1L << bits) - 1;
+    }
+
+    private static int unpack(long value, int bits) {
+        return value == mask(bits) ? CellRecord.UNAVAILABLE : (int) value;
+    }
+
+    /**
+     * @return One of the {@code CellRecord.RADIO_*} values
+     */
+    public int getRadioType() {
+        return radioType;
+    }
+
+    /**
+     * @return The packed 64 bit identity of the cell
+     */
+    public long getGlobalId() {
+        return globalId;
+    }
+
+    /**
+     * @return Mobile country code, or the system id for CDMA cells
+     */
+    public int getMcc() {
+        if (radioType == CellRecord.RADIO_CDMA) {
+            return unpack(globalId >>> MNC_SHIFT, OPERATOR_BITS);
+        }
+        return unpack((globalId >>> MCC_SHIFT) & mask(MCC_BITS), MCC_BITS);
+    }
+
+    /**
+     * @return Mobile network code, always {@link CellRecord#UNAVAILABLE} for CDMA cells
+     */
+    public int getMnc() {
+        if (radioType == CellRecord.RADIO_CDMA) {
+            return CellRecord.UNAVAILABLE;
+        }
+        return unpack((globalId >>> MNC_SHIFT) & mask(MNC_BITS), MNC_BITS);
+    }
+
+    /**
+     * @return Location area code, tracking area code for LTE or network id for CDMA
+     */
+    public int getArea() {
+        return unpack((globalId >>> AREA_SHIFT) & mask(AREA_BITS), AREA_BITS);
+    }
+
+    /**
+     * @return Cell id, or base station id for CDMA
+     */
+    public int getCid() {
+        return unpack(globalId & mask(CID_BITS), CID_BITS);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CellKey cellKey = (CellKey) o;
+
+        if (radioType != cellKey.radioType) return false;
+        return globalId == cellKey.globalId;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = radioType;
+        result = 31 * result + (int) (globalId ^ (globalId >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CellKey{" +
+                "radioType=" + radioType +
+                ", mcc=" + getMcc() +
+                ", mnc=" + getMnc() +
+                ", area=" + getArea() +
+                ", cid=" + getCid() +
+                '}';
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.List;
+
+/**
+ * Immutable cell scan received by the tracker
+ */
+public final class CellObservation extends Observation {
+
+    private final List<CellRecord> cells;
+
+    CellObservation(long timestamp, long elapsedRealtime, List<CellRecord> cells) {
+        super(timestamp, elapsedRealtime);
+        this.cells = cells;
+    }
+
+    /**
+     * @return List of scanned cells, never null
+     */
+    public List<CellRecord> getCells() {
+        return cells;
+    }
+
+    @Override
+    public String toString() {
+        return "CellObservation{" +
+                "timestamp=" + getTimestamp() +
+                ", elapsedRealtime=" + getElapsedRealtime() +
+                ", cells=" + cells +
+                '}';
+    }
+}
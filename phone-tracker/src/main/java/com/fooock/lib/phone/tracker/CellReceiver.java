@@ -16,11 +16,17 @@
 
 package com.fooock.lib.phone.tracker;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
-import android.os.Handler;
 import android.telephony.CellInfo;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellLocation;
 import android.telephony.NeighboringCellInfo;
+import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
@@ -32,22 +38,67 @@ import java.util.List;
  */
 class CellReceiver implements EnvironmentReceiver<Configuration.Cell> {
     private static final String TAG = CellReceiver.class.getSimpleName();
+    // read once when the class is loaded, the app must be restarted after a setprop
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
 
     private final TelephonyManager telephonyManager;
     private final CheckVersion checkVersion = new CheckVersion();
     private final CheckPermission checkPermission;
-    private final Handler handler = new Handler();
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final SensorMetrics metrics;
+    private final EnergyAccountant energy;
     private final PhoneTracker.CellScanListener cellScanListener;
+    private final PhoneTracker.CellRecordListener cellRecordListener;
+    private final ScanGate scanGate;
+    private final StationaryDetector stationaryDetector;
 
-    private Configuration.Cell cellConfiguration;
+    private final CellChangeDetector cellChangeDetector = new CellChangeDetector();
+    private final CellRecordFactory cellRecordFactory = new CellRecordFactory();
 
-    CellReceiver(Context context, Configuration.Cell cellConfiguration,
-                 PhoneTracker.CellScanListener cellScanListener) {
+    private volatile Configuration.Cell cellConfiguration;
+    private volatile PhoneStateListener phoneStateListener;
+
+    /**
+     * Scan loop of this android version, null if not registered
+     */
+    private volatile Runnable scanTask;
+
+    /**
+     * Scan at the normal rate as soon as the device moves again, without waiting for the
+     * stretched delay of the stationary state
+     */
+    private final StationaryDetector.Listener stationaryListener =
+            new StationaryDetector.Listener() {
+                @Override
+                public void onStationaryChanged(boolean stationary) {
+                    final Runnable task = scanTask;
+                    if (stationary || task == null) {
+                        return;
+                    }
+                    scheduler.removeCallbacks(task);
+                    scheduler.postDelayed(task, cellConfiguration.getScanDelay(),
+                            cellConfiguration.getAlignmentWindow());
+                }
+            };
+
+    CellReceiver(Context context, Scheduler scheduler, Clock clock, SensorMetrics metrics,
+                 EnergyAccountant energy, Configuration.Cell cellConfiguration,
+                 ScanGate scanGate, StationaryDetector stationaryDetector,
+                 PhoneTracker.CellScanListener cellScanListener,
+                 PhoneTracker.CellRecordListener cellRecordListener) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.energy = energy;
         this.telephonyManager = (TelephonyManager) context.getSystemService(
                 Context.TELEPHONY_SERVICE);
         this.cellConfiguration = cellConfiguration;
+        this.scanGate = scanGate;
+        this.stationaryDetector = stationaryDetector;
         this.checkPermission = new CheckPermission(context);
         this.cellScanListener = cellScanListener;
+        this.cellRecordListener = cellRecordListener;
     }
 
     @Override
@@ -58,9 +109,10 @@ class CellReceiver implements EnvironmentReceiver<Configuration.Cell> {
         boolean equalOrGreater17 = checkVersion.isEqualOrGreater(
                 Build.VERSION_CODES.JELLY_BEAN_MR1);
         if (equalOrGreater17) {
-            handler.post(new Runnable() {
+            scanTask = new Runnable() {
                 @Override
                 public void run() {
+                    energy.onWakeup(TrackerMetrics.SENSOR_CELL);
                     final boolean permEnabled = checkPermission.hasAnyPermission(
                             PhoneTracker.LOCATION_PERMISSIONS);
 
@@ -69,31 +121,43 @@ class CellReceiver implements EnvironmentReceiver<Configuration.Cell> {
                     if (!permEnabled) {
                         Log.w(TAG, "Location permissions not granted to cell scan, trying again in "
                                 + scanDelay + "ms");
-                        handler.postDelayed(this, scanDelay);
+                        metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                        scheduler.postDelayed(this, scanDelay,
+                                cellConfiguration.getAlignmentWindow());
+                        return;
+                    }
+                    if (!isScanDemanded()) {
+                        stopListeningCellChanges();
+                        metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                        scheduler.postDelayed(this, scanDelay,
+                                cellConfiguration.getAlignmentWindow());
                         return;
                     }
 
-                    final List<CellInfo> cellInfo = telephonyManager.getAllCellInfo();
-                    final long timestamp = System.currentTimeMillis();
-                    if (cellInfo == null || cellInfo.isEmpty()) {
-                        if (cellScanListener != null) {
-                            cellScanListener.onCellInfoReceived(
-                                    timestamp, Collections.<CellInfo>emptyList());
-                        }
+                    // In event driven mode this is only the fallback heartbeat
+                    final boolean eventDriven = cellConfiguration.isEventDriven();
+                    if (eventDriven) {
+                        listenCellChanges();
                     } else {
-                        if (cellScanListener != null) {
-                            cellScanListener.onCellInfoReceived(timestamp, cellInfo);
-                        }
+                        stopListeningCellChanges();
                     }
+                    scanCellInfo();
 
-                    Log.d(TAG, "Scanning cell every " + scanDelay + "ms");
-                    handler.postDelayed(this, scanDelay);
+                    final int delay = eventDriven ? cellConfiguration.getHeartbeatDelay()
+                            : scanDelay;
+                    if (DEBUG) {
+                        Log.d(TAG, "Scanning cell every " + delay + "ms");
+                    }
+                    // while stationary the scans are done less often
+                    scheduler.postDelayed(this, stationaryDetector.stretch(delay),
+                            cellConfiguration.getAlignmentWindow());
                 }
-            });
+            };
         } else {
-            handler.post(new Runnable() {
+            scanTask = new Runnable() {
                 @Override
                 public void run() {
+                    energy.onWakeup(TrackerMetrics.SENSOR_CELL);
                     final boolean permEnabled = checkPermission.hasAnyPermission(
                             PhoneTracker.LOCATION_PERMISSIONS);
 
@@ -102,40 +166,215 @@ class CellReceiver implements EnvironmentReceiver<Configuration.Cell> {
                     if (!permEnabled) {
                         Log.w(TAG, "Location permissions not granted to cell scan, trying again in "
                                 + scanDelay + "ms");
-                        handler.postDelayed(this, scanDelay);
+                        metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                        scheduler.postDelayed(this, scanDelay,
+                                cellConfiguration.getAlignmentWindow());
+                        return;
+                    }
+                    if (!isScanDemanded()) {
+                        metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                        scheduler.postDelayed(this, scanDelay,
+                                cellConfiguration.getAlignmentWindow());
                         return;
                     }
 
+                    metrics.increment(TrackerMetrics.COUNTER_SCAN_REQUESTED);
+                    energy.onRadioWakeup(TrackerMetrics.SENSOR_CELL);
+                    final long callStart = metrics.start();
                     final List<NeighboringCellInfo> cellInfo
                             = telephonyManager.getNeighboringCellInfo();
-                    final long timestamp = System.currentTimeMillis();
-                    if (cellInfo == null || cellInfo.isEmpty()) {
-                        cellScanListener.onNeighborCellReceived(
-                                timestamp, Collections.<NeighboringCellInfo>emptyList());
-                    } else {
-                        cellScanListener.onNeighborCellReceived(timestamp, cellInfo);
+                    metrics.recordSince(TrackerMetrics.LATENCY_PLATFORM_CALL, callStart);
+                    metrics.increment(TrackerMetrics.COUNTER_SCAN_RECEIVED);
+                    final List<NeighboringCellInfo> cells = cellInfo == null
+                            ? Collections.<NeighboringCellInfo>emptyList() : cellInfo;
+                    final long listenerStart = metrics.start();
+                    final long timestamp = clock.currentTimeMillis();
+                    if (cellScanListener != null) {
+                        cellScanListener.onNeighborCellReceived(timestamp, cells);
                     }
+                    if (cellRecordListener != null) {
+                        cellRecordListener.onCellRecordsReceived(timestamp,
+                                cellRecordFactory.fromNeighboringCellInfo(
+                                        cells, telephonyManager.getNetworkOperator()));
+                    }
+                    metrics.recordSince(TrackerMetrics.LATENCY_LISTENER, listenerStart);
+                    metrics.increment(TrackerMetrics.COUNTER_OBSERVATION);
+                    energy.onObservation(TrackerMetrics.SENSOR_CELL);
 
-                    Log.d(TAG, "Scanning cell every " + scanDelay + "ms");
-                    handler.postDelayed(this, scanDelay);
+                    if (DEBUG) {
+                        Log.d(TAG, "Scanning cell every " + scanDelay + "ms");
+                    }
+                    scheduler.postDelayed(this, stationaryDetector.stretch(scanDelay),
+                            cellConfiguration.getAlignmentWindow());
                 }
-            });
+            };
         }
+        stationaryDetector.addListener(stationaryListener);
+        scheduler.post(scanTask);
     }
 
     @Override
     public void unregister() {
         Log.d(TAG, "Unregistered cell receiver...");
-        handler.removeCallbacksAndMessages(null);
+        scheduler.removeAll();
+        stationaryDetector.removeListener(stationaryListener);
+        scanTask = null;
+        stopListeningCellChanges();
     }
 
     @Override
-    public void reloadConfiguration(Configuration.Cell config) {
-        if (cellConfiguration.equals(config)) {
-            Log.i(TAG, "Cell config is the same, not reload...");
+    public void reloadConfiguration(final Configuration.Cell config) {
+        // the change detector is only touched from the sensor looper
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                energy.onWakeup(TrackerMetrics.SENSOR_CELL);
+                if (cellConfiguration.equals(config)) {
+                    Log.i(TAG, "Cell config is the same, not reload...");
+                    return;
+                }
+                Log.d(TAG, "Reloading cell configuration");
+                cellChangeDetector.reset();
+                cellConfiguration = config;
+            }
+        });
+    }
+
+    /**
+     * @return True if the cells must be scanned, false if nobody demands them
+     */
+    private boolean isScanDemanded() {
+        return scanGate == null || scanGate.isOpen();
+    }
+
+    /**
+     * Get the cells from the telephony service and deliver them
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void scanCellInfo() {
+        metrics.increment(TrackerMetrics.COUNTER_SCAN_REQUESTED);
+        energy.onRadioWakeup(TrackerMetrics.SENSOR_CELL);
+        final long callStart = metrics.start();
+        final List<CellInfo> cellInfo = telephonyManager.getAllCellInfo();
+        metrics.recordSince(TrackerMetrics.LATENCY_PLATFORM_CALL, callStart);
+        deliverCellInfo(cellInfo);
+    }
+
+    /**
+     * Deliver the cells to the listener. In event driven mode the cells are only delivered if
+     * they changed since the last delivery
+     *
+     * @param cellInfo Cells, can be null
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void deliverCellInfo(List<CellInfo> cellInfo) {
+        final List<CellInfo> cells = cellInfo == null
+                ? Collections.<CellInfo>emptyList() : cellInfo;
+        metrics.increment(TrackerMetrics.COUNTER_SCAN_RECEIVED);
+        if (cellConfiguration.isEventDriven() && !hasChanged(cells)) {
+            metrics.increment(TrackerMetrics.COUNTER_RESULT_DROPPED);
+            return;
+        }
+        final long listenerStart = metrics.start();
+        final long timestamp = clock.currentTimeMillis();
+        if (cellScanListener != null) {
+            cellScanListener.onCellInfoReceived(timestamp, cells);
+        }
+        if (cellRecordListener != null) {
+            cellRecordListener.onCellRecordsReceived(timestamp,
+                    cellRecordFactory.fromCellInfo(cells));
+        }
+        metrics.recordSince(TrackerMetrics.LATENCY_LISTENER, listenerStart);
+        metrics.increment(TrackerMetrics.COUNTER_OBSERVATION);
+        energy.onObservation(TrackerMetrics.SENSOR_CELL);
+    }
+
+    /**
+     * Check if the cell identities, their signal levels or the registered cell changed since
+     * the last delivered cells
+     *
+     * @param cells Cells
+     * @return True if changed, false if not
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private boolean hasChanged(List<CellInfo> cells) {
+        final boolean equalOrGreater18 = checkVersion.isEqualOrGreater(
+                Build.VERSION_CODES.JELLY_BEAN_MR2);
+        cellChangeDetector.begin();
+        for (CellInfo cell : cells) {
+            final int identity;
+            final int level;
+            if (cell instanceof CellInfoGsm) {
+                identity = ((CellInfoGsm) cell).getCellIdentity().hashCode();
+                level = ((CellInfoGsm) cell).getCellSignalStrength().getLevel();
+            } else if (cell instanceof CellInfoLte) {
+                identity = ((CellInfoLte) cell).getCellIdentity().hashCode();
+                level = ((CellInfoLte) cell).getCellSignalStrength().getLevel();
+            } else if (cell instanceof CellInfoCdma) {
+                identity = ((CellInfoCdma) cell).getCellIdentity().hashCode();
+                level = ((CellInfoCdma) cell).getCellSignalStrength().getLevel();
+            } else if (equalOrGreater18 && cell instanceof CellInfoWcdma) {
+                identity = ((CellInfoWcdma) cell).getCellIdentity().hashCode();
+                level = ((CellInfoWcdma) cell).getCellSignalStrength().getLevel();
+            } else {
+                identity = cell.getClass().hashCode();
+                level = 0;
+            }
+            final long key = ((long) cell.getClass().hashCode() << 32) | (identity & 0xffffffffL);
+            cellChangeDetector.add(key, (level << 1) | (cell.isRegistered() ? 1 : 0));
+        }
+        return cellChangeDetector.commit();
+    }
+
+    /**
+     * Start listening the cell info and cell location changes of the telephony service. The
+     * listener must be created in the sensor looper to receive the events on it
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void listenCellChanges() {
+        if (phoneStateListener != null) {
+            return;
+        }
+        Log.d(TAG, "Listening cell changes");
+        final PhoneStateListener listener = new PhoneStateListener() {
+            @Override
+            public void onCellInfoChanged(List<CellInfo> cellInfo) {
+                energy.onWakeup(TrackerMetrics.SENSOR_CELL);
+                if (!isScanDemanded()) {
+                    return;
+                }
+                // some devices notify the change without the cells
+                if (cellInfo == null) {
+                    scanCellInfo();
+                } else {
+                    deliverCellInfo(cellInfo);
+                }
+            }
+
+            @Override
+            public void onCellLocationChanged(CellLocation location) {
+                energy.onWakeup(TrackerMetrics.SENSOR_CELL);
+                if (!isScanDemanded()) {
+                    return;
+                }
+                scanCellInfo();
+            }
+        };
+        telephonyManager.listen(listener, PhoneStateListener.LISTEN_CELL_INFO
+                | PhoneStateListener.LISTEN_CELL_LOCATION);
+        phoneStateListener = listener;
+    }
+
+    /**
+     * Stop listening the changes of the telephony service, if listening
+     */
+    private void stopListeningCellChanges() {
+        final PhoneStateListener listener = phoneStateListener;
+        if (listener == null) {
             return;
         }
-        Log.d(TAG, "Reloading cell configuration");
-        cellConfiguration = config;
+        Log.d(TAG, "Stop listening cell changes");
+        telephonyManager.listen(listener, PhoneStateListener.LISTEN_NONE);
+        phoneStateListener = null;
     }
 }
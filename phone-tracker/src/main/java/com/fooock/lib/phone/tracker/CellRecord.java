@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Immutable cell scanned by the tracker. Both the {@code android.telephony.CellInfo} and the
+ * {@code android.telephony.NeighboringCellInfo} are normalized to this class
+ */
+public final class CellRecord {
+
+    /**
+     * Value of the fields that are not available
+     */
+    public static final int UNAVAILABLE = Integer.MAX_VALUE;
+
+    public static final int RADIO_UNKNOWN = 0;
+    public static final int RADIO_GSM = 1;
+    public static final int RADIO_WCDMA = 2;
+    public static final int RADIO_LTE = 3;
+    public static final int RADIO_CDMA = 4;
+
+    private final CellKey key;
+    private final int dbm;
+    private final boolean registered;
+
+    CellRecord(CellKey key, int dbm, boolean registered) {
+        this.key = key;
+        this.dbm = dbm;
+        this.registered = registered;
+    }
+
+    /**
+     * @return Interned identity of the cell
+     */
+    public CellKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return One of the {@code RADIO_*} values
+     */
+    public int getRadioType() {
+        return key.getRadioType();
+    }
+
+    /**
+     * @return The packed 64 bit identity of the cell, see {@link CellKey}
+     */
+    public long getGlobalId() {
+        return key.getGlobalId();
+    }
+
+    public int getMcc() {
+        return key.getMcc();
+    }
+
+    public int getMnc() {
+        return key.getMnc();
+    }
+
+    public int getArea() {
+        return key.getArea();
+    }
+
+    public int getCid() {
+        return key.getCid();
+    }
+
+    /**
+     * @return Signal strength in dBm, or {@link #UNAVAILABLE}
+     */
+    public int getDbm() {
+        return dbm;
+    }
+
+    /**
+     * @return True if the device is registered to this cell, false if not
+     */
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CellRecord that = (CellRecord) o;
+
+        if (dbm != that.dbm) return false;
+        if (registered != that.registered) return false;
+        return key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = key.hashCode();
+        result = 31 * result + dbm;
+        result = 31 * result + (registered ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CellRecord{" +
+                "key=" + key +
+                ", dbm=" + dbm +
+                ", registered=" + registered +
+                '}';
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.telephony.CellIdentityCdma;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.NeighboringCellInfo;
+import android.telephony.TelephonyManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Normalize the cells returned by the telephony service to {@link CellRecord}. The
+ * {@link CellKey} instances are interned in a fixed size direct-mapped table, so the same cell
+ * seen in consecutive scans reuses the same key.
+ */
+class CellRecordFactory {
+
+    private static final int CACHE_SIZE = 256;
+    private static final int CACHE_MASK = CACHE_SIZE - 1;
+
+    private final CheckVersion checkVersion = new CheckVersion();
+    private final CellKey[] keys = new CellKey[CACHE_SIZE];
+
+    /**
+     * Get the interned key of the given cell identity
+     *
+     * @param radioType Radio type
+     * @param globalId  Packed global id
+     * @return Interned key
+     */
+    CellKey intern(int radioType, long globalId) {
+        final long hash = (globalId ^ (globalId >>> 29)) * 31 + radioType;
+        final int index = (int) (hash ^ (hash >>> 32)) & CACHE_MASK;
+        final CellKey cached = keys[index];
+        if (cached != null && cached.getGlobalId() == globalId
+                && cached.getRadioType() == radioType) {
+            return cached;
+        }
+        final CellKey key = new CellKey(radioType, globalId);
+        keys[index] = key;
+        return key;
+    }
+
+    /**
+     * Convert the cells of the telephony service
+     *
+     * @param cells Cells
+     * @return New list of records, unknown cell types are skipped
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    List<CellRecord> fromCellInfo(List<CellInfo> cells) {
+        final boolean equalOrGreater18 = checkVersion.isEqualOrGreater(
+                Build.VERSION_CODES.JELLY_BEAN_MR2);
+        final List<CellRecord> records = new ArrayList<>(cells.size());
+        for (CellInfo cell : cells) {
+            final CellRecord record;
+            if (cell instanceof CellInfoGsm) {
+                final CellIdentityGsm identity = ((CellInfoGsm) cell).getCellIdentity();
+                record = create(CellRecord.RADIO_GSM, identity.getMcc(), identity.getMnc(),
+                        identity.getLac(), identity.getCid(),
+                        ((CellInfoGsm) cell).getCellSignalStrength().getDbm(),
+                        cell.isRegistered());
+            } else if (cell instanceof CellInfoLte) {
+                final CellIdentityLte identity = ((CellInfoLte) cell).getCellIdentity();
+                record = create(CellRecord.RADIO_LTE, identity.getMcc(), identity.getMnc(),
+                        identity.getTac(), identity.getCi(),
+                        ((CellInfoLte) cell).getCellSignalStrength().getDbm(),
+                        cell.isRegistered());
+            } else if (cell instanceof CellInfoCdma) {
+                final CellIdentityCdma identity = ((CellInfoCdma) cell).getCellIdentity();
+                record = create(CellRecord.RADIO_CDMA, identity.getSystemId(),
+                        CellRecord.UNAVAILABLE, identity.getNetworkId(),
+                        identity.getBasestationId(),
+                        ((CellInfoCdma) cell).getCellSignalStrength().getDbm(),
+                        cell.isRegistered());
+            } else if (equalOrGreater18 && cell instanceof CellInfoWcdma) {
+                final CellIdentityWcdma identity = ((CellInfoWcdma) cell).getCellIdentity();
+                record = create(CellRecord.RADIO_WCDMA, identity.getMcc(), identity.getMnc(),
+                        identity.getLac(), identity.getCid(),
+                        ((CellInfoWcdma) cell).getCellSignalStrength().getDbm(),
+                        cell.isRegistered());
+            } else {
+                continue;
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Convert the neighboring cells of android versions before 4.2. The neighboring cells
+     * don't have operator, so the operator of the registered network is used
+     *
+     * @param cells           Neighboring cells
+     * @param networkOperator MCC+MNC of the registered network, can be null
+     * @return New list of records
+     */
+    List<CellRecord> fromNeighboringCellInfo(List<NeighboringCellInfo> cells,
+                                             String networkOperator) {
+        int mcc = CellRecord.UNAVAILABLE;
+        int mnc = CellRecord.UNAVAILABLE;
+        if (networkOperator != null && networkOperator.length() >= 5) {
+            mcc = parseInt(networkOperator.substring(0, 3));
+            mnc = parseInt(networkOperator.substring(3));
+        }
+        final List<CellRecord> records = new ArrayList<>(cells.size());
+        for (NeighboringCellInfo cell : cells) {
+            final int rssi = cell.getRssi();
+            switch (cell.getNetworkType()) {
+                case TelephonyManager.NETWORK_TYPE_GPRS:
+                case TelephonyManager.NETWORK_TYPE_EDGE:
+                    // GSM rssi is in ASU
+                    records.add(create(CellRecord.RADIO_GSM, mcc, mnc, cell.getLac(),
+                            cell.getCid(), rssi == NeighboringCellInfo.UNKNOWN_RSSI
+                                    ? CellRecord.UNAVAILABLE : -113 + 2 * rssi, false));
+                    break;
+                case TelephonyManager.NETWORK_TYPE_UMTS:
+                case TelephonyManager.NETWORK_TYPE_HSDPA:
+                case TelephonyManager.NETWORK_TYPE_HSUPA:
+                case TelephonyManager.NETWORK_TYPE_HSPA:
+                    // UMTS neighbors only have the primary scrambling code, used as cell id.
+                    // The rssi is the RSCP in dBm
+                    records.add(create(CellRecord.RADIO_WCDMA, mcc, mnc,
+                            CellRecord.UNAVAILABLE, cell.getPsc(),
+                            rssi == NeighboringCellInfo.UNKNOWN_RSSI
+                                    ? CellRecord.UNAVAILABLE : rssi, false));
+                    break;
+                default:
+                    records.add(create(CellRecord.RADIO_UNKNOWN, mcc, mnc, cell.getLac(),
+                            cell.getCid(), CellRecord.UNAVAILABLE, false));
+                    break;
+            }
+        }
+        return records;
+    }
+
+    private CellRecord create(int radioType, int mcc, int mnc, int area, int cid,
+                              int dbm, boolean registered) {
+        final long globalId = CellKey.pack(radioType, mcc, mnc, area, cid);
+        return new CellRecord(intern(radioType, globalId), dbm, registered);
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return CellRecord.UNAVAILABLE;
+        }
+    }
+}
@@ -23,6 +23,11 @@ import android.os.Build;
  */
 class CheckVersion {
 
+    /**
+     * Android version of the device. The unit tests change it to run the code of other versions
+     */
+    static int sdkVersion = Build.VERSION.SDK_INT;
+
     /**
      * Check the given android version code in the current device
      *
@@ -30,7 +35,7 @@ class CheckVersion {
      * @return true if the device is the specified version, false if not
      */
     boolean isEqualTo(final int version) {
-        return Build.VERSION.SDK_INT == version;
+        return sdkVersion == version;
     }
 
     /**
@@ -40,6 +45,6 @@ class CheckVersion {
      * @return true if the device version is equal or greater, false if not
      */
     boolean isEqualOrGreater(final int version) {
-        return Build.VERSION.SDK_INT >= version;
+        return sdkVersion >= version;
     }
 }
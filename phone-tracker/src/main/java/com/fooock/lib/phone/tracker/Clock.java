@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.os.SystemClock;
+
+/**
+ * Source of the time used by the receivers to timestamp the observations and to measure the
+ * intervals between scans. Tests replace it with a virtual clock
+ */
+interface Clock {
+
+    /**
+     * Clock of the device
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * @return Current time in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return Milliseconds since boot, including deep sleep
+     */
+    long elapsedRealtime();
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.Arrays;
+
+/**
+ * Compact representation of a wifi scan. Each access point is stored by index in parallel
+ * primitive arrays: the BSSID packed in the lower 48 bits of a {@code long}, the RSSI and
+ * frequency as {@code int} and the capabilities as a bit set of the {@code CAPABILITY_*}
+ * flags. SSIDs are interned, so the same SSID is always the same instance.
+ * <p>
+ * Instances are reused between scans. Copy the values you need to keep after the listener
+ * call returns.
+ */
+public final class CompactWifiScan {
+
+    /**
+     * Value of {@link #getBssid(int)} when the BSSID is not available or malformed
+     */
+    public static final long INVALID_BSSID = -1;
+
+    public static final int CAPABILITY_WEP = 1;
+    public static final int CAPABILITY_WPA = 1 << 1;
+    public static final int CAPABILITY_WPA2 = 1 << 2;
+    public static final int CAPABILITY_PSK = 1 << 3;
+    public static final int CAPABILITY_EAP = 1 << 4;
+    public static final int CAPABILITY_SAE = 1 << 5;
+    public static final int CAPABILITY_OWE = 1 << 6;
+    public static final int CAPABILITY_TKIP = 1 << 7;
+    public static final int CAPABILITY_CCMP = 1 << 8;
+    public static final int CAPABILITY_WPS = 1 << 9;
+    public static final int CAPABILITY_ESS = 1 << 10;
+    public static final int CAPABILITY_IBSS = 1 << 11;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private int size;
+    private long[] bssids = new long[DEFAULT_CAPACITY];
+    private int[] rssis = new int[DEFAULT_CAPACITY];
+    private int[] frequencies = new int[DEFAULT_CAPACITY];
+    private int[] capabilities = new int[DEFAULT_CAPACITY];
+    private String[] ssids = new String[DEFAULT_CAPACITY];
+
+    CompactWifiScan() {
+    }
+
+    /**
+     * @return Number of access points in this scan
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index Access point index
+     * @return BSSID packed in the lower 48 bits, or {@link #INVALID_BSSID}
+     */
+    public long getBssid(int index) {
+        checkIndex(index);
+        return bssids[index];
+    }
+
+    /**
+     * @param index Access point index
+     * @return Signal level in dBm
+     */
+    public int getRssi(int index) {
+        checkIndex(index);
+        return rssis[index];
+    }
+
+    /**
+     * @param index Access point index
+     * @return Frequency in MHz
+     */
+    public int getFrequency(int index) {
+        checkIndex(index);
+        return frequencies[index];
+    }
+
+    /**
+     * @param index Access point index
+     * @return Bit set of {@code CAPABILITY_*} flags
+     */
+    public int getCapabilities(int index) {
+        checkIndex(index);
+        return capabilities[index];
+    }
+
+    /**
+     * @param index      Access point index
+     * @param capability One of the {@code CAPABILITY_*} flags
+     * @return True if the access point has the given capability, false if not
+     */
+    public boolean hasCapability(int index, int capability) {
+        return (getCapabilities(index) & capability) != 0;
+    }
+
+    /**
+     * @param index Access point index
+     * @return Interned SSID, can be null
+     */
+    public String getSsid(int index) {
+        checkIndex(index);
+        return ssids[index];
+    }
+
+    /**
+     * Format a packed BSSID with the usual {@code xx:xx:xx:xx:xx:xx} notation
+     *
+     * @param bssid Packed BSSID
+     * @return Formatted BSSID, or null if it is {@link #INVALID_BSSID}
+     */
+    public static String formatBssid(long bssid) {
+        if (bssid == INVALID_BSSID) {
+            return null;
+        }
+        final char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            final int octet = (int) (bssid >>> (40 - i * 8)) & 0xff;
+            chars[i * 3] = HEX[octet >>> 4];
+            chars[i * 3 + 1] = HEX[octet & 0xf];
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Remove all access points, keeping the allocated arrays
+     */
+    void clear() {
+        Arrays.fill(ssids, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Append an access point, growing the arrays if needed
+     */
+    void add(long bssid, int rssi, int frequency, int capability, String ssid) {
+        if (size == bssids.length) {
+            final int capacity = size * 2;
+            bssids = Arrays.copyOf(bssids, capacity);
+            rssis = Arrays.copyOf(rssis, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            capabilities = Arrays.copyOf(capabilities, capacity);
+            ssids = Arrays.copyOf(ssids, capacity);
+        }
+        bssids[size] = bssid;
+        rssis[size] = rssi;
+        frequencies[size] = frequency;
+        capabilities[size] = capability;
+        ssids[size] = ssid;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
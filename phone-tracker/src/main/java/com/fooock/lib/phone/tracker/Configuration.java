@@ -16,12 +16,19 @@
 
 package com.fooock.lib.phone.tracker;
 
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
 
 /**
  * Class to configure what sensors we use and how this sensors scan the environment
  */
 public class Configuration {
+    private static final long WAKEUP_DEFAULT_ALIGNMENT = 1000;
 
     private final Builder builder;
 
@@ -71,6 +78,101 @@ public class Configuration {
         return builder.gpsConfiguration;
     }
 
+    /**
+     * @return The energy cost model used to estimate the energy of the sensors
+     */
+    public Energy energyConfiguration() {
+        return builder.energyConfiguration;
+    }
+
+    /**
+     * @return The configuration of the collection windows used in background
+     */
+    public Background backgroundConfiguration() {
+        return builder.backgroundConfiguration;
+    }
+
+    /**
+     * @return The stationary configuration, or null if the stationary detection is disabled
+     */
+    @Nullable
+    public Stationary stationaryConfiguration() {
+        return builder.stationaryConfiguration;
+    }
+
+    /**
+     * @return The batch configuration, or null if the observations are not batched
+     */
+    @Nullable
+    public Batch batchConfiguration() {
+        return builder.batchConfiguration;
+    }
+
+    /**
+     * @return The snapshot configuration, or null if the environment snapshots are disabled
+     */
+    @Nullable
+    public Snapshot snapshotConfiguration() {
+        return builder.snapshotConfiguration;
+    }
+
+    /**
+     * @return The journal configuration, or null if the observations are not stored
+     */
+    @Nullable
+    public Journal journalConfiguration() {
+        return builder.journalConfiguration;
+    }
+
+    /**
+     * @return The upload configuration, or null if the observations are not uploaded
+     */
+    @Nullable
+    public Upload uploadConfiguration() {
+        return builder.uploadConfiguration;
+    }
+
+    /**
+     * @return The file where the observations are recorded, or null if not recorded
+     */
+    @Nullable
+    public File traceFile() {
+        return builder.traceFile;
+    }
+
+    /**
+     * @return The replay configuration, or null if the sensors are scanned
+     */
+    @Nullable
+    public Replay replayConfiguration() {
+        return builder.replayConfiguration;
+    }
+
+    /**
+     * @return True if the sensors are only scanned while the subscribers of their publisher
+     * have outstanding demand, false if they are always scanned
+     */
+    public boolean isDemandDriven() {
+        return builder.demandDriven;
+    }
+
+    /**
+     * @return The looper where the sensors are scanned and the listeners are called, or null
+     * if the tracker must use its own background thread
+     */
+    @Nullable
+    public Looper looper() {
+        return builder.looper;
+    }
+
+    /**
+     * @return Period in milliseconds of the grid where the periodic work of the sensors is
+     * aligned, zero if not aligned
+     */
+    public long wakeupAlignment() {
+        return builder.wakeupAlignment;
+    }
+
     /**
      * Builder class to create the configuration
      */
@@ -83,6 +185,19 @@ public class Configuration {
         private Wifi wifiConfiguration = new Wifi();
         private Cell cellConfiguration = new Cell();
         private Gps gpsConfiguration = new Gps();
+        private Energy energyConfiguration = new Energy();
+        private Background backgroundConfiguration = new Background();
+
+        private Stationary stationaryConfiguration;
+        private Batch batchConfiguration;
+        private Snapshot snapshotConfiguration;
+        private Journal journalConfiguration;
+        private Upload uploadConfiguration;
+        private File traceFile;
+        private Replay replayConfiguration;
+        private boolean demandDriven;
+        private Looper looper;
+        private long wakeupAlignment = WAKEUP_DEFAULT_ALIGNMENT;
 
         public Builder useGps(boolean useGps) {
             this.useGps = useGps;
@@ -114,6 +229,168 @@ public class Configuration {
             return this;
         }
 
+        /**
+         * Set the energy cost model used by {@code PhoneTracker.getEnergyReport()} to convert
+         * the work done by the sensors in energy. It only changes the estimation, not how the
+         * sensors are scanned
+         *
+         * @param energyConf Energy cost model
+         * @return This builder
+         */
+        public Builder energy(@NonNull Energy energyConf) {
+            this.energyConfiguration = energyConf;
+            return this;
+        }
+
+        /**
+         * Set the collection windows used while the tracker is in background, see
+         * {@code PhoneTracker.setBackground(boolean)}
+         *
+         * @param backgroundConf Background configuration
+         * @return This builder
+         */
+        public Builder background(@NonNull Background backgroundConf) {
+            this.backgroundConfiguration = backgroundConf;
+            return this;
+        }
+
+        /**
+         * Set the stationary configuration. When set, the tracker detects when the device is
+         * not moving with the motion sensors and the access points seen by the wifi scans.
+         * While it is stationary the gps providers are removed and the wifi and cell scans
+         * are done less often
+         *
+         * @param stationaryConf Stationary configuration, or null to disable the detection
+         * @return This builder
+         */
+        public Builder stationary(@Nullable Stationary stationaryConf) {
+            this.stationaryConfiguration = stationaryConf;
+            return this;
+        }
+
+        /**
+         * Set the batch configuration. When set, the observations of each sensor are buffered
+         * and delivered together to the {@code PhoneTracker.BatchListener}. The batch
+         * configuration is only read when the tracker starts
+         *
+         * @param batchConf Batch configuration, or null to disable the batching
+         * @return This builder
+         */
+        public Builder batch(@Nullable Batch batchConf) {
+            this.batchConfiguration = batchConf;
+            return this;
+        }
+
+        /**
+         * Set the snapshot configuration. When set, the observations of the sensors are joined
+         * in {@link EnvironmentSnapshot}s and delivered to the
+         * {@code PhoneTracker.EnvironmentSnapshotListener}. The snapshot configuration is only
+         * read when the tracker starts
+         *
+         * @param snapshotConf Snapshot configuration, or null to disable the snapshots
+         * @return This builder
+         */
+        public Builder snapshot(@Nullable Snapshot snapshotConf) {
+            this.snapshotConfiguration = snapshotConf;
+            return this;
+        }
+
+        /**
+         * Set the journal configuration. When set, all the observations are appended to the
+         * {@link ObservationJournal} in the configured directory, and the journal is recovered
+         * when the tracker starts. The journal configuration is only read when the tracker
+         * starts
+         *
+         * @param journalConf Journal configuration, or null to not store the observations
+         * @return This builder
+         */
+        public Builder journal(@Nullable Journal journalConf) {
+            this.journalConfiguration = journalConf;
+            return this;
+        }
+
+        /**
+         * Set the upload configuration. When set, all the observations are encoded in
+         * compressed batches, stored in the configured directory until they are sent, and
+         * posted to the configured endpoint. The upload configuration is only read when the
+         * tracker starts
+         *
+         * @param uploadConf Upload configuration, or null to not upload the observations
+         * @return This builder
+         */
+        public Builder upload(@Nullable Upload uploadConf) {
+            this.uploadConfiguration = uploadConf;
+            return this;
+        }
+
+        /**
+         * Record all the observations in a trace file, replacing it if it exists. The trace
+         * can be replayed later with {@link #replay(Replay)}. The trace file is only read when
+         * the tracker starts
+         *
+         * @param traceFile Trace file, or null to not record the observations
+         * @return This builder
+         */
+        public Builder recordTrace(@Nullable File traceFile) {
+            this.traceFile = traceFile;
+            return this;
+        }
+
+        /**
+         * Set the replay configuration. When set, the sensors are not scanned and the
+         * observations of the trace are delivered instead, to the same listeners and
+         * consumers, filtered by the sensors in use. Updating the configuration of a running
+         * tracker to start or stop a replay, or to replay another trace, restarts the tracker
+         *
+         * @param replayConf Replay configuration, or null to scan the sensors
+         * @return This builder
+         */
+        public Builder replay(@Nullable Replay replayConf) {
+            this.replayConfiguration = replayConf;
+            return this;
+        }
+
+        /**
+         * Enable or disable the demand driven mode. When enabled, each sensor is only scanned
+         * while the subscribers of its {@code PhoneTracker} publisher have outstanding demand,
+         * and the listeners only receive the observations of those scans. The gps providers
+         * are removed while there is no demand
+         *
+         * @param demandDriven True to enable the demand driven mode
+         * @return This builder
+         */
+        public Builder demandDriven(boolean demandDriven) {
+            this.demandDriven = demandDriven;
+            return this;
+        }
+
+        /**
+         * Set the looper used to scan the sensors and call the listeners. If not set, the
+         * tracker creates a background thread when started and quits it when stopped. The
+         * looper is only read when the tracker starts
+         *
+         * @param looper Looper, or null to use the tracker background thread
+         * @return This builder
+         */
+        public Builder looper(@Nullable Looper looper) {
+            this.looper = looper;
+            return this;
+        }
+
+        /**
+         * Set the period of the grid where the periodic work of the sensors is aligned. The
+         * scans of each sensor are moved, inside its alignment window, to share the wakeups of
+         * the other sensors and to start on the ticks of the grid. The wakeup alignment is only
+         * read when the tracker starts
+         *
+         * @param wakeupAlignment Period in milliseconds, zero to not align to a grid
+         * @return This builder
+         */
+        public Builder wakeupAlignment(long wakeupAlignment) {
+            this.wakeupAlignment = wakeupAlignment;
+            return this;
+        }
+
         /**
          * This method create the configuration
          *
@@ -130,8 +407,24 @@ public class Configuration {
      */
     public static class Wifi {
         private static final int SCAN_DEFAULT_DELAY = 4000;
+        private static final int RSSI_DEFAULT_CHANGE_THRESHOLD = 5;
+        private static final int MAX_SCAN_DEFAULT_DELAY = 60000;
+        // Android 9 allows four scans every two minutes to foreground apps
+        private static final int SCAN_DEFAULT_BUDGET = 4;
+        private static final long SCAN_DEFAULT_BUDGET_WINDOW = 120000;
+        private static final long MAX_DEFAULT_STALENESS = 30000;
+        private static final int ALIGNMENT_DEFAULT_WINDOW = 1000;
 
         private int scanDelay = SCAN_DEFAULT_DELAY;
+        private boolean deltaMode;
+        private int rssiChangeThreshold = RSSI_DEFAULT_CHANGE_THRESHOLD;
+        private boolean adaptiveScan;
+        private int maxScanDelay = MAX_SCAN_DEFAULT_DELAY;
+        private int scanBudget = SCAN_DEFAULT_BUDGET;
+        private long scanBudgetWindow = SCAN_DEFAULT_BUDGET_WINDOW;
+        private boolean passiveScan;
+        private long maxStaleness = MAX_DEFAULT_STALENESS;
+        private int alignmentWindow = ALIGNMENT_DEFAULT_WINDOW;
 
         public int getScanDelay() {
             return scanDelay;
@@ -141,6 +434,145 @@ public class Configuration {
             this.scanDelay = scanDelay;
         }
 
+        /**
+         * @return True if the scan delay adapts to the environment changes, false if not
+         */
+        public boolean isAdaptiveScan() {
+            return adaptiveScan;
+        }
+
+        /**
+         * Enable or disable the adaptive scan. When enabled the scan delay moves between
+         * {@link #getScanDelay()} and {@link #getMaxScanDelay()}, backing off when the scans
+         * don't change and tightening when they change. Scan requests are limited to
+         * {@link #getScanBudget()} requests every {@link #getScanBudgetWindow()} ms and stale
+         * results returned by a throttled scan are not delivered
+         *
+         * @param adaptiveScan True to enable the adaptive scan
+         */
+        public void setAdaptiveScan(boolean adaptiveScan) {
+            this.adaptiveScan = adaptiveScan;
+        }
+
+        public int getMaxScanDelay() {
+            return maxScanDelay;
+        }
+
+        /**
+         * Set the maximum delay between scans when the adaptive scan is enabled
+         *
+         * @param maxScanDelay Delay in milliseconds
+         */
+        public void setMaxScanDelay(int maxScanDelay) {
+            this.maxScanDelay = maxScanDelay;
+        }
+
+        public int getScanBudget() {
+            return scanBudget;
+        }
+
+        /**
+         * Set the maximum number of scan requests allowed inside the scan budget window
+         *
+         * @param scanBudget Number of scan requests
+         */
+        public void setScanBudget(int scanBudget) {
+            this.scanBudget = scanBudget;
+        }
+
+        public long getScanBudgetWindow() {
+            return scanBudgetWindow;
+        }
+
+        /**
+         * Set the duration of the scan budget window
+         *
+         * @param scanBudgetWindow Window duration in milliseconds
+         */
+        public void setScanBudgetWindow(long scanBudgetWindow) {
+            this.scanBudgetWindow = scanBudgetWindow;
+        }
+
+        /**
+         * @return True if the wifi receiver waits for scans requested by the system or other
+         * apps, false if it requests the scans by itself
+         */
+        public boolean isPassiveScan() {
+            return passiveScan;
+        }
+
+        /**
+         * Enable or disable the passive scan. When enabled the wifi scans requested by the system
+         * or other apps are delivered, and a scan is only requested when no fresh scan results
+         * were received in the last {@link #getMaxStaleness()} ms
+         *
+         * @param passiveScan True to enable the passive scan
+         */
+        public void setPassiveScan(boolean passiveScan) {
+            this.passiveScan = passiveScan;
+        }
+
+        public long getMaxStaleness() {
+            return maxStaleness;
+        }
+
+        /**
+         * Set the maximum age of the last received scan results before requesting a new scan
+         * when the passive scan is enabled
+         *
+         * @param maxStaleness Maximum age in milliseconds
+         */
+        public void setMaxStaleness(long maxStaleness) {
+            this.maxStaleness = maxStaleness;
+        }
+
+        /**
+         * @return True if the wifi scans are delivered as deltas to the
+         * {@link PhoneTracker.WifiDeltaListener}, false if not
+         */
+        public boolean isDeltaMode() {
+            return deltaMode;
+        }
+
+        /**
+         * Enable or disable the delta mode. When enabled, only the access points added, removed
+         * or changed since the previous scan are delivered to the
+         * {@link PhoneTracker.WifiDeltaListener}
+         *
+         * @param deltaMode True to enable the delta mode
+         */
+        public void setDeltaMode(boolean deltaMode) {
+            this.deltaMode = deltaMode;
+        }
+
+        public int getRssiChangeThreshold() {
+            return rssiChangeThreshold;
+        }
+
+        /**
+         * Set the minimum RSSI variation, in dBm, needed to report an access point as changed
+         * when the delta mode is enabled
+         *
+         * @param rssiChangeThreshold Threshold in dBm
+         */
+        public void setRssiChangeThreshold(int rssiChangeThreshold) {
+            this.rssiChangeThreshold = rssiChangeThreshold;
+        }
+
+        public int getAlignmentWindow() {
+            return alignmentWindow;
+        }
+
+        /**
+         * Set how late a wifi scan can be done to share the wakeup of the other sensors. Zero
+         * to always scan on time
+         *
+         * @param alignmentWindow Window in milliseconds
+         */
+        public void setAlignmentWindow(int alignmentWindow) {
+            this.alignmentWindow = alignmentWindow;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -148,12 +580,31 @@ public class Configuration {
 
             Wifi wifi = (Wifi) o;
 
-            return scanDelay == wifi.scanDelay;
+            if (scanDelay != wifi.scanDelay) return false;
+            if (deltaMode != wifi.deltaMode) return false;
+            if (rssiChangeThreshold != wifi.rssiChangeThreshold) return false;
+            if (adaptiveScan != wifi.adaptiveScan) return false;
+            if (maxScanDelay != wifi.maxScanDelay) return false;
+            if (scanBudget != wifi.scanBudget) return false;
+            if (scanBudgetWindow != wifi.scanBudgetWindow) return false;
+            if (passiveScan != wifi.passiveScan) return false;
+            if (maxStaleness != wifi.maxStaleness) return false;
+            return alignmentWindow == wifi.alignmentWindow;
         }
 
         @Override
         public int hashCode() {
-            return scanDelay;
+            int result = scanDelay;
+            result = 31 * result + (deltaMode ? 1 : 0);
+            result = 31 * result + rssiChangeThreshold;
+            result = 31 * result + (adaptiveScan ? 1 : 0);
+            result = 31 * result + maxScanDelay;
+            result = 31 * result + scanBudget;
+            result = 31 * result + (int) (scanBudgetWindow ^ (scanBudgetWindow >>> 32));
+            result = 31 * result + (passiveScan ? 1 : 0);
+            result = 31 * result + (int) (maxStaleness ^ (maxStaleness >>> 32));
+            result = 31 * result + alignmentWindow;
+            return result;
         }
     }
 
@@ -162,8 +613,13 @@ public class Configuration {
      */
     public static class Cell {
         private static final int SCAN_DEFAULT_DELAY = 7000;
+        private static final int HEARTBEAT_DEFAULT_DELAY = 60000;
+        private static final int ALIGNMENT_DEFAULT_WINDOW = 2000;
 
         private int scanDelay = SCAN_DEFAULT_DELAY;
+        private boolean eventDriven;
+        private int heartbeatDelay = HEARTBEAT_DEFAULT_DELAY;
+        private int alignmentWindow = ALIGNMENT_DEFAULT_WINDOW;
 
         public int getScanDelay() {
             return scanDelay;
@@ -173,6 +629,54 @@ public class Configuration {
             this.scanDelay = scanDelay;
         }
 
+        /**
+         * @return True if the cells are scanned when the telephony service notifies changes,
+         * false if they are polled every {@link #getScanDelay()} ms
+         */
+        public boolean isEventDriven() {
+            return eventDriven;
+        }
+
+        /**
+         * Enable or disable the event driven mode. When enabled, the cells are scanned when the
+         * telephony service notifies a cell info or cell location change, and polled every
+         * {@link #getHeartbeatDelay()} ms as fallback. Scans where the cells and their signal
+         * levels didn't change are not delivered. Only available in android >= 4.2, older
+         * versions always poll the cells
+         *
+         * @param eventDriven True to enable the event driven mode
+         */
+        public void setEventDriven(boolean eventDriven) {
+            this.eventDriven = eventDriven;
+        }
+
+        public int getHeartbeatDelay() {
+            return heartbeatDelay;
+        }
+
+        /**
+         * Set the delay of the fallback cell polling when the event driven mode is enabled
+         *
+         * @param heartbeatDelay Delay in milliseconds
+         */
+        public void setHeartbeatDelay(int heartbeatDelay) {
+            this.heartbeatDelay = heartbeatDelay;
+        }
+
+        public int getAlignmentWindow() {
+            return alignmentWindow;
+        }
+
+        /**
+         * Set how late a cell poll can be done to share the wakeup of the other sensors. Zero
+         * to always poll on time
+         *
+         * @param alignmentWindow Window in milliseconds
+         */
+        public void setAlignmentWindow(int alignmentWindow) {
+            this.alignmentWindow = alignmentWindow;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -180,12 +684,19 @@ public class Configuration {
 
             Cell cell = (Cell) o;
 
-            return scanDelay == cell.scanDelay;
+            if (scanDelay != cell.scanDelay) return false;
+            if (eventDriven != cell.eventDriven) return false;
+            if (heartbeatDelay != cell.heartbeatDelay) return false;
+            return alignmentWindow == cell.alignmentWindow;
         }
 
         @Override
         public int hashCode() {
-            return scanDelay;
+            int result = scanDelay;
+            result = 31 * result + (eventDriven ? 1 : 0);
+            result = 31 * result + heartbeatDelay;
+            result = 31 * result + alignmentWindow;
+            return result;
         }
     }
 
@@ -195,9 +706,23 @@ public class Configuration {
     public static class Gps {
         private static final long MIN_TIME_UPDATES = 5000;
         private static final float MIN_DISTANCE_UPDATES = 5;
+        private static final long FIX_DEFAULT_WINDOW = 30000;
+        private static final long GPS_DEFAULT_SUSPEND_TIMEOUT = 60000;
+        private static final long GPS_DEFAULT_RESUME_DELAY = 300000;
+        private static final long STATIONARY_DEFAULT_MIN_TIME = 120000;
+        private static final long WALKING_DEFAULT_MIN_TIME = 5000;
+        private static final long DRIVING_DEFAULT_MIN_TIME = 1000;
 
         private long minTimeUpdate = MIN_TIME_UPDATES;
         private float minDistanceUpdate = MIN_DISTANCE_UPDATES;
+        private boolean fused;
+        private long fixWindow = FIX_DEFAULT_WINDOW;
+        private long gpsSuspendTimeout = GPS_DEFAULT_SUSPEND_TIMEOUT;
+        private long gpsResumeDelay = GPS_DEFAULT_RESUME_DELAY;
+        private boolean adaptiveInterval;
+        private long stationaryMinTime = STATIONARY_DEFAULT_MIN_TIME;
+        private long walkingMinTime = WALKING_DEFAULT_MIN_TIME;
+        private long drivingMinTime = DRIVING_DEFAULT_MIN_TIME;
 
         public long getMinTimeUpdate() {
             return minTimeUpdate;
@@ -215,22 +740,833 @@ public class Configuration {
             this.minDistanceUpdate = minDistanceUpdate;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+        /**
+         * @return True if the gps, network and passive providers are used at the same time,
+         * false if only one provider is used
+         */
+        public boolean isFused() {
+            return fused;
+        }
 
-            Gps gps = (Gps) o;
+        /**
+         * Enable or disable the fused mode. When enabled the gps, network and passive providers
+         * are registered at the same time and only the best location is delivered: a location
+         * is dropped when it is less accurate than the last delivered one inside the fix window,
+         * or when it is a copy of it. The gps provider is suspended when it doesn't produce a
+         * location in {@link #getGpsSuspendTimeout()} ms while the network provider does, and
+         * it is registered again after {@link #getGpsResumeDelay()} ms
+         *
+         * @param fused True to enable the fused mode
+         */
+        public void setFused(boolean fused) {
+            this.fused = fused;
+        }
 
-            if (minTimeUpdate != gps.minTimeUpdate) return false;
-            return minDistanceUpdate == gps.minDistanceUpdate;
+        public long getFixWindow() {
+            return fixWindow;
         }
 
-        @Override
-        public int hashCode() {
-            int result = (int) (minTimeUpdate ^ (minTimeUpdate >>> 32));
-            result = 31 * result + (minDistanceUpdate != +0.0f
-                    ? Float.floatToIntBits(minDistanceUpdate) : 0);
+        /**
+         * Set the time window where a less accurate location is not delivered in fused mode
+         *
+         * @param fixWindow Window in milliseconds
+         */
+        public void setFixWindow(long fixWindow) {
+            this.fixWindow = fixWindow;
+        }
+
+        public long getGpsSuspendTimeout() {
+            return gpsSuspendTimeout;
+        }
+
+        /**
+         * Set the time without gps locations to suspend the gps provider in fused mode
+         *
+         * @param gpsSuspendTimeout Timeout in milliseconds
+         */
+        public void setGpsSuspendTimeout(long gpsSuspendTimeout) {
+            this.gpsSuspendTimeout = gpsSuspendTimeout;
+        }
+
+        public long getGpsResumeDelay() {
+            return gpsResumeDelay;
+        }
+
+        /**
+         * Set the time the gps provider stays suspended in fused mode before trying again
+         *
+         * @param gpsResumeDelay Delay in milliseconds
+         */
+        public void setGpsResumeDelay(long gpsResumeDelay) {
+            this.gpsResumeDelay = gpsResumeDelay;
+        }
+
+        /**
+         * @return True if the time between updates depends on the speed of the device, false
+         * if {@link #getMinTimeUpdate()} is always used
+         */
+        public boolean isAdaptiveInterval() {
+            return adaptiveInterval;
+        }
+
+        /**
+         * Enable or disable the adaptive interval. When enabled the observed speed classifies
+         * the device as stationary, walking or driving, and the minimum time between updates
+         * of that speed band is used instead of {@link #getMinTimeUpdate()}. The providers are
+         * only registered again when the speed band changes
+         *
+         * @param adaptiveInterval True to enable the adaptive interval
+         */
+        public void setAdaptiveInterval(boolean adaptiveInterval) {
+            this.adaptiveInterval = adaptiveInterval;
+        }
+
+        public long getStationaryMinTime() {
+            return stationaryMinTime;
+        }
+
+        /**
+         * @param stationaryMinTime Minimum time between updates when stationary, in ms
+         */
+        public void setStationaryMinTime(long stationaryMinTime) {
+            this.stationaryMinTime = stationaryMinTime;
+        }
+
+        public long getWalkingMinTime() {
+            return walkingMinTime;
+        }
+
+        /**
+         * @param walkingMinTime Minimum time between updates when walking, in ms
+         */
+        public void setWalkingMinTime(long walkingMinTime) {
+            this.walkingMinTime = walkingMinTime;
+        }
+
+        public long getDrivingMinTime() {
+            return drivingMinTime;
+        }
+
+        /**
+         * @param drivingMinTime Minimum time between updates when driving, in ms
+         */
+        public void setDrivingMinTime(long drivingMinTime) {
+            this.drivingMinTime = drivingMinTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Gps gps = (Gps) o;
+
+            if (minTimeUpdate != gps.minTimeUpdate) return false;
+            if (minDistanceUpdate != gps.minDistanceUpdate) return false;
+            if (fused != gps.fused) return false;
+            if (fixWindow != gps.fixWindow) return false;
+            if (gpsSuspendTimeout != gps.gpsSuspendTimeout) return false;
+            if (gpsResumeDelay != gps.gpsResumeDelay) return false;
+            if (adaptiveInterval != gps.adaptiveInterval) return false;
+            if (stationaryMinTime != gps.stationaryMinTime) return false;
+            if (walkingMinTime != gps.walkingMinTime) return false;
+            return drivingMinTime == gps.drivingMinTime;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (minTimeUpdate ^ (minTimeUpdate >>> 32));
+            result = 31 * result + (minDistanceUpdate != +0.0f
+                    ? Float.floatToIntBits(minDistanceUpdate) : 0);
+            result = 31 * result + (fused ? 1 : 0);
+            result = 31 * result + (int) (fixWindow ^ (fixWindow >>> 32));
+            result = 31 * result + (int) (gpsSuspendTimeout ^ (gpsSuspendTimeout >>> 32));
+            result = 31 * result + (int) (gpsResumeDelay ^ (gpsResumeDelay >>> 32));
+            result = 31 * result + (adaptiveInterval ? 1 : 0);
+            result = 31 * result + (int) (stationaryMinTime ^ (stationaryMinTime >>> 32));
+            result = 31 * result + (int) (walkingMinTime ^ (walkingMinTime >>> 32));
+            result = 31 * result + (int) (drivingMinTime ^ (drivingMinTime >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * Batch configuration. A batch is delivered when it has {@link #getMaxBatchSize()}
+     * observations, when its first observation is older than {@link #getMaxLatency()} ms, or
+     * when the tracker is stopped
+     */
+    public static class Batch {
+        private static final int MAX_DEFAULT_BATCH_SIZE = 20;
+        private static final long MAX_DEFAULT_LATENCY = 60000;
+
+        private int maxBatchSize = MAX_DEFAULT_BATCH_SIZE;
+        private long maxLatency = MAX_DEFAULT_LATENCY;
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * @param maxBatchSize Max number of observations of each sensor in a batch
+         */
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * @param maxLatency Max time in milliseconds an observation waits to be delivered
+         */
+        public void setMaxLatency(long maxLatency) {
+            this.maxLatency = maxLatency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Batch batch = (Batch) o;
+
+            if (maxBatchSize != batch.maxBatchSize) return false;
+            return maxLatency == batch.maxLatency;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = maxBatchSize;
+            result = 31 * result + (int) (maxLatency ^ (maxLatency >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * Environment snapshot configuration. The observations are grouped in windows of
+     * {@link #getWindow()} ms of their elapsed realtime, and each window is delivered when the
+     * newest observation is {@link #getAllowedLateness()} ms past its end. Observations that
+     * arrive after their window was delivered are dropped
+     */
+    public static class Snapshot {
+        private static final long DEFAULT_WINDOW = 10000;
+        private static final long DEFAULT_ALLOWED_LATENESS = 5000;
+
+        private long window = DEFAULT_WINDOW;
+        private long allowedLateness = DEFAULT_ALLOWED_LATENESS;
+
+        public long getWindow() {
+            return window;
+        }
+
+        /**
+         * @param window Duration of the snapshot windows in milliseconds
+         */
+        public void setWindow(long window) {
+            this.window = window;
+        }
+
+        public long getAllowedLateness() {
+            return allowedLateness;
+        }
+
+        /**
+         * @param allowedLateness Time in milliseconds a window waits for late observations
+         */
+        public void setAllowedLateness(long allowedLateness) {
+            this.allowedLateness = allowedLateness;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Snapshot snapshot = (Snapshot) o;
+
+            if (window != snapshot.window) return false;
+            return allowedLateness == snapshot.allowedLateness;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (window ^ (window >>> 32));
+            result = 31 * result + (int) (allowedLateness ^ (allowedLateness >>> 32));
+            return result;
+        }
+    }
+
+    /**
+     * Journal configuration. The journal keeps at most {@link #getMaxSegments()} segment files
+     * of {@link #getSegmentSize()} bytes, deleting the oldest ones
+     */
+    public static class Journal {
+        private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+        private static final int DEFAULT_MAX_SEGMENTS = 8;
+
+        private final File directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private int maxSegments = DEFAULT_MAX_SEGMENTS;
+
+        /**
+         * @param directory Directory of the journal files, created if needed
+         */
+        public Journal(@NonNull File directory) {
+            this.directory = directory;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        /**
+         * @param segmentSize Size in bytes of each segment file. Changing it starts a new
+         *                    segment
+         */
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        /**
+         * @param maxSegments Max number of segment files kept
+         */
+        public void setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Journal journal = (Journal) o;
+
+            if (segmentSize != journal.segmentSize) return false;
+            if (maxSegments != journal.maxSegments) return false;
+            return directory.equals(journal.directory);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = directory.hashCode();
+            result = 31 * result + segmentSize;
+            result = 31 * result + maxSegments;
+            return result;
+        }
+    }
+
+    /**
+     * Upload configuration. The observations are encoded with {@link ObservationEncoder} in
+     * batches of at most {@link #getMaxBatchSize()} observations or
+     * {@link #getMaxBatchBytes()} bytes, sent when full or when the first observation is older
+     * than {@link #getMaxLatency()} ms. Each batch is compressed with gzip, stored in the
+     * upload directory and posted to the endpoint. Failed uploads are retried with exponential
+     * backoff from {@link #getInitialBackoff()} to {@link #getMaxBackoff()} ms
+     */
+    public static class Upload {
+        private static final int DEFAULT_MAX_BATCH_SIZE = 500;
+        private static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+        private static final long DEFAULT_MAX_LATENCY = 5 * 60000;
+        private static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 2;
+        private static final int DEFAULT_MAX_PENDING_BATCHES = 100;
+        private static final long DEFAULT_INITIAL_BACKOFF = 10000;
+        private static final long DEFAULT_MAX_BACKOFF = 30 * 60000;
+        private static final int DEFAULT_TIMEOUT = 30000;
+
+        private final String endpoint;
+        private final File directory;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+        private long maxLatency = DEFAULT_MAX_LATENCY;
+        private int maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+        private int maxPendingBatches = DEFAULT_MAX_PENDING_BATCHES;
+        private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private long maxBackoff = DEFAULT_MAX_BACKOFF;
+        private int timeout = DEFAULT_TIMEOUT;
+
+        /**
+         * @param endpoint  HTTP url where the batches are posted
+         * @param directory Directory of the batches pending to upload, created if needed
+         * @throws IllegalArgumentException If the endpoint is not a valid url
+         */
+        public Upload(@NonNull String endpoint, @NonNull File directory) {
+            try {
+                new URL(endpoint);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid upload endpoint " + endpoint, e);
+            }
+            this.endpoint = endpoint;
+            this.directory = directory;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * @param maxBatchSize Max number of observations in a batch
+         */
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public int getMaxBatchBytes() {
+            return maxBatchBytes;
+        }
+
+        /**
+         * @param maxBatchBytes Size in bytes of the encoded observations, before compressing
+         *                      them, that completes a batch
+         */
+        public void setMaxBatchBytes(int maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * @param maxLatency Max time in milliseconds an observation waits for its batch to be
+         *                   completed
+         */
+        public void setMaxLatency(long maxLatency) {
+            this.maxLatency = maxLatency;
+        }
+
+        public int getMaxConcurrentUploads() {
+            return maxConcurrentUploads;
+        }
+
+        /**
+         * @param maxConcurrentUploads Max number of batches posted at the same time
+         */
+        public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+            this.maxConcurrentUploads = maxConcurrentUploads;
+        }
+
+        public int getMaxPendingBatches() {
+            return maxPendingBatches;
+        }
+
+        /**
+         * @param maxPendingBatches Max number of batches stored while they can't be uploaded.
+         *                          The oldest ones are deleted
+         */
+        public void setMaxPendingBatches(int maxPendingBatches) {
+            this.maxPendingBatches = maxPendingBatches;
+        }
+
+        public long getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        /**
+         * @param initialBackoff Time in milliseconds to wait after the first failed upload
+         */
+        public void setInitialBackoff(long initialBackoff) {
+            this.initialBackoff = initialBackoff;
+        }
+
+        public long getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        /**
+         * @param maxBackoff Max time in milliseconds to wait between failed uploads
+         */
+        public void setMaxBackoff(long maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+
+        public int getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * @param timeout Connect and read timeout in milliseconds of each upload
+         */
+        public void setTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Upload upload = (Upload) o;
+
+            if (maxBatchSize != upload.maxBatchSize) return false;
+            if (maxBatchBytes != upload.maxBatchBytes) return false;
+            if (maxLatency != upload.maxLatency) return false;
+            if (maxConcurrentUploads != upload.maxConcurrentUploads) return false;
+            if (maxPendingBatches != upload.maxPendingBatches) return false;
+            if (initialBackoff != upload.initialBackoff) return false;
+            if (maxBackoff != upload.maxBackoff) return false;
+            if (timeout != upload.timeout) return false;
+            if (!endpoint.equals(upload.endpoint)) return false;
+            return directory.equals(upload.directory);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = endpoint.hashCode();
+            result = 31 * result + directory.hashCode();
+            result = 31 * result + maxBatchSize;
+            result = 31 * result + maxBatchBytes;
+            result = 31 * result + (int) (maxLatency ^ (maxLatency >>> 32));
+            result = 31 * result + maxConcurrentUploads;
+            result = 31 * result + maxPendingBatches;
+            result = 31 * result + (int) (initialBackoff ^ (initialBackoff >>> 32));
+            result = 31 * result + (int) (maxBackoff ^ (maxBackoff >>> 32));
+            result = 31 * result + timeout;
+            return result;
+        }
+    }
+
+    /**
+     * Replay configuration. The observations of the trace are delivered at the pace they were
+     * recorded, or as fast as possible if the real time is disabled
+     */
+    public static class Replay {
+        private final File trace;
+        private boolean realTime = true;
+
+        /**
+         * @param trace Trace file recorded with {@link Builder#recordTrace(File)}
+         */
+        public Replay(@NonNull File trace) {
+            this.trace = trace;
+        }
+
+        public File getTrace() {
+            return trace;
+        }
+
+        public boolean isRealTime() {
+            return realTime;
+        }
+
+        /**
+         * @param realTime True to deliver the observations at the pace they were recorded,
+         *                 false to deliver them as fast as possible
+         */
+        public void setRealTime(boolean realTime) {
+            this.realTime = realTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Replay replay = (Replay) o;
+
+            if (realTime != replay.realTime) return false;
+            return trace.equals(replay.trace);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = trace.hashCode();
+            result = 31 * result + (realTime ? 1 : 0);
+            return result;
+        }
+    }
+
+    /**
+     * Energy cost model. The defaults are rough values of a typical phone, measure the
+     * consumption of your devices to get accurate estimations. Energies are in millijoules and
+     * powers in milliwatts. The passive provider has no cost, the other apps pay for its
+     * locations
+     */
+    public static class Energy {
+        private static final float WIFI_SCAN_DEFAULT_ENERGY = 150;
+        private static final float CELL_POLL_DEFAULT_ENERGY = 10;
+        private static final float WAKEUP_DEFAULT_ENERGY = 5;
+        private static final float GPS_DEFAULT_POWER = 350;
+        private static final float NETWORK_DEFAULT_POWER = 40;
+
+        private float wifiScanEnergy = WIFI_SCAN_DEFAULT_ENERGY;
+        private float cellPollEnergy = CELL_POLL_DEFAULT_ENERGY;
+        private float wakeupEnergy = WAKEUP_DEFAULT_ENERGY;
+        private float gpsPower = GPS_DEFAULT_POWER;
+        private float networkPower = NETWORK_DEFAULT_POWER;
+
+        public float getWifiScanEnergy() {
+            return wifiScanEnergy;
+        }
+
+        /**
+         * @param wifiScanEnergy Energy of an active wifi scan, in millijoules
+         */
+        public void setWifiScanEnergy(float wifiScanEnergy) {
+            this.wifiScanEnergy = wifiScanEnergy;
+        }
+
+        public float getCellPollEnergy() {
+            return cellPollEnergy;
+        }
+
+        /**
+         * @param cellPollEnergy Energy of a query of the cells to the modem, in millijoules
+         */
+        public void setCellPollEnergy(float cellPollEnergy) {
+            this.cellPollEnergy = cellPollEnergy;
+        }
+
+        public float getWakeupEnergy() {
+            return wakeupEnergy;
+        }
+
+        /**
+         * @param wakeupEnergy Energy of waking up the sensor looper to run a task or receive a
+         *                     callback, in millijoules
+         */
+        public void setWakeupEnergy(float wakeupEnergy) {
+            this.wakeupEnergy = wakeupEnergy;
+        }
+
+        public float getGpsPower() {
+            return gpsPower;
+        }
+
+        /**
+         * @param gpsPower Power of the gps provider while registered, in milliwatts
+         */
+        public void setGpsPower(float gpsPower) {
+            this.gpsPower = gpsPower;
+        }
+
+        public float getNetworkPower() {
+            return networkPower;
+        }
+
+        /**
+         * @param networkPower Power of the network provider while registered, in milliwatts
+         */
+        public void setNetworkPower(float networkPower) {
+            this.networkPower = networkPower;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Energy energy = (Energy) o;
+
+            if (wifiScanEnergy != energy.wifiScanEnergy) return false;
+            if (cellPollEnergy != energy.cellPollEnergy) return false;
+            if (wakeupEnergy != energy.wakeupEnergy) return false;
+            if (gpsPower != energy.gpsPower) return false;
+            return networkPower == energy.networkPower;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (wifiScanEnergy != +0.0f ? Float.floatToIntBits(wifiScanEnergy) : 0);
+            result = 31 * result + (cellPollEnergy != +0.0f
+                    ? Float.floatToIntBits(cellPollEnergy) : 0);
+            result = 31 * result + (wakeupEnergy != +0.0f
+                    ? Float.floatToIntBits(wakeupEnergy) : 0);
+            result = 31 * result + (gpsPower != +0.0f ? Float.floatToIntBits(gpsPower) : 0);
+            result = 31 * result + (networkPower != +0.0f
+                    ? Float.floatToIntBits(networkPower) : 0);
+            return result;
+        }
+    }
+
+    /**
+     * Background configuration. In background the sensors are only scanned during a
+     * collection window of {@link #getCollectionTime()} ms every {@link #getInterval()} ms.
+     * The system can run each window up to {@link #getFlex()} ms earlier to batch it with the
+     * work of other apps, and delays them while the device is in doze
+     */
+    public static class Background {
+        private static final long DEFAULT_INTERVAL = 15 * 60000;
+        private static final long DEFAULT_FLEX = 5 * 60000;
+        private static final long DEFAULT_COLLECTION_TIME = 10000;
+        private static final int DEFAULT_JOB_ID = 0x50545243;
+
+        private long interval = DEFAULT_INTERVAL;
+        private long flex = DEFAULT_FLEX;
+        private long collectionTime = DEFAULT_COLLECTION_TIME;
+        private int jobId = DEFAULT_JOB_ID;
+
+        public long getInterval() {
+            return interval;
+        }
+
+        /**
+         * @param interval Time between collection windows in milliseconds. The job scheduler
+         *                 doesn't run them more often than every 15 minutes
+         */
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        public long getFlex() {
+            return flex;
+        }
+
+        /**
+         * @param flex Milliseconds at the end of each interval where the window can run
+         */
+        public void setFlex(long flex) {
+            this.flex = flex;
+        }
+
+        public long getCollectionTime() {
+            return collectionTime;
+        }
+
+        /**
+         * @param collectionTime Milliseconds the sensors are scanned in each window. It must
+         *                       be long enough to receive the wifi scan results and the first
+         *                       location
+         */
+        public void setCollectionTime(long collectionTime) {
+            this.collectionTime = collectionTime;
+        }
+
+        public int getJobId() {
+            return jobId;
+        }
+
+        /**
+         * @param jobId Id of the job of the collection windows, change it if the app uses the
+         *              same id for other jobs. Each tracker in background needs its own id
+         */
+        public void setJobId(int jobId) {
+            this.jobId = jobId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Background that = (Background) o;
+
+            if (interval != that.interval) return false;
+            if (flex != that.flex) return false;
+            if (collectionTime != that.collectionTime) return false;
+            return jobId == that.jobId;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (interval ^ (interval >>> 32));
+            result = 31 * result + (int) (flex ^ (flex >>> 32));
+            result = 31 * result + (int) (collectionTime ^ (collectionTime >>> 32));
+            result = 31 * result + jobId;
+            return result;
+        }
+    }
+
+    /**
+     * Stationary detection configuration. The device is stationary when the motion sensors
+     * don't detect motion in {@link #getStillTime()} ms and the last
+     * {@link #getStableScans()} wifi scans see the same access points. Any motion ends the
+     * stationary state at once
+     */
+    public static class Stationary {
+        private static final long DEFAULT_STILL_TIME = 120000;
+        private static final int DEFAULT_STABLE_SCANS = 3;
+        private static final int DEFAULT_INTERVAL_MULTIPLIER = 6;
+        private static final float DEFAULT_MOTION_THRESHOLD = 0.5f;
+
+        private long stillTime = DEFAULT_STILL_TIME;
+        private int stableScans = DEFAULT_STABLE_SCANS;
+        private int intervalMultiplier = DEFAULT_INTERVAL_MULTIPLIER;
+        private float motionThreshold = DEFAULT_MOTION_THRESHOLD;
+
+        public long getStillTime() {
+            return stillTime;
+        }
+
+        /**
+         * @param stillTime Milliseconds without motion to consider the device stationary
+         */
+        public void setStillTime(long stillTime) {
+            this.stillTime = stillTime;
+        }
+
+        public int getStableScans() {
+            return stableScans;
+        }
+
+        /**
+         * @param stableScans Consecutive wifi scans that must see the same access points. Only
+         *                    used if the wifi is scanned
+         */
+        public void setStableScans(int stableScans) {
+            this.stableScans = stableScans;
+        }
+
+        public int getIntervalMultiplier() {
+            return intervalMultiplier;
+        }
+
+        /**
+         * @param intervalMultiplier Factor applied to the delay between the wifi and cell scans
+         *                           while the device is stationary
+         */
+        public void setIntervalMultiplier(int intervalMultiplier) {
+            this.intervalMultiplier = intervalMultiplier;
+        }
+
+        public float getMotionThreshold() {
+            return motionThreshold;
+        }
+
+        /**
+         * @param motionThreshold Minimum variation of the acceleration in m/s2 detected as
+         *                        motion. Only used in devices without significant motion sensor
+         */
+        public void setMotionThreshold(float motionThreshold) {
+            this.motionThreshold = motionThreshold;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Stationary that = (Stationary) o;
+
+            if (stillTime != that.stillTime) return false;
+            if (stableScans != that.stableScans) return false;
+            if (intervalMultiplier != that.intervalMultiplier) return false;
+            return motionThreshold == that.motionThreshold;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (stillTime ^ (stillTime >>> 32));
+            result = 31 * result + stableScans;
+            result = 31 * result + intervalMultiplier;
+            result = 31 * result + (motionThreshold != +0.0f
+                    ? Float.floatToIntBits(motionThreshold) : 0);
             return result;
         }
     }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher of the observations of one sensor. The observations are hot: each one is emitted
+ * to the subscribers with outstanding demand when it is received, and the subscribers without
+ * demand don't receive it. The items are emitted from the sensor looper.
+ * <p>
+ * As a {@link ScanGate}, the publisher is open while any subscriber has outstanding demand, so
+ * in demand driven mode the sensors are only scanned when some subscriber can take the result.
+ *
+ * @param <T> Observation type
+ */
+class DemandPublisher<T extends Observation> implements Publisher<T>, ScanGate {
+
+    private final List<DemandSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private volatile Runnable demandListener;
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber can't be null");
+        }
+        final DemandSubscription subscription = new DemandSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (!subscription.cancelled) {
+            subscriptions.add(subscription);
+        }
+    }
+
+    /**
+     * Set the listener called when any subscriber passes from no demand to outstanding demand.
+     * It is called from the thread that requested the items
+     *
+     * @param demandListener Listener, can be null
+     */
+    void setDemandListener(Runnable demandListener) {
+        this.demandListener = demandListener;
+    }
+
+    @Override
+    public boolean isOpen() {
+        for (DemandSubscription subscription : subscriptions) {
+            if (subscription.demand.get() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if any subscriber is subscribed, false if not
+     */
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Emit the observation to the subscribers with outstanding demand. Must be called always
+     * from the same thread
+     *
+     * @param observation Observation
+     */
+    void emit(T observation) {
+        for (DemandSubscription subscription : subscriptions) {
+            if (subscription.take()) {
+                subscription.subscriber.onNext(observation);
+            }
+        }
+    }
+
+    private class DemandSubscription implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private volatile boolean cancelled;
+
+        DemandSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException(
+                        "Requested items must be positive, got " + n));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                if (current == Long.MAX_VALUE) {
+                    return;
+                }
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+
+            final Runnable listener = demandListener;
+            if (current == 0 && listener != null) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            demand.set(0);
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Take one item of the demand
+         *
+         * @return True if the subscriber can receive an item, false if not
+         */
+        private boolean take() {
+            long current;
+            do {
+                current = demand.get();
+                if (current == 0 || cancelled) {
+                    return false;
+                }
+                if (current == Long.MAX_VALUE) {
+                    return true;
+                }
+            } while (!demand.compareAndSet(current, current - 1));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.location.LocationManager;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the work done by the receivers that consumes energy: the wakeups of the sensor
+ * looper, the active wifi scans, the cell polls and the time each location provider is
+ * registered. The passive provider doesn't power any radio, so its time is reported but costs
+ * nothing. The work is priced with the cost model in use when it was done: changing the model
+ * settles the energy accrued until then. The receivers call it from the sensor looper, and the
+ * {@link EnergyReport} can be taken from any thread
+ */
+final class EnergyAccountant {
+
+    static final int PROVIDER_GPS = 0;
+    static final int PROVIDER_NETWORK = 1;
+    static final int PROVIDER_PASSIVE = 2;
+    static final int PROVIDERS = 3;
+
+    private static final int WAKEUPS = 0;
+    private static final int RADIO_WAKEUPS = TrackerMetrics.SENSORS;
+    private static final int OBSERVATIONS = 2 * TrackerMetrics.SENSORS;
+    private static final int COUNTERS = 3 * TrackerMetrics.SENSORS;
+
+    private final Clock clock;
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+
+    // guarded by this
+    private final long[] providerOnTime = new long[PROVIDERS];
+    private final long[] providerStart = {-1, -1, -1};
+    private long start;
+    private Configuration.Energy model;
+    // the work already priced with a previous model, and its energy
+    private final long[] settledCounters = new long[COUNTERS];
+    private final long[] settledOnTime = new long[PROVIDERS];
+    private final double[] settledEnergy = new double[TrackerMetrics.SENSORS];
+
+    /**
+     * @param clock Clock of the provider times
+     * @param model Cost model
+     */
+    EnergyAccountant(Clock clock, Configuration.Energy model) {
+        this.clock = clock;
+        this.model = model;
+        this.start = clock.elapsedRealtime();
+    }
+
+    /**
+     * Price the work done until now with the current cost model, and the work done from now
+     * with the given one
+     *
+     * @param model New cost model
+     */
+    synchronized void setModel(Configuration.Energy model) {
+        if (model.equals(this.model)) {
+            return;
+        }
+        final long[] counts = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            counts[i] = counters.get(i);
+        }
+        final long[] onTime = onTime(clock.elapsedRealtime(), false);
+        addEnergy(settledEnergy, counts, onTime);
+        System.arraycopy(counts, 0, settledCounters, 0, COUNTERS);
+        System.arraycopy(onTime, 0, settledOnTime, 0, PROVIDERS);
+        this.model = model;
+    }
+
+    /**
+     * The sensor looper was woken up to run a task or to receive a callback of the platform
+     *
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     */
+    void onWakeup(int sensor) {
+        counters.incrementAndGet(WAKEUPS + sensor);
+    }
+
+    /**
+     * An active scan or a poll of the sensor was requested to the platform
+     *
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     */
+    void onRadioWakeup(int sensor) {
+        counters.incrementAndGet(RADIO_WAKEUPS + sensor);
+    }
+
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     */
+    void onObservation(int sensor) {
+        counters.incrementAndGet(OBSERVATIONS + sensor);
+    }
+
+    /**
+     * The provider was registered. Registering it again while registered is ignored. Only the
+     * gps and network providers are radio wakeups
+     *
+     * @param provider Name of the provider
+     */
+    synchronized void onProviderStart(String provider) {
+        final int index = providerIndex(provider);
+        if (index < 0 || providerStart[index] >= 0) {
+            return;
+        }
+        providerStart[index] = clock.elapsedRealtime();
+        if (index != PROVIDER_PASSIVE) {
+            counters.incrementAndGet(RADIO_WAKEUPS + TrackerMetrics.SENSOR_GPS);
+        }
+    }
+
+    /**
+     * The provider was removed
+     *
+     * @param provider Name of the provider
+     */
+    synchronized void onProviderStop(String provider) {
+        final int index = providerIndex(provider);
+        if (index < 0 || providerStart[index] < 0) {
+            return;
+        }
+        providerOnTime[index] += clock.elapsedRealtime() - providerStart[index];
+        providerStart[index] = -1;
+    }
+
+    /**
+     * All the providers were removed
+     */
+    void onProvidersStopped() {
+        onProviderStop(LocationManager.GPS_PROVIDER);
+        onProviderStop(LocationManager.NETWORK_PROVIDER);
+        onProviderStop(LocationManager.PASSIVE_PROVIDER);
+    }
+
+    /**
+     * @param reset True to start counting again from zero
+     * @return Report of the work done since the creation or the last reset
+     */
+    synchronized EnergyReport report(boolean reset) {
+        final long now = clock.elapsedRealtime();
+        final long[] values = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            values[i] = reset ? counters.getAndSet(i, 0) : counters.get(i);
+        }
+        final long[] onTime = onTime(now, reset);
+        final long interval = now - start;
+        if (reset) {
+            start = now;
+        }
+
+        // the work since the last model change is priced with the current model
+        final double[] energy = settledEnergy.clone();
+        final long[] counts = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            counts[i] = values[i] - settledCounters[i];
+        }
+        final long[] newOnTime = new long[PROVIDERS];
+        for (int i = 0; i < PROVIDERS; i++) {
+            newOnTime[i] = onTime[i] - settledOnTime[i];
+        }
+        addEnergy(energy, counts, newOnTime);
+        if (reset) {
+            Arrays.fill(settledCounters, 0);
+            Arrays.fill(settledOnTime, 0);
+            Arrays.fill(settledEnergy, 0);
+        }
+
+        final long[] wakeups = new long[TrackerMetrics.SENSORS];
+        final long[] radioWakeups = new long[TrackerMetrics.SENSORS];
+        final long[] observations = new long[TrackerMetrics.SENSORS];
+        System.arraycopy(values, WAKEUPS, wakeups, 0, TrackerMetrics.SENSORS);
+        System.arraycopy(values, RADIO_WAKEUPS, radioWakeups, 0, TrackerMetrics.SENSORS);
+        System.arraycopy(values, OBSERVATIONS, observations, 0, TrackerMetrics.SENSORS);
+        return new EnergyReport(interval, wakeups, radioWakeups, observations, onTime, energy);
+    }
+
+    /**
+     * @param now   Current elapsed realtime
+     * @param reset True to start counting the time of the providers again from zero
+     * @return Milliseconds each provider was registered
+     */
+    private long[] onTime(long now, boolean reset) {
+        final long[] onTime = new long[PROVIDERS];
+        for (int i = 0; i < PROVIDERS; i++) {
+            onTime[i] = providerOnTime[i];
+            if (providerStart[i] >= 0) {
+                onTime[i] += now - providerStart[i];
+                if (reset) {
+                    providerStart[i] = now;
+                }
+            }
+            if (reset) {
+                providerOnTime[i] = 0;
+            }
+        }
+        return onTime;
+    }
+
+    /**
+     * Add the energy of the given work, priced with the current model
+     *
+     * @param energy Energy of each sensor in millijoules
+     * @param counts Counters of the work
+     * @param onTime Milliseconds each provider was registered
+     */
+    private void addEnergy(double[] energy, long[] counts, long[] onTime) {
+        for (int sensor = 0; sensor < TrackerMetrics.SENSORS; sensor++) {
+            energy[sensor] += counts[WAKEUPS + sensor] * (double) model.getWakeupEnergy();
+        }
+        energy[TrackerMetrics.SENSOR_WIFI] += counts[RADIO_WAKEUPS + TrackerMetrics.SENSOR_WIFI]
+                * (double) model.getWifiScanEnergy();
+        energy[TrackerMetrics.SENSOR_CELL] += counts[RADIO_WAKEUPS + TrackerMetrics.SENSOR_CELL]
+                * (double) model.getCellPollEnergy();
+        // milliwatts by milliseconds are microjoules
+        energy[TrackerMetrics.SENSOR_GPS] += (onTime[PROVIDER_GPS] * (double) model.getGpsPower()
+                + onTime[PROVIDER_NETWORK] * (double) model.getNetworkPower()) / 1000;
+    }
+
+    /**
+     * @param provider Name of the provider
+     * @return Index of the provider, -1 if unknown
+     */
+    static int providerIndex(String provider) {
+        if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            return PROVIDER_GPS;
+        }
+        if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+            return PROVIDER_NETWORK;
+        }
+        if (LocationManager.PASSIVE_PROVIDER.equals(provider)) {
+            return PROVIDER_PASSIVE;
+        }
+        return -1;
+    }
+}
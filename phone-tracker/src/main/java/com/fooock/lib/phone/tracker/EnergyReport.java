@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Estimation of the energy consumed by the sensors of the tracker, from the work they did
+ * and the {@link Configuration.Energy} cost model in use when they did it. The energy of each
+ * sensor is the energy of its wakeups plus the energy of its wifi scans, its cell polls or the
+ * power of the gps and network providers by the time they were registered. Comparing the
+ * energy per observation of two configurations in the same device shows which one is cheaper.
+ * Energies are in millijoules
+ */
+public final class EnergyReport {
+    private final long interval;
+    private final long[] wakeups;
+    private final long[] radioWakeups;
+    private final long[] observations;
+    private final long[] providerOnTime;
+    private final double[] energy;
+
+    EnergyReport(long interval, long[] wakeups, long[] radioWakeups, long[] observations,
+                 long[] providerOnTime, double[] energy) {
+        this.interval = interval;
+        this.wakeups = wakeups;
+        this.radioWakeups = radioWakeups;
+        this.observations = observations;
+        this.providerOnTime = providerOnTime;
+        this.energy = energy;
+    }
+
+    /**
+     * @return Milliseconds covered by this report
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     * @return Times the sensor looper was woken up for the sensor, to run a task or to receive
+     * a callback of the platform
+     */
+    public long getWakeups(int sensor) {
+        return wakeups[sensor];
+    }
+
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     * @return Active wifi scans, cell polls or registrations of the gps and network providers
+     */
+    public long getRadioWakeups(int sensor) {
+        return radioWakeups[sensor];
+    }
+
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     * @return Observations delivered by the sensor
+     */
+    public long getObservations(int sensor) {
+        return observations[sensor];
+    }
+
+    /**
+     * @param provider Name of the location provider
+     * @return Milliseconds the provider was registered, zero if unknown
+     */
+    public long getProviderOnTime(String provider) {
+        final int index = EnergyAccountant.providerIndex(provider);
+        return index < 0 ? 0 : providerOnTime[index];
+    }
+
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     * @return Estimated energy of the sensor in millijoules
+     */
+    public double getEnergy(int sensor) {
+        if (sensor < 0 || sensor >= TrackerMetrics.SENSORS) {
+            throw new IllegalArgumentException("Unknown sensor " + sensor);
+        }
+        return energy[sensor];
+    }
+
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     * @return Estimated energy in millijoules of each observation of the sensor, NaN if the
+     * sensor didn't deliver observations
+     */
+    public double getEnergyPerObservation(int sensor) {
+        if (observations[sensor] == 0) {
+            return Double.NaN;
+        }
+        return getEnergy(sensor) / observations[sensor];
+    }
+
+    /**
+     * @return Estimated energy of all the sensors in millijoules
+     */
+    public double getTotalEnergy() {
+        double energy = 0;
+        for (int sensor = 0; sensor < TrackerMetrics.SENSORS; sensor++) {
+            energy += getEnergy(sensor);
+        }
+        return energy;
+    }
+
+    /**
+     * @return Estimated mean power of all the sensors in milliwatts, zero if the interval is
+     * empty
+     */
+    public double getAveragePower() {
+        if (interval <= 0) {
+            return 0;
+        }
+        return getTotalEnergy() * 1000 / interval;
+    }
+}
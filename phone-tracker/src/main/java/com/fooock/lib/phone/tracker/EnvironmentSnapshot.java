@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Immutable join of the last wifi scan, cell scan and location measured in the same time
+ * window. The window is defined with the elapsed realtime of the observations, see
+ * {@link Observation#getElapsedRealtime()}
+ */
+public final class EnvironmentSnapshot {
+
+    private final long windowStart;
+    private final long windowEnd;
+    private final WifiObservation wifi;
+    private final CellObservation cell;
+    private final LocationObservation location;
+
+    EnvironmentSnapshot(long windowStart, long windowEnd, WifiObservation wifi,
+                        CellObservation cell, LocationObservation location) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.wifi = wifi;
+        this.cell = cell;
+        this.location = location;
+    }
+
+    /**
+     * @return Elapsed realtime in milliseconds where the window starts, inclusive
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return Elapsed realtime in milliseconds where the window ends, exclusive
+     */
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    /**
+     * @return Last wifi scan of the window, or null if none
+     */
+    @Nullable
+    public WifiObservation getWifi() {
+        return wifi;
+    }
+
+    /**
+     * @return Last cell scan of the window, or null if none
+     */
+    @Nullable
+    public CellObservation getCell() {
+        return cell;
+    }
+
+    /**
+     * @return Last location of the window, or null if none
+     */
+    @Nullable
+    public LocationObservation getLocation() {
+        return location;
+    }
+
+    /**
+     * @return True if the window has observations of the three sensors, false if not
+     */
+    public boolean isComplete() {
+        return wifi != null && cell != null && location != null;
+    }
+
+    @Override
+    public String toString() {
+        return "EnvironmentSnapshot{" +
+                "windowStart=" + windowStart +
+                ", windowEnd=" + windowEnd +
+                ", wifi=" + wifi +
+                ", cell=" + cell +
+                ", location=" + location +
+                '}';
+    }
+}
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 
@@ -28,12 +29,90 @@ import android.util.Log;
  */
 class GpsReceiver implements EnvironmentReceiver<Configuration.Gps> {
     private static final String TAG = GpsReceiver.class.getSimpleName();
+    // read once when the class is loaded, the app must be restarted after a setprop
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
 
     private final PhoneTracker.GpsLocationListener gpsLocationListener;
     private final LocationManager locationManager;
     private final CheckLocationProvider checkLocationProvider;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final SensorMetrics metrics;
+    private final EnergyAccountant energy;
+    private final CheckVersion checkVersion = new CheckVersion();
+    private final ScanGate scanGate;
+    private final StationaryDetector stationaryDetector;
 
-    private Configuration.Gps gpsConfiguration;
+    private final ProviderListener gpsListener =
+            new ProviderListener(LocationManager.GPS_PROVIDER);
+    private final ProviderListener networkListener =
+            new ProviderListener(LocationManager.NETWORK_PROVIDER);
+    private final ProviderListener passiveListener =
+            new ProviderListener(LocationManager.PASSIVE_PROVIDER);
+
+    private final SpeedBandPolicy speedBandPolicy = new SpeedBandPolicy();
+
+    private volatile Configuration.Gps gpsConfiguration;
+
+    /**
+     * True when the providers were removed because nobody demands locations
+     */
+    private volatile boolean pausedForDemand;
+
+    /**
+     * True when the providers were removed because the device is stationary
+     */
+    private volatile boolean pausedForStationary;
+
+    // State of the adaptive interval, only touched from the sensor looper
+    private String registeredProvider;
+    private Location lastSpeedLocation;
+
+    // State of the fused mode, only touched from the sensor looper
+    private LocationFuser locationFuser;
+    private boolean gpsRegistered;
+    private boolean networkRegistered;
+    private boolean gpsSuspended;
+    private long gpsRegisteredTime;
+    private long gpsSuspendedTime;
+    private long lastGpsFixTime = -1;
+    private long lastNetworkFixTime = -1;
+
+    /**
+     * Suspend the gps provider when it doesn't produce locations while the network provider
+     * does, and resume it after the resume delay or when the network locations stop. It can
+     * run up to a quarter of the timeout late, to share the wakeups of the other sensors
+     */
+    private final Runnable gpsWatchdog = new Runnable() {
+        @Override
+        public void run() {
+            energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+            final long now = clock.elapsedRealtime();
+            final long timeout = gpsConfiguration.getGpsSuspendTimeout();
+            final boolean networkAlive = lastNetworkFixTime != -1
+                    && now - lastNetworkFixTime < timeout;
+
+            if (gpsSuspended) {
+                final long suspendedTime = now - gpsSuspendedTime;
+                if (!networkAlive || suspendedTime >= gpsConfiguration.getGpsResumeDelay()) {
+                    Log.d(TAG, "Resuming gps provider");
+                    gpsSuspended = false;
+                    registerGpsProvider(now);
+                }
+            } else if (gpsRegistered) {
+                final long lastGpsActivity = Math.max(lastGpsFixTime, gpsRegisteredTime);
+                if (networkAlive && now - lastGpsActivity >= timeout) {
+                    Log.d(TAG, "No gps locations in " + timeout + "ms, suspending gps provider");
+                    locationManager.removeUpdates(gpsListener);
+                    energy.onProviderStop(LocationManager.GPS_PROVIDER);
+                    gpsRegistered = false;
+                    gpsSuspended = true;
+                    gpsSuspendedTime = now;
+                }
+            }
+            scheduler.postDelayed(this, timeout, timeout / 4);
+        }
+    };
 
     /**
      * Listener for location updates
@@ -41,14 +120,22 @@ class GpsReceiver implements EnvironmentReceiver<Configuration.Gps> {
     private final LocationListener locationListener = new LocationListener() {
         @Override
         public void onLocationChanged(Location location) {
-            Log.d(TAG, "Min distance: " + gpsConfiguration.getMinDistanceUpdate()
-                    + " Min time: " + gpsConfiguration.getMinTimeUpdate());
+            energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+            metrics.increment(TrackerMetrics.COUNTER_SCAN_RECEIVED);
+            if (pauseIfNotDemanded()) {
+                metrics.increment(TrackerMetrics.COUNTER_RESULT_DROPPED);
+                return;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Min distance: " + gpsConfiguration.getMinDistanceUpdate()
+                        + " Min time: " + gpsConfiguration.getMinTimeUpdate());
+            }
 
+            updateSpeedBand(location);
             if (gpsLocationListener == null) {
                 return;
             }
-            final long timestamp = System.currentTimeMillis();
-            gpsLocationListener.onLocationReceived(timestamp, location);
+            deliverLocation(location);
         }
 
         @Override
@@ -64,9 +151,38 @@ class GpsReceiver implements EnvironmentReceiver<Configuration.Gps> {
         }
     };
 
-    GpsReceiver(Context context, Configuration.Gps gpsConfiguration,
+    /**
+     * Remove the providers while the device is stationary, and register them again when it
+     * moves
+     */
+    private final StationaryDetector.Listener stationaryListener =
+            new StationaryDetector.Listener() {
+                @Override
+                public void onStationaryChanged(boolean stationary) {
+                    energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+                    if (stationary && !pausedForDemand && !pausedForStationary) {
+                        Log.d(TAG, "Device stationary, pausing gps receiver");
+                        removeProviders();
+                        pausedForStationary = true;
+                    } else if (!stationary && pausedForStationary) {
+                        Log.d(TAG, "Device moving, resuming gps receiver");
+                        pausedForStationary = false;
+                        register();
+                    }
+                }
+            };
+
+    GpsReceiver(Context context, Scheduler scheduler, Clock clock, SensorMetrics metrics,
+                EnergyAccountant energy, Configuration.Gps gpsConfiguration,
+                ScanGate scanGate, StationaryDetector stationaryDetector,
                 PhoneTracker.GpsLocationListener gpsLocationListener) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.energy = energy;
         this.gpsConfiguration = gpsConfiguration;
+        this.scanGate = scanGate;
+        this.stationaryDetector = stationaryDetector;
         this.gpsLocationListener = gpsLocationListener;
         this.locationManager = (LocationManager) context.getSystemService(
                 Context.LOCATION_SERVICE);
@@ -76,6 +192,29 @@ class GpsReceiver implements EnvironmentReceiver<Configuration.Gps> {
     @Override
     public void register() {
         Log.d(TAG, "Registered gps receiver...");
+        stationaryDetector.addListener(stationaryListener);
+
+        if (scanGate != null && !scanGate.isOpen()) {
+            Log.d(TAG, "No demand for locations, waiting to register the providers");
+            pausedForDemand = true;
+            return;
+        }
+        if (stationaryDetector.isStationary()) {
+            Log.d(TAG, "Device stationary, waiting to register the providers");
+            pausedForStationary = true;
+            return;
+        }
+
+        if (gpsConfiguration.isFused()) {
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+                    registerFused();
+                }
+            });
+            return;
+        }
 
         // check if any provider is enabled
         final boolean providerEnabled = checkLocationProvider.isEnabled();
@@ -90,29 +229,258 @@ class GpsReceiver implements EnvironmentReceiver<Configuration.Gps> {
     }
 
     private void registerProvider(String provider) {
-        locationManager.requestLocationUpdates(provider, gpsConfiguration.getMinTimeUpdate(),
-                gpsConfiguration.getMinDistanceUpdate(), locationListener);
+        registeredProvider = provider;
+        metrics.increment(TrackerMetrics.COUNTER_SCAN_REQUESTED);
+        energy.onProviderStart(provider);
+        // location updates are received in the sensor looper
+        locationManager.requestLocationUpdates(provider, getMinTime(),
+                gpsConfiguration.getMinDistanceUpdate(), locationListener,
+                scheduler.getLooper());
+    }
+
+    /**
+     * @return Minimum time between updates, from the current speed band if the adaptive
+     * interval is enabled
+     */
+    private long getMinTime() {
+        if (gpsConfiguration.isAdaptiveInterval()) {
+            return speedBandPolicy.getMinTime(gpsConfiguration);
+        }
+        return gpsConfiguration.getMinTimeUpdate();
+    }
+
+    /**
+     * Update the speed band with the speed of the location. The speed reported by the provider
+     * is used if present, if not it is calculated from the previous location. When the band
+     * changes the registered providers are requested again with the new minimum time. The
+     * location manager replaces the previous request of the same listener, so the providers
+     * don't need to be unregistered
+     *
+     * @param location New location
+     */
+    private void updateSpeedBand(Location location) {
+        if (!gpsConfiguration.isAdaptiveInterval()) {
+            return;
+        }
+        final float speed;
+        if (location.hasSpeed()) {
+            speed = location.getSpeed();
+        } else if (lastSpeedLocation != null && location.getTime() > lastSpeedLocation.getTime()) {
+            final long elapsed = location.getTime() - lastSpeedLocation.getTime();
+            speed = lastSpeedLocation.distanceTo(location) * 1000f / elapsed;
+        } else {
+            lastSpeedLocation = location;
+            return;
+        }
+        lastSpeedLocation = location;
+        if (!speedBandPolicy.onSpeed(speed)) {
+            return;
+        }
+        Log.d(TAG, "Speed band changed to " + speedBandPolicy.getBand());
+
+        if (gpsConfiguration.isFused()) {
+            if (networkRegistered) {
+                requestUpdates(LocationManager.NETWORK_PROVIDER, networkListener);
+            }
+            if (gpsRegistered) {
+                requestUpdates(LocationManager.GPS_PROVIDER, gpsListener);
+            }
+        } else if (registeredProvider != null) {
+            registerProvider(registeredProvider);
+        }
+    }
+
+    /**
+     * Register the gps, network and passive providers at the same time
+     */
+    private void registerFused() {
+        locationFuser = new LocationFuser(gpsConfiguration.getFixWindow());
+        gpsSuspended = false;
+        lastGpsFixTime = -1;
+        lastNetworkFixTime = -1;
+
+        if (!checkLocationProvider.isEnabled()) {
+            Log.w(TAG, "No location providers enabled, using only the passive provider");
+        }
+        if (checkLocationProvider.networkProviderEnabled()) {
+            requestUpdates(LocationManager.NETWORK_PROVIDER, networkListener);
+            networkRegistered = true;
+        }
+        requestUpdates(LocationManager.PASSIVE_PROVIDER, passiveListener);
+        if (checkLocationProvider.gpsProviderEnabled()) {
+            registerGpsProvider(clock.elapsedRealtime());
+        }
+        final long timeout = gpsConfiguration.getGpsSuspendTimeout();
+        scheduler.postDelayed(gpsWatchdog, timeout, timeout / 4);
+    }
+
+    private void registerGpsProvider(long now) {
+        requestUpdates(LocationManager.GPS_PROVIDER, gpsListener);
+        gpsRegistered = true;
+        gpsRegisteredTime = now;
+    }
+
+    private void requestUpdates(String provider, LocationListener listener) {
+        metrics.increment(TrackerMetrics.COUNTER_SCAN_REQUESTED);
+        energy.onProviderStart(provider);
+        locationManager.requestLocationUpdates(provider, getMinTime(),
+                gpsConfiguration.getMinDistanceUpdate(), listener, scheduler.getLooper());
+    }
+
+    /**
+     * Called with the locations of all the providers in fused mode
+     *
+     * @param location Location
+     */
+    private void onFusedLocation(Location location) {
+        metrics.increment(TrackerMetrics.COUNTER_SCAN_RECEIVED);
+        if (pauseIfNotDemanded()) {
+            metrics.increment(TrackerMetrics.COUNTER_RESULT_DROPPED);
+            return;
+        }
+        final long now = clock.elapsedRealtime();
+        final String provider = location.getProvider();
+        if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            lastGpsFixTime = now;
+        } else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+            lastNetworkFixTime = now;
+        }
+        if (locationFuser == null) {
+            return;
+        }
+        final long fixTime = checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR1)
+                ? location.getElapsedRealtimeNanos() / 1000000 : location.getTime();
+        final float accuracy = location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+        if (!locationFuser.offer(provider, fixTime, accuracy)) {
+            metrics.increment(TrackerMetrics.COUNTER_RESULT_DROPPED);
+            return;
+        }
+        // only the delivered locations are used to compute the speed
+        updateSpeedBand(location);
+        if (gpsLocationListener != null) {
+            deliverLocation(location);
+        }
+    }
+
+    private void deliverLocation(Location location) {
+        final long listenerStart = metrics.start();
+        gpsLocationListener.onLocationReceived(clock.currentTimeMillis(), location);
+        metrics.recordSince(TrackerMetrics.LATENCY_LISTENER, listenerStart);
+        metrics.increment(TrackerMetrics.COUNTER_OBSERVATION);
+        energy.onObservation(TrackerMetrics.SENSOR_GPS);
+    }
+
+    /**
+     * Remove the providers if nobody demands locations. They are registered again when
+     * {@link #onDemand()} is called. Only the providers are removed, the tasks already posted
+     * to the looper still run, so a resume posted while pausing is not lost
+     *
+     * @return True if paused, false if not
+     */
+    private boolean pauseIfNotDemanded() {
+        if (scanGate == null || scanGate.isOpen()) {
+            return false;
+        }
+        Log.d(TAG, "No demand for locations, pausing gps receiver");
+        removeProviders();
+        pausedForDemand = true;
+        return true;
+    }
+
+    /**
+     * Called when there is new demand for locations, from any thread. If the receiver was
+     * paused the providers are registered again
+     */
+    void onDemand() {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+                if (pausedForDemand) {
+                    pausedForDemand = false;
+                    register();
+                }
+            }
+        });
     }
 
     @Override
     public void unregister() {
         Log.d(TAG, "Unregistered gps receiver...");
+        pausedForDemand = false;
+        pausedForStationary = false;
+        stationaryDetector.removeListener(stationaryListener);
+        scheduler.removeAll();
+        removeProviders();
+    }
+
+    /**
+     * Remove the location updates of all the providers
+     */
+    private void removeProviders() {
+        scheduler.removeCallbacks(gpsWatchdog);
         locationManager.removeUpdates(locationListener);
+        locationManager.removeUpdates(gpsListener);
+        locationManager.removeUpdates(networkListener);
+        locationManager.removeUpdates(passiveListener);
+        energy.onProvidersStopped();
+        gpsRegistered = false;
+        networkRegistered = false;
+        registeredProvider = null;
+        lastSpeedLocation = null;
+        speedBandPolicy.reset();
     }
 
     @Override
-    public void reloadConfiguration(Configuration.Gps config) {
-        if (gpsConfiguration.equals(config)) {
-            Log.i(TAG, "Gps config is the same, not reload...");
-            return;
+    public void reloadConfiguration(final Configuration.Gps config) {
+        // the providers are only touched from the sensor looper
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+                if (gpsConfiguration.equals(config)) {
+                    Log.i(TAG, "Gps config is the same, not reload...");
+                    return;
+                }
+                Log.d(TAG, "Reloading gps configuration");
+                gpsConfiguration = config;
+
+                // to reload the gps configuration we need to unregister and register again
+                // the gps sensor
+                unregister();
+                register();
+            }
+        });
+    }
+
+    /**
+     * Listener for the location updates of one provider in fused mode
+     */
+    private class ProviderListener implements LocationListener {
+        private final String provider;
+
+        ProviderListener(String provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public void onLocationChanged(Location location) {
+            energy.onWakeup(TrackerMetrics.SENSOR_GPS);
+            onFusedLocation(location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
         }
-        Log.d(TAG, "Reloading gps configuration");
-        gpsConfiguration = config;
 
-        // to reload the gps configuration we need to unregister and register again
-        // the gps sensor
-        unregister();
-        register();
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            Log.d(TAG, "Provider disabled: " + this.provider);
+        }
     }
 
     /**
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Scheduler that runs the tasks with a {@link Handler}
+ */
+final class HandlerScheduler implements Scheduler {
+
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public Scheduler create(Looper looper) {
+            return new HandlerScheduler(looper);
+        }
+
+        @Override
+        public Looper getMainLooper() {
+            return Looper.getMainLooper();
+        }
+
+        @Override
+        public Looper startLooper(String name) {
+            final HandlerThread thread = new HandlerThread(name,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            return thread.getLooper();
+        }
+    };
+
+    private final Looper looper;
+    private final Handler handler;
+
+    HandlerScheduler(Looper looper) {
+        this.looper = looper;
+        this.handler = new Handler(looper);
+    }
+
+    @Override
+    public Looper getLooper() {
+        return looper;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delay) {
+        handler.postDelayed(task, delay);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delay, long window) {
+        // the windows are used by the WakeupAligner, the handler runs each task on time
+        handler.postDelayed(task, delay);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    @Override
+    public void removeAll() {
+        handler.removeCallbacksAndMessages(null);
+    }
+}
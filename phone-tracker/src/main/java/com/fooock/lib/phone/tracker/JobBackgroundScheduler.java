@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Runs the collection windows in a periodic job of the {@link TrackerJobService}. The job is
+ * not persisted, so it doesn't run again after a reboot until the tracker is started
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class JobBackgroundScheduler implements BackgroundScheduler {
+    private static final String TAG = JobBackgroundScheduler.class.getSimpleName();
+
+    private final Context context;
+    private final CheckVersion checkVersion = new CheckVersion();
+    private int jobId = -1;
+    private Callback callback;
+
+    JobBackgroundScheduler(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void schedule(Configuration.Background backgroundConfiguration, Callback callback) {
+        cancel();
+        // fails before the job of another tracker with the same id is replaced
+        TrackerJobService.setCallback(backgroundConfiguration.getJobId(), callback);
+        this.jobId = backgroundConfiguration.getJobId();
+        this.callback = callback;
+
+        final JobInfo.Builder builder = new JobInfo.Builder(jobId,
+                new ComponentName(context, TrackerJobService.class)).setPersisted(false);
+        if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.N)) {
+            builder.setPeriodic(backgroundConfiguration.getInterval(),
+                    backgroundConfiguration.getFlex());
+        } else {
+            builder.setPeriodic(backgroundConfiguration.getInterval());
+        }
+        if (jobScheduler().schedule(builder.build()) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Background collection job not scheduled");
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (jobId < 0) {
+            return;
+        }
+        jobScheduler().cancel(jobId);
+        TrackerJobService.removeCallback(jobId, callback);
+        jobId = -1;
+        callback = null;
+    }
+
+    private JobScheduler jobScheduler() {
+        return (JobScheduler) context.getApplicationContext().getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Decide which locations of several providers are delivered. A location is delivered when it
+ * is the first one, when the last delivered location is older than the fix window, or when it
+ * is better than the last delivered one inside the window: more accurate, or newer and not
+ * less accurate. Copies of the last delivered location, like the ones received from the
+ * passive provider, are dropped.
+ */
+class LocationFuser {
+
+    /**
+     * Accuracy loss in meters accepted for newer locations of the same provider
+     */
+    private static final float SIGNIFICANT_ACCURACY_LOSS = 200;
+
+    private final long fixWindow;
+
+    private boolean hasLast;
+    private String lastProvider;
+    private long lastTime;
+    private float lastAccuracy;
+
+    LocationFuser(long fixWindow) {
+        this.fixWindow = fixWindow;
+    }
+
+    /**
+     * Check if the location must be delivered. If true, it becomes the last delivered location
+     *
+     * @param provider Provider of the location
+     * @param time     Time of the location in milliseconds
+     * @param accuracy Accuracy in meters, {@link Float#MAX_VALUE} if unknown
+     * @return True if the location must be delivered, false if it is dropped
+     */
+    boolean offer(String provider, long time, float accuracy) {
+        if (!hasLast) {
+            return accept(provider, time, accuracy);
+        }
+        final long timeDelta = time - lastTime;
+        if (timeDelta > fixWindow) {
+            return accept(provider, time, accuracy);
+        }
+        if (timeDelta < -fixWindow) {
+            return false;
+        }
+        final boolean sameProvider = provider == null
+                ? lastProvider == null : provider.equals(lastProvider);
+        if (timeDelta == 0 && sameProvider) {
+            return false;
+        }
+        final float accuracyDelta = accuracy - lastAccuracy;
+        final boolean newer = timeDelta > 0;
+        if (accuracyDelta < 0
+                || (newer && accuracyDelta == 0)
+                || (newer && sameProvider && accuracyDelta <= SIGNIFICANT_ACCURACY_LOSS)) {
+            return accept(provider, time, accuracy);
+        }
+        return false;
+    }
+
+    private boolean accept(String provider, long time, float accuracy) {
+        hasLast = true;
+        lastProvider = provider;
+        lastTime = time;
+        lastAccuracy = accuracy;
+        return true;
+    }
+
+    /**
+     * Forget the last delivered location
+     */
+    void reset() {
+        hasLast = false;
+        lastProvider = null;
+    }
+}
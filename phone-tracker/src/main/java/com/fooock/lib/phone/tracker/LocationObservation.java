@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.location.Location;
+
+/**
+ * Immutable location update received by the tracker
+ */
+public final class LocationObservation extends Observation {
+
+    private final Location location;
+
+    LocationObservation(long timestamp, long elapsedRealtime, Location location) {
+        super(timestamp, elapsedRealtime);
+        this.location = location;
+    }
+
+    /**
+     * @return Device location
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationObservation{" +
+                "timestamp=" + getTimestamp() +
+                ", elapsedRealtime=" + getElapsedRealtime() +
+                ", location=" + location +
+                '}';
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Base class of the immutable observations of the sensors
+ */
+public abstract class Observation {
+
+    private final long timestamp;
+    private final long elapsedRealtime;
+
+    Observation(long timestamp, long elapsedRealtime) {
+        this.timestamp = timestamp;
+        this.elapsedRealtime = elapsedRealtime;
+    }
+
+    /**
+     * @return Current time in milliseconds when the observation was received
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Time in milliseconds since boot when the sensor measured the observation. Unlike
+     * {@link #getTimestamp()} it is monotonic and it is taken from the sensor when available
+     */
+    public long getElapsedRealtime() {
+        return elapsedRealtime;
+    }
+}
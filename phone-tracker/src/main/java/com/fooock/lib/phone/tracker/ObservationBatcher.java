@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffer the observations of one sensor and deliver them together when the batch is full, when
+ * the first observation of the batch is older than the max latency or when it is flushed. This
+ * class must be used from the thread of the scheduler
+ *
+ * @param <T> Observation type
+ */
+class ObservationBatcher<T> {
+
+    /**
+     * Receives the batches
+     *
+     * @param <T> Observation type
+     */
+    interface Callback<T> {
+        /**
+         * @param batch Observations in arrival order. Never empty, owned by the callback
+         */
+        void onBatch(List<T> batch);
+    }
+
+    private final Scheduler scheduler;
+    private final int maxBatchSize;
+    private final long maxLatency;
+    private final Callback<T> callback;
+
+    private List<T> batch;
+
+    private final Runnable latencyFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ObservationBatcher(Scheduler scheduler, int maxBatchSize, long maxLatency,
+                       Callback<T> callback) {
+        this.scheduler = scheduler;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLatency = maxLatency;
+        this.callback = callback;
+        this.batch = new ArrayList<>(this.maxBatchSize);
+    }
+
+    /**
+     * Add an observation, delivering the batch if it is full
+     *
+     * @param observation Observation
+     */
+    void add(T observation) {
+        batch.add(observation);
+        if (batch.size() >= maxBatchSize) {
+            flush();
+        } else if (batch.size() == 1) {
+            scheduler.postDelayed(latencyFlush, maxLatency);
+        }
+    }
+
+    /**
+     * Deliver the buffered observations, if any
+     */
+    void flush() {
+        scheduler.removeCallbacks(latencyFlush);
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<T> full = batch;
+        batch = new ArrayList<>(maxBatchSize);
+        callback.onBatch(full);
+    }
+
+    /**
+     * @return Number of buffered observations
+     */
+    int size() {
+        return batch.size();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Preallocated single producer, multiple consumer ring buffer of observations. The producer is
+ * the sensor looper and never waits for the consumers: each {@link ObservationReader} tracks
+ * its own sequence and, if it falls more than the capacity behind, skips the overwritten
+ * observations and counts them as lost.
+ * <p>
+ * Each slot stores the sequence of its observation. The producer marks the slot as being
+ * written before replacing the observation, so a reader detects an overwritten slot by reading
+ * the slot sequence before and after the observation.
+ */
+class ObservationBus {
+
+    /**
+     * Sequence of a slot while the producer writes it
+     */
+    private static final long WRITING = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Observation> entries;
+    private final AtomicLongArray sequences;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final AtomicInteger readers = new AtomicInteger();
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    ObservationBus(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, WRITING);
+        }
+    }
+
+    /**
+     * Publish an observation. Must be called always from the same thread
+     *
+     * @param observation Observation
+     * @return Sequence of the observation
+     */
+    long publish(Observation observation) {
+        final long sequence = cursor.get() + 1;
+        final int index = (int) sequence & mask;
+        sequences.set(index, WRITING);
+        entries.lazySet(index, observation);
+        sequences.lazySet(index, sequence);
+        cursor.lazySet(sequence);
+        return sequence;
+    }
+
+    /**
+     * Read the observation with the given sequence
+     *
+     * @param sequence Sequence, not greater than {@link #cursor()}
+     * @return Observation, or null if the slot was overwritten by a newer observation
+     */
+    Observation read(long sequence) {
+        final int index = (int) sequence & mask;
+        if (sequences.get(index) != sequence) {
+            return null;
+        }
+        final Observation observation = entries.get(index);
+        return sequences.get(index) == sequence ? observation : null;
+    }
+
+    /**
+     * @return Sequence of the last published observation, -1 if none
+     */
+    long cursor() {
+        return cursor.get();
+    }
+
+    /**
+     * @return Oldest sequence that can be read safely
+     */
+    long oldestSequence() {
+        // the slot after the cursor can be being written
+        return Math.max(0, cursor.get() - capacity + 2);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Create a reader positioned after the last published observation
+     *
+     * @return New reader
+     */
+    ObservationReader openReader() {
+        readers.incrementAndGet();
+        return new ObservationReader(this, cursor.get() + 1);
+    }
+
+    void closeReader() {
+        readers.decrementAndGet();
+    }
+
+    /**
+     * @return True if any reader is open, false if not
+     */
+    boolean hasReaders() {
+        return readers.get() > 0;
+    }
+}
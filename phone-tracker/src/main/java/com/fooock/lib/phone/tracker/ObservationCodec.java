@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of the observations, written by {@link ObservationEncoder} and read by
+ * {@link ObservationDecoder}. A stream starts with a header with the codec version, followed by
+ * the records. Each record starts with its type and the timestamps as the difference with the
+ * previous record, followed by the fields of the observation:
+ * <pre>
+ * header:   'P' 'T' 'O' version
+ * wifi:     1 timestamps count (bssid:6 ssid level frequency)*
+ * cell:     2 timestamps count (radioType|registered globalId dbm)*
+ * location: 3 timestamps provider flags latitude:4 longitude:4 [accuracy] [altitude] [speed]
+ *           [bearing]
+ * </pre>
+ * The integers are varints, using zigzag for the signed ones, unless a size is given. The
+ * strings are a varint with the length in bytes plus one, zero for null, followed by the
+ * UTF-8 bytes. A malformed BSSID is written as ff:ff:ff:ff:ff:ff. The coordinates are in
+ * units of 1e-7 degrees, the accuracy, altitude and speed in centimeters and the bearing in
+ * hundredths of degree
+ */
+public final class ObservationCodec {
+    /**
+     * Version written by the encoder
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size in bytes of the stream header
+     */
+    public static final int HEADER_SIZE = 4;
+
+    static final byte TYPE_WIFI = 1;
+    static final byte TYPE_CELL = 2;
+    static final byte TYPE_LOCATION = 3;
+
+    static final int FLAG_ACCURACY = 1;
+    static final int FLAG_ALTITUDE = 1 << 1;
+    static final int FLAG_SPEED = 1 << 2;
+    static final int FLAG_BEARING = 1 << 3;
+
+    static final double COORDINATE_SCALE = 1e7;
+    static final double CENTI_SCALE = 100;
+
+    private static final byte[] MAGIC = {'P', 'T', 'O'};
+    private static final long BROADCAST_BSSID = 0xffffffffffffL;
+
+    private ObservationCodec() {
+    }
+
+    static void putHeader(ByteBuffer buffer) {
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+    }
+
+    /**
+     * Read the stream header
+     *
+     * @return Version of the stream
+     * @throws IllegalArgumentException If the header is invalid or the version not supported
+     */
+    static int getHeader(ByteBuffer buffer) {
+        for (byte magic : MAGIC) {
+            if (buffer.get() != magic) {
+                throw new IllegalArgumentException("Not an observation stream");
+            }
+        }
+        final int version = buffer.get() & 0xff;
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported codec version " + version);
+        }
+        return version;
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        putVarLong(buffer, value & 0xffffffffL);
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        return (int) getVarLong(buffer);
+    }
+
+    static void putSignedVarLong(ByteBuffer buffer, long value) {
+        putVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getSignedVarLong(ByteBuffer buffer) {
+        final long value = getVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putSignedVarInt(ByteBuffer buffer, int value) {
+        putVarLong(buffer, ((value << 1) ^ (value >> 31)) & 0xffffffffL);
+    }
+
+    static int getSignedVarInt(ByteBuffer buffer) {
+        final int value = getVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putBssid(ByteBuffer buffer, long bssid) {
+        buffer.putShort((short) (bssid >>> 32));
+        buffer.putInt((int) bssid);
+    }
+
+    static long getBssid(ByteBuffer buffer) {
+        final long high = buffer.getShort() & 0xffffL;
+        final long bssid = (high << 32) | (buffer.getInt() & 0xffffffffL);
+        return bssid == BROADCAST_BSSID ? CompactWifiScan.INVALID_BSSID : bssid;
+    }
+
+    /**
+     * Write the string as UTF-8 without creating intermediate arrays. Unpaired surrogates are
+     * written as '?'
+     */
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        final int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (isSurrogatePair(value, i)) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        putVarInt(buffer, bytes + 1);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (isSurrogatePair(value, i)) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    static long toFixed(double value, double scale) {
+        return Math.round(value * scale);
+    }
+}
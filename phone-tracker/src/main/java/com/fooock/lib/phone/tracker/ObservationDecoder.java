@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming decoder of observations in the {@link ObservationCodec} format. The fields are
+ * given to an {@link ObservationVisitor}, so no observation objects are created. The records
+ * must be decoded in the order they were encoded. Instances are not thread safe
+ */
+public final class ObservationDecoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] stringBytes = new byte[64];
+    private int version = ObservationCodec.VERSION;
+    private long timestamp;
+    private long elapsedRealtime;
+
+    /**
+     * Read the stream header and reset the timestamps
+     *
+     * @param buffer Source buffer
+     * @return Version of the stream
+     * @throws IllegalArgumentException If the header is invalid or the version not supported
+     */
+    public int readHeader(ByteBuffer buffer) {
+        version = ObservationCodec.getHeader(buffer);
+        timestamp = 0;
+        elapsedRealtime = 0;
+        return version;
+    }
+
+    /**
+     * Decode the next observation
+     *
+     * @param buffer  Source buffer
+     * @param visitor Visitor of the observation fields
+     * @throws java.nio.BufferUnderflowException If the record is truncated
+     * @throws IllegalArgumentException          If the record is malformed
+     */
+    public void decode(ByteBuffer buffer, ObservationVisitor visitor) {
+        final byte type = buffer.get();
+        timestamp += ObservationCodec.getSignedVarLong(buffer);
+        elapsedRealtime += ObservationCodec.getSignedVarLong(buffer);
+        switch (type) {
+            case ObservationCodec.TYPE_WIFI:
+                decodeWifi(buffer, visitor);
+                break;
+            case ObservationCodec.TYPE_CELL:
+                decodeCells(buffer, visitor);
+                break;
+            case ObservationCodec.TYPE_LOCATION:
+                decodeLocation(buffer, visitor);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * @return Version of the stream being decoded
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Timestamp of the last decoded observation
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Elapsed realtime of the last decoded observation
+     */
+    long getElapsedRealtime() {
+        return elapsedRealtime;
+    }
+
+    private void decodeWifi(ByteBuffer buffer, ObservationVisitor visitor) {
+        final int count = ObservationCodec.getVarInt(buffer);
+        visitor.onWifiScan(timestamp, elapsedRealtime, count);
+        for (int i = 0; i < count; i++) {
+            final long bssid = ObservationCodec.getBssid(buffer);
+            final String ssid = getString(buffer);
+            final int level = ObservationCodec.getSignedVarInt(buffer);
+            visitor.onAccessPoint(bssid, ssid, level, ObservationCodec.getVarInt(buffer));
+        }
+    }
+
+    private void decodeCells(ByteBuffer buffer, ObservationVisitor visitor) {
+        final int count = ObservationCodec.getVarInt(buffer);
+        visitor.onCellScan(timestamp, elapsedRealtime, count);
+        for (int i = 0; i < count; i++) {
+            final int type = ObservationCodec.getVarInt(buffer);
+            final long globalId = ObservationCodec.getSignedVarLong(buffer);
+            final int dbm = ObservationCodec.getSignedVarInt(buffer);
+            visitor.onCell(type >>> 1, globalId, dbm, (type & 1) != 0);
+        }
+    }
+
+    private void decodeLocation(ByteBuffer buffer, ObservationVisitor visitor) {
+        final String provider = getString(buffer);
+        final int flags = buffer.get();
+        final double latitude = buffer.getInt() / ObservationCodec.COORDINATE_SCALE;
+        final double longitude = buffer.getInt() / ObservationCodec.COORDINATE_SCALE;
+        float accuracy = Float.NaN;
+        double altitude = Double.NaN;
+        float speed = Float.NaN;
+        float bearing = Float.NaN;
+        if ((flags & ObservationCodec.FLAG_ACCURACY) != 0) {
+            accuracy = (float) (ObservationCodec.getVarLong(buffer)
+                    / ObservationCodec.CENTI_SCALE);
+        }
+        if ((flags & ObservationCodec.FLAG_ALTITUDE) != 0) {
+            altitude = ObservationCodec.getSignedVarLong(buffer) / ObservationCodec.CENTI_SCALE;
+        }
+        if ((flags & ObservationCodec.FLAG_SPEED) != 0) {
+            speed = (float) (ObservationCodec.getVarLong(buffer) / ObservationCodec.CENTI_SCALE);
+        }
+        if ((flags & ObservationCodec.FLAG_BEARING) != 0) {
+            bearing = (float) (ObservationCodec.getVarLong(buffer)
+                    / ObservationCodec.CENTI_SCALE);
+        }
+        visitor.onLocation(timestamp, elapsedRealtime, provider, latitude, longitude, accuracy,
+                altitude, speed, bearing);
+    }
+
+    private String getString(ByteBuffer buffer) {
+        final int length = ObservationCodec.getVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed string length " + length);
+        }
+        if (buffer.hasArray()) {
+            final int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), offset, length, UTF_8);
+        }
+        if (stringBytes.length < length) {
+            stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+        }
+        buffer.get(stringBytes, 0, length);
+        return new String(stringBytes, 0, length, UTF_8);
+    }
+}
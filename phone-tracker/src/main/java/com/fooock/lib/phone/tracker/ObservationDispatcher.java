@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Listener given to the receivers. Each observation is delivered to the listener of its
+ * sensor, published in the {@link ObservationBus} if it has readers, offered to the
+ * {@link ObservationSubscription}s, emitted by the {@link DemandPublisher} of its sensor, added
+ * to the batch of its sensor when the batching is enabled and joined by the
+ * {@link SnapshotCorrelator} when the snapshots are enabled, appended to the
+ * {@link ObservationJournal} when the journal is enabled, given to the
+ * {@link ObservationUploader} when the upload is enabled and recorded by the
+ * {@link TraceRecorder} when recording a trace. The observations of a replayed trace are
+ * delivered in the same way. This class is called from the sensor looper, the single producer
+ * of the bus, the publishers, the journal, the uploader and the recorder
+ */
+class ObservationDispatcher implements PhoneTracker.WifiScanListener,
+        PhoneTracker.CellRecordListener, PhoneTracker.GpsLocationListener {
+    private static final String TAG = ObservationDispatcher.class.getSimpleName();
+
+    private final CheckVersion checkVersion = new CheckVersion();
+    private final Clock clock;
+
+    private final PhoneTracker.WifiScanListener wifiScanListener;
+    private final PhoneTracker.CellRecordListener cellRecordListener;
+    private final PhoneTracker.GpsLocationListener gpsLocationListener;
+    private final ObservationBus observationBus;
+    private final List<ObservationSubscription> subscriptions;
+    private final DemandPublisher<WifiObservation> wifiPublisher;
+    private final DemandPublisher<CellObservation> cellPublisher;
+    private final DemandPublisher<LocationObservation> locationPublisher;
+
+    private ObservationBatcher<WifiObservation> wifiBatcher;
+    private ObservationBatcher<CellObservation> cellBatcher;
+    private ObservationBatcher<LocationObservation> locationBatcher;
+    private SnapshotCorrelator snapshotCorrelator;
+    private ObservationJournal observationJournal;
+    private ObservationUploader observationUploader;
+    private TraceRecorder traceRecorder;
+
+    ObservationDispatcher(Scheduler scheduler, Clock clock, ObservationBus observationBus,
+                          List<ObservationSubscription> subscriptions,
+                          DemandPublisher<WifiObservation> wifiPublisher,
+                          DemandPublisher<CellObservation> cellPublisher,
+                          DemandPublisher<LocationObservation> locationPublisher,
+                          Configuration.Batch batchConfiguration,
+                          Configuration.Snapshot snapshotConfiguration,
+                          PhoneTracker.WifiScanListener wifiScanListener,
+                          PhoneTracker.CellRecordListener cellRecordListener,
+                          PhoneTracker.GpsLocationListener gpsLocationListener,
+                          PhoneTracker.BatchListener batchListener,
+                          PhoneTracker.EnvironmentSnapshotListener snapshotListener) {
+        this.clock = clock;
+        this.observationBus = observationBus;
+        this.subscriptions = subscriptions;
+        this.wifiPublisher = wifiPublisher;
+        this.cellPublisher = cellPublisher;
+        this.locationPublisher = locationPublisher;
+        this.wifiScanListener = wifiScanListener;
+        this.cellRecordListener = cellRecordListener;
+        this.gpsLocationListener = gpsLocationListener;
+
+        if (batchConfiguration != null && batchListener != null) {
+            createBatchers(scheduler, batchConfiguration, batchListener);
+        }
+        if (snapshotConfiguration != null && snapshotListener != null) {
+            createSnapshotCorrelator(snapshotConfiguration, snapshotListener);
+        }
+    }
+
+    private void createBatchers(Scheduler scheduler, Configuration.Batch batchConfiguration,
+                                final PhoneTracker.BatchListener batchListener) {
+        final int maxBatchSize = batchConfiguration.getMaxBatchSize();
+        final long maxLatency = batchConfiguration.getMaxLatency();
+        wifiBatcher = new ObservationBatcher<>(scheduler, maxBatchSize, maxLatency,
+                new ObservationBatcher.Callback<WifiObservation>() {
+                    @Override
+                    public void onBatch(List<WifiObservation> batch) {
+                        batchListener.onWifiBatchReceived(batch);
+                    }
+                });
+        cellBatcher = new ObservationBatcher<>(scheduler, maxBatchSize, maxLatency,
+                new ObservationBatcher.Callback<CellObservation>() {
+                    @Override
+                    public void onBatch(List<CellObservation> batch) {
+                        batchListener.onCellBatchReceived(batch);
+                    }
+                });
+        locationBatcher = new ObservationBatcher<>(scheduler, maxBatchSize, maxLatency,
+                new ObservationBatcher.Callback<LocationObservation>() {
+                    @Override
+                    public void onBatch(List<LocationObservation> batch) {
+                        batchListener.onLocationBatchReceived(batch);
+                    }
+                });
+    }
+
+    private void createSnapshotCorrelator(
+            Configuration.Snapshot snapshotConfiguration,
+            final PhoneTracker.EnvironmentSnapshotListener snapshotListener) {
+        snapshotCorrelator = new SnapshotCorrelator(snapshotConfiguration.getWindow(),
+                snapshotConfiguration.getAllowedLateness(), new SnapshotCorrelator.Callback() {
+            @Override
+            public void onSnapshot(EnvironmentSnapshot snapshot) {
+                snapshotListener.onSnapshotReceived(snapshot);
+            }
+        });
+    }
+
+    @Override
+    public void onWifiScansReceived(long timestamp, List<ScanResult> wifiScans) {
+        if (wifiScanListener != null) {
+            wifiScanListener.onWifiScansReceived(timestamp, wifiScans);
+        }
+        if (wifiBatcher == null && !hasConsumers() && !wifiPublisher.hasSubscribers()) {
+            return;
+        }
+        dispatchWifi(new WifiObservation(timestamp, wifiElapsedRealtime(wifiScans), wifiScans),
+                clock.elapsedRealtime());
+    }
+
+    @Override
+    public void onCellRecordsReceived(long timestamp, List<CellRecord> cells) {
+        if (cellRecordListener != null) {
+            cellRecordListener.onCellRecordsReceived(timestamp, cells);
+        }
+        if (cellBatcher == null && !hasConsumers() && !cellPublisher.hasSubscribers()) {
+            return;
+        }
+        // the cells are read from the telephony service when delivered
+        dispatchCells(new CellObservation(timestamp, clock.elapsedRealtime(), cells));
+    }
+
+    @Override
+    public void onLocationReceived(long timestamp, Location location) {
+        if (gpsLocationListener != null) {
+            gpsLocationListener.onLocationReceived(timestamp, location);
+        }
+        if (locationBatcher == null && !hasConsumers()
+                && !locationPublisher.hasSubscribers()) {
+            return;
+        }
+        dispatchLocation(new LocationObservation(
+                timestamp, locationElapsedRealtime(location), location));
+    }
+
+    /**
+     * Deliver an observation of a replayed trace to the listener of its sensor and to all the
+     * consumers, keeping its recorded timestamps
+     *
+     * @param observation Replayed observation
+     */
+    void replay(Observation observation) {
+        if (observation instanceof WifiObservation) {
+            final WifiObservation wifi = (WifiObservation) observation;
+            if (wifiScanListener != null) {
+                wifiScanListener.onWifiScansReceived(wifi.getTimestamp(), wifi.getScans());
+            }
+            dispatchWifi(wifi, wifi.getElapsedRealtime());
+        } else if (observation instanceof CellObservation) {
+            final CellObservation cell = (CellObservation) observation;
+            if (cellRecordListener != null) {
+                cellRecordListener.onCellRecordsReceived(cell.getTimestamp(), cell.getCells());
+            }
+            dispatchCells(cell);
+        } else if (observation instanceof LocationObservation) {
+            final LocationObservation location = (LocationObservation) observation;
+            if (gpsLocationListener != null) {
+                gpsLocationListener.onLocationReceived(location.getTimestamp(),
+                        location.getLocation());
+            }
+            dispatchLocation(location);
+        }
+    }
+
+    private void dispatchWifi(WifiObservation observation, long deliveryTime) {
+        publish(observation);
+        wifiPublisher.emit(observation);
+        if (wifiBatcher != null) {
+            wifiBatcher.add(observation);
+        }
+        if (snapshotCorrelator != null) {
+            snapshotCorrelator.add(observation, deliveryTime);
+        }
+    }
+
+    private void dispatchCells(CellObservation observation) {
+        publish(observation);
+        cellPublisher.emit(observation);
+        if (cellBatcher != null) {
+            cellBatcher.add(observation);
+        }
+        if (snapshotCorrelator != null) {
+            snapshotCorrelator.add(observation);
+        }
+    }
+
+    private void dispatchLocation(LocationObservation observation) {
+        publish(observation);
+        locationPublisher.emit(observation);
+        if (locationBatcher != null) {
+            locationBatcher.add(observation);
+        }
+        if (snapshotCorrelator != null) {
+            snapshotCorrelator.add(observation);
+        }
+    }
+
+    /**
+     * Get the elapsed realtime of the newest access point of the scan. The scan results only
+     * have timestamp since android 4.2
+     */
+    private long wifiElapsedRealtime(List<ScanResult> wifiScans) {
+        long newest = 0;
+        if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR1)) {
+            for (ScanResult scan : wifiScans) {
+                newest = Math.max(newest, scan.timestamp);
+            }
+        }
+        // the scan result timestamp is in microseconds
+        return newest > 0 ? newest / 1000 : clock.elapsedRealtime();
+    }
+
+    /**
+     * Get the elapsed realtime of the location fix, available since android 4.2
+     */
+    private long locationElapsedRealtime(Location location) {
+        if (location != null
+                && checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR1)) {
+            final long nanos = location.getElapsedRealtimeNanos();
+            if (nanos > 0) {
+                return nanos / 1000000;
+            }
+        }
+        return clock.elapsedRealtime();
+    }
+
+    /**
+     * @return True if the observations of all the sensors are consumed, false if not
+     */
+    private boolean hasConsumers() {
+        return snapshotCorrelator != null || observationJournal != null
+                || observationUploader != null || traceRecorder != null
+                || observationBus.hasReaders() || !subscriptions.isEmpty();
+    }
+
+    private void publish(Observation observation) {
+        if (observationJournal != null) {
+            try {
+                observationJournal.append(observation);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing the journal, closing it", e);
+                closeJournal();
+            }
+        }
+        if (traceRecorder != null) {
+            try {
+                traceRecorder.add(observation);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing the trace, recording stopped", e);
+                closeRecorder();
+            }
+        }
+        if (observationUploader != null) {
+            observationUploader.add(observation);
+        }
+        if (observationBus.hasReaders()) {
+            observationBus.publish(observation);
+        }
+        for (ObservationSubscription subscription : subscriptions) {
+            subscription.offer(observation);
+        }
+    }
+
+    /**
+     * Open the journal, recovering it if needed. Called from the sensor looper
+     *
+     * @param journalConfiguration Journal configuration
+     */
+    void openJournal(Configuration.Journal journalConfiguration) {
+        try {
+            observationJournal = ObservationJournal.open(journalConfiguration);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open the journal, observations will not be stored", e);
+        }
+    }
+
+    /**
+     * Sync and close the journal, if open. Called from the sensor looper
+     */
+    void closeJournal() {
+        if (observationJournal != null) {
+            observationJournal.close();
+            observationJournal = null;
+        }
+    }
+
+    /**
+     * Start recording the observations in the trace file. Called from the sensor looper
+     *
+     * @param traceFile Trace file
+     */
+    void openRecorder(File traceFile) {
+        try {
+            traceRecorder = new TraceRecorder(traceFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't create the trace, observations will not be recorded", e);
+        }
+    }
+
+    /**
+     * Write the recorded observations and close the trace, if recording. Called from the
+     * sensor looper
+     */
+    void closeRecorder() {
+        if (traceRecorder == null) {
+            return;
+        }
+        try {
+            traceRecorder.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing the trace", e);
+        }
+        traceRecorder = null;
+    }
+
+    /**
+     * Set the uploader of the observations. Called from the sensor looper
+     *
+     * @param uploader Observation uploader
+     */
+    void setUploader(ObservationUploader uploader) {
+        observationUploader = uploader;
+    }
+
+    /**
+     * Deliver the buffered observations of all the sensors, if the batching is enabled, and
+     * the open snapshot windows, if the snapshots are enabled
+     */
+    void flush() {
+        if (wifiBatcher != null) {
+            wifiBatcher.flush();
+            cellBatcher.flush();
+            locationBatcher.flush();
+        }
+        if (snapshotCorrelator != null) {
+            snapshotCorrelator.flush();
+        }
+    }
+
+    /**
+     * Flush the buffered observations, close the journal and the trace, and give the last
+     * batch to the uploader before closing it. Called from the sensor looper when the tracker stops
+     */
+    void close() {
+        flush();
+        closeJournal();
+        closeRecorder();
+        if (observationUploader != null) {
+            observationUploader.close();
+            observationUploader = null;
+        }
+    }
+}
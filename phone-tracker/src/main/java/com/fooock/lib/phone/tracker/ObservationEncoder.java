@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Streaming encoder of observations in the {@link ObservationCodec} format. The fields are
+ * written directly to the buffer, without intermediate objects. The timestamps are written as
+ * the difference with the previous encoded observation, so the records must be decoded in the
+ * same order by an {@link ObservationDecoder}. Instances are not thread safe
+ */
+public final class ObservationEncoder {
+    private long timestamp;
+    private long elapsedRealtime;
+
+    /**
+     * Write the stream header and reset the timestamps, so the stream can be decoded from here
+     *
+     * @param buffer Destination buffer
+     * @throws java.nio.BufferOverflowException If the buffer is too small
+     */
+    public void writeHeader(ByteBuffer buffer) {
+        ObservationCodec.putHeader(buffer);
+        reset();
+    }
+
+    /**
+     * Reset the timestamps, so the next observation is encoded with its absolute timestamps
+     */
+    public void reset() {
+        reset(0, 0);
+    }
+
+    /**
+     * Continue a stream whose last observation has the given timestamps
+     *
+     * @param timestamp       Timestamp of the last observation
+     * @param elapsedRealtime Elapsed realtime of the last observation
+     */
+    void reset(long timestamp, long elapsedRealtime) {
+        this.timestamp = timestamp;
+        this.elapsedRealtime = elapsedRealtime;
+    }
+
+    /**
+     * Encode the observation. If the buffer is too small the encoder state is not changed, so
+     * the observation can be encoded again in a bigger buffer
+     *
+     * @param observation Observation
+     * @param buffer      Destination buffer
+     * @throws java.nio.BufferOverflowException If the buffer is too small
+     * @throws IllegalArgumentException         If the observation type is unknown
+     */
+    public void encode(Observation observation, ByteBuffer buffer) {
+        if (observation instanceof WifiObservation) {
+            putTimestamps(buffer, ObservationCodec.TYPE_WIFI, observation);
+            putWifi(buffer, ((WifiObservation) observation).getScans());
+        } else if (observation instanceof CellObservation) {
+            putTimestamps(buffer, ObservationCodec.TYPE_CELL, observation);
+            putCells(buffer, ((CellObservation) observation).getCells());
+        } else if (observation instanceof LocationObservation) {
+            final Location location = ((LocationObservation) observation).getLocation();
+            putTimestamps(buffer, ObservationCodec.TYPE_LOCATION, observation);
+            putLocation(buffer, location.getProvider(), location.getLatitude(),
+                    location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                    location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                    location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                    location.hasBearing() ? location.getBearing() : Float.NaN);
+        } else {
+            throw new IllegalArgumentException("Unknown observation " + observation);
+        }
+        timestamp = observation.getTimestamp();
+        elapsedRealtime = observation.getElapsedRealtime();
+    }
+
+    /**
+     * Encode a location from its fields, with the same arguments given to
+     * {@link ObservationVisitor#onLocation(long, long, String, double, double, float, double,
+     * float, float)}. Unknown values are NaN
+     *
+     * @throws java.nio.BufferOverflowException If the buffer is too small
+     */
+    void encodeLocation(ByteBuffer buffer, long timestamp, long elapsedRealtime,
+                        String provider, double latitude, double longitude, float accuracy,
+                        double altitude, float speed, float bearing) {
+        putTimestamps(buffer, ObservationCodec.TYPE_LOCATION, timestamp, elapsedRealtime);
+        putLocation(buffer, provider, latitude, longitude, accuracy, altitude, speed, bearing);
+        this.timestamp = timestamp;
+        this.elapsedRealtime = elapsedRealtime;
+    }
+
+    private void putTimestamps(ByteBuffer buffer, byte type, Observation observation) {
+        putTimestamps(buffer, type, observation.getTimestamp(),
+                observation.getElapsedRealtime());
+    }
+
+    private void putTimestamps(ByteBuffer buffer, byte type, long timestamp,
+                               long elapsedRealtime) {
+        buffer.put(type);
+        ObservationCodec.putSignedVarLong(buffer, timestamp - this.timestamp);
+        ObservationCodec.putSignedVarLong(buffer, elapsedRealtime - this.elapsedRealtime);
+    }
+
+    private static void putLocation(ByteBuffer buffer, String provider, double latitude,
+                                    double longitude, float accuracy, double altitude,
+                                    float speed, float bearing) {
+        ObservationCodec.putString(buffer, provider);
+        int flags = 0;
+        if (!Float.isNaN(accuracy)) {
+            flags |= ObservationCodec.FLAG_ACCURACY;
+        }
+        if (!Double.isNaN(altitude)) {
+            flags |= ObservationCodec.FLAG_ALTITUDE;
+        }
+        if (!Float.isNaN(speed)) {
+            flags |= ObservationCodec.FLAG_SPEED;
+        }
+        if (!Float.isNaN(bearing)) {
+            flags |= ObservationCodec.FLAG_BEARING;
+        }
+        buffer.put((byte) flags);
+        buffer.putInt((int) ObservationCodec.toFixed(latitude,
+                ObservationCodec.COORDINATE_SCALE));
+        buffer.putInt((int) ObservationCodec.toFixed(longitude,
+                ObservationCodec.COORDINATE_SCALE));
+        if (!Float.isNaN(accuracy)) {
+            ObservationCodec.putVarLong(buffer,
+                    ObservationCodec.toFixed(accuracy, ObservationCodec.CENTI_SCALE));
+        }
+        if (!Double.isNaN(altitude)) {
+            ObservationCodec.putSignedVarLong(buffer,
+                    ObservationCodec.toFixed(altitude, ObservationCodec.CENTI_SCALE));
+        }
+        if (!Float.isNaN(speed)) {
+            ObservationCodec.putVarLong(buffer,
+                    ObservationCodec.toFixed(speed, ObservationCodec.CENTI_SCALE));
+        }
+        if (!Float.isNaN(bearing)) {
+            ObservationCodec.putVarLong(buffer,
+                    ObservationCodec.toFixed(bearing, ObservationCodec.CENTI_SCALE));
+        }
+    }
+
+    private static void putWifi(ByteBuffer buffer, List<ScanResult> scans) {
+        final int size = scans.size();
+        ObservationCodec.putVarInt(buffer, size);
+        for (int i = 0; i < size; i++) {
+            final ScanResult scan = scans.get(i);
+            ObservationCodec.putBssid(buffer, WifiScanCompactor.packBssid(scan.BSSID));
+            ObservationCodec.putString(buffer, scan.SSID);
+            ObservationCodec.putSignedVarInt(buffer, scan.level);
+            ObservationCodec.putVarInt(buffer, scan.frequency);
+        }
+    }
+
+    private static void putCells(ByteBuffer buffer, List<CellRecord> cells) {
+        final int size = cells.size();
+        ObservationCodec.putVarInt(buffer, size);
+        for (int i = 0; i < size; i++) {
+            final CellRecord cell = cells.get(i);
+            ObservationCodec.putVarInt(buffer,
+                    (cell.getRadioType() << 1) | (cell.isRegistered() ? 1 : 0));
+            ObservationCodec.putSignedVarLong(buffer, cell.getGlobalId());
+            ObservationCodec.putSignedVarInt(buffer, cell.getDbm());
+        }
+    }
+}
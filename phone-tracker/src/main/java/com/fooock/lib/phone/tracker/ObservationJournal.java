@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of observations stored in fixed size, memory mapped segment files.
+ * Each segment starts with a magic number and the {@link ObservationCodec} header, followed by
+ * the records:
+ * <pre>
+ * [length:4][crc32:4][payload:length]
+ * </pre>
+ * The payload is an observation encoded by {@link ObservationEncoder}. The timestamps of the
+ * first record of a segment are absolute, so each segment can be decoded alone.
+ * A zero length marks the end of the written records. The length of a record is written
+ * after its payload and checksum, so a record torn by a crash is detected by its checksum and
+ * discarded when the journal is recovered. When a record doesn't fit in the current segment a
+ * new one is created, and the oldest segments are deleted when there are more than the
+ * configured max segments.
+ * <p>
+ * The journal is written by the tracker from the sensor looper. Use
+ * {@link #read(File, ObservationVisitor)} to read the stored observations, also from another
+ * process after a crash.
+ */
+public final class ObservationJournal {
+    private static final String TAG = ObservationJournal.class.getSimpleName();
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAGIC = 0x50544a31;
+    private static final int SEGMENT_HEADER_SIZE = 4 + ObservationCodec.HEADER_SIZE;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_SEGMENT_SIZE = 4096;
+    private static final int INITIAL_SCRATCH_SIZE = 4096;
+
+    private static final ObservationVisitor SKIP_VISITOR = new ObservationVisitor() {
+        @Override
+        public void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints) {
+        }
+
+        @Override
+        public void onAccessPoint(long bssid, String ssid, int level, int frequency) {
+        }
+
+        @Override
+        public void onCellScan(long timestamp, long elapsedRealtime, int cells) {
+        }
+
+        @Override
+        public void onCell(int radioType, long globalId, int dbm, boolean registered) {
+        }
+
+        @Override
+        public void onLocation(long timestamp, long elapsedRealtime, String provider,
+                               double latitude, double longitude, float accuracy,
+                               double altitude, float speed, float bearing) {
+        }
+    };
+
+    private static final FileFilter SEGMENT_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+        }
+    };
+
+    private static final Comparator<File> SEGMENT_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File first, File second) {
+            return first.getName().compareTo(second.getName());
+        }
+    };
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final CRC32 crc = new CRC32();
+    private final ObservationEncoder encoder = new ObservationEncoder();
+
+    private ByteBuffer scratch = ByteBuffer.allocate(INITIAL_SCRATCH_SIZE);
+    private long segmentIndex;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private long discardedRecords;
+
+    private ObservationJournal(File directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+        this.maxSegments = Math.max(1, maxSegments);
+    }
+
+    /**
+     * Open the journal, recovering the last segment after a crash
+     *
+     * @param configuration Journal configuration
+     * @return Open journal
+     * @throws IOException If the journal can't be opened
+     */
+    static ObservationJournal open(Configuration.Journal configuration) throws IOException {
+        final ObservationJournal journal = new ObservationJournal(
+                configuration.getDirectory(), configuration.getSegmentSize(),
+                configuration.getMaxSegments());
+        journal.recover();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create journal directory " + directory);
+        }
+        final File[] segments = listSegments(directory);
+        if (segments.length == 0) {
+            openSegment(0);
+            return;
+        }
+        final File last = segments[segments.length - 1];
+        segmentIndex = parseIndex(last);
+        segmentFile = new RandomAccessFile(last, "rw");
+        if (segmentFile.length() != segmentSize || !hasMagic(segmentFile)) {
+            // segment size changed or corrupted header, start a new segment
+            segmentFile.close();
+            openSegment(segmentIndex + 1);
+            applyRetention();
+            return;
+        }
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        final RecordReader reader = new RecordReader();
+        if (!reader.readHeader(segment)) {
+            // written by another codec version, start a new segment
+            segment = null;
+            segmentFile.close();
+            openSegment(segmentIndex + 1);
+            applyRetention();
+            return;
+        }
+        int position = SEGMENT_HEADER_SIZE;
+        while (true) {
+            // decode the records to continue the timestamps of the last one
+            final int next = reader.next(segment, position, SKIP_VISITOR);
+            if (next <= position) {
+                break;
+            }
+            position = next;
+        }
+        encoder.reset(reader.decoder.getTimestamp(), reader.decoder.getElapsedRealtime());
+        if (position + 4 <= segmentSize && segment.getInt(position) != 0) {
+            Log.w(TAG, "Discarding torn record at " + position + " of " + last.getName());
+            segment.putInt(position, 0);
+            discardedRecords++;
+        }
+        segment.position(position);
+        applyRetention();
+    }
+
+    /**
+     * Append an observation. Must be called from a single thread
+     *
+     * @param observation Observation
+     * @return True if stored, false if the observation is bigger than a segment
+     * @throws IOException If a new segment can't be created
+     */
+    boolean append(Observation observation) throws IOException {
+        if (!encode(observation)) {
+            return false;
+        }
+        int length = scratch.position();
+        if (segment.remaining() < RECORD_HEADER_SIZE + length) {
+            segment.force();
+            segmentFile.close();
+            openSegment(segmentIndex + 1);
+            applyRetention();
+            // the first record of the new segment has absolute timestamps
+            if (!encode(observation)) {
+                return false;
+            }
+            length = scratch.position();
+        }
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        final int position = segment.position();
+        segment.position(position + RECORD_HEADER_SIZE);
+        segment.put(scratch.array(), 0, length);
+        segment.putInt(position + 4, (int) crc.getValue());
+        // the length is written last, it makes the record visible
+        segment.putInt(position, length);
+        return true;
+    }
+
+    /**
+     * Encode the observation in the scratch buffer, growing it if needed
+     *
+     * @return True if encoded, false if the observation is bigger than a segment
+     */
+    private boolean encode(Observation observation) {
+        final int maxPayload = segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE;
+        while (true) {
+            scratch.clear();
+            try {
+                encoder.encode(observation, scratch);
+                return true;
+            } catch (BufferOverflowException e) {
+                if (scratch.capacity() >= maxPayload) {
+                    Log.w(TAG, "Observation bigger than a journal segment, discarded");
+                    discardedRecords++;
+                    return false;
+                }
+                scratch = ByteBuffer.allocate(Math.min(maxPayload, scratch.capacity() * 2));
+            }
+        }
+    }
+
+    /**
+     * Write the mapped pages of the current segment to the storage. Without this the records
+     * survive a process crash but not a power loss
+     */
+    void sync() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Sync and close the journal
+     */
+    void close() {
+        sync();
+        segment = null;
+        if (segmentFile != null) {
+            try {
+                segmentFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing journal segment", e);
+            }
+            segmentFile = null;
+        }
+    }
+
+    /**
+     * @return Number of records discarded because they were torn or too big
+     */
+    long getDiscardedRecords() {
+        return discardedRecords;
+    }
+
+    private void openSegment(long index) throws IOException {
+        segmentIndex = index;
+        final File file = new File(directory, segmentName(index));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segmentFile.setLength(0);
+        segmentFile.setLength(segmentSize);
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(0, MAGIC);
+        segment.position(4);
+        encoder.writeHeader(segment);
+    }
+
+    /**
+     * Delete the oldest segments when there are more than the max segments
+     */
+    private void applyRetention() {
+        final File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segments[i].delete()) {
+                Log.w(TAG, "Can't delete journal segment " + segments[i].getName());
+            }
+        }
+    }
+
+    /**
+     * Read all the valid records of the journal, from the oldest to the newest. The journal
+     * can be read while the tracker writes it, the records written during the read may be
+     * missed
+     *
+     * @param directory Journal directory
+     * @param visitor   Visitor of the stored observations
+     * @return Number of records read
+     * @throws IOException If a segment can't be read
+     */
+    public static long read(File directory, ObservationVisitor visitor) throws IOException {
+        final RecordReader reader = new RecordReader();
+        long records = 0;
+        for (File file : listSegments(directory)) {
+            final RandomAccessFile segmentFile = new RandomAccessFile(file, "r");
+            try {
+                final long length = segmentFile.length();
+                if (length < SEGMENT_HEADER_SIZE || !hasMagic(segmentFile)) {
+                    continue;
+                }
+                final ByteBuffer segment = segmentFile.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, length);
+                if (!reader.readHeader(segment)) {
+                    continue;
+                }
+                int position = SEGMENT_HEADER_SIZE;
+                while (true) {
+                    final int next = reader.next(segment, position, visitor);
+                    if (next <= position) {
+                        break;
+                    }
+                    position = next;
+                    records++;
+                }
+            } finally {
+                segmentFile.close();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Validates and decodes the records of the segments, reusing its buffers
+     */
+    private static final class RecordReader {
+        private final CRC32 crc = new CRC32();
+        private final ObservationDecoder decoder = new ObservationDecoder();
+        private byte[] bytes = new byte[INITIAL_SCRATCH_SIZE];
+
+        /**
+         * Read the codec header of the segment
+         *
+         * @return True if the segment can be decoded, false if not
+         */
+        boolean readHeader(ByteBuffer segment) {
+            if (segment.limit() < SEGMENT_HEADER_SIZE) {
+                return false;
+            }
+            final ByteBuffer header = segment.duplicate();
+            header.position(4);
+            try {
+                decoder.readHeader(header);
+                return true;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Can't decode journal segment: " + e.getMessage());
+                return false;
+            }
+        }
+
+        /**
+         * Validate the record at the given position and decode it
+         *
+         * @return Position of the next record, or the same position if there is no valid
+         * record
+         */
+        int next(ByteBuffer segment, int position, ObservationVisitor visitor) {
+            final int limit = segment.limit();
+            if (position + RECORD_HEADER_SIZE > limit) {
+                return position;
+            }
+            final int length = segment.getInt(position);
+            final int payload = position + RECORD_HEADER_SIZE;
+            if (length <= 0 || length > limit - payload) {
+                return position;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            final ByteBuffer record = segment.duplicate();
+            record.position(payload);
+            record.get(bytes, 0, length);
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != segment.getInt(position + 4)) {
+                return position;
+            }
+            try {
+                decoder.decode(ByteBuffer.wrap(bytes, 0, length), visitor);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                Log.w(TAG, "Can't decode journal record at " + position, e);
+            }
+            return payload + length;
+        }
+    }
+
+    private static boolean hasMagic(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        return file.readInt() == MAGIC;
+    }
+
+    private static File[] listSegments(File directory) {
+        final File[] segments = directory.listFiles(SEGMENT_FILTER);
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments, SEGMENT_ORDER);
+        return segments;
+    }
+
+    private static String segmentName(long index) {
+        return String.format(Locale.US, "%016x%s", index, SEGMENT_SUFFIX);
+    }
+
+    private static long parseIndex(File segment) {
+        final String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Reads the observations published by the tracker at its own pace. The reader never blocks the
+ * sensors: if it falls behind the capacity of the bus, the overwritten observations are
+ * skipped and counted in {@link #getLost()}. A reader must be used from a single thread,
+ * different readers can be used from different threads
+ */
+public final class ObservationReader {
+
+    /**
+     * Receives the observations read
+     */
+    public interface Callback {
+        /**
+         * @param sequence    Sequence of the observation, increasing without gaps unless
+         *                    observations are lost
+         * @param observation Observation
+         */
+        void onObservation(long sequence, Observation observation);
+    }
+
+    private final ObservationBus bus;
+
+    private long nextSequence;
+    private long lost;
+    private boolean closed;
+
+    ObservationReader(ObservationBus bus, long nextSequence) {
+        this.bus = bus;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * Read the observations published since the last call
+     *
+     * @param callback        Callback for each observation
+     * @param maxObservations Max number of observations to read
+     * @return Number of observations read
+     */
+    public int drain(Callback callback, int maxObservations) {
+        if (closed) {
+            return 0;
+        }
+        int count = 0;
+        while (count < maxObservations && nextSequence <= bus.cursor()) {
+            final Observation observation = bus.read(nextSequence);
+            if (observation == null) {
+                // the producer overwrote the slot, jump to the oldest readable observation
+                final long oldest = Math.max(bus.oldestSequence(), nextSequence + 1);
+                lost += oldest - nextSequence;
+                nextSequence = oldest;
+                continue;
+            }
+            callback.onObservation(nextSequence, observation);
+            nextSequence++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of published observations not read yet, including the ones that will be
+     * lost
+     */
+    public long available() {
+        return closed ? 0 : bus.cursor() + 1 - nextSequence;
+    }
+
+    /**
+     * @return Sequence of the next observation to read
+     */
+    public long getSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return Number of observations skipped because they were overwritten before being read
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * Close the reader. When no readers are open the tracker stops publishing observations
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        bus.closeReader();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Subscription to the observations of the tracker with its own bounded queue. The sensors
+ * offer each observation to the queue, and the observations are delivered in order from the
+ * executor of the subscription, so a slow subscriber doesn't delay the sensors unless its
+ * policy is {@link OverflowPolicy#BLOCK}. When the queue is full the {@link OverflowPolicy}
+ * decides which observation is dropped.
+ * <p>
+ * The sequence given to the callback increases by one with each observation offered to this
+ * subscription, so gaps show the dropped observations.
+ * <p>
+ * A {@link OverflowPolicy#BLOCK} subscription must not deliver in the sensor looper, because
+ * the looper would wait for itself. When the delivery runs in the thread that offers the
+ * observation, or the first delivery doesn't start in a second, the observation is dropped
+ * instead of waiting. If the executor rejects the delivery the subscription is cancelled.
+ */
+public final class ObservationSubscription {
+    private static final String TAG = ObservationSubscription.class.getSimpleName();
+
+    /**
+     * Milliseconds a blocked offer waits for the first delivery to start
+     */
+    static final long FIRST_DELIVERY_TIMEOUT = 1000;
+
+    private final Executor executor;
+    private final OverflowPolicy overflowPolicy;
+    private final ObservationReader.Callback callback;
+    private final int capacity;
+    private final List<ObservationSubscription> subscriptions;
+
+    private final Object lock = new Object();
+    private final Observation[] observations;
+    private final long[] sequences;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Thread of the last delivery, null if none started yet
+     */
+    private volatile Thread deliveryThread;
+
+    // guarded by lock
+    private int head;
+    private int size;
+    private long nextSequence;
+    private long dropped;
+    private long delivered;
+    private boolean cancelled;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    ObservationSubscription(List<ObservationSubscription> subscriptions, Executor executor,
+                            int capacity, OverflowPolicy overflowPolicy,
+                            ObservationReader.Callback callback) {
+        if (executor == null || overflowPolicy == null || callback == null) {
+            throw new IllegalArgumentException("Executor, policy and callback can't be null");
+        }
+        this.executor = executor;
+        this.overflowPolicy = overflowPolicy;
+        this.callback = callback;
+        this.subscriptions = subscriptions;
+        this.capacity = overflowPolicy == OverflowPolicy.LATEST ? 1 : Math.max(1, capacity);
+        this.observations = new Observation[this.capacity];
+        this.sequences = new long[this.capacity];
+    }
+
+    /**
+     * Offer an observation to the queue, called from the sensor looper
+     *
+     * @param observation Observation
+     */
+    void offer(Observation observation) {
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            final long sequence = nextSequence++;
+            if (size == capacity) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST:
+                        dropped++;
+                        return;
+                    case BLOCK:
+                        if (!awaitSpace()) {
+                            dropped++;
+                            return;
+                        }
+                        if (cancelled) {
+                            return;
+                        }
+                        break;
+                    default:
+                        // DROP_OLDEST and LATEST
+                        observations[head] = null;
+                        head = (head + 1) % capacity;
+                        size--;
+                        dropped++;
+                        break;
+                }
+            }
+            final int tail = (head + size) % capacity;
+            observations[tail] = observation;
+            sequences[tail] = sequence;
+            size++;
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Wait until the subscriber takes an observation from the full queue, holding the lock.
+     * It doesn't wait when the delivery can't run until this thread returns
+     *
+     * @return True if the queue has space or the subscription was cancelled, false if the
+     * observation must be dropped
+     */
+    private boolean awaitSpace() {
+        final Thread current = Thread.currentThread();
+        while (size == capacity && !cancelled) {
+            final Thread delivery = deliveryThread;
+            if (delivery == current) {
+                Log.w(TAG, "Blocking subscription delivered in the offering thread, dropping");
+                return false;
+            }
+            try {
+                if (delivery != null) {
+                    lock.wait();
+                    continue;
+                }
+                // the first delivery can be queued behind the offering thread
+                lock.wait(FIRST_DELIVERY_TIMEOUT);
+                if (deliveryThread == null && size == capacity) {
+                    Log.w(TAG, "First delivery of blocking subscription not started, dropping");
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Executor rejected the delivery, cancelling subscription", e);
+            draining.set(false);
+            cancel();
+        }
+    }
+
+    /**
+     * Deliver the queued observations in the executor
+     */
+    private void drain() {
+        deliveryThread = Thread.currentThread();
+        while (true) {
+            final Observation observation;
+            final long sequence;
+            synchronized (lock) {
+                if (size == 0 || cancelled) {
+                    draining.set(false);
+                    break;
+                }
+                observation = observations[head];
+                sequence = sequences[head];
+                observations[head] = null;
+                head = (head + 1) % capacity;
+                size--;
+                delivered++;
+                lock.notifyAll();
+            }
+            try {
+                callback.onObservation(sequence, observation);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Subscriber failed to process observation " + sequence, e);
+            }
+        }
+        // an observation can be offered after the queue was seen empty
+        synchronized (lock) {
+            if (size == 0 || cancelled) {
+                return;
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * @return Number of observations dropped by the overflow policy
+     */
+    public long getDropped() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * @return Number of observations delivered to the callback
+     */
+    public long getDelivered() {
+        synchronized (lock) {
+            return delivered;
+        }
+    }
+
+    /**
+     * @return Number of observations waiting in the queue
+     */
+    public int getQueued() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Stop receiving observations. The queued observations are discarded
+     */
+    public void cancel() {
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            for (int i = 0; i < capacity; i++) {
+                observations[i] = null;
+            }
+            size = 0;
+            lock.notifyAll();
+        }
+        subscriptions.remove(this);
+    }
+
+    /**
+     * @return True if the subscription was cancelled, false if not
+     */
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return cancelled;
+        }
+    }
+}
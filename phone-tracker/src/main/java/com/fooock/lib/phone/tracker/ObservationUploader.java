@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.util.Log;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encode the observations of all the sensors in batches and give them to the
+ * {@link UploadQueue}. A batch is completed when it has the max observations or the max
+ * bytes, when its first observation is older than the max latency or when it is flushed. Each
+ * batch is a complete {@link ObservationCodec} stream. This class must be used from the thread
+ * of the scheduler
+ */
+final class ObservationUploader {
+    private static final String TAG = ObservationUploader.class.getSimpleName();
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final Scheduler scheduler;
+    private final UploadQueue uploadQueue;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final long maxLatency;
+    private final ObservationEncoder encoder = new ObservationEncoder();
+
+    private ByteBuffer buffer;
+    private int size;
+
+    private final Runnable latencyFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ObservationUploader(Scheduler scheduler, Configuration.Upload configuration,
+                        UploadQueue uploadQueue) {
+        this.scheduler = scheduler;
+        this.uploadQueue = uploadQueue;
+        this.maxBatchSize = Math.max(1, configuration.getMaxBatchSize());
+        this.maxBatchBytes = Math.max(ObservationCodec.HEADER_SIZE + 1,
+                configuration.getMaxBatchBytes());
+        this.maxLatency = configuration.getMaxLatency();
+        this.buffer = ByteBuffer.allocate(Math.min(INITIAL_BUFFER_SIZE, maxBatchBytes));
+        encoder.writeHeader(buffer);
+    }
+
+    /**
+     * Add an observation, completing the batch if it is full
+     *
+     * @param observation Observation
+     */
+    void add(Observation observation) {
+        while (true) {
+            final int start = buffer.position();
+            try {
+                encoder.encode(observation, buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                if (grow()) {
+                    continue;
+                }
+                if (size == 0) {
+                    Log.w(TAG, "Observation bigger than an upload batch, discarded");
+                    return;
+                }
+                // try again in a new batch
+                flush();
+            }
+        }
+        size++;
+        if (size >= maxBatchSize || buffer.position() >= maxBatchBytes) {
+            flush();
+        } else if (size == 1) {
+            scheduler.postDelayed(latencyFlush, maxLatency);
+        }
+    }
+
+    /**
+     * Give the current batch to the upload queue, if not empty
+     */
+    void flush() {
+        scheduler.removeCallbacks(latencyFlush);
+        if (size == 0) {
+            return;
+        }
+        uploadQueue.enqueue(Arrays.copyOf(buffer.array(), buffer.position()));
+        buffer.clear();
+        encoder.writeHeader(buffer);
+        size = 0;
+    }
+
+    /**
+     * Flush the current batch and close the upload queue
+     */
+    void close() {
+        flush();
+        uploadQueue.close();
+    }
+
+    /**
+     * @return Number of observations in the current batch
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Double the buffer, up to twice the max batch bytes so an observation bigger than the
+     * remaining bytes of a batch still fits
+     *
+     * @return True if the buffer was grown, false if it has the max size
+     */
+    private boolean grow() {
+        final int maxCapacity = 2 * maxBatchBytes;
+        if (buffer.capacity() >= maxCapacity) {
+            return false;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(
+                Math.min(maxCapacity, buffer.capacity() * 2));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+        return true;
+    }
+}
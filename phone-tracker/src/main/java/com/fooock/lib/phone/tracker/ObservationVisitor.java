@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Receives the fields of the decoded observations, without creating the observation objects.
+ * A wifi scan is notified with {@link #onWifiScan(long, long, int)} followed by one
+ * {@link #onAccessPoint(long, String, int, int)} call for each access point, and a cell scan
+ * with {@link #onCellScan(long, long, int)} followed by one
+ * {@link #onCell(int, long, int, boolean)} call for each cell
+ */
+public interface ObservationVisitor {
+
+    /**
+     * @param timestamp       Current time in milliseconds when the scan was received
+     * @param elapsedRealtime Elapsed realtime in milliseconds of the scan
+     * @param accessPoints    Number of access points that follow
+     */
+    void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints);
+
+    /**
+     * @param bssid     BSSID packed in 48 bits, see {@link CompactWifiScan#formatBssid(long)}
+     * @param ssid      SSID
+     * @param level     RSSI in dBm
+     * @param frequency Frequency in MHz
+     */
+    void onAccessPoint(long bssid, String ssid, int level, int frequency);
+
+    /**
+     * @param timestamp       Current time in milliseconds when the scan was received
+     * @param elapsedRealtime Elapsed realtime in milliseconds of the scan
+     * @param cells           Number of cells that follow
+     */
+    void onCellScan(long timestamp, long elapsedRealtime, int cells);
+
+    /**
+     * @param radioType  One of the {@code CellRecord.RADIO_*} values
+     * @param globalId   Packed global id, see {@link CellKey}
+     * @param dbm        Signal strength in dBm, or {@link CellRecord#UNAVAILABLE}
+     * @param registered True if the device was registered to the cell
+     */
+    void onCell(int radioType, long globalId, int dbm, boolean registered);
+
+    /**
+     * Called for each location. Unknown values are {@link Float#NaN} or {@link Double#NaN}
+     *
+     * @param timestamp       Current time in milliseconds when the location was received
+     * @param elapsedRealtime Elapsed realtime in milliseconds of the fix
+     * @param provider        Provider name, can be null
+     * @param latitude        Latitude in degrees
+     * @param longitude       Longitude in degrees
+     * @param accuracy        Horizontal accuracy in meters
+     * @param altitude        Altitude in meters
+     * @param speed           Speed in m/s
+     * @param bearing         Bearing in degrees
+     */
+    void onLocation(long timestamp, long elapsedRealtime, String provider, double latitude,
+                    double longitude, float accuracy, double altitude, float speed,
+                    float bearing);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * What an {@link ObservationSubscription} does when its queue is full
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest queued observation to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new observation
+     */
+    DROP_NEWEST,
+
+    /**
+     * Keep only the newest observation, replacing the queued one. The queue capacity is ignored
+     */
+    LATEST,
+
+    /**
+     * Block the sensors until the subscriber makes room in the queue. Note that all the sensors
+     * are scanned in the same thread, so a slow subscriber delays all of them
+     */
+    BLOCK
+}
@@ -22,16 +22,22 @@ import android.content.Context;
 import android.location.Location;
 import android.net.wifi.ScanResult;
 import android.os.Build;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.telephony.CellInfo;
 import android.telephony.NeighboringCellInfo;
 import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
- *
+ * Entry point of the library. The sensors are scanned in the looper of the
+ * {@link Configuration}, or in a background thread owned by the tracker, and all the listeners
+ * are called from that thread
  */
 public final class PhoneTracker {
     private static final String TAG = PhoneTracker.class.getSimpleName();
@@ -52,23 +58,100 @@ public final class PhoneTracker {
             Manifest.permission.CHANGE_WIFI_STATE
     };
 
+    /**
+     * Name of the background thread used to scan the sensors
+     */
+    private static final String SENSOR_THREAD_NAME = "phone-tracker-sensors";
+
+    /**
+     * Number of observations kept in the observation bus for its readers
+     */
+    private static final int OBSERVATION_BUS_CAPACITY = 1024;
+
     private final Context context;
+    private final Clock clock;
+    private final Scheduler.Factory schedulerFactory;
+    private final BackgroundScheduler backgroundScheduler;
+    private final Scheduler mainScheduler;
     private final List<PermissionListener> permissionListeners = new ArrayList<>();
     private final CheckVersion checkVersion = new CheckVersion();
     private final CheckPermission checkPermission;
     private final Object lock = new Object();
+    private final ObservationBus observationBus = new ObservationBus(OBSERVATION_BUS_CAPACITY);
+    private final List<ObservationSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final DemandPublisher<WifiObservation> wifiPublisher = new DemandPublisher<>();
+    private final DemandPublisher<CellObservation> cellPublisher = new DemandPublisher<>();
+    private final DemandPublisher<LocationObservation> locationPublisher =
+            new DemandPublisher<>();
 
     private boolean running;
 
     private WifiReceiver wifiReceiver;
     private CellReceiver cellReceiver;
-    private GpsReceiver gpsReceiver;
+    private volatile GpsReceiver gpsReceiver;
+    private TraceReplayReceiver replayReceiver;
+    private StationaryDetector stationaryDetector;
     private Configuration configuration;
 
+    private boolean ownSensorLooper;
+    private Looper sensorLooper;
+    private WakeupAligner wakeupAligner;
+    private Scheduler sensorScheduler;
+    private ObservationDispatcher observationDispatcher;
+
     private ConfigurationChangeListener configurationChangeListener;
     private CellScanListener cellScanListener;
+    private CellRecordListener cellRecordListener;
     private WifiScanListener wifiScanListener;
+    private WifiDeltaListener wifiDeltaListener;
+    private CompactWifiScanListener compactWifiScanListener;
     private GpsLocationListener gpsLocationListener;
+    private BatchListener batchListener;
+    private EnvironmentSnapshotListener environmentSnapshotListener;
+    private TrackerMetrics metrics = TrackerMetrics.NONE;
+    private final EnergyAccountant energyAccountant;
+
+    private volatile boolean background;
+
+    /**
+     * Finishes the running background collection window, null if none. Guarded by the lock
+     */
+    private Runnable windowFinished;
+
+    /**
+     * Receives the background collection windows in the main thread. The windows start and
+     * end with the lock held, so they don't overlap a stop called from another thread
+     */
+    private final BackgroundScheduler.Callback backgroundCallback =
+            new BackgroundScheduler.Callback() {
+                @Override
+                public void onWindowStart(Runnable finished) {
+                    synchronized (lock) {
+                        if (!running || !background || windowFinished != null) {
+                            finished.run();
+                            return;
+                        }
+                        Log.d(TAG, "Background collection window started");
+                        windowFinished = finished;
+                        registerReceivers(configuration.usingWifi(),
+                                configuration.usingCell(), configuration.usingGps());
+                        mainScheduler.postDelayed(windowEnd,
+                                configuration.backgroundConfiguration().getCollectionTime());
+                    }
+                }
+
+                @Override
+                public void onWindowStop() {
+                    finishWindow();
+                }
+            };
+
+    private final Runnable windowEnd = new Runnable() {
+        @Override
+        public void run() {
+            finishWindow();
+        }
+    };
 
     /**
      * Listener to notify missing permissions
@@ -138,6 +221,20 @@ public final class PhoneTracker {
         }
     }
 
+    /**
+     * Listener to receive the cell scans normalized to {@link CellRecord}. Unlike the
+     * {@link CellScanListener}, this listener is called in all android versions
+     */
+    public interface CellRecordListener {
+        /**
+         * Called when the cell scan is completed
+         *
+         * @param timestamp Current time in milliseconds when the scans are received
+         * @param cells     List of scanned cells, never null
+         */
+        void onCellRecordsReceived(long timestamp, List<CellRecord> cells);
+    }
+
     /**
      * Listener to receive wifi scans
      */
@@ -151,6 +248,40 @@ public final class PhoneTracker {
         void onWifiScansReceived(long timestamp, List<ScanResult> wifiScans);
     }
 
+    /**
+     * Listener to receive only the wifi access points that changed between scans. This listener
+     * is only called when the delta mode is enabled in the {@link Configuration.Wifi}. Note that
+     * the lists are reused between scans, so copy them if you need to keep them after the call
+     */
+    public interface WifiDeltaListener {
+        /**
+         * Called when a wifi scan is different from the previous one
+         *
+         * @param timestamp Current time in milliseconds when the wifi scans are received
+         * @param added     Access points not present in the previous scan. Never null
+         * @param removed   Access points present in the previous scan but not in this one.
+         *                  Never null
+         * @param changed   Access points whose RSSI changed at least the configured threshold.
+         *                  Never null
+         */
+        void onWifiDeltaReceived(long timestamp, List<ScanResult> added,
+                                 List<ScanResult> removed, List<ScanResult> changed);
+    }
+
+    /**
+     * Listener to receive the wifi scans in a {@link CompactWifiScan}. The compact scan is
+     * reused between scans, so it is only valid until the method returns
+     */
+    public interface CompactWifiScanListener {
+        /**
+         * Called when the wifi scan is completed
+         *
+         * @param timestamp Current time in milliseconds when the wifi scans are received
+         * @param wifiScan  Compact wifi scan. Never null
+         */
+        void onCompactWifiScanReceived(long timestamp, CompactWifiScan wifiScan);
+    }
+
     /**
      * Listener to receive location updates from the gps
      */
@@ -164,17 +295,106 @@ public final class PhoneTracker {
         void onLocationReceived(long timestamp, Location location);
     }
 
+    /**
+     * Listener to receive the observations of each sensor in batches. This listener is only
+     * called when the batching is enabled in the {@link Configuration}. The observations are
+     * also delivered to the listener of their sensor as soon as they are received
+     */
+    public interface BatchListener {
+        /**
+         * Called when a batch of wifi scans is ready
+         *
+         * @param observations Wifi scans in arrival order. Never empty
+         */
+        void onWifiBatchReceived(List<WifiObservation> observations);
+
+        /**
+         * Called when a batch of cell scans is ready
+         *
+         * @param observations Cell scans in arrival order. Never empty
+         */
+        void onCellBatchReceived(List<CellObservation> observations);
+
+        /**
+         * Called when a batch of location updates is ready
+         *
+         * @param observations Location updates in arrival order. Never empty
+         */
+        void onLocationBatchReceived(List<LocationObservation> observations);
+    }
+
+    /**
+     * Adapter class for {@link BatchListener}
+     */
+    public static abstract class BatchAdapter implements BatchListener {
+        @Override
+        public void onWifiBatchReceived(List<WifiObservation> observations) {
+        }
+
+        @Override
+        public void onCellBatchReceived(List<CellObservation> observations) {
+        }
+
+        @Override
+        public void onLocationBatchReceived(List<LocationObservation> observations) {
+        }
+    }
+
+    /**
+     * Listener to receive the observations of the sensors joined in time windows. This
+     * listener is only called when the snapshots are enabled in the {@link Configuration}
+     */
+    public interface EnvironmentSnapshotListener {
+        /**
+         * Called when a snapshot window is closed
+         *
+         * @param snapshot Last wifi scan, cell scan and location of the window
+         */
+        void onSnapshotReceived(EnvironmentSnapshot snapshot);
+    }
+
     /**
      * Create the phone tracker
      *
      * @param context Application context
      */
     public PhoneTracker(Context context) {
+        this(context, Clock.SYSTEM, HandlerScheduler.FACTORY, newBackgroundScheduler(context));
+    }
+
+    /**
+     * Create the phone tracker with the given time source, used by the tests to run the
+     * tracker with a virtual clock
+     *
+     * @param context             Application context
+     * @param clock               Clock of the observations and the scan intervals
+     * @param schedulerFactory    Creates the schedulers of the tasks in the sensor looper, and
+     *                            the looper when the configuration doesn't provide one
+     * @param backgroundScheduler Schedules the collection windows in background
+     */
+    PhoneTracker(Context context, Clock clock, Scheduler.Factory schedulerFactory,
+                 BackgroundScheduler backgroundScheduler) {
         if (context == null) {
             throw new IllegalArgumentException("Context can't be null");
         }
         this.context = context;
+        this.clock = clock;
+        this.schedulerFactory = schedulerFactory;
+        this.backgroundScheduler = backgroundScheduler;
+        this.mainScheduler = schedulerFactory.create(schedulerFactory.getMainLooper());
+        this.energyAccountant = new EnergyAccountant(clock, new Configuration.Energy());
         this.checkPermission = new CheckPermission(context);
+
+        // the gps receiver removes its providers without demand, wake it up
+        locationPublisher.setDemandListener(new Runnable() {
+            @Override
+            public void run() {
+                final GpsReceiver receiver = gpsReceiver;
+                if (receiver != null) {
+                    receiver.onDemand();
+                }
+            }
+        });
     }
 
     /**
@@ -198,9 +418,11 @@ public final class PhoneTracker {
         final boolean usingWifi = configuration.usingWifi();
         final boolean usingGps = configuration.usingGps();
         final boolean usingCell = configuration.usingCell();
+        // a replay doesn't scan the sensors, so it doesn't need permissions
+        final boolean replaying = configuration.replayConfiguration() != null;
 
         // Check for wifi scan permissions
-        if (usingWifi) {
+        if (usingWifi && !replaying) {
             // android m or greater need location permissions for scan wifi
             if (equalOrGreaterM
                     && !checkPermission.hasAnyPermission(LOCATION_PERMISSIONS)
@@ -210,39 +432,100 @@ public final class PhoneTracker {
             }
         }
         // Check for gps permissions
-        if (usingGps) {
+        if (usingGps && !replaying) {
             if (equalOrGreaterM && !checkPermission.hasAnyPermission(LOCATION_PERMISSIONS)) {
                 notifyPermissionsNotGranted(LOCATION_PERMISSIONS);
                 return;
             }
         }
         // Check for cell scan permissions
-        if (usingCell) {
+        if (usingCell && !replaying) {
             if (equalOrGreaterM && !checkPermission.hasAnyPermission(LOCATION_PERMISSIONS)) {
                 notifyPermissionsNotGranted(LOCATION_PERMISSIONS);
                 return;
             }
         }
 
+        sensorLooper = obtainSensorLooper();
+        wakeupAligner = new WakeupAligner(schedulerFactory.create(sensorLooper), clock,
+                configuration.wakeupAlignment());
+        sensorScheduler = newScheduler();
+
+        observationDispatcher = new ObservationDispatcher(sensorScheduler, clock,
+                observationBus, subscriptions, wifiPublisher, cellPublisher, locationPublisher,
+                configuration.batchConfiguration(), configuration.snapshotConfiguration(),
+                wifiScanListener, cellRecordListener, gpsLocationListener, batchListener,
+                environmentSnapshotListener);
+        openJournal(configuration.journalConfiguration());
+        openUploader(configuration.uploadConfiguration());
+        openRecorder(configuration.traceFile());
+
+        if (replaying) {
+            replayReceiver = new TraceReplayReceiver(newScheduler(), clock, configuration,
+                    observationDispatcher);
+            replayReceiver.register();
+        } else if (background) {
+            scheduleBackgroundWindows();
+        } else {
+            registerReceivers(usingWifi, usingCell, usingGps);
+        }
+        synchronized (lock) {
+            running = true;
+        }
+        Log.d(TAG, "Starting now...");
+    }
+
+    /**
+     * Create and register the receivers of the sensors in use
+     */
+    private void registerReceivers(boolean usingWifi, boolean usingCell, boolean usingGps) {
+        stationaryDetector = new StationaryDetector(context, newScheduler(), clock,
+                energyAccountant, configuration);
+        stationaryDetector.register();
         if (usingWifi) {
-            wifiReceiver = new WifiReceiver(
-                    context, configuration.wifiConfiguration(), wifiScanListener);
+            wifiReceiver = new WifiReceiver(context, newScheduler(), clock,
+                    sensorMetrics(TrackerMetrics.SENSOR_WIFI), energyAccountant,
+                    configuration.wifiConfiguration(), scanGate(wifiPublisher),
+                    stationaryDetector, observationDispatcher, wifiDeltaListener,
+                    compactWifiScanListener);
             wifiReceiver.register();
         }
         if (usingCell) {
-            cellReceiver = new CellReceiver(
-                    context, configuration.cellConfiguration(), cellScanListener);
+            cellReceiver = new CellReceiver(context, newScheduler(), clock,
+                    sensorMetrics(TrackerMetrics.SENSOR_CELL), energyAccountant,
+                    configuration.cellConfiguration(), scanGate(cellPublisher),
+                    stationaryDetector, cellScanListener, observationDispatcher);
             cellReceiver.register();
         }
         if (usingGps) {
-            gpsReceiver = new GpsReceiver(
-                    context, configuration.gpsConfiguration(), gpsLocationListener);
+            gpsReceiver = new GpsReceiver(context, newScheduler(), clock,
+                    sensorMetrics(TrackerMetrics.SENSOR_GPS), energyAccountant,
+                    configuration.gpsConfiguration(), scanGate(locationPublisher),
+                    stationaryDetector, observationDispatcher);
             gpsReceiver.register();
         }
-        synchronized (lock) {
-            running = true;
+    }
+
+    /**
+     * Unregister the receivers of the sensors, if registered
+     */
+    private void unregisterReceivers() {
+        if (wifiReceiver != null) {
+            wifiReceiver.unregister();
+            wifiReceiver = null;
+        }
+        if (cellReceiver != null) {
+            cellReceiver.unregister();
+            cellReceiver = null;
+        }
+        if (gpsReceiver != null) {
+            gpsReceiver.unregister();
+            gpsReceiver = null;
+        }
+        if (stationaryDetector != null) {
+            stationaryDetector.unregister();
+            stationaryDetector = null;
         }
-        Log.d(TAG, "Starting now...");
     }
 
     /**
@@ -254,22 +537,222 @@ public final class PhoneTracker {
                 Log.w(TAG, "Not running, can't stop ;-)");
                 return;
             }
+            // no window starts once the tracker is stopping
+            running = false;
         }
-        if (wifiReceiver != null) {
-            wifiReceiver.unregister();
-        }
-        if (cellReceiver != null) {
-            cellReceiver.unregister();
-        }
-        if (gpsReceiver != null) {
-            gpsReceiver.unregister();
+        backgroundScheduler.cancel();
+        finishWindow();
+        unregisterReceivers();
+        if (replayReceiver != null) {
+            replayReceiver.unregister();
+            replayReceiver = null;
         }
+        flushObservations();
+        quitSensorThread();
         removePermissionListener();
         Log.d(TAG, "Stopped tracker");
+    }
 
-        synchronized (lock) {
-            running = false;
+    /**
+     * @param sensor One of the {@code TrackerMetrics.SENSOR_*} values
+     * @return Metrics of the sensor
+     */
+    private SensorMetrics sensorMetrics(int sensor) {
+        return new SensorMetrics(metrics, sensor);
+    }
+
+    /**
+     * @return New scheduler of tasks in the sensor looper, owned by one receiver. All the
+     * schedulers share the wakeups of the sensor looper
+     */
+    private Scheduler newScheduler() {
+        return wakeupAligner.create();
+    }
+
+    /**
+     * Get the looper where the receivers scan the sensors. If the configuration doesn't provide
+     * a looper, a background thread owned by the tracker is started
+     *
+     * @return Sensor looper
+     */
+    private Looper obtainSensorLooper() {
+        final Looper looper = configuration.looper();
+        if (looper != null) {
+            return looper;
+        }
+        ownSensorLooper = true;
+        return schedulerFactory.startLooper(SENSOR_THREAD_NAME);
+    }
+
+    /**
+     * Open the journal in the sensor looper, before any observation is received. The
+     * recovery of the journal reads the storage, so it is not done in the caller thread
+     *
+     * @param journalConfiguration Journal configuration, or null if not used
+     */
+    private void openJournal(final Configuration.Journal journalConfiguration) {
+        if (journalConfiguration == null) {
+            return;
+        }
+        final ObservationDispatcher dispatcher = observationDispatcher;
+        sensorScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.openJournal(journalConfiguration);
+            }
+        });
+    }
+
+    /**
+     * Start recording the observations in the sensor looper, before any observation is
+     * received
+     *
+     * @param traceFile Trace file, or null if not recording
+     */
+    private void openRecorder(final File traceFile) {
+        if (traceFile == null) {
+            return;
+        }
+        final ObservationDispatcher dispatcher = observationDispatcher;
+        sensorScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.openRecorder(traceFile);
+            }
+        });
+    }
+
+    /**
+     * Create the uploader and start uploading the batches stored by a previous run. The
+     * uploader is given to the dispatcher in the sensor looper
+     *
+     * @param uploadConfiguration Upload configuration, or null if not used
+     */
+    private void openUploader(Configuration.Upload uploadConfiguration) {
+        if (uploadConfiguration == null) {
+            return;
         }
+        final UploadQueue uploadQueue = new UploadQueue(uploadConfiguration);
+        final ObservationUploader uploader = new ObservationUploader(
+                sensorScheduler, uploadConfiguration, uploadQueue);
+        uploadQueue.start();
+        final ObservationDispatcher dispatcher = observationDispatcher;
+        sensorScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.setUploader(uploader);
+            }
+        });
+    }
+
+    /**
+     * Deliver the observations buffered by the batches and the open snapshot windows, close
+     * the journal and give the last batch to the uploader. This is done in the sensor looper,
+     * after the observations already posted to it
+     */
+    private void flushObservations() {
+        final ObservationDispatcher dispatcher = observationDispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        sensorScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.close();
+            }
+        });
+        observationDispatcher = null;
+    }
+
+    /**
+     * Quit the background thread of the tracker, if it was started. The messages already
+     * posted to the thread, like the last batches, are processed before quitting
+     */
+    private void quitSensorThread() {
+        final Looper looper = sensorLooper;
+        if (ownSensorLooper) {
+            if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR2)) {
+                looper.quitSafely();
+            } else {
+                sensorScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        looper.quit();
+                    }
+                });
+            }
+            ownSensorLooper = false;
+        }
+        sensorScheduler = null;
+        wakeupAligner = null;
+        sensorLooper = null;
+    }
+
+
+    /**
+     * Open a reader of the observations of all the sensors. The reader receives the
+     * observations published after it is opened, at its own pace and from its own thread,
+     * without blocking the sensors. Close the reader when it is not needed
+     *
+     * @return New observation reader
+     */
+    public ObservationReader openObservationReader() {
+        return observationBus.openReader();
+    }
+
+    /**
+     * Get the gate of a receiver. In demand driven mode the sensor is only scanned while the
+     * subscribers of its publisher have outstanding demand
+     *
+     * @param publisher Publisher of the sensor
+     * @return Scan gate, or null if the sensor is always scanned
+     */
+    private ScanGate scanGate(DemandPublisher<?> publisher) {
+        return configuration.isDemandDriven() ? publisher : null;
+    }
+
+    /**
+     * @return Publisher of the wifi scans. Subscribers only receive the scans received while
+     * they have outstanding demand
+     */
+    public Publisher<WifiObservation> wifiPublisher() {
+        return wifiPublisher;
+    }
+
+    /**
+     * @return Publisher of the cell scans. Subscribers only receive the scans received while
+     * they have outstanding demand
+     */
+    public Publisher<CellObservation> cellPublisher() {
+        return cellPublisher;
+    }
+
+    /**
+     * @return Publisher of the location updates. Subscribers only receive the locations
+     * received while they have outstanding demand
+     */
+    public Publisher<LocationObservation> locationPublisher() {
+        return locationPublisher;
+    }
+
+    /**
+     * Subscribe to the observations of all the sensors. The observations are queued and
+     * delivered in order from the given executor, so a slow subscriber doesn't delay the
+     * sensors. When the queue is full the overflow policy decides which observation is dropped
+     *
+     * @param executor       Executor where the callback is called
+     * @param capacity       Max number of queued observations
+     * @param overflowPolicy Policy when the queue is full
+     * @param callback       Callback for each observation
+     * @return New subscription, cancel it when it is not needed
+     */
+    public ObservationSubscription subscribe(@NonNull Executor executor, int capacity,
+                                             @NonNull OverflowPolicy overflowPolicy,
+                                             @NonNull ObservationReader.Callback callback) {
+        final ObservationSubscription subscription = new ObservationSubscription(
+                subscriptions, executor, capacity, overflowPolicy, callback);
+        subscriptions.add(subscription);
+        return subscription;
     }
 
     /**
@@ -299,6 +782,7 @@ public final class PhoneTracker {
      */
     public void setConfiguration(@NonNull Configuration configuration) {
         this.configuration = configuration;
+        energyAccountant.setModel(configuration.energyConfiguration());
     }
 
     /**
@@ -326,21 +810,104 @@ public final class PhoneTracker {
         }
     }
 
+    /**
+     * Get the current delay between wifi scans. When the adaptive scan is enabled in the
+     * {@link Configuration.Wifi} this value changes with the environment. When the passive
+     * scan is enabled this is the max staleness of the scan results
+     *
+     * @return Delay in milliseconds, or -1 if the wifi is not being scanned
+     */
+    public int getWifiScanDelay() {
+        final WifiReceiver receiver = wifiReceiver;
+        return receiver == null ? -1 : receiver.getEffectiveScanDelay();
+    }
+
+    /**
+     * Check if the device is stationary. It is only detected when the stationary configuration
+     * is set, see {@link Configuration.Builder#stationary(Configuration.Stationary)}. While
+     * stationary the gps is not used and the wifi and cell scans are done less often
+     *
+     * @return True if the device is stationary, false if not or if not detected
+     */
+    public boolean isStationary() {
+        final StationaryDetector detector = stationaryDetector;
+        return detector != null && detector.isStationary();
+    }
+
+    /**
+     * Get the number of wifi scan requests suppressed because the scan budget of the adaptive
+     * scan was exhausted
+     *
+     * @return Number of suppressed scan requests
+     */
+    public long getSuppressedWifiScans() {
+        final WifiReceiver receiver = wifiReceiver;
+        return receiver == null ? 0 : receiver.getSuppressedScans();
+    }
+
+    /**
+     * Get the number of wifi scans not delivered because they were stale results of a
+     * throttled scan request. Only counted when the adaptive scan is enabled
+     *
+     * @return Number of stale scans
+     */
+    public long getStaleWifiScans() {
+        final WifiReceiver receiver = wifiReceiver;
+        return receiver == null ? 0 : receiver.getStaleScans();
+    }
+
     /**
      * Update the current configuration. If the tracker is not running this method only set
-     * the new configuration using the {@link #setConfiguration(Configuration)} method.
+     * the new configuration using the {@link #setConfiguration(Configuration)} method. If the
+     * new configuration starts or stops a replay, or replays another trace, the tracker is
+     * stopped and started again with it.
      *
      * @param conf Configuration
      */
     public void updateConfiguration(@NonNull Configuration conf) {
         if (!isRunning()) {
-            setConfiguration(configuration);
+            setConfiguration(conf);
+            return;
+        }
+        if (replayChanged(configuration.replayConfiguration(), conf.replayConfiguration())) {
+            // the receivers of the sensors are replaced by the trace, or the other way
+            Log.d(TAG, "Replay changed, restarting the tracker");
+            stop();
+            setConfiguration(conf);
+            start();
+            if (configurationChangeListener != null) {
+                configurationChangeListener.onConfigurationChange(conf);
+            }
+            return;
+        }
+        if (background && replayReceiver == null) {
+            // the next windows use the new configuration
+            finishWindow();
+            setConfiguration(conf);
+            scheduleBackgroundWindows();
+            if (configurationChangeListener != null) {
+                configurationChangeListener.onConfigurationChange(conf);
+            }
             return;
         }
+        if (replayReceiver != null) {
+            // the replay delivers the sensors of the new configuration
+            replayReceiver.reloadConfiguration(conf);
+            setConfiguration(conf);
+            if (configurationChangeListener != null) {
+                configurationChangeListener.onConfigurationChange(conf);
+            }
+            return;
+        }
+        stationaryDetector.reloadConfiguration(conf);
+
         // If the old config is not using the wifi but the new config yes, then start
         // the wifi
         if (!configuration.usingWifi() && conf.usingWifi()) {
-            wifiReceiver = new WifiReceiver(context, conf.wifiConfiguration(), wifiScanListener);
+            wifiReceiver = new WifiReceiver(context, newScheduler(), clock,
+                    sensorMetrics(TrackerMetrics.SENSOR_WIFI), energyAccountant,
+                    conf.wifiConfiguration(), scanGate(wifiPublisher), stationaryDetector,
+                    observationDispatcher, wifiDeltaListener, compactWifiScanListener);
             wifiReceiver.register();
 
             // Unregister the wifi receiver if not needed more
@@ -356,7 +923,10 @@ public final class PhoneTracker {
         // If the old config is not using the gps but the new config yes, then start
         // the gps
         if (!configuration.usingGps() && conf.usingGps()) {
-            gpsReceiver = new GpsReceiver(context, conf.gpsConfiguration(), gpsLocationListener);
+            gpsReceiver = new GpsReceiver(context, newScheduler(), clock,
+                    sensorMetrics(TrackerMetrics.SENSOR_GPS), energyAccountant,
+                    conf.gpsConfiguration(), scanGate(locationPublisher),
+                    stationaryDetector, observationDispatcher);
             gpsReceiver.register();
 
             // Unregister the gps receiver if not needed more
@@ -372,7 +942,10 @@ public final class PhoneTracker {
         // If the old config is not using the cell but the new config yes, then start
         // the cell
         if (!configuration.usingCell() && conf.usingCell()) {
-            cellReceiver = new CellReceiver(context, conf.cellConfiguration(), cellScanListener);
+            cellReceiver = new CellReceiver(context, newScheduler(), clock,
+                    sensorMetrics(TrackerMetrics.SENSOR_CELL), energyAccountant,
+                    conf.cellConfiguration(), scanGate(cellPublisher), stationaryDetector,
+                    cellScanListener, observationDispatcher);
             cellReceiver.register();
 
             // Unregister the cell receiver if not needed more
@@ -394,6 +967,17 @@ public final class PhoneTracker {
         configurationChangeListener.onConfigurationChange(conf);
     }
 
+    /**
+     * @return True if the replay starts, stops or changes its trace
+     */
+    private static boolean replayChanged(Configuration.Replay current,
+                                         Configuration.Replay replay) {
+        if (current == null || replay == null) {
+            return current != replay;
+        }
+        return !current.getTrace().equals(replay.getTrace());
+    }
+
     /**
      * Set the listener for configuration changes
      *
@@ -412,6 +996,15 @@ public final class PhoneTracker {
         this.cellScanListener = cellScanListener;
     }
 
+    /**
+     * Set the listener to receive the cell scans normalized to {@link CellRecord}
+     *
+     * @param cellRecordListener Cell record listener
+     */
+    public void setCellRecordListener(CellRecordListener cellRecordListener) {
+        this.cellRecordListener = cellRecordListener;
+    }
+
     /**
      * Set the listener to receive wifi scans
      *
@@ -421,6 +1014,25 @@ public final class PhoneTracker {
         this.wifiScanListener = wifiScanListener;
     }
 
+    /**
+     * Set the listener to receive the wifi scan deltas. Only used when the delta mode is
+     * enabled in the {@link Configuration.Wifi}
+     *
+     * @param wifiDeltaListener Wifi delta listener
+     */
+    public void setWifiDeltaListener(WifiDeltaListener wifiDeltaListener) {
+        this.wifiDeltaListener = wifiDeltaListener;
+    }
+
+    /**
+     * Set the listener to receive the wifi scans in a compact representation
+     *
+     * @param compactWifiScanListener Compact wifi scan listener
+     */
+    public void setCompactWifiScanListener(CompactWifiScanListener compactWifiScanListener) {
+        this.compactWifiScanListener = compactWifiScanListener;
+    }
+
     /**
      * Set the listener to receive location updates
      *
@@ -429,4 +1041,134 @@ public final class PhoneTracker {
     public void setGpsLocationListener(GpsLocationListener gpsLocationListener) {
         this.gpsLocationListener = gpsLocationListener;
     }
+
+    /**
+     * Set the listener to receive the observations in batches. Only used when the batching
+     * is enabled in the {@link Configuration}
+     *
+     * @param batchListener Batch listener
+     */
+    public void setBatchListener(BatchListener batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Set the listener to receive the environment snapshots. Only used when the snapshots are
+     * enabled in the {@link Configuration}
+     *
+     * @param environmentSnapshotListener Environment snapshot listener
+     */
+    public void setEnvironmentSnapshotListener(
+            EnvironmentSnapshotListener environmentSnapshotListener) {
+        this.environmentSnapshotListener = environmentSnapshotListener;
+    }
+
+    /**
+     * Set the metrics to receive the counters and latencies of the sensors. Like the listeners,
+     * it must be set before starting the tracker. By default {@link TrackerMetrics#NONE} is used
+     * and nothing is measured
+     *
+     * @param metrics Tracker metrics, null to disable them
+     */
+    public void setMetrics(TrackerMetrics metrics) {
+        this.metrics = metrics == null ? TrackerMetrics.NONE : metrics;
+    }
+
+    /**
+     * Switch between the foreground and the background mode. In foreground the sensors are
+     * scanned continuously in the sensor looper. In background they are only scanned in the
+     * collection windows of the {@link Configuration.Background}, run by the system with the
+     * job scheduler, so the scans continue in doze without wakelocks of the tracker. The
+     * observations of each window are flushed to the batch and snapshot listeners when it
+     * ends. Call it from the main thread when the app goes to background and comes back
+     *
+     * @param background True to use the background mode, false to use the foreground mode
+     */
+    public void setBackground(boolean background) {
+        if (this.background == background) {
+            return;
+        }
+        this.background = background;
+        if (!isRunning() || replayReceiver != null) {
+            return;
+        }
+        Log.d(TAG, background ? "Entering background mode" : "Entering foreground mode");
+        if (background) {
+            unregisterReceivers();
+            scheduleBackgroundWindows();
+        } else {
+            backgroundScheduler.cancel();
+            finishWindow();
+            registerReceivers(configuration.usingWifi(), configuration.usingCell(),
+                    configuration.usingGps());
+        }
+    }
+
+    /**
+     * @return True if the tracker is in background mode, false if not
+     */
+    public boolean isBackground() {
+        return background;
+    }
+
+    private void scheduleBackgroundWindows() {
+        backgroundScheduler.schedule(configuration.backgroundConfiguration(),
+                backgroundCallback);
+    }
+
+    /**
+     * End the running background collection window, if any. The observations of the window
+     * are flushed in the sensor looper before the system is told that the window finished
+     */
+    private void finishWindow() {
+        synchronized (lock) {
+            final Runnable finished = windowFinished;
+            if (finished == null) {
+                return;
+            }
+            windowFinished = null;
+            mainScheduler.removeCallbacks(windowEnd);
+            unregisterReceivers();
+            final ObservationDispatcher dispatcher = observationDispatcher;
+            sensorScheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatcher.flush();
+                    finished.run();
+                }
+            });
+        }
+        Log.d(TAG, "Background collection window finished");
+    }
+
+    /**
+     * @return Scheduler of the background windows of this android version
+     */
+    private static BackgroundScheduler newBackgroundScheduler(Context context) {
+        if (new CheckVersion().isEqualOrGreater(Build.VERSION_CODES.LOLLIPOP)) {
+            return new JobBackgroundScheduler(context);
+        }
+        return new AlarmBackgroundScheduler(context, Clock.SYSTEM);
+    }
+
+    /**
+     * Get the estimated energy consumed by the sensors since the tracker was created or since
+     * the last {@link #resetEnergyReport()}. The work is priced with the energy cost model of
+     * the {@link Configuration} in use when it was done. Can be called from any thread
+     *
+     * @return Energy report
+     */
+    public EnergyReport getEnergyReport() {
+        return energyAccountant.report(false);
+    }
+
+    /**
+     * Get the energy report and start counting again from zero, to measure the energy of a
+     * new {@link Configuration}
+     *
+     * @return Energy report since the creation or the last reset
+     */
+    public EnergyReport resetEnergyReport() {
+        return energyAccountant.report(true);
+    }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Source of a stream of items, with the same contract as the {@code org.reactivestreams}
+ * publisher, so it can be adapted to any reactive library without adding dependencies to the
+ * tracker
+ *
+ * @param <T> Item type
+ */
+public interface Publisher<T> {
+    /**
+     * Request the publisher to start streaming items to the subscriber. The subscriber
+     * receives items only while it has outstanding demand
+     *
+     * @param subscriber Subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
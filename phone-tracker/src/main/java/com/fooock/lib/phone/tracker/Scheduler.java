@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.os.Looper;
+
+/**
+ * Runs the tasks of a receiver in the sensor looper. Each receiver owns its scheduler, so
+ * {@link #removeAll()} only cancels the tasks of that receiver. Tests replace it with a
+ * scheduler driven by a virtual clock
+ */
+interface Scheduler {
+
+    /**
+     * Creates the schedulers of the tracker
+     */
+    interface Factory {
+        /**
+         * @param looper Sensor looper
+         * @return New scheduler of tasks in the given looper
+         */
+        Scheduler create(Looper looper);
+
+        /**
+         * @return Looper of the main thread of the app
+         */
+        Looper getMainLooper();
+
+        /**
+         * Start a background thread with a looper. The thread ends when its looper quits
+         *
+         * @param name Name of the thread
+         * @return Looper of the new thread
+         */
+        Looper startLooper(String name);
+    }
+
+    /**
+     * @return Looper where the tasks are run, used to receive the platform callbacks. Can be
+     * null if the tasks are not run in a looper
+     */
+    Looper getLooper();
+
+    /**
+     * Run the task as soon as possible
+     *
+     * @param task Task
+     */
+    void post(Runnable task);
+
+    /**
+     * Run the task after the given delay
+     *
+     * @param task  Task
+     * @param delay Delay in milliseconds
+     */
+    void postDelayed(Runnable task, long delay);
+
+    /**
+     * Run the task after the given delay, or up to {@code window} ms later if that lets it
+     * run in the same wakeup as other tasks
+     *
+     * @param task   Task
+     * @param delay  Delay in milliseconds
+     * @param window Milliseconds the task can be delayed after the delay
+     */
+    void postDelayed(Runnable task, long delay, long window);
+
+    /**
+     * Cancel the pending runs of the task
+     *
+     * @param task Task
+     */
+    void removeCallbacks(Runnable task);
+
+    /**
+     * Cancel all the pending tasks of this scheduler
+     */
+    void removeAll();
+}
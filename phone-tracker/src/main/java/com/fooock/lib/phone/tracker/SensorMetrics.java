@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * The {@link TrackerMetrics} of one sensor, used by its receiver. When the metrics are
+ * {@link TrackerMetrics#NONE} nothing is measured, not even the time
+ */
+final class SensorMetrics {
+
+    private final TrackerMetrics metrics;
+    private final int sensor;
+    private final boolean enabled;
+
+    /**
+     * @param metrics Metrics
+     * @param sensor  One of the {@code TrackerMetrics.SENSOR_*} values
+     */
+    SensorMetrics(TrackerMetrics metrics, int sensor) {
+        this.metrics = metrics;
+        this.sensor = sensor;
+        this.enabled = metrics != TrackerMetrics.NONE;
+    }
+
+    /**
+     * @param counter One of the {@code TrackerMetrics.COUNTER_*} values
+     */
+    void increment(int counter) {
+        if (enabled) {
+            metrics.increment(sensor, counter);
+        }
+    }
+
+    /**
+     * @return Start time of a latency, to give to {@link #recordSince(int, long)}
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time elapsed since the given start time
+     *
+     * @param latency One of the {@code TrackerMetrics.LATENCY_*} values
+     * @param start   Value returned by {@link #start()}
+     */
+    void recordSince(int latency, long start) {
+        if (enabled) {
+            metrics.recordLatency(sensor, latency, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record a latency measured by the caller
+     *
+     * @param latency One of the {@code TrackerMetrics.LATENCY_*} values
+     * @param millis  Latency in milliseconds
+     */
+    void recordMillis(int latency, long millis) {
+        if (enabled) {
+            metrics.recordLatency(sensor, latency, millis * 1000000);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Join the observations of the sensors in tumbling windows of their elapsed realtime. The
+ * observations can arrive out of order, so a window is only closed when the watermark, the
+ * newest elapsed realtime seen minus the allowed lateness, passes its end. Observations of a
+ * closed window are late and dropped. This class must be used from a single thread
+ */
+class SnapshotCorrelator {
+
+    /**
+     * Receives the closed windows
+     */
+    interface Callback {
+        void onSnapshot(EnvironmentSnapshot snapshot);
+    }
+
+    private final long window;
+    private final long allowedLateness;
+    private final Callback callback;
+
+    /**
+     * Open windows by start time
+     */
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+
+    private long maxElapsedRealtime = Long.MIN_VALUE;
+    private long closedUntil = Long.MIN_VALUE;
+    private long lateObservations;
+
+    SnapshotCorrelator(long window, long allowedLateness, Callback callback) {
+        this.window = Math.max(1, window);
+        this.allowedLateness = Math.max(0, allowedLateness);
+        this.callback = callback;
+    }
+
+    void add(WifiObservation observation) {
+        add(observation, observation.getElapsedRealtime());
+    }
+
+    /**
+     * Add a wifi scan delivered at the given elapsed realtime. The system can deliver cached
+     * scan results, so a scan whose window is already closed, or is closed by the delivery
+     * time, is joined in the window of the delivery time instead of being dropped as late
+     *
+     * @param observation Wifi scan
+     * @param deliveryTime Elapsed realtime when the scan was delivered
+     */
+    void add(WifiObservation observation, long deliveryTime) {
+        final long closed = Math.max(closedUntil, deliveryTime - allowedLateness);
+        final long elapsedRealtime =
+                windowStart(observation.getElapsedRealtime()) + window <= closed
+                        ? deliveryTime : observation.getElapsedRealtime();
+        final Pending window = open(elapsedRealtime);
+        if (window != null && isNewer(observation, window.wifi)) {
+            window.wifi = observation;
+        }
+        advance(elapsedRealtime);
+    }
+
+    void add(CellObservation observation) {
+        final Pending window = open(observation.getElapsedRealtime());
+        if (window != null && isNewer(observation, window.cell)) {
+            window.cell = observation;
+        }
+        advance(observation.getElapsedRealtime());
+    }
+
+    void add(LocationObservation observation) {
+        final Pending window = open(observation.getElapsedRealtime());
+        if (window != null && isNewer(observation, window.location)) {
+            window.location = observation;
+        }
+        advance(observation.getElapsedRealtime());
+    }
+
+    /**
+     * Get the open window of the observation, creating it if needed
+     *
+     * @param elapsedRealtime Elapsed realtime of the observation
+     * @return Window, or null if the observation is late
+     */
+    private Pending open(long elapsedRealtime) {
+        final long start = windowStart(elapsedRealtime);
+        if (start + window <= closedUntil) {
+            lateObservations++;
+            return null;
+        }
+        Pending pendingWindow = pending.get(start);
+        if (pendingWindow == null) {
+            pendingWindow = new Pending();
+            pending.put(start, pendingWindow);
+        }
+        return pendingWindow;
+    }
+
+    private long windowStart(long elapsedRealtime) {
+        // floor division, a negative time falls in the window before zero, not after it
+        final long mod = elapsedRealtime % window;
+        return elapsedRealtime - (mod < 0 ? mod + window : mod);
+    }
+
+    private static boolean isNewer(Observation observation, Observation current) {
+        return current == null || observation.getElapsedRealtime() >= current.getElapsedRealtime();
+    }
+
+    /**
+     * Move the watermark and close the windows that end before it
+     */
+    private void advance(long elapsedRealtime) {
+        if (elapsedRealtime > maxElapsedRealtime) {
+            maxElapsedRealtime = elapsedRealtime;
+        }
+        final long watermark = maxElapsedRealtime - allowedLateness;
+        final Iterator<Map.Entry<Long, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Long, Pending> entry = iterator.next();
+            final long end = entry.getKey() + window;
+            if (end > watermark) {
+                break;
+            }
+            iterator.remove();
+            closedUntil = Math.max(closedUntil, end);
+            emit(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Close all the open windows
+     */
+    void flush() {
+        for (Map.Entry<Long, Pending> entry : pending.entrySet()) {
+            closedUntil = Math.max(closedUntil, entry.getKey() + window);
+            emit(entry.getKey(), entry.getValue());
+        }
+        pending.clear();
+    }
+
+    private void emit(long start, Pending pendingWindow) {
+        callback.onSnapshot(new EnvironmentSnapshot(start, start + window,
+                pendingWindow.wifi, pendingWindow.cell, pendingWindow.location));
+    }
+
+    /**
+     * @return Number of observations dropped because their window was closed
+     */
+    long getLateObservations() {
+        return lateObservations;
+    }
+
+    /**
+     * Observations of an open window
+     */
+    private static class Pending {
+        WifiObservation wifi;
+        CellObservation cell;
+        LocationObservation location;
+    }
+}
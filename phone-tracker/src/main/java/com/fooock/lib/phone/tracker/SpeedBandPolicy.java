@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Classify the speed of the device in stationary, walking or driving bands. To avoid
+ * oscillations when the speed is near a threshold, the speed must exceed the threshold by a
+ * margin to move to the upper band, fall below it by the same margin to move to the lower band,
+ * and the new band must be observed in several consecutive samples.
+ */
+class SpeedBandPolicy {
+
+    static final int BAND_STATIONARY = 0;
+    static final int BAND_WALKING = 1;
+    static final int BAND_DRIVING = 2;
+
+    /**
+     * Speed thresholds in m/s
+     */
+    private static final float WALKING_SPEED = 0.5f;
+    private static final float DRIVING_SPEED = 5f;
+
+    /**
+     * Relative margin around the thresholds
+     */
+    private static final float HYSTERESIS = 0.2f;
+
+    /**
+     * Consecutive samples needed to change the band
+     */
+    private static final int CONFIRMATIONS = 3;
+
+    private int band = BAND_WALKING;
+    private int candidate = BAND_WALKING;
+    private int candidateSamples;
+
+    /**
+     * Update the band with a new speed sample
+     *
+     * @param speed Speed in m/s
+     * @return True if the band changed, false if not
+     */
+    boolean onSpeed(float speed) {
+        final int observed = classify(speed);
+        if (observed == band) {
+            candidateSamples = 0;
+            return false;
+        }
+        if (observed != candidate) {
+            candidate = observed;
+            candidateSamples = 0;
+        }
+        if (++candidateSamples < CONFIRMATIONS) {
+            return false;
+        }
+        band = candidate;
+        candidateSamples = 0;
+        return true;
+    }
+
+    /**
+     * Classify the speed taking into account the current band
+     */
+    private int classify(float speed) {
+        final float upper = 1 + HYSTERESIS;
+        final float lower = 1 - HYSTERESIS;
+        switch (band) {
+            case BAND_STATIONARY:
+                if (speed > DRIVING_SPEED * upper) return BAND_DRIVING;
+                if (speed > WALKING_SPEED * upper) return BAND_WALKING;
+                return BAND_STATIONARY;
+            case BAND_DRIVING:
+                if (speed < WALKING_SPEED * lower) return BAND_STATIONARY;
+                if (speed < DRIVING_SPEED * lower) return BAND_WALKING;
+                return BAND_DRIVING;
+            default:
+                if (speed > DRIVING_SPEED * upper) return BAND_DRIVING;
+                if (speed < WALKING_SPEED * lower) return BAND_STATIONARY;
+                return BAND_WALKING;
+        }
+    }
+
+    /**
+     * Return to the initial band
+     */
+    void reset() {
+        band = BAND_WALKING;
+        candidate = BAND_WALKING;
+        candidateSamples = 0;
+    }
+
+    /**
+     * @return Current band
+     */
+    int getBand() {
+        return band;
+    }
+
+    /**
+     * Get the minimum time between updates of the current band
+     *
+     * @param config Gps configuration
+     * @return Minimum time in milliseconds
+     */
+    long getMinTime(Configuration.Gps config) {
+        switch (band) {
+            case BAND_STATIONARY:
+                return config.getStationaryMinTime();
+            case BAND_DRIVING:
+                return config.getDrivingMinTime();
+            default:
+                return config.getWalkingMinTime();
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Detect when the device is stationary with the {@link StationaryPolicy}. The motion is
+ * detected with the significant motion sensor, a wakeup sensor that costs almost nothing while
+ * the device is still, or with the accelerometer sampled every second in the devices without
+ * it. Each event of the motion sensors is a wakeup of the sensor looper, counted in the
+ * {@link EnergyAccountant}. The wifi receiver gives the scans to compare the access points.
+ * The detection runs in the sensor looper, and the listeners are called on it. Its state is
+ * guarded by this, so it can be unregistered from any thread. When the stationary
+ * configuration is null the device is never stationary
+ */
+class StationaryDetector implements EnvironmentReceiver<Configuration> {
+    private static final String TAG = StationaryDetector.class.getSimpleName();
+
+    /**
+     * Microseconds between the events of the accelerometer
+     */
+    private static final int ACCELEROMETER_PERIOD = 1000000;
+
+    /**
+     * Listener of the changes of the stationary state, called in the sensor looper
+     */
+    interface Listener {
+        /**
+         * @param stationary True if the device is stationary now, false if it moves again
+         */
+        void onStationaryChanged(boolean stationary);
+    }
+
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final EnergyAccountant energy;
+    private final SensorManager sensorManager;
+    private final CheckVersion checkVersion = new CheckVersion();
+    private final StationaryPolicy policy = new StationaryPolicy();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Configuration.Stationary stationaryConfiguration;
+    private volatile boolean usingWifi;
+    private volatile boolean stationary;
+
+    // State of the detection, guarded by this
+    private boolean registered;
+    private Sensor motionSensor;
+    private boolean triggerSensor;
+    private boolean checkPending;
+
+    /**
+     * Becomes stationary when the still time elapses without motion. With the wifi scans the
+     * change happens in the scan that completes the stable scans
+     */
+    private final Runnable stillCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkStill();
+        }
+    };
+
+    /**
+     * The significant motion sensor is disabled after it triggers, so it is requested again
+     */
+    private final TriggerEventListener triggerListener = createTriggerListener();
+
+    private final SensorEventListener accelerometerListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            energy.onWakeup(TrackerMetrics.SENSOR_MOTION);
+            final float x = event.values[0];
+            final float y = event.values[1];
+            final float z = event.values[2];
+            final double acceleration = Math.sqrt(x * x + y * y + z * z);
+            final Configuration.Stationary config = stationaryConfiguration;
+            if (config != null && Math.abs(acceleration - SensorManager.GRAVITY_EARTH)
+                    >= config.getMotionThreshold()) {
+                onMotion();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    StationaryDetector(Context context, Scheduler scheduler, Clock clock, EnergyAccountant energy,
+                       Configuration configuration) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.energy = energy;
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.stationaryConfiguration = configuration.stationaryConfiguration();
+        this.usingWifi = configuration.usingWifi();
+    }
+
+    @Override
+    public void register() {
+        synchronized (this) {
+            registered = true;
+        }
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                start();
+            }
+        });
+    }
+
+    /**
+     * Stop the detection. The motion sensors are released in the caller thread, with the lock
+     * held, so a start running in the sensor looper can't register them again
+     */
+    @Override
+    public synchronized void unregister() {
+        registered = false;
+        scheduler.removeAll();
+        checkPending = false;
+        unregisterMotionSensor();
+        stationary = false;
+    }
+
+    @Override
+    public void reloadConfiguration(final Configuration config) {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                reload(config);
+            }
+        });
+    }
+
+    private synchronized void reload(Configuration config) {
+        if (!registered) {
+            return;
+        }
+        final Configuration.Stationary stationaryConf = config.stationaryConfiguration();
+        final boolean wifi = config.usingWifi();
+        if (stationaryConf == null ? stationaryConfiguration == null
+                : stationaryConf.equals(stationaryConfiguration) && wifi == usingWifi) {
+            Log.i(TAG, "Stationary config is the same, not reload...");
+            return;
+        }
+        Log.d(TAG, "Reloading stationary configuration");
+        scheduler.removeCallbacks(stillCheck);
+        checkPending = false;
+        unregisterMotionSensor();
+        stationaryConfiguration = stationaryConf;
+        usingWifi = wifi;
+        if (stationary) {
+            setStationary(false);
+        }
+        start();
+    }
+
+    /**
+     * Start detecting in the sensor looper, as moving
+     */
+    private synchronized void start() {
+        final Configuration.Stationary config = stationaryConfiguration;
+        if (!registered || config == null) {
+            return;
+        }
+        registerMotionSensor();
+        if (motionSensor == null && !usingWifi) {
+            Log.w(TAG, "No motion sensors and no wifi scans, can't detect the stationary state");
+            return;
+        }
+        final long now = clock.elapsedRealtime();
+        policy.reloadConfiguration(config, usingWifi);
+        policy.reset(now);
+        scheduleStillCheck(now);
+    }
+
+    /**
+     * Register the significant motion sensor if the device has it, if not the accelerometer
+     */
+    private void registerMotionSensor() {
+        if (sensorManager == null) {
+            return;
+        }
+        if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR2)) {
+            motionSensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+            if (motionSensor != null) {
+                triggerSensor = true;
+                requestTrigger();
+                return;
+            }
+        }
+        motionSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        triggerSensor = false;
+        if (motionSensor != null) {
+            // the events are received in the sensor looper
+            sensorManager.registerListener(accelerometerListener, motionSensor,
+                    ACCELEROMETER_PERIOD, new Handler(scheduler.getLooper()));
+        }
+    }
+
+    private void unregisterMotionSensor() {
+        final Sensor sensor = motionSensor;
+        if (sensor == null) {
+            return;
+        }
+        motionSensor = null;
+        if (triggerSensor) {
+            cancelTrigger(sensor);
+        } else {
+            sensorManager.unregisterListener(accelerometerListener);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private TriggerEventListener createTriggerListener() {
+        if (!checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR2)) {
+            return null;
+        }
+        return new TriggerEventListener() {
+            @Override
+            public void onTrigger(TriggerEvent event) {
+                // the trigger events are received in the main looper
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        energy.onWakeup(TrackerMetrics.SENSOR_MOTION);
+                        onSignificantMotion();
+                    }
+                });
+            }
+        };
+    }
+
+    private synchronized void onSignificantMotion() {
+        if (motionSensor == null) {
+            return;
+        }
+        requestTrigger();
+        onMotion();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void requestTrigger() {
+        sensorManager.requestTriggerSensor(triggerListener, motionSensor);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void cancelTrigger(Sensor sensor) {
+        sensorManager.cancelTriggerSensor(triggerListener, sensor);
+    }
+
+    /**
+     * Called in the sensor looper when the motion sensors detect motion
+     */
+    private synchronized void onMotion() {
+        if (motionSensor == null) {
+            return;
+        }
+        final long now = clock.elapsedRealtime();
+        if (policy.onMotion(now)) {
+            Log.d(TAG, "Motion detected, leaving the stationary state");
+            setStationary(false);
+        }
+        scheduleStillCheck(now);
+    }
+
+    /**
+     * Called by the wifi receiver in the sensor looper with each delivered scan
+     *
+     * @param scans Wifi scans, can be null
+     */
+    synchronized void onWifiScan(List<ScanResult> scans) {
+        if (!registered || stationaryConfiguration == null) {
+            return;
+        }
+        final long now = clock.elapsedRealtime();
+        final boolean wasStationary = policy.isStationary();
+        final boolean changed = policy.onWifiScan(now, scans);
+        // a different scan is motion, so the still time starts again
+        scheduleStillCheck(now);
+        if (!changed) {
+            return;
+        }
+        if (wasStationary) {
+            Log.d(TAG, "Access points changed, leaving the stationary state");
+        }
+        setStationary(!wasStationary);
+    }
+
+    private synchronized void checkStill() {
+        if (!registered) {
+            return;
+        }
+        checkPending = false;
+        final long now = clock.elapsedRealtime();
+        if (policy.update(now)) {
+            setStationary(true);
+            return;
+        }
+        scheduleStillCheck(now);
+    }
+
+    /**
+     * Check the state again when the still time elapses, if it is not checked yet
+     */
+    private void scheduleStillCheck(long now) {
+        if (checkPending || policy.isStationary()) {
+            return;
+        }
+        final long delay = policy.untilStill(now);
+        if (delay == 0) {
+            // already still, the stable scans decide
+            return;
+        }
+        checkPending = true;
+        scheduler.postDelayed(stillCheck, delay, delay / 4);
+    }
+
+    private void setStationary(boolean stationary) {
+        Log.d(TAG, stationary ? "Device stationary" : "Device moving");
+        this.stationary = stationary;
+        for (Listener listener : listeners) {
+            listener.onStationaryChanged(stationary);
+        }
+    }
+
+    /**
+     * @param listener Listener to add, if not added yet
+     */
+    void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * @param listener Listener to remove
+     */
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return True if the device is stationary, false if not
+     */
+    boolean isStationary() {
+        return stationary;
+    }
+
+    /**
+     * @return True if the stationary detection is enabled, false if not
+     */
+    boolean isEnabled() {
+        return stationaryConfiguration != null;
+    }
+
+    /**
+     * Stretch the delay between two scans while the device is stationary
+     *
+     * @param delay Delay in milliseconds
+     * @return Delay to use in milliseconds
+     */
+    long stretch(long delay) {
+        final Configuration.Stationary config = stationaryConfiguration;
+        if (!stationary || config == null) {
+            return delay;
+        }
+        return delay * config.getIntervalMultiplier();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decide if the device is stationary. The device is stationary when no motion was detected in
+ * the still time and, if the wifi is scanned, the last scans saw the same access points as the
+ * reference scan. The scans are compared with the reference and not with the previous scan, so
+ * a slow walk that changes a few access points in each scan is not taken as stationary. Any
+ * motion, or a scan too different from the reference, ends the stationary state at once. All
+ * times are in milliseconds of a monotonic clock.
+ */
+class StationaryPolicy {
+
+    /**
+     * Minimum fraction of access points shared with the reference scan to be the same place
+     */
+    private static final float MIN_SIMILARITY = 0.7f;
+
+    private long stillTime;
+    private int stableScans;
+    private boolean wifiRequired;
+
+    private final Set<String> reference = new HashSet<>();
+    private long lastMotionTime;
+    private int consecutiveStableScans;
+    private boolean stationary;
+
+    /**
+     * Apply a new configuration. The state is not reset
+     *
+     * @param config       Stationary configuration
+     * @param wifiRequired True if the wifi scans must be stable to be stationary
+     */
+    void reloadConfiguration(Configuration.Stationary config, boolean wifiRequired) {
+        this.stillTime = config.getStillTime();
+        this.stableScans = config.getStableScans();
+        this.wifiRequired = wifiRequired;
+    }
+
+    /**
+     * Start again as moving, as if motion was detected now
+     *
+     * @param now Current time
+     */
+    void reset(long now) {
+        reference.clear();
+        lastMotionTime = now;
+        consecutiveStableScans = 0;
+        stationary = false;
+    }
+
+    /**
+     * Called when the motion sensors detect motion
+     *
+     * @param now Current time
+     * @return True if the device was stationary, false if not
+     */
+    boolean onMotion(long now) {
+        lastMotionTime = now;
+        consecutiveStableScans = 0;
+        if (!stationary) {
+            return false;
+        }
+        stationary = false;
+        return true;
+    }
+
+    /**
+     * Compare the access points of a wifi scan with the reference scan. The first scan after
+     * a reset is the reference. A different scan is taken as motion and becomes the new
+     * reference. A scan without access points is ignored: the wifi may be off or the place
+     * may have no wifi, so it says nothing about the motion
+     *
+     * @param now   Current time
+     * @param scans Wifi scans, can be null
+     * @return True if the state changed, false if not
+     */
+    boolean onWifiScan(long now, List<ScanResult> scans) {
+        final List<ScanResult> current = scans == null
+                ? Collections.<ScanResult>emptyList() : scans;
+        int visible = 0;
+        int shared = 0;
+        for (ScanResult scan : current) {
+            if (scan.BSSID == null) {
+                continue;
+            }
+            visible++;
+            if (reference.contains(scan.BSSID)) {
+                shared++;
+            }
+        }
+        if (visible == 0) {
+            return false;
+        }
+        final boolean first = reference.isEmpty();
+        final int seen = Math.max(visible, reference.size());
+        if (first || shared < seen * MIN_SIMILARITY) {
+            reference.clear();
+            for (ScanResult scan : current) {
+                if (scan.BSSID != null) {
+                    reference.add(scan.BSSID);
+                }
+            }
+            if (!first) {
+                return onMotion(now);
+            }
+        }
+        consecutiveStableScans++;
+        return update(now);
+    }
+
+    /**
+     * Check if the device became stationary
+     *
+     * @param now Current time
+     * @return True if the device became stationary now, false if not
+     */
+    boolean update(long now) {
+        if (stationary || now - lastMotionTime < stillTime) {
+            return false;
+        }
+        if (wifiRequired && consecutiveStableScans < stableScans) {
+            return false;
+        }
+        stationary = true;
+        return true;
+    }
+
+    /**
+     * @param now Current time
+     * @return Milliseconds until the still time elapses since the last motion, zero if elapsed
+     */
+    long untilStill(long now) {
+        return Math.max(0, lastMotionTime + stillTime - now);
+    }
+
+    /**
+     * @return True if the device is stationary, false if not
+     */
+    boolean isStationary() {
+        return stationary;
+    }
+}
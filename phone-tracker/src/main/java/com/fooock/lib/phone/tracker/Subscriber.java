@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Receives the items of a {@link Publisher}, with the same contract as the
+ * {@code org.reactivestreams} subscriber
+ *
+ * @param <T> Item type
+ */
+public interface Subscriber<T> {
+    /**
+     * Called once before any other method. No items are received until
+     * {@link Subscription#request(long)} is called
+     *
+     * @param subscription Subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with each item, never more times than requested
+     *
+     * @param item Item
+     */
+    void onNext(T item);
+
+    /**
+     * Called when the stream fails. No more methods are called after this one
+     *
+     * @param throwable Error
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called when the stream ends. No more methods are called after this one
+     */
+    void onComplete();
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Link between a {@link Publisher} and a {@link Subscriber}, with the same contract as the
+ * {@code org.reactivestreams} subscription
+ */
+public interface Subscription {
+    /**
+     * Add demand for items. The demand is capped to {@link Long#MAX_VALUE}, which means an
+     * unbounded stream
+     *
+     * @param n Number of items, must be positive
+     */
+    void request(long n);
+
+    /**
+     * Stop receiving items
+     */
+    void cancel();
+}
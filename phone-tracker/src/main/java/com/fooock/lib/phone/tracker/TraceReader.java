@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read the observations of a trace recorded by {@link TraceRecorder}, creating the same
+ * objects the receivers deliver. The scan results are created with their hidden constructor,
+ * the only way before android 11, so the wifi scans of the trace are skipped where it is not
+ * available. A trace truncated by a crash is read until its last complete observation. This
+ * class must be used from a single thread
+ */
+final class TraceReader implements ObservationVisitor, Closeable {
+    private static final String TAG = TraceReader.class.getSimpleName();
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final ObservationDecoder decoder = new ObservationDecoder();
+    private final CheckVersion checkVersion = new CheckVersion();
+
+    private Constructor<ScanResult> scanResultConstructor;
+    private boolean scanResultUnavailable;
+    private Observation observation;
+    private int expectedSize;
+    private List<ScanResult> scans;
+    private List<CellRecord> cells;
+    private long timestamp;
+    private long elapsedRealtime;
+    private long skipped;
+
+    /**
+     * Open the trace
+     *
+     * @param traceFile Trace file
+     * @throws IOException If the file can't be read or it is not a trace
+     */
+    TraceReader(File traceFile) throws IOException {
+        this.file = new RandomAccessFile(traceFile, "r");
+        try {
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            decoder.readHeader(buffer);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw new IOException("Can't read trace " + traceFile, e);
+        }
+    }
+
+    /**
+     * @return Next observation of the trace, or null if there are no more
+     */
+    Observation next() {
+        while (buffer.hasRemaining()) {
+            observation = null;
+            try {
+                decoder.decode(buffer, this);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                Log.w(TAG, "Truncated trace, " + buffer.remaining() + " bytes not read");
+                buffer.position(buffer.limit());
+                return null;
+            }
+            if (observation != null) {
+                return observation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Number of observations of the trace that could not be created
+     */
+    long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    @Override
+    public void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints) {
+        this.timestamp = timestamp;
+        this.elapsedRealtime = elapsedRealtime;
+        expectedSize = accessPoints;
+        scans = new ArrayList<>(accessPoints);
+        if (accessPoints == 0) {
+            observation = new WifiObservation(timestamp, elapsedRealtime, scans);
+        }
+    }
+
+    @Override
+    public void onAccessPoint(long bssid, String ssid, int level, int frequency) {
+        if (scans == null) {
+            // skipping this scan
+            return;
+        }
+        final ScanResult scan = newScanResult();
+        if (scan == null) {
+            scans = null;
+            skipped++;
+            return;
+        }
+        scan.BSSID = CompactWifiScan.formatBssid(bssid);
+        scan.SSID = ssid;
+        scan.level = level;
+        scan.frequency = frequency;
+        // the dispatcher reads the scan time from it, in microseconds
+        scan.timestamp = elapsedRealtime * 1000;
+        scans.add(scan);
+        if (scans.size() == expectedSize) {
+            observation = new WifiObservation(timestamp, elapsedRealtime, scans);
+        }
+    }
+
+    @Override
+    public void onCellScan(long timestamp, long elapsedRealtime, int cells) {
+        this.timestamp = timestamp;
+        this.elapsedRealtime = elapsedRealtime;
+        expectedSize = cells;
+        this.cells = new ArrayList<>(cells);
+        if (cells == 0) {
+            observation = new CellObservation(timestamp, elapsedRealtime, this.cells);
+        }
+    }
+
+    @Override
+    public void onCell(int radioType, long globalId, int dbm, boolean registered) {
+        cells.add(new CellRecord(new CellKey(radioType, globalId), dbm, registered));
+        if (cells.size() == expectedSize) {
+            observation = new CellObservation(timestamp, elapsedRealtime, cells);
+        }
+    }
+
+    @Override
+    public void onLocation(long timestamp, long elapsedRealtime, String provider,
+                           double latitude, double longitude, float accuracy,
+                           double altitude, float speed, float bearing) {
+        final Location location = new Location(provider);
+        location.setTime(timestamp);
+        if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR1)) {
+            location.setElapsedRealtimeNanos(elapsedRealtime * 1000000);
+        }
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        if (!Float.isNaN(accuracy)) {
+            location.setAccuracy(accuracy);
+        }
+        if (!Double.isNaN(altitude)) {
+            location.setAltitude(altitude);
+        }
+        if (!Float.isNaN(speed)) {
+            location.setSpeed(speed);
+        }
+        if (!Float.isNaN(bearing)) {
+            location.setBearing(bearing);
+        }
+        observation = new LocationObservation(timestamp, elapsedRealtime, location);
+    }
+
+    /**
+     * @return New scan result, or null if it can't be created in this platform
+     */
+    private ScanResult newScanResult() {
+        if (scanResultUnavailable) {
+            return null;
+        }
+        try {
+            if (scanResultConstructor == null) {
+                scanResultConstructor = ScanResult.class.getDeclaredConstructor();
+                scanResultConstructor.setAccessible(true);
+            }
+            return scanResultConstructor.newInstance();
+        } catch (Exception e) {
+            // any reflection error, the constructor is not part of the public api
+            Log.w(TAG, "Can't create scan results, wifi scans not replayed", e);
+            scanResultUnavailable = true;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Record the observations in a trace file, a {@link ObservationCodec} stream read by
+ * {@link TraceReader}. The observations are encoded in a buffer written to the file when it is
+ * full, so a crash loses at most the buffered observations. This class must be used from a
+ * single thread
+ */
+final class TraceRecorder {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileOutputStream output;
+    private final FileChannel channel;
+    private final ObservationEncoder encoder = new ObservationEncoder();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Create the trace file, replacing it if it exists
+     *
+     * @param traceFile Trace file
+     * @throws IOException If the file can't be created
+     */
+    TraceRecorder(File traceFile) throws IOException {
+        final File parent = traceFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create trace directory " + parent);
+        }
+        this.output = new FileOutputStream(traceFile);
+        this.channel = output.getChannel();
+        encoder.writeHeader(buffer);
+    }
+
+    /**
+     * Record the observation
+     *
+     * @param observation Observation
+     * @throws IOException If the trace can't be written
+     */
+    void add(Observation observation) throws IOException {
+        while (true) {
+            final int start = buffer.position();
+            try {
+                encoder.encode(observation, buffer);
+                return;
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                if (start > 0) {
+                    write();
+                } else {
+                    // bigger than the buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the buffered observations and close the trace
+     *
+     * @throws IOException If the trace can't be written
+     */
+    void close() throws IOException {
+        try {
+            write();
+        } finally {
+            output.close();
+        }
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
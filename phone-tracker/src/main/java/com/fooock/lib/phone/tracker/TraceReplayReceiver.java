@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Source of observations that replays a trace instead of scanning the sensors. The
+ * observations of the sensors in use are given to the dispatcher in the sensor looper, at the
+ * pace they were recorded or as fast as possible. The pace is the difference between the
+ * recorded elapsed realtimes, measured with the {@link Clock}, so it is not changed by the
+ * adjustments of the wall clock during the recording. When replaying as fast as possible the
+ * observations are delivered in small groups, so the other messages of the looper are not
+ * delayed until the end of the trace
+ */
+class TraceReplayReceiver implements EnvironmentReceiver<Configuration> {
+    private static final String TAG = TraceReplayReceiver.class.getSimpleName();
+
+    private static final int FAST_REPLAY_GROUP = 64;
+
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final ObservationDispatcher observationDispatcher;
+
+    private volatile Configuration configuration;
+
+    // Replay state, only touched from the sensor looper
+    private TraceReader traceReader;
+    private Observation pending;
+    private boolean paced;
+    private long firstElapsedRealtime;
+    private long startTime;
+    private long replayed;
+
+    private final Runnable replay = new Runnable() {
+        @Override
+        public void run() {
+            if (traceReader == null) {
+                return;
+            }
+            final boolean realTime = configuration.replayConfiguration().isRealTime();
+            int delivered = 0;
+            while (true) {
+                final Observation observation = traceReader.next();
+                if (observation == null) {
+                    finish();
+                    return;
+                }
+                if (!realTime) {
+                    paced = false;
+                } else if (!paced) {
+                    // the pace is measured from the first observation replayed in real time
+                    paced = true;
+                    firstElapsedRealtime = observation.getElapsedRealtime();
+                    startTime = clock.elapsedRealtime();
+                }
+                if (realTime) {
+                    final long delay = startTime + observation.getElapsedRealtime()
+                            - firstElapsedRealtime - clock.elapsedRealtime();
+                    if (delay > 0) {
+                        pending = observation;
+                        scheduler.postDelayed(deliverPending, delay);
+                        return;
+                    }
+                }
+                deliver(observation);
+                if (!realTime && ++delivered >= FAST_REPLAY_GROUP) {
+                    scheduler.post(this);
+                    return;
+                }
+            }
+        }
+    };
+
+    private final Runnable deliverPending = new Runnable() {
+        @Override
+        public void run() {
+            final Observation observation = pending;
+            pending = null;
+            if (observation != null) {
+                deliver(observation);
+            }
+            replay.run();
+        }
+    };
+
+    TraceReplayReceiver(Scheduler scheduler, Clock clock, Configuration configuration,
+                        ObservationDispatcher observationDispatcher) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.configuration = configuration;
+        this.observationDispatcher = observationDispatcher;
+    }
+
+    @Override
+    public void register() {
+        Log.d(TAG, "Registered trace replay...");
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Configuration.Replay replayConfiguration =
+                        configuration.replayConfiguration();
+                try {
+                    traceReader = new TraceReader(replayConfiguration.getTrace());
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't replay the trace", e);
+                    return;
+                }
+                replayed = 0;
+                paced = false;
+                replay.run();
+            }
+        });
+    }
+
+    @Override
+    public void unregister() {
+        Log.d(TAG, "Unregistered trace replay...");
+        scheduler.removeAll();
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                pending = null;
+                closeReader();
+            }
+        });
+    }
+
+    /**
+     * Change the sensors replayed and the pace of the replay. The trace is not changed
+     *
+     * @param config Configuration
+     */
+    @Override
+    public void reloadConfiguration(final Configuration config) {
+        // the replay state is only touched from the sensor looper
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Reloading replay configuration");
+                final Configuration.Replay replayConfiguration = config.replayConfiguration();
+                if (replayConfiguration == null) {
+                    Log.w(TAG, "Can't stop the replay reloading the configuration");
+                    return;
+                }
+                configuration = config;
+                paced = false;
+                if (pending != null) {
+                    // deliver the waiting observation with the new pace
+                    scheduler.removeCallbacks(deliverPending);
+                    deliverPending.run();
+                }
+            }
+        });
+    }
+
+    private void deliver(Observation observation) {
+        replayed++;
+        final Configuration config = configuration;
+        if (observation instanceof WifiObservation && !config.usingWifi()
+                || observation instanceof CellObservation && !config.usingCell()
+                || observation instanceof LocationObservation && !config.usingGps()) {
+            return;
+        }
+        observationDispatcher.replay(observation);
+    }
+
+    private void finish() {
+        Log.d(TAG, "Trace replayed, " + replayed + " observations, "
+                + traceReader.getSkipped() + " skipped");
+        closeReader();
+    }
+
+    private void closeReader() {
+        if (traceReader == null) {
+            return;
+        }
+        try {
+            traceReader.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing the trace", e);
+        }
+        traceReader = null;
+    }
+}
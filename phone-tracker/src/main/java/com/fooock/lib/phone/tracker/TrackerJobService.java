@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Job service that runs the background collection windows of the {@link PhoneTracker}. It is
+ * declared in the manifest of the library, so the apps don't need to declare it
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class TrackerJobService extends JobService {
+    private static final String TAG = TrackerJobService.class.getSimpleName();
+
+    // callbacks of the running trackers by job id, guarded by itself
+    private static final Map<Integer, BackgroundScheduler.Callback> CALLBACKS = new HashMap<>();
+
+    // the windows started by this service and not finished yet, guarded by itself
+    private final Map<Integer, AtomicBoolean> runningWindows = new HashMap<>();
+
+    /**
+     * @param jobId    Job id
+     * @param callback Callback of the windows of the job
+     * @throws IllegalStateException If another tracker uses the job id
+     */
+    static void setCallback(int jobId, BackgroundScheduler.Callback callback) {
+        synchronized (CALLBACKS) {
+            final BackgroundScheduler.Callback current = CALLBACKS.get(jobId);
+            if (current != null && current != callback) {
+                throw new IllegalStateException("Job id " + jobId + " is used by another "
+                        + "tracker, set another one with Configuration.Background.setJobId");
+            }
+            CALLBACKS.put(jobId, callback);
+        }
+    }
+
+    /**
+     * @param jobId    Job id
+     * @param callback Callback to remove, the callback of another tracker is kept
+     */
+    static void removeCallback(int jobId, BackgroundScheduler.Callback callback) {
+        synchronized (CALLBACKS) {
+            if (CALLBACKS.get(jobId) == callback) {
+                CALLBACKS.remove(jobId);
+            }
+        }
+    }
+
+    private static BackgroundScheduler.Callback getCallback(int jobId) {
+        synchronized (CALLBACKS) {
+            return CALLBACKS.get(jobId);
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final BackgroundScheduler.Callback callback = getCallback(params.getJobId());
+        if (callback == null) {
+            // the process was restarted without the tracker, nobody collects now
+            Log.d(TAG, "No tracker for job " + params.getJobId() + ", cancelling it");
+            ((JobScheduler) getSystemService(JOB_SCHEDULER_SERVICE)).cancel(params.getJobId());
+            return false;
+        }
+        final AtomicBoolean finished = new AtomicBoolean();
+        synchronized (runningWindows) {
+            runningWindows.put(params.getJobId(), finished);
+        }
+        callback.onWindowStart(new Runnable() {
+            @Override
+            public void run() {
+                // a job stopped by the system must not be finished
+                if (finished.compareAndSet(false, true)) {
+                    removeRunningWindow(params.getJobId(), finished);
+                    jobFinished(params, false);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        final AtomicBoolean finished;
+        synchronized (runningWindows) {
+            finished = runningWindows.remove(params.getJobId());
+        }
+        if (finished != null) {
+            finished.set(true);
+        }
+        final BackgroundScheduler.Callback callback = getCallback(params.getJobId());
+        if (callback != null) {
+            callback.onWindowStop();
+        }
+        // the periodic job runs again in the next period
+        return false;
+    }
+
+    private void removeRunningWindow(int jobId, AtomicBoolean finished) {
+        synchronized (runningWindows) {
+            if (runningWindows.get(jobId) == finished) {
+                runningWindows.remove(jobId);
+            }
+        }
+    }
+}
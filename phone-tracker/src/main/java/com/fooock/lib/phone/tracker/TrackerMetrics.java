@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+/**
+ * Receives the counters and the latencies of each sensor of the tracker. The methods are called
+ * from the sensor looper in the hot path of every scan, so the implementations must be fast and
+ * must not block. See {@link AtomicTrackerMetrics} for an implementation that can be polled
+ * from any thread
+ */
+public interface TrackerMetrics {
+
+    int SENSOR_WIFI = 0;
+    int SENSOR_CELL = 1;
+    int SENSOR_GPS = 2;
+
+    /**
+     * Motion sensors of the stationary detection. They only wake up the sensor looper, so they
+     * have no counters or latencies, only the wakeups of the {@link EnergyReport}
+     */
+    int SENSOR_MOTION = 3;
+
+    /**
+     * Number of sensors
+     */
+    int SENSORS = 4;
+
+    /**
+     * Scans requested to the platform: wifi scans, cell queries and location update requests
+     */
+    int COUNTER_SCAN_REQUESTED = 0;
+
+    /**
+     * Results received from the platform: wifi scan results, cell lists and locations
+     */
+    int COUNTER_SCAN_RECEIVED = 1;
+
+    /**
+     * Observations delivered to the listeners
+     */
+    int COUNTER_OBSERVATION = 2;
+
+    /**
+     * Scheduled scans not done because the permissions are not granted, nobody demands the
+     * sensor, the scan budget is exhausted or the last results are still fresh
+     */
+    int COUNTER_TICK_SKIPPED = 3;
+
+    /**
+     * Results received but not delivered: stale wifi scans, unchanged cells and locations
+     * discarded by the fused mode or while paused
+     */
+    int COUNTER_RESULT_DROPPED = 4;
+
+    /**
+     * Number of counters
+     */
+    int COUNTERS = 5;
+
+    /**
+     * Time from the wifi scan request to its results
+     */
+    int LATENCY_SCAN = 0;
+
+    /**
+     * Duration of the calls to the platform that return the results, like
+     * {@code getScanResults()} or {@code getAllCellInfo()}
+     */
+    int LATENCY_PLATFORM_CALL = 1;
+
+    /**
+     * Duration of the delivery of the results to the listeners
+     */
+    int LATENCY_LISTENER = 2;
+
+    /**
+     * Number of latencies
+     */
+    int LATENCIES = 3;
+
+    /**
+     * Metrics that discard everything. The tracker doesn't measure the latencies when this is
+     * used, so it has no cost
+     */
+    TrackerMetrics NONE = new TrackerMetrics() {
+        @Override
+        public void increment(int sensor, int counter) {
+        }
+
+        @Override
+        public void recordLatency(int sensor, int latency, long nanos) {
+        }
+    };
+
+    /**
+     * Increment a counter
+     *
+     * @param sensor  One of the {@code SENSOR_*} values
+     * @param counter One of the {@code COUNTER_*} values
+     */
+    void increment(int sensor, int counter);
+
+    /**
+     * Record a latency
+     *
+     * @param sensor  One of the {@code SENSOR_*} values
+     * @param latency One of the {@code LATENCY_*} values
+     * @param nanos   Latency in nanoseconds
+     */
+    void recordLatency(int sensor, int latency, long nanos);
+}
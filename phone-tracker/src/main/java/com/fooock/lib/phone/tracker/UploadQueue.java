@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Queue of the batches pending to upload. Each batch is compressed and stored in its own file
+ * of the upload directory before it is posted, so the batches survive until they are uploaded,
+ * also if the app is killed. The batches are posted from the oldest to the newest with at most
+ * the configured concurrent uploads. When an upload fails with a network error or a server
+ * error, all the uploads wait with exponential backoff, and batches rejected by the server are
+ * deleted. The batches are stored in their own thread, so a slow upload doesn't delay them.
+ * This class is thread safe
+ */
+final class UploadQueue {
+    private static final String TAG = UploadQueue.class.getSimpleName();
+
+    private static final String BATCH_SUFFIX = ".batch";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CONTENT_TYPE = "application/octet-stream";
+    private static final String CODEC_VERSION_HEADER = "X-Observation-Codec";
+
+    private static final FileFilter BATCH_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isFile() && file.getName().endsWith(BATCH_SUFFIX);
+        }
+    };
+
+    private final URL endpoint;
+    private final File directory;
+    private final int maxConcurrentUploads;
+    private final int maxPendingBatches;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int timeout;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ExecutorService storeExecutor;
+    private final Random random = new Random();
+
+    // guarded by this
+    private final Set<File> uploading = new HashSet<>();
+    private boolean loaded;
+    private boolean closed;
+    private boolean retryScheduled;
+    private long nextIndex;
+    private long backoff;
+    private long retryAt;
+    private long uploadedBatches;
+    private long droppedBatches;
+    private long failedUploads;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (UploadQueue.this) {
+                retryScheduled = false;
+            }
+            drain();
+        }
+    };
+
+    /**
+     * @param configuration Upload configuration, with an endpoint validated by the
+     *                      configuration
+     */
+    UploadQueue(Configuration.Upload configuration) {
+        try {
+            this.endpoint = new URL(configuration.getEndpoint());
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid upload endpoint", e);
+        }
+        this.directory = configuration.getDirectory();
+        this.maxConcurrentUploads = Math.max(1, configuration.getMaxConcurrentUploads());
+        this.maxPendingBatches = Math.max(1, configuration.getMaxPendingBatches());
+        this.initialBackoff = Math.max(1, configuration.getInitialBackoff());
+        this.maxBackoff = Math.max(initialBackoff, configuration.getMaxBackoff());
+        this.timeout = configuration.getTimeout();
+        this.executor = new ScheduledThreadPoolExecutor(maxConcurrentUploads,
+                threadFactory("PhoneTracker-upload"));
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.storeExecutor = Executors.newSingleThreadExecutor(
+                threadFactory("PhoneTracker-upload-store"));
+        this.retryAt = now();
+    }
+
+    /**
+     * Start uploading the batches stored by a previous run
+     */
+    void start() {
+        submit(executor, drain);
+    }
+
+    /**
+     * Compress and store the batch, then upload it. Can be called from any thread
+     *
+     * @param batch Encoded observations, owned by this queue
+     */
+    void enqueue(final byte[] batch) {
+        submit(storeExecutor, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(batch);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't store upload batch, discarded", e);
+                    synchronized (UploadQueue.this) {
+                        droppedBatches++;
+                    }
+                }
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Stop the uploads. The stored batches are uploaded when a new queue starts with the same
+     * directory. The batches already enqueued are stored before the executor stops
+     */
+    synchronized void close() {
+        closed = true;
+        storeExecutor.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * @return Number of batches uploaded
+     */
+    synchronized long getUploadedBatches() {
+        return uploadedBatches;
+    }
+
+    /**
+     * @return Number of batches deleted without being uploaded
+     */
+    synchronized long getDroppedBatches() {
+        return droppedBatches;
+    }
+
+    /**
+     * @return Number of failed uploads that will be retried
+     */
+    synchronized long getFailedUploads() {
+        return failedUploads;
+    }
+
+    /**
+     * @return Number of batches stored and not uploaded yet
+     */
+    synchronized int getPendingBatches() {
+        return listBatches().length;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final ThreadFactory factory = Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = factory.newThread(runnable);
+                thread.setName(name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static void submit(ExecutorService executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Upload queue closed, task discarded");
+        }
+    }
+
+    private synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Can't create upload directory " + directory);
+            return;
+        }
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // not completely written before the app was killed
+                if (!file.delete()) {
+                    Log.w(TAG, "Can't delete " + name);
+                }
+            } else if (name.endsWith(BATCH_SUFFIX)) {
+                nextIndex = Math.max(nextIndex, parseIndex(name) + 1);
+            }
+        }
+    }
+
+    private void store(byte[] batch) throws IOException {
+        load();
+        final String name;
+        synchronized (this) {
+            name = String.format(Locale.US, "%016x", nextIndex++);
+        }
+        final File temp = new File(directory, name + TEMP_SUFFIX);
+        final OutputStream output = new GZIPOutputStream(new FileOutputStream(temp));
+        try {
+            output.write(batch);
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(new File(directory, name + BATCH_SUFFIX))) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp);
+        }
+        applyRetention();
+    }
+
+    /**
+     * Delete the oldest batches that are not being uploaded when there are more than the max
+     * pending batches. Batches that can't be deleted are still pending, so the next ones are
+     * tried instead
+     */
+    private synchronized void applyRetention() {
+        final File[] batches = listBatches();
+        int excess = batches.length - maxPendingBatches;
+        for (int i = 0; i < batches.length && excess > 0; i++) {
+            if (uploading.contains(batches[i])) {
+                continue;
+            }
+            if (batches[i].delete()) {
+                droppedBatches++;
+                excess--;
+            } else {
+                Log.w(TAG, "Can't delete pending batch " + batches[i].getName());
+            }
+        }
+    }
+
+    /**
+     * Start the uploads of the oldest batches, up to the max concurrent uploads, unless the
+     * queue is waiting after a failed upload
+     */
+    private void drain() {
+        load();
+        synchronized (this) {
+            if (closed || retryScheduled) {
+                return;
+            }
+            final long delay = retryAt - now();
+            if (delay > 0) {
+                retryScheduled = true;
+                executor.schedule(drain, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            for (final File batch : listBatches()) {
+                if (uploading.size() >= maxConcurrentUploads) {
+                    break;
+                }
+                if (!uploading.add(batch)) {
+                    continue;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        upload(batch);
+                    }
+                });
+            }
+        }
+    }
+
+    private void upload(File batch) {
+        int status;
+        try {
+            status = post(batch);
+        } catch (IOException e) {
+            Log.w(TAG, "Upload failed: " + e.getMessage());
+            status = -1;
+        } catch (RuntimeException e) {
+            // thrown by some connection implementations, the batch must be released anyway
+            Log.w(TAG, "Upload failed", e);
+            status = -1;
+        }
+        synchronized (this) {
+            uploading.remove(batch);
+            if (status >= 200 && status < 300) {
+                uploadedBatches++;
+                backoff = 0;
+                delete(batch);
+            } else if (isRetryable(status)) {
+                failedUploads++;
+                backoff = backoff == 0 ? initialBackoff : Math.min(maxBackoff, backoff * 2);
+                // wait between half and all the backoff, so the clients don't retry together
+                final long wait = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+                retryAt = Math.max(retryAt, now() + wait);
+            } else {
+                Log.w(TAG, "Upload rejected with status " + status + ", batch discarded");
+                droppedBatches++;
+                delete(batch);
+            }
+        }
+        drain();
+    }
+
+    private int post(File batch) throws IOException {
+        final byte[] body = readFile(batch);
+        final HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty(CODEC_VERSION_HEADER,
+                    String.valueOf(ObservationCodec.VERSION));
+            connection.setFixedLengthStreamingMode(body.length);
+            final OutputStream output = connection.getOutputStream();
+            try {
+                output.write(body);
+            } finally {
+                output.close();
+            }
+            final int status = connection.getResponseCode();
+            discard(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return True for network errors, timeouts, throttling and server errors
+     */
+    private static boolean isRetryable(int status) {
+        return status < 0 || status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429
+                || status >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    private static void delete(File batch) {
+        if (batch.exists() && !batch.delete()) {
+            Log.w(TAG, "Can't delete uploaded batch " + batch.getName());
+        }
+    }
+
+    private File[] listBatches() {
+        final File[] batches = directory.listFiles(BATCH_FILTER);
+        if (batches == null) {
+            return new File[0];
+        }
+        Arrays.sort(batches);
+        return batches;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final InputStream input = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Read the response so the connection can be reused
+     */
+    private static void discard(InputStream input) throws IOException {
+        if (input == null) {
+            return;
+        }
+        try {
+            final byte[] buffer = new byte[1024];
+            while (input.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static long parseIndex(String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - BATCH_SUFFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared scheduler of all the periodic work of the tracker. Each receiver has its own
+ * {@link Scheduler}, but the tasks are run by a single scheduler of the sensor looper. A task
+ * posted with a window can run up to that many milliseconds late, so tasks whose windows
+ * overlap are joined in one batch and run in the same wakeup. New batches start on a common
+ * grid of {@code alignment} ms when the window allows it, so loops with unrelated intervals
+ * meet on the same ticks instead of drifting apart. Tasks are never run before their delay
+ */
+final class WakeupAligner {
+
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final long alignment;
+
+    // guarded by this, sorted by start time
+    private final List<Batch> batches = new ArrayList<>();
+    private final List<Entry> running = new ArrayList<>();
+    private long wakeTime = -1;
+
+    private final Runnable wakeup = new Runnable() {
+        @Override
+        public void run() {
+            runDueTasks();
+        }
+    };
+
+    /**
+     * @param scheduler Scheduler of the sensor looper that runs the batches
+     * @param clock     Clock
+     * @param alignment Period of the grid in milliseconds, zero to not align the batches
+     */
+    WakeupAligner(Scheduler scheduler, Clock clock, long alignment) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.alignment = alignment;
+    }
+
+    /**
+     * @return New scheduler for one receiver. Cancelling its tasks doesn't affect the tasks
+     * of the other schedulers
+     */
+    Scheduler create() {
+        return new AlignedScheduler();
+    }
+
+    /**
+     * Cancel all the tasks of all the schedulers
+     */
+    synchronized void shutdown() {
+        for (Batch batch : batches) {
+            for (Entry entry : batch.entries) {
+                entry.cancelled = true;
+            }
+        }
+        for (Entry entry : running) {
+            entry.cancelled = true;
+        }
+        batches.clear();
+        scheduler.removeCallbacks(wakeup);
+        wakeTime = -1;
+    }
+
+    /**
+     * @return Number of pending batches, each one is a wakeup of the sensor looper
+     */
+    synchronized int pendingWakeups() {
+        return batches.size();
+    }
+
+    private synchronized void schedule(AlignedScheduler owner, Runnable task, long delay,
+                                       long window) {
+        final long now = clock.elapsedRealtime();
+        final long earliest = now + Math.max(0, delay);
+        final long latest = earliest + Math.max(0, window);
+        final Entry entry = new Entry(owner, task);
+
+        Batch target = null;
+        for (int i = 0; i < batches.size(); i++) {
+            final Batch batch = batches.get(i);
+            if (batch.start > latest) {
+                break;
+            }
+            if (batch.end >= earliest) {
+                target = batches.remove(i);
+                target.start = Math.max(target.start, earliest);
+                target.end = Math.min(target.end, latest);
+                break;
+            }
+        }
+        if (target == null) {
+            target = new Batch(alignedStart(earliest, latest), latest);
+        }
+        target.entries.add(entry);
+        insert(target);
+        updateWakeup(now);
+    }
+
+    /**
+     * @return First tick of the grid inside the window, or the earliest time if none
+     */
+    private long alignedStart(long earliest, long latest) {
+        if (alignment <= 0) {
+            return earliest;
+        }
+        final long aligned = (earliest + alignment - 1) / alignment * alignment;
+        return aligned <= latest ? aligned : earliest;
+    }
+
+    private void insert(Batch batch) {
+        int index = batches.size();
+        while (index > 0 && batches.get(index - 1).start > batch.start) {
+            index--;
+        }
+        batches.add(index, batch);
+    }
+
+    /**
+     * Post the wakeup of the scheduler at the start of the first batch, if it changed
+     */
+    private void updateWakeup(long now) {
+        if (batches.isEmpty()) {
+            if (wakeTime >= 0) {
+                scheduler.removeCallbacks(wakeup);
+                wakeTime = -1;
+            }
+            return;
+        }
+        final long start = batches.get(0).start;
+        if (start == wakeTime) {
+            return;
+        }
+        scheduler.removeCallbacks(wakeup);
+        scheduler.postDelayed(wakeup, Math.max(0, start - now));
+        wakeTime = start;
+    }
+
+    /**
+     * Cancel the tasks of the owner
+     *
+     * @param owner Owner of the tasks
+     * @param task  Task to cancel, null to cancel all the tasks of the owner
+     */
+    private synchronized void remove(AlignedScheduler owner, Runnable task) {
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            final List<Entry> entries = batches.get(i).entries;
+            for (int j = entries.size() - 1; j >= 0; j--) {
+                final Entry entry = entries.get(j);
+                if (entry.matches(owner, task)) {
+                    entry.cancelled = true;
+                    entries.remove(j);
+                }
+            }
+            if (entries.isEmpty()) {
+                batches.remove(i);
+            }
+        }
+        // the tasks of the running batch not run yet are cancelled too
+        for (Entry entry : running) {
+            if (entry.matches(owner, task)) {
+                entry.cancelled = true;
+            }
+        }
+        updateWakeup(clock.elapsedRealtime());
+    }
+
+    private void runDueTasks() {
+        final List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            wakeTime = -1;
+            final long now = clock.elapsedRealtime();
+            while (!batches.isEmpty() && batches.get(0).start <= now) {
+                due.addAll(batches.remove(0).entries);
+            }
+            running.addAll(due);
+            updateWakeup(now);
+        }
+        try {
+            for (Entry entry : due) {
+                if (!entry.cancelled) {
+                    entry.task.run();
+                }
+            }
+        } finally {
+            // a task that throws must not leave its batch running
+            synchronized (this) {
+                running.clear();
+            }
+        }
+    }
+
+    /**
+     * Tasks run in the same wakeup. They can run any time between start and end
+     */
+    private static final class Batch {
+        private final List<Entry> entries = new ArrayList<>(2);
+        private long start;
+        private long end;
+
+        Batch(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Entry {
+        private final AlignedScheduler owner;
+        private final Runnable task;
+        private volatile boolean cancelled;
+
+        Entry(AlignedScheduler owner, Runnable task) {
+            this.owner = owner;
+            this.task = task;
+        }
+
+        boolean matches(AlignedScheduler owner, Runnable task) {
+            return this.owner == owner && (task == null || this.task == task);
+        }
+    }
+
+    /**
+     * Scheduler of one receiver
+     */
+    private final class AlignedScheduler implements Scheduler {
+
+        @Override
+        public Looper getLooper() {
+            return scheduler.getLooper();
+        }
+
+        @Override
+        public void post(Runnable task) {
+            schedule(this, task, 0, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delay) {
+            schedule(this, task, delay, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delay, long window) {
+            schedule(this, task, delay, window);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            remove(this, task);
+        }
+
+        @Override
+        public void removeAll() {
+            remove(this, null);
+        }
+    }
+}
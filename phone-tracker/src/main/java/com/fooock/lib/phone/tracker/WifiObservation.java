@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import java.util.List;
+
+/**
+ * Immutable wifi scan received by the tracker
+ */
+public final class WifiObservation extends Observation {
+
+    private final List<ScanResult> scans;
+
+    WifiObservation(long timestamp, long elapsedRealtime, List<ScanResult> scans) {
+        super(timestamp, elapsedRealtime);
+        this.scans = scans;
+    }
+
+    /**
+     * @return List of wifi scans, never null
+     */
+    public List<ScanResult> getScans() {
+        return scans;
+    }
+
+    @Override
+    public String toString() {
+        return "WifiObservation{" +
+                "timestamp=" + getTimestamp() +
+                ", elapsedRealtime=" + getElapsedRealtime() +
+                ", scans=" + scans.size() +
+                '}';
+    }
+}
@@ -33,15 +33,42 @@ import java.util.List;
  */
 class WifiReceiver implements EnvironmentReceiver<Configuration.Wifi> {
     private static final String TAG = WifiReceiver.class.getSimpleName();
+    // read once when the class is loaded, the app must be restarted after a setprop
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    /**
+     * Minimum milliseconds between two attempts of the passive scan
+     */
+    private static final long MIN_SCAN_DELAY = 1000;
 
     private final Context context;
     private final PhoneTracker.WifiScanListener wifiScanListener;
-    private final Handler handler = new Handler();
+    private final PhoneTracker.WifiDeltaListener wifiDeltaListener;
+    private final PhoneTracker.CompactWifiScanListener compactWifiScanListener;
+    private final ScanGate scanGate;
+    private final StationaryDetector stationaryDetector;
+    private final WifiScanCompactor wifiScanCompactor = new WifiScanCompactor();
+    private final WifiScanDelta wifiScanDelta = new WifiScanDelta();
+    private final WifiScanScheduler wifiScanScheduler;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final SensorMetrics metrics;
+    private final EnergyAccountant energy;
     private final CheckVersion checkVersion = new CheckVersion();
     private final CheckPermission checkPermission;
     private final WifiManager wifiManager;
 
-    private Configuration.Wifi wifiConfiguration;
+    private volatile Configuration.Wifi wifiConfiguration;
+
+    /**
+     * Elapsed realtime of the last fresh scan results or the last scan attempt, -1 if none
+     */
+    private long lastScanTime = -1;
+
+    /**
+     * Elapsed realtime of the scan request waiting for its results, -1 if none
+     */
+    private long scanRequestTime = -1;
 
     /**
      * Wifi broadcast receiver
@@ -49,20 +76,154 @@ class WifiReceiver implements EnvironmentReceiver<Configuration.Wifi> {
     private final BroadcastReceiver wifiReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            if (wifiScanListener == null) {
+            energy.onWakeup(TrackerMetrics.SENSOR_WIFI);
+            metrics.increment(TrackerMetrics.COUNTER_SCAN_RECEIVED);
+            final boolean freshScan = isFreshScan(intent);
+            if (freshScan) {
+                lastScanTime = clock.elapsedRealtime();
+                if (scanRequestTime >= 0) {
+                    metrics.recordMillis(TrackerMetrics.LATENCY_SCAN,
+                            lastScanTime - scanRequestTime);
+                    scanRequestTime = -1;
+                }
+            }
+            final boolean deltaMode = wifiConfiguration.isDeltaMode() && wifiDeltaListener != null;
+            final boolean adaptiveScan = wifiConfiguration.isAdaptiveScan();
+            final boolean detectingStationary = stationaryDetector.isEnabled();
+            if (wifiScanListener == null && compactWifiScanListener == null
+                    && !deltaMode && !adaptiveScan && !detectingStationary) {
                 return;
             }
+            final long callStart = metrics.start();
             final List<ScanResult> scanResults = wifiManager.getScanResults();
-            final long timestamp = System.currentTimeMillis();
-            wifiScanListener.onWifiScansReceived(timestamp, scanResults);
+            metrics.recordSince(TrackerMetrics.LATENCY_PLATFORM_CALL, callStart);
+
+            // A throttled scan request returns the same results again, don't deliver them
+            if (adaptiveScan && checkVersion.isEqualOrGreater(Build.VERSION_CODES.JELLY_BEAN_MR1)
+                    && wifiScanScheduler.isStale(scanResults)) {
+                Log.d(TAG, "Stale wifi scans, not delivered");
+                metrics.increment(TrackerMetrics.COUNTER_RESULT_DROPPED);
+                return;
+            }
+            // the cached results of a failed scan don't tell if the device moved
+            if (detectingStationary && freshScan) {
+                stationaryDetector.onWifiScan(scanResults);
+            }
+            final long listenerStart = metrics.start();
+            final long timestamp = clock.currentTimeMillis();
+            if (wifiScanListener != null) {
+                wifiScanListener.onWifiScansReceived(timestamp, scanResults);
+            }
+            if (compactWifiScanListener != null) {
+                compactWifiScanListener.onCompactWifiScanReceived(
+                        timestamp, wifiScanCompactor.compact(scanResults));
+            }
+            if (deltaMode || adaptiveScan) {
+                final boolean changed = wifiScanDelta.update(scanResults,
+                        wifiConfiguration.getRssiChangeThreshold());
+                if (deltaMode && changed) {
+                    wifiDeltaListener.onWifiDeltaReceived(timestamp, wifiScanDelta.added(),
+                            wifiScanDelta.removed(), wifiScanDelta.changed());
+                }
+                if (adaptiveScan) {
+                    wifiScanScheduler.onScanResults(changed);
+                }
+            }
+            metrics.recordSince(TrackerMetrics.LATENCY_LISTENER, listenerStart);
+            metrics.increment(TrackerMetrics.COUNTER_OBSERVATION);
+            energy.onObservation(TrackerMetrics.SENSOR_WIFI);
         }
     };
 
-    WifiReceiver(Context context, Configuration.Wifi wifiConfiguration,
-                 PhoneTracker.WifiScanListener wifiScanListener) {
+    /**
+     * Scan loop, requests a scan every scan delay
+     */
+    private final Runnable scanTask = new Runnable() {
+        @Override
+        public void run() {
+            energy.onWakeup(TrackerMetrics.SENSOR_WIFI);
+            final boolean androidMOrGreater = checkVersion.isEqualOrGreater(
+                    Build.VERSION_CODES.M);
+
+            final boolean wifiEnabled = checkPermission.hasPermissions(
+                    PhoneTracker.WIFI_PERMISSIONS);
+            final boolean locationEnabled = checkPermission.hasAnyPermission(
+                    PhoneTracker.LOCATION_PERMISSIONS);
+
+            if (androidMOrGreater && !locationEnabled) {
+                Log.w(TAG, "Location permissions not granted to scan wifi in android >= 6.0");
+                metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                scheduler.postDelayed(this, wifiConfiguration.getScanDelay(),
+                        wifiConfiguration.getAlignmentWindow());
+                return;
+            }
+            if (scanGate != null && !scanGate.isOpen()) {
+                // no demand for scans, check again later
+                metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                scheduler.postDelayed(this, wifiConfiguration.getScanDelay(),
+                        wifiConfiguration.getAlignmentWindow());
+                return;
+            }
+            final long now = clock.elapsedRealtime();
+            if (wifiEnabled && shouldRequestScan(now)) {
+                lastScanTime = now;
+                if (!wifiConfiguration.isAdaptiveScan()
+                        || wifiScanScheduler.tryRequestScan(now)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Scanning wifi every " + nextScanDelay(now) + "ms");
+                    }
+                    metrics.increment(TrackerMetrics.COUNTER_SCAN_REQUESTED);
+                    energy.onRadioWakeup(TrackerMetrics.SENSOR_WIFI);
+                    scanRequestTime = now;
+                    wifiManager.startScan();
+                } else {
+                    Log.d(TAG, "Wifi scan budget exhausted, scan suppressed");
+                    metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+                }
+            } else {
+                metrics.increment(TrackerMetrics.COUNTER_TICK_SKIPPED);
+            }
+            // while stationary the scans are done less often
+            scheduler.postDelayed(this, stationaryDetector.stretch(nextScanDelay(now)),
+                    wifiConfiguration.getAlignmentWindow());
+        }
+    };
+
+    /**
+     * Scan at the normal rate as soon as the device moves again, without waiting for the
+     * stretched delay of the stationary state
+     */
+    private final StationaryDetector.Listener stationaryListener =
+            new StationaryDetector.Listener() {
+                @Override
+                public void onStationaryChanged(boolean stationary) {
+                    if (stationary) {
+                        return;
+                    }
+                    scheduler.removeCallbacks(scanTask);
+                    scheduler.postDelayed(scanTask, nextScanDelay(clock.elapsedRealtime()),
+                            wifiConfiguration.getAlignmentWindow());
+                }
+            };
+
+    WifiReceiver(Context context, Scheduler scheduler, Clock clock, SensorMetrics metrics,
+                 EnergyAccountant energy, Configuration.Wifi wifiConfiguration,
+                 ScanGate scanGate, StationaryDetector stationaryDetector,
+                 PhoneTracker.WifiScanListener wifiScanListener,
+                 PhoneTracker.WifiDeltaListener wifiDeltaListener,
+                 PhoneTracker.CompactWifiScanListener compactWifiScanListener) {
         this.context = context;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.energy = energy;
         this.wifiConfiguration = wifiConfiguration;
+        this.scanGate = scanGate;
+        this.stationaryDetector = stationaryDetector;
         this.wifiScanListener = wifiScanListener;
+        this.wifiDeltaListener = wifiDeltaListener;
+        this.compactWifiScanListener = compactWifiScanListener;
+        this.wifiScanScheduler = new WifiScanScheduler(wifiConfiguration);
         this.checkPermission = new CheckPermission(context);
         this.wifiManager = (WifiManager) context.getApplicationContext()
                 .getSystemService(Context.WIFI_SERVICE);
@@ -72,50 +233,119 @@ class WifiReceiver implements EnvironmentReceiver<Configuration.Wifi> {
     public void register() {
         Log.d(TAG, "Registered wifi receiver...");
 
-        // register receiver
+        // register receiver, the scan results are received in the sensor looper
         context.registerReceiver(wifiReceiver, new IntentFilter(
-                WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+                WifiManager.SCAN_RESULTS_AVAILABLE_ACTION), null,
+                new Handler(scheduler.getLooper()));
 
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                final boolean androidMOrGreater = checkVersion.isEqualOrGreater(
-                        Build.VERSION_CODES.M);
+        stationaryDetector.addListener(stationaryListener);
+        scheduler.post(scanTask);
+    }
 
-                final boolean wifiEnabled = checkPermission.hasPermissions(
-                        PhoneTracker.WIFI_PERMISSIONS);
-                final boolean locationEnabled = checkPermission.hasAnyPermission(
-                        PhoneTracker.LOCATION_PERMISSIONS);
+    @Override
+    public void unregister() {
+        Log.d(TAG, "Unregistered wifi receiver...");
+        scheduler.removeAll();
+        stationaryDetector.removeListener(stationaryListener);
+        context.unregisterReceiver(wifiReceiver);
+    }
 
-                if (androidMOrGreater && !locationEnabled) {
-                    Log.w(TAG, "Location permissions not granted to scan wifi in android >= 6.0");
-                    handler.postDelayed(this, wifiConfiguration.getScanDelay());
+    @Override
+    public void reloadConfiguration(final Configuration.Wifi config) {
+        // the scan state is only touched from the sensor looper
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                energy.onWakeup(TrackerMetrics.SENSOR_WIFI);
+                if (wifiConfiguration.equals(config)) {
+                    Log.i(TAG, "Wifi config is the same, not reload...");
                     return;
                 }
-                if (wifiEnabled) {
-                    Log.d(TAG, "Scanning wifi every "
-                            + wifiConfiguration.getScanDelay() + "ms");
-                    wifiManager.startScan();
+                Log.d(TAG, "Reloading wifi configuration");
+                if (!config.isDeltaMode() && !config.isAdaptiveScan()) {
+                    wifiScanDelta.reset();
                 }
-                handler.postDelayed(this, wifiConfiguration.getScanDelay());
+                wifiScanScheduler.reloadConfiguration(config);
+                wifiConfiguration = config;
             }
         });
     }
 
-    @Override
-    public void unregister() {
-        Log.d(TAG, "Unregistered wifi receiver...");
-        handler.removeCallbacksAndMessages(null);
-        context.unregisterReceiver(wifiReceiver);
+    /**
+     * Check if we need to request a wifi scan. In passive mode only when the last fresh scan
+     * results are older than the max staleness
+     *
+     * @param now Current elapsed realtime in milliseconds
+     * @return True if a scan must be requested, false if not
+     */
+    private boolean shouldRequestScan(long now) {
+        if (!wifiConfiguration.isPassiveScan() || lastScanTime == -1) {
+            return true;
+        }
+        return now - lastScanTime >= wifiConfiguration.getMaxStaleness();
     }
 
-    @Override
-    public void reloadConfiguration(Configuration.Wifi config) {
-        if (wifiConfiguration.equals(config)) {
-            Log.i(TAG, "Wifi config is the same, not reload...");
-            return;
+    /**
+     * Check if the scan results of the received intent are new. Since android 6.0 the intent
+     * tells if the results were updated or if the scan failed and the old results are returned
+     *
+     * @param intent Received intent
+     * @return True if the scan results are fresh, false if not
+     */
+    private boolean isFreshScan(Intent intent) {
+        if (checkVersion.isEqualOrGreater(Build.VERSION_CODES.M)) {
+            return intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true);
         }
-        Log.d(TAG, "Reloading wifi configuration");
-        wifiConfiguration = config;
+        return true;
+    }
+
+    /**
+     * Get the delay until the next scan. When the adaptive scan is enabled the delay is
+     * calculated by the {@link WifiScanScheduler}. In passive mode it is the time until the
+     * last scan results are stale, or the scan delay if there are no fresh results
+     *
+     * @param now Current elapsed realtime in milliseconds
+     * @return Delay in milliseconds
+     */
+    private long nextScanDelay(long now) {
+        if (wifiConfiguration.isPassiveScan()) {
+            final long remaining = lastScanTime + wifiConfiguration.getMaxStaleness() - now;
+            if (lastScanTime == -1 || remaining <= 0) {
+                // no fresh scan could be obtained, the wifi is disabled or the scan refused
+                return Math.max(wifiConfiguration.getScanDelay(), MIN_SCAN_DELAY);
+            }
+            return remaining;
+        }
+        if (wifiConfiguration.isAdaptiveScan()) {
+            return wifiScanScheduler.nextDelay(now);
+        }
+        return wifiConfiguration.getScanDelay();
+    }
+
+    /**
+     * @return Current delay between scans in milliseconds
+     */
+    int getEffectiveScanDelay() {
+        if (wifiConfiguration.isPassiveScan()) {
+            return (int) wifiConfiguration.getMaxStaleness();
+        }
+        if (wifiConfiguration.isAdaptiveScan()) {
+            return wifiScanScheduler.getEffectiveDelay();
+        }
+        return wifiConfiguration.getScanDelay();
+    }
+
+    /**
+     * @return Number of scan requests suppressed by the adaptive scan
+     */
+    long getSuppressedScans() {
+        return wifiScanScheduler.getSuppressedRequests();
+    }
+
+    /**
+     * @return Number of stale scan results not delivered by the adaptive scan
+     */
+    long getStaleScans() {
+        return wifiScanScheduler.getStaleResults();
     }
 }
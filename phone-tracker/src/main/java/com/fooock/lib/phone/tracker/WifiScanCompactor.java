@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import java.util.List;
+
+/**
+ * Convert the {@link ScanResult} list into a reusable {@link CompactWifiScan}. The parsed
+ * capabilities are cached per BSSID and the SSIDs are interned, both in fixed size
+ * direct-mapped tables, so no allocations are done after the first scans.
+ */
+class WifiScanCompactor {
+
+    private static final int CACHE_SIZE = 1024;
+    private static final int CACHE_MASK = CACHE_SIZE - 1;
+
+    private final CompactWifiScan compactWifiScan = new CompactWifiScan();
+
+    private final long[] capabilityBssids = new long[CACHE_SIZE];
+    private final String[] capabilityStrings = new String[CACHE_SIZE];
+    private final int[] capabilityFlags = new int[CACHE_SIZE];
+
+    private final String[] ssidTable = new String[CACHE_SIZE];
+
+    /**
+     * Fill the compact scan with the given scan results
+     *
+     * @param scans Scan results, can be null
+     * @return The reused compact scan
+     */
+    CompactWifiScan compact(List<ScanResult> scans) {
+        compactWifiScan.clear();
+        if (scans == null) {
+            return compactWifiScan;
+        }
+        for (int i = 0, size = scans.size(); i < size; i++) {
+            final ScanResult scan = scans.get(i);
+            final long bssid = packBssid(scan.BSSID);
+            compactWifiScan.add(bssid, scan.level, scan.frequency,
+                    capabilities(bssid, scan.capabilities), intern(scan.SSID));
+        }
+        return compactWifiScan;
+    }
+
+    /**
+     * Get the capability flags of the access point, parsing them only if the cached
+     * capabilities for this BSSID are different
+     */
+    private int capabilities(long bssid, String capabilities) {
+        if (capabilities == null) {
+            return 0;
+        }
+        final int index = (int) (bssid ^ (bssid >>> 32)) & CACHE_MASK;
+        final String cached = capabilityStrings[index];
+        if (capabilityBssids[index] == bssid && cached != null
+                && (cached == capabilities || cached.equals(capabilities))) {
+            return capabilityFlags[index];
+        }
+        final int flags = parseCapabilities(capabilities);
+        capabilityBssids[index] = bssid;
+        capabilityStrings[index] = capabilities;
+        capabilityFlags[index] = flags;
+        return flags;
+    }
+
+    /**
+     * Return the canonical instance of the given SSID. The table is bounded, so an SSID can be
+     * replaced by another one with the same slot
+     */
+    String intern(String ssid) {
+        if (ssid == null) {
+            return null;
+        }
+        final int hash = ssid.hashCode();
+        final int index = (hash ^ (hash >>> 16)) & CACHE_MASK;
+        final String interned = ssidTable[index];
+        if (interned != null && interned.equals(ssid)) {
+            return interned;
+        }
+        ssidTable[index] = ssid;
+        return ssid;
+    }
+
+    /**
+     * Pack a BSSID with the format {@code xx:xx:xx:xx:xx:xx} in the lower 48 bits of a long
+     *
+     * @param bssid BSSID
+     * @return Packed BSSID, or {@link CompactWifiScan#INVALID_BSSID} if malformed
+     */
+    static long packBssid(String bssid) {
+        if (bssid == null) {
+            return CompactWifiScan.INVALID_BSSID;
+        }
+        long packed = 0;
+        int digits = 0;
+        for (int i = 0, length = bssid.length(); i < length; i++) {
+            final char c = bssid.charAt(i);
+            if (c == ':' || c == '-') {
+                continue;
+            }
+            final int value = Character.digit(c, 16);
+            if (value < 0 || ++digits > 12) {
+                return CompactWifiScan.INVALID_BSSID;
+            }
+            packed = (packed << 4) | value;
+        }
+        return digits == 12 ? packed : CompactWifiScan.INVALID_BSSID;
+    }
+
+    /**
+     * Parse the capabilities of a {@link ScanResult}, like {@code [WPA2-PSK-CCMP][WPS][ESS]}
+     *
+     * @param capabilities Capabilities string
+     * @return Bit set of the {@code CompactWifiScan.CAPABILITY_*} flags
+     */
+    static int parseCapabilities(String capabilities) {
+        int flags = 0;
+        if (capabilities.contains("WEP")) flags |= CompactWifiScan.CAPABILITY_WEP;
+        if (capabilities.contains("WPA2") || capabilities.contains("RSN")) {
+            flags |= CompactWifiScan.CAPABILITY_WPA2;
+        }
+        if (capabilities.contains("[WPA-")) flags |= CompactWifiScan.CAPABILITY_WPA;
+        if (capabilities.contains("PSK")) flags |= CompactWifiScan.CAPABILITY_PSK;
+        if (capabilities.contains("EAP")) flags |= CompactWifiScan.CAPABILITY_EAP;
+        if (capabilities.contains("SAE")) flags |= CompactWifiScan.CAPABILITY_SAE;
+        if (capabilities.contains("OWE")) flags |= CompactWifiScan.CAPABILITY_OWE;
+        if (capabilities.contains("TKIP")) flags |= CompactWifiScan.CAPABILITY_TKIP;
+        if (capabilities.contains("CCMP")) flags |= CompactWifiScan.CAPABILITY_CCMP;
+        if (capabilities.contains("WPS")) flags |= CompactWifiScan.CAPABILITY_WPS;
+        if (capabilities.contains("ESS")) flags |= CompactWifiScan.CAPABILITY_ESS;
+        if (capabilities.contains("IBSS")) flags |= CompactWifiScan.CAPABILITY_IBSS;
+        return flags;
+    }
+}
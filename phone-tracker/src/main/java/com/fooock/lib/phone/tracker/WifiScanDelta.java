@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compute the differences between consecutive wifi scans. Access points are indexed by BSSID.
+ * An access point is reported as changed only when its RSSI moved at least the given threshold
+ * from the last reported value, so slow drifts are accumulated until they are relevant.
+ */
+class WifiScanDelta {
+
+    private final List<ScanResult> added = new ArrayList<>();
+    private final List<ScanResult> removed = new ArrayList<>();
+    private final List<ScanResult> changed = new ArrayList<>();
+
+    private Map<String, ScanResult> previous = new HashMap<>();
+    private Map<String, ScanResult> current = new HashMap<>();
+
+    /**
+     * Compare the given scans with the previous ones
+     *
+     * @param scans         Current wifi scans, can be null
+     * @param rssiThreshold Minimum RSSI variation in dBm to report an access point as changed
+     * @return True if any access point was added, removed or changed, false if not
+     */
+    boolean update(List<ScanResult> scans, int rssiThreshold) {
+        added.clear();
+        removed.clear();
+        changed.clear();
+
+        if (scans != null) {
+            for (ScanResult scan : scans) {
+                if (scan.BSSID == null) {
+                    continue;
+                }
+                final ScanResult last = previous.remove(scan.BSSID);
+                if (last == null) {
+                    if (!current.containsKey(scan.BSSID)) {
+                        added.add(scan);
+                    }
+                    current.put(scan.BSSID, scan);
+                } else if (Math.abs(scan.level - last.level) >= rssiThreshold) {
+                    changed.add(scan);
+                    current.put(scan.BSSID, scan);
+                } else {
+                    // keep the last reported value as the reference
+                    current.put(scan.BSSID, last);
+                }
+            }
+        }
+        // all remaining access points are not in the current scan
+        removed.addAll(previous.values());
+        previous.clear();
+
+        final Map<String, ScanResult> tmp = previous;
+        previous = current;
+        current = tmp;
+
+        return !added.isEmpty() || !removed.isEmpty() || !changed.isEmpty();
+    }
+
+    /**
+     * Forget all the scans seen before, so the next update reports all access points as added
+     */
+    void reset() {
+        previous.clear();
+        current.clear();
+        added.clear();
+        removed.clear();
+        changed.clear();
+    }
+
+    /**
+     * @return Access points seen for the first time in the last update
+     */
+    List<ScanResult> added() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * @return Access points not found in the last update
+     */
+    List<ScanResult> removed() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @return Access points with a relevant RSSI change in the last update
+     */
+    List<ScanResult> changed() {
+        return Collections.unmodifiableList(changed);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018. newhouse (nhitbh at gmail dot com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decide when to request a new wifi scan. The scan requests are limited by a budget of requests
+ * inside a sliding time window, and the delay between scans grows while the environment is
+ * stable and shrinks when it changes. All times are in milliseconds of a monotonic clock.
+ */
+class WifiScanScheduler {
+
+    private static final float BACK_OFF_FACTOR = 1.5f;
+
+    private int minDelay;
+    private int maxDelay;
+    private long budgetWindow;
+
+    /**
+     * Time of the last scan requests, used as a circular buffer
+     */
+    private long[] requestTimes;
+    private int nextRequest;
+
+    /**
+     * Newest {@link ScanResult#timestamp} of the last delivered scans, in microseconds
+     */
+    private long lastScanTimestamp;
+
+    private volatile int effectiveDelay;
+    private volatile long suppressedRequests;
+    private volatile long staleResults;
+
+    WifiScanScheduler(Configuration.Wifi config) {
+        reloadConfiguration(config);
+    }
+
+    /**
+     * Apply a new configuration. The effective delay starts again from the minimum delay
+     *
+     * @param config Wifi configuration
+     */
+    void reloadConfiguration(Configuration.Wifi config) {
+        minDelay = config.getScanDelay();
+        maxDelay = Math.max(minDelay, config.getMaxScanDelay());
+        budgetWindow = config.getScanBudgetWindow();
+        requestTimes = new long[Math.max(1, config.getScanBudget())];
+        Arrays.fill(requestTimes, Long.MIN_VALUE);
+        nextRequest = 0;
+        effectiveDelay = minDelay;
+    }
+
+    /**
+     * Check if a new scan request fits in the budget. If it fits the request is counted,
+     * if not it is counted as suppressed
+     *
+     * @param now Current time
+     * @return True if the scan can be requested, false if not
+     */
+    boolean tryRequestScan(long now) {
+        final long oldest = requestTimes[nextRequest];
+        if (oldest != Long.MIN_VALUE && now - oldest < budgetWindow) {
+            suppressedRequests++;
+            return false;
+        }
+        requestTimes[nextRequest] = now;
+        nextRequest = (nextRequest + 1) % requestTimes.length;
+        return true;
+    }
+
+    /**
+     * Delay until the next scan attempt. If the budget is exhausted the delay is extended
+     * until the oldest request leaves the window
+     *
+     * @param now Current time
+     * @return Delay in milliseconds
+     */
+    long nextDelay(long now) {
+        final long oldest = requestTimes[nextRequest];
+        if (oldest == Long.MIN_VALUE) {
+            return effectiveDelay;
+        }
+        return Math.max(effectiveDelay, oldest + budgetWindow - now);
+    }
+
+    /**
+     * Check if the given scans were already delivered. A throttled scan request returns the
+     * cached results of the previous scan, so its newest timestamp doesn't advance. Empty scans
+     * are never stale. This method needs android >= 4.2 to read {@link ScanResult#timestamp}
+     *
+     * @param scans Scan results
+     * @return True if the scans are stale, false if not
+     */
+    boolean isStale(List<ScanResult> scans) {
+        if (scans == null || scans.isEmpty()) {
+            return false;
+        }
+        long newest = 0;
+        for (ScanResult scan : scans) {
+            if (scan.timestamp > newest) {
+                newest = scan.timestamp;
+            }
+        }
+        if (newest <= lastScanTimestamp) {
+            staleResults++;
+            backOff();
+            return true;
+        }
+        lastScanTimestamp = newest;
+        return false;
+    }
+
+    /**
+     * Adapt the delay to the last delivered scan
+     *
+     * @param changed True if the environment changed since the previous scan
+     */
+    void onScanResults(boolean changed) {
+        if (changed) {
+            effectiveDelay = Math.max(minDelay, effectiveDelay / 2);
+        } else {
+            backOff();
+        }
+    }
+
+    private void backOff() {
+        effectiveDelay = (int) Math.min(maxDelay, effectiveDelay * BACK_OFF_FACTOR);
+    }
+
+    /**
+     * @return Current delay between scans in milliseconds
+     */
+    int getEffectiveDelay() {
+        return effectiveDelay;
+    }
+
+    /**
+     * @return Number of scan requests not sent because the budget was exhausted
+     */
+    long getSuppressedRequests() {
+        return suppressedRequests;
+    }
+
+    /**
+     * @return Number of stale scan results not delivered
+     */
+    long getStaleResults() {
+        return staleResults;
+    }
+}
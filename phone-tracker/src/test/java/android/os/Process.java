@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * Replaces the process of the android.jar in the unit tests, where its methods are not mocked.
+ * The tests run in a single fake process
+ */
+public class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    private static final int PID = 1000;
+    private static final int UID = 10000;
+
+    public static int myPid() {
+        return PID;
+    }
+
+    public static int myUid() {
+        return UID;
+    }
+}
@@ -0,0 +1,113 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class AtomicTrackerMetricsTest {
+
+    private static final int WIFI = TrackerMetrics.SENSOR_WIFI;
+    private static final int GPS = TrackerMetrics.SENSOR_GPS;
+
+    private AtomicTrackerMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new AtomicTrackerMetrics();
+    }
+
+    @Test
+    public void testCountersPerSensor() throws Exception {
+        metrics.increment(WIFI, TrackerMetrics.COUNTER_SCAN_REQUESTED);
+        metrics.increment(WIFI, TrackerMetrics.COUNTER_SCAN_REQUESTED);
+        metrics.increment(GPS, TrackerMetrics.COUNTER_SCAN_REQUESTED);
+        metrics.increment(GPS, TrackerMetrics.COUNTER_TICK_SKIPPED);
+
+        AtomicTrackerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getCount(WIFI, TrackerMetrics.COUNTER_SCAN_REQUESTED));
+        assertEquals(0, snapshot.getCount(WIFI, TrackerMetrics.COUNTER_TICK_SKIPPED));
+        assertEquals(1, snapshot.getCount(GPS, TrackerMetrics.COUNTER_SCAN_REQUESTED));
+        assertEquals(1, snapshot.getCount(GPS, TrackerMetrics.COUNTER_TICK_SKIPPED));
+        assertEquals(0, snapshot.getCount(TrackerMetrics.SENSOR_CELL,
+                TrackerMetrics.COUNTER_SCAN_REQUESTED));
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        for (long value = 0; value < 100000; value++) {
+            final int bucket = AtomicTrackerMetrics.bucketOf(value);
+            assertEquals(true, value <= AtomicTrackerMetrics.upperBound(bucket));
+            if (bucket > 0) {
+                assertEquals(true, value > AtomicTrackerMetrics.upperBound(bucket - 1));
+            }
+        }
+        assertEquals(true, AtomicTrackerMetrics.bucketOf(Long.MAX_VALUE) < 256);
+        assertEquals(Long.MAX_VALUE, AtomicTrackerMetrics.upperBound(
+                AtomicTrackerMetrics.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testLatencies() throws Exception {
+        for (int i = 1; i <= 100; i++) {
+            metrics.recordLatency(WIFI, TrackerMetrics.LATENCY_SCAN, i * 1000);
+        }
+        AtomicTrackerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(100, snapshot.getLatencyCount(WIFI, TrackerMetrics.LATENCY_SCAN));
+        assertEquals(50500, snapshot.getLatencyMean(WIFI, TrackerMetrics.LATENCY_SCAN), 0);
+        assertEquals(100000, snapshot.getLatencyMax(WIFI, TrackerMetrics.LATENCY_SCAN));
+        assertEquals(100000,
+                snapshot.getLatencyPercentile(WIFI, TrackerMetrics.LATENCY_SCAN, 100));
+
+        // the percentiles are the upper bound of the bucket, less than 25% greater
+        final long median = snapshot.getLatencyPercentile(WIFI, TrackerMetrics.LATENCY_SCAN, 50);
+        assertEquals(true, median >= 50000 && median < 50000 * 1.25);
+        final long p90 = snapshot.getLatencyPercentile(WIFI, TrackerMetrics.LATENCY_SCAN, 90);
+        assertEquals(true, p90 >= 90000 && p90 < 90000 * 1.25);
+
+        assertEquals(0, snapshot.getLatencyCount(GPS, TrackerMetrics.LATENCY_SCAN));
+        assertEquals(0, snapshot.getLatencyPercentile(GPS, TrackerMetrics.LATENCY_SCAN, 50));
+    }
+
+    @Test
+    public void testSnapshotAndReset() throws Exception {
+        metrics.increment(WIFI, TrackerMetrics.COUNTER_OBSERVATION);
+        metrics.recordLatency(WIFI, TrackerMetrics.LATENCY_LISTENER, 5000);
+
+        AtomicTrackerMetrics.Snapshot snapshot = metrics.snapshotAndReset();
+        assertEquals(1, snapshot.getCount(WIFI, TrackerMetrics.COUNTER_OBSERVATION));
+        assertEquals(1, snapshot.getLatencyCount(WIFI, TrackerMetrics.LATENCY_LISTENER));
+
+        snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getCount(WIFI, TrackerMetrics.COUNTER_OBSERVATION));
+        assertEquals(0, snapshot.getLatencyCount(WIFI, TrackerMetrics.LATENCY_LISTENER));
+        assertEquals(0, snapshot.getLatencyMax(WIFI, TrackerMetrics.LATENCY_LISTENER));
+    }
+
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        metrics.increment(WIFI, TrackerMetrics.COUNTER_OBSERVATION);
+                        metrics.recordLatency(WIFI, TrackerMetrics.LATENCY_LISTENER, j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        AtomicTrackerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(40000, snapshot.getCount(WIFI, TrackerMetrics.COUNTER_OBSERVATION));
+        assertEquals(40000, snapshot.getLatencyCount(WIFI, TrackerMetrics.LATENCY_LISTENER));
+        assertEquals(9999, snapshot.getLatencyMax(WIFI, TrackerMetrics.LATENCY_LISTENER));
+    }
+}
@@ -0,0 +1,69 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class CellChangeDetectorTest {
+
+    private static boolean scan(CellChangeDetector detector, long[] keys, int[] states) {
+        detector.begin();
+        for (int i = 0; i < keys.length; i++) {
+            detector.add(keys[i], states[i]);
+        }
+        return detector.commit();
+    }
+
+    @Test
+    public void testFirstScanChanged() throws Exception {
+        CellChangeDetector detector = new CellChangeDetector();
+        assertTrue(scan(detector, new long[0], new int[0]));
+    }
+
+    @Test
+    public void testSameCellsInOtherOrder() throws Exception {
+        CellChangeDetector detector = new CellChangeDetector();
+        scan(detector, new long[]{1, 2, 3}, new int[]{3, 4, 5});
+        assertFalse(scan(detector, new long[]{3, 1, 2}, new int[]{5, 3, 4}));
+    }
+
+    @Test
+    public void testStateChanged() throws Exception {
+        CellChangeDetector detector = new CellChangeDetector();
+        scan(detector, new long[]{1, 2}, new int[]{3, 4});
+        assertTrue(scan(detector, new long[]{1, 2}, new int[]{3, 5}));
+    }
+
+    @Test
+    public void testCellsChanged() throws Exception {
+        CellChangeDetector detector = new CellChangeDetector();
+        scan(detector, new long[]{1, 2}, new int[]{3, 4});
+        assertTrue(scan(detector, new long[]{1}, new int[]{3}));
+        assertTrue(scan(detector, new long[]{1, 5}, new int[]{3, 4}));
+    }
+
+    @Test
+    public void testManyCells() throws Exception {
+        CellChangeDetector detector = new CellChangeDetector();
+        long[] keys = new long[100];
+        int[] states = new int[100];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+            states[i] = i % 5;
+        }
+        assertTrue(scan(detector, keys, states));
+        assertFalse(scan(detector, keys, states));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        CellChangeDetector detector = new CellChangeDetector();
+        scan(detector, new long[]{1}, new int[]{3});
+        detector.reset();
+        assertTrue(scan(detector, new long[]{1}, new int[]{3}));
+    }
+}
@@ -0,0 +1,65 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ *
+ */
+public class CellRecordTest {
+
+    @Test
+    public void testPackLte() throws Exception {
+        long globalId = CellKey.pack(CellRecord.RADIO_LTE, 214, 7, 28010, 0xfffffff - 1);
+        CellKey key = new CellKey(CellRecord.RADIO_LTE, globalId);
+        assertEquals(214, key.getMcc());
+        assertEquals(7, key.getMnc());
+        assertEquals(28010, key.getArea());
+        assertEquals(0xfffffff - 1, key.getCid());
+    }
+
+    @Test
+    public void testPackUnavailable() throws Exception {
+        long globalId = CellKey.pack(CellRecord.RADIO_GSM, CellRecord.UNAVAILABLE, -1,
+                CellRecord.UNAVAILABLE, CellRecord.UNAVAILABLE);
+        CellKey key = new CellKey(CellRecord.RADIO_GSM, globalId);
+        assertEquals(CellRecord.UNAVAILABLE, key.getMcc());
+        assertEquals(CellRecord.UNAVAILABLE, key.getMnc());
+        assertEquals(CellRecord.UNAVAILABLE, key.getArea());
+        assertEquals(CellRecord.UNAVAILABLE, key.getCid());
+    }
+
+    @Test
+    public void testPackCdma() throws Exception {
+        long globalId = CellKey.pack(CellRecord.RADIO_CDMA, 32767, CellRecord.UNAVAILABLE,
+                65534, 65535);
+        CellKey key = new CellKey(CellRecord.RADIO_CDMA, globalId);
+        assertEquals(32767, key.getMcc());
+        assertEquals(CellRecord.UNAVAILABLE, key.getMnc());
+        assertEquals(65534, key.getArea());
+        assertEquals(65535, key.getCid());
+    }
+
+    @Test
+    public void testInternKeys() throws Exception {
+        CellRecordFactory factory = new CellRecordFactory();
+        long globalId = CellKey.pack(CellRecord.RADIO_GSM, 214, 1, 100, 200);
+        CellKey key = factory.intern(CellRecord.RADIO_GSM, globalId);
+        assertSame(key, factory.intern(CellRecord.RADIO_GSM, globalId));
+
+        CellKey other = factory.intern(CellRecord.RADIO_WCDMA, globalId);
+        assertNotSame(key, other);
+        assertEquals(CellRecord.RADIO_WCDMA, other.getRadioType());
+    }
+
+    @Test
+    public void testRecordEquality() throws Exception {
+        CellKey key = new CellKey(CellRecord.RADIO_GSM, 1);
+        assertEquals(new CellRecord(key, -80, true),
+                new CellRecord(new CellKey(CellRecord.RADIO_GSM, 1), -80, true));
+        assertEquals(CellRecord.RADIO_GSM, new CellRecord(key, -80, true).getRadioType());
+    }
+}
@@ -0,0 +1,136 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DemandPublisherTest {
+
+    private static class TestSubscriber implements Subscriber<LocationObservation> {
+        final List<LocationObservation> items = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(LocationObservation item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private DemandPublisher<LocationObservation> publisher;
+    private int demandSignals;
+
+    @Before
+    public void setUp() throws Exception {
+        publisher = new DemandPublisher<>();
+        demandSignals = 0;
+        publisher.setDemandListener(new Runnable() {
+            @Override
+            public void run() {
+                demandSignals++;
+            }
+        });
+    }
+
+    private static LocationObservation observation(long timestamp) {
+        return new LocationObservation(timestamp, timestamp, null);
+    }
+
+    @Test
+    public void testNoItemsWithoutDemand() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue(publisher.hasSubscribers());
+        assertFalse(publisher.isOpen());
+
+        publisher.emit(observation(1));
+        assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test
+    public void testItemsLimitedToDemand() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(2);
+        assertTrue(publisher.isOpen());
+
+        for (int i = 0; i < 5; i++) {
+            publisher.emit(observation(i));
+        }
+        assertEquals(2, subscriber.items.size());
+        assertEquals(0, subscriber.items.get(0).getTimestamp());
+        assertFalse(publisher.isOpen());
+    }
+
+    @Test
+    public void testDemandListenerOnlyWhenDemandStarts() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(1);
+        assertEquals(1, demandSignals);
+
+        publisher.emit(observation(1));
+        publisher.emit(observation(2));
+        subscriber.subscription.request(1);
+        assertEquals(2, demandSignals);
+    }
+
+    @Test
+    public void testUnboundedDemand() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.request(10);
+        for (int i = 0; i < 100; i++) {
+            publisher.emit(observation(i));
+        }
+        assertEquals(100, subscriber.items.size());
+        assertTrue(publisher.isOpen());
+    }
+
+    @Test
+    public void testInvalidRequestSignalsError() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(5);
+        subscriber.subscription.cancel();
+        assertFalse(publisher.isOpen());
+        assertFalse(publisher.hasSubscribers());
+
+        publisher.emit(observation(1));
+        assertTrue(subscriber.items.isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+package com.fooock.lib.phone.tracker;
+
+import android.location.LocationManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class EnergyAccountantTest {
+
+    private static final int WIFI = TrackerMetrics.SENSOR_WIFI;
+    private static final int CELL = TrackerMetrics.SENSOR_CELL;
+    private static final int GPS = TrackerMetrics.SENSOR_GPS;
+
+    private VirtualClock clock;
+    private EnergyAccountant accountant;
+    private Configuration.Energy model;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new VirtualClock();
+        model = new Configuration.Energy();
+        model.setWifiScanEnergy(100);
+        model.setCellPollEnergy(10);
+        model.setWakeupEnergy(1);
+        model.setGpsPower(300);
+        model.setNetworkPower(50);
+        accountant = new EnergyAccountant(clock, model);
+    }
+
+    @Test
+    public void testScanEnergy() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            accountant.onWakeup(WIFI);
+            accountant.onRadioWakeup(WIFI);
+        }
+        accountant.onObservation(WIFI);
+        accountant.onObservation(WIFI);
+        accountant.onWakeup(CELL);
+        accountant.onRadioWakeup(CELL);
+
+        EnergyReport report = accountant.report(false);
+        assertEquals(4, report.getWakeups(WIFI));
+        assertEquals(4, report.getRadioWakeups(WIFI));
+        assertEquals(2, report.getObservations(WIFI));
+        assertEquals(404, report.getEnergy(WIFI), 1e-9);
+        assertEquals(202, report.getEnergyPerObservation(WIFI), 1e-9);
+        assertEquals(11, report.getEnergy(CELL), 1e-9);
+        assertTrue(Double.isNaN(report.getEnergyPerObservation(CELL)));
+        assertEquals(415, report.getTotalEnergy(), 1e-9);
+    }
+
+    @Test
+    public void testProviderOnTime() throws Exception {
+        accountant.onProviderStart(LocationManager.GPS_PROVIDER);
+        accountant.onProviderStart(LocationManager.NETWORK_PROVIDER);
+        clock.advance(10000);
+        // registering again doesn't restart the time
+        accountant.onProviderStart(LocationManager.GPS_PROVIDER);
+        accountant.onProviderStop(LocationManager.NETWORK_PROVIDER);
+        clock.advance(10000);
+
+        // the time of the registered providers is counted until now
+        EnergyReport report = accountant.report(false);
+        assertEquals(20000, report.getProviderOnTime(LocationManager.GPS_PROVIDER));
+        assertEquals(10000, report.getProviderOnTime(LocationManager.NETWORK_PROVIDER));
+        assertEquals(0, report.getProviderOnTime(LocationManager.PASSIVE_PROVIDER));
+        assertEquals(2, report.getRadioWakeups(GPS));
+        assertEquals(20 * 300 + 10 * 50, report.getEnergy(GPS), 1e-9);
+        assertEquals(20000, report.getInterval());
+        assertEquals(6500 * 1000 / 20000.0, report.getAveragePower(), 1e-9);
+
+        accountant.onProvidersStopped();
+        clock.advance(10000);
+        report = accountant.report(false);
+        assertEquals(20000, report.getProviderOnTime(LocationManager.GPS_PROVIDER));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        accountant.onWakeup(WIFI);
+        accountant.onProviderStart(LocationManager.GPS_PROVIDER);
+        clock.advance(5000);
+
+        EnergyReport report = accountant.report(true);
+        assertEquals(1, report.getWakeups(WIFI));
+        assertEquals(5000, report.getProviderOnTime(LocationManager.GPS_PROVIDER));
+
+        // the registered provider keeps counting from the reset
+        clock.advance(3000);
+        report = accountant.report(false);
+        assertEquals(0, report.getWakeups(WIFI));
+        assertEquals(0, report.getRadioWakeups(GPS));
+        assertEquals(3000, report.getProviderOnTime(LocationManager.GPS_PROVIDER));
+        assertEquals(3000, report.getInterval());
+    }
+
+    @Test
+    public void testPassiveProviderHasNoCost() throws Exception {
+        accountant.onProviderStart(LocationManager.PASSIVE_PROVIDER);
+        clock.advance(10000);
+
+        final EnergyReport report = accountant.report(false);
+        assertEquals(10000, report.getProviderOnTime(LocationManager.PASSIVE_PROVIDER));
+        assertEquals(0, report.getRadioWakeups(GPS));
+        assertEquals(0, report.getEnergy(GPS), 1e-9);
+    }
+
+    @Test
+    public void testModelChangeSettlesEnergy() throws Exception {
+        accountant.onRadioWakeup(WIFI);
+        accountant.onProviderStart(LocationManager.GPS_PROVIDER);
+        clock.advance(10000);
+
+        // the work already done keeps the price of the old model
+        final Configuration.Energy expensive = new Configuration.Energy();
+        expensive.setWifiScanEnergy(1000);
+        expensive.setWakeupEnergy(1);
+        expensive.setGpsPower(600);
+        accountant.setModel(expensive);
+        accountant.onRadioWakeup(WIFI);
+        clock.advance(10000);
+
+        EnergyReport report = accountant.report(true);
+        assertEquals(2, report.getRadioWakeups(WIFI));
+        assertEquals(100 + 1000, report.getEnergy(WIFI), 1e-9);
+        assertEquals(20000, report.getProviderOnTime(LocationManager.GPS_PROVIDER));
+        assertEquals(10 * 300 + 10 * 600, report.getEnergy(GPS), 1e-9);
+
+        // after the reset only the new model is used
+        accountant.onRadioWakeup(WIFI);
+        clock.advance(10000);
+        report = accountant.report(false);
+        assertEquals(1000, report.getEnergy(WIFI), 1e-9);
+        assertEquals(10 * 600, report.getEnergy(GPS), 1e-9);
+    }
+}
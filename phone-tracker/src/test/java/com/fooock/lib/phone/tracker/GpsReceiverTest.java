@@ -0,0 +1,115 @@
+package com.fooock.lib.phone.tracker;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ */
+public class GpsReceiverTest {
+
+    private VirtualClock clock;
+    private Context context;
+    private LocationManager locationManager;
+    private GpsReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new VirtualClock();
+        context = mock(Context.class);
+        locationManager = mock(LocationManager.class);
+        when(context.getSystemService(Context.LOCATION_SERVICE)).thenReturn(locationManager);
+        when(locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)).thenReturn(true);
+    }
+
+    private GpsReceiver receiver(ScanGate scanGate) {
+        final Scheduler scheduler = clock.create(null);
+        final EnergyAccountant energy = new EnergyAccountant(clock, new Configuration.Energy());
+        return new GpsReceiver(context, scheduler, clock,
+                new SensorMetrics(TrackerMetrics.NONE, TrackerMetrics.SENSOR_GPS), energy,
+                new Configuration.Gps(), scanGate,
+                new StationaryDetector(context, scheduler, clock, energy,
+                        new Configuration.Builder().create()),
+                null);
+    }
+
+    private LocationListener registeredListener(int times) {
+        final ArgumentCaptor<LocationListener> captor =
+                ArgumentCaptor.forClass(LocationListener.class);
+        verify(locationManager, times(times)).requestLocationUpdates(
+                eq(LocationManager.GPS_PROVIDER), anyLong(), anyFloat(), captor.capture(),
+                (Looper) any());
+        return captor.getValue();
+    }
+
+    @Test
+    public void testPauseAndResumeOnDemand() throws Exception {
+        final boolean[] open = {true};
+        receiver = receiver(new ScanGate() {
+            @Override
+            public boolean isOpen() {
+                return open[0];
+            }
+        });
+        receiver.register();
+        final LocationListener listener = registeredListener(1);
+
+        open[0] = false;
+        listener.onLocationChanged(mock(Location.class));
+        verify(locationManager).removeUpdates(listener);
+
+        open[0] = true;
+        receiver.onDemand();
+        clock.advance(1000);
+        registeredListener(2);
+        receiver.unregister();
+    }
+
+    @Test
+    public void testDemandArrivesWhilePausing() throws Exception {
+        final boolean[] open = {true};
+        receiver = receiver(new ScanGate() {
+            @Override
+            public boolean isOpen() {
+                if (open[0]) {
+                    return true;
+                }
+                // the demand arrives from other thread just after the gate is checked
+                open[0] = true;
+                receiver.onDemand();
+                return false;
+            }
+        });
+        receiver.register();
+        final LocationListener listener = registeredListener(1);
+
+        open[0] = false;
+        listener.onLocationChanged(mock(Location.class));
+        verify(locationManager).removeUpdates(listener);
+        assertEquals(1, clock.pendingTasks());
+
+        // the resume posted while pausing registers the provider again
+        clock.advance(1000);
+        registeredListener(2);
+        receiver.unregister();
+        assertEquals(0, clock.pendingTasks());
+    }
+}
@@ -0,0 +1,64 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class LocationFuserTest {
+
+    @Test
+    public void testFirstLocationDelivered() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("network", 1000, 50));
+    }
+
+    @Test
+    public void testDuplicateDropped() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("gps", 1000, 5));
+        // same fix received from the passive provider
+        assertFalse(fuser.offer("gps", 1000, 5));
+    }
+
+    @Test
+    public void testLessAccurateInsideWindowDropped() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("gps", 1000, 5));
+        assertFalse(fuser.offer("network", 2000, 40));
+        assertTrue(fuser.offer("network", 12000, 40));
+    }
+
+    @Test
+    public void testMoreAccurateDelivered() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("network", 1000, 40));
+        assertTrue(fuser.offer("gps", 1500, 5));
+    }
+
+    @Test
+    public void testNewerFromSameProviderDelivered() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("gps", 1000, 5));
+        assertTrue(fuser.offer("gps", 2000, 8));
+        assertFalse(fuser.offer("gps", 3000, 500));
+    }
+
+    @Test
+    public void testOldLocationDropped() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("network", 20000, 40));
+        assertFalse(fuser.offer("gps", 5000, 1));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        LocationFuser fuser = new LocationFuser(10000);
+        assertTrue(fuser.offer("gps", 1000, 5));
+        fuser.reset();
+        assertTrue(fuser.offer("gps", 1000, 5));
+    }
+}
@@ -0,0 +1,68 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class ObservationBatcherTest {
+
+    private final List<List<Integer>> batches = new ArrayList<>();
+    private ObservationBatcher<Integer> batcher;
+
+    @Before
+    public void setUp() throws Exception {
+        batches.clear();
+        batcher = new ObservationBatcher<>(mock(Scheduler.class), 3, 60000,
+                new ObservationBatcher.Callback<Integer>() {
+                    @Override
+                    public void onBatch(List<Integer> batch) {
+                        batches.add(batch);
+                    }
+                });
+    }
+
+    @Test
+    public void testBatchDeliveredWhenFull() throws Exception {
+        batcher.add(1);
+        batcher.add(2);
+        assertTrue(batches.isEmpty());
+        batcher.add(3);
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList(1, 2, 3), batches.get(0));
+        assertEquals(0, batcher.size());
+    }
+
+    @Test
+    public void testFlushDeliversPartialBatch() throws Exception {
+        batcher.add(1);
+        batcher.flush();
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList(1), batches.get(0));
+    }
+
+    @Test
+    public void testEmptyFlushNotDelivered() throws Exception {
+        batcher.flush();
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void testDeliveredBatchNotReused() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            batcher.add(i);
+        }
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList(0, 1, 2), batches.get(0));
+        assertEquals(Arrays.asList(3, 4, 5), batches.get(1));
+    }
+}
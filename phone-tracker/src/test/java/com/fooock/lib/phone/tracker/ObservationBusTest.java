@@ -0,0 +1,137 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ObservationBusTest {
+
+    private static final class Collector implements ObservationReader.Callback {
+        final List<Long> sequences = new ArrayList<>();
+        final List<Observation> observations = new ArrayList<>();
+
+        @Override
+        public void onObservation(long sequence, Observation observation) {
+            sequences.add(sequence);
+            observations.add(observation);
+        }
+    }
+
+    private static Observation observation(long timestamp) {
+        return new LocationObservation(timestamp, timestamp, null);
+    }
+
+    @Test
+    public void testCapacityRoundedToPowerOfTwo() throws Exception {
+        assertEquals(8, new ObservationBus(5).capacity());
+        assertEquals(16, new ObservationBus(16).capacity());
+    }
+
+    @Test
+    public void testReaderStartsAfterLastObservation() throws Exception {
+        ObservationBus bus = new ObservationBus(8);
+        bus.publish(observation(1));
+        ObservationReader reader = bus.openReader();
+        bus.publish(observation(2));
+
+        Collector collector = new Collector();
+        assertEquals(1, reader.drain(collector, 10));
+        assertEquals(2, collector.observations.get(0).getTimestamp());
+        assertEquals(Long.valueOf(1), collector.sequences.get(0));
+        assertEquals(0, reader.available());
+    }
+
+    @Test
+    public void testReadersAreIndependent() throws Exception {
+        ObservationBus bus = new ObservationBus(8);
+        ObservationReader fast = bus.openReader();
+        ObservationReader slow = bus.openReader();
+        for (int i = 0; i < 4; i++) {
+            bus.publish(observation(i));
+        }
+        Collector fastCollector = new Collector();
+        assertEquals(4, fast.drain(fastCollector, 10));
+
+        Collector slowCollector = new Collector();
+        assertEquals(2, slow.drain(slowCollector, 2));
+        assertEquals(2, slow.available());
+        assertEquals(2, slow.drain(slowCollector, 10));
+        assertEquals(fastCollector.sequences, slowCollector.sequences);
+    }
+
+    @Test
+    public void testSlowReaderLosesOverwrittenObservations() throws Exception {
+        ObservationBus bus = new ObservationBus(4);
+        ObservationReader reader = bus.openReader();
+        for (int i = 0; i < 10; i++) {
+            bus.publish(observation(i));
+        }
+        Collector collector = new Collector();
+        int read = reader.drain(collector, 100);
+
+        assertEquals(10, read + reader.getLost());
+        assertTrue(reader.getLost() > 0);
+        assertEquals(9, collector.observations.get(read - 1).getTimestamp());
+        for (int i = 0; i < read; i++) {
+            assertEquals(collector.sequences.get(i).longValue(),
+                    collector.observations.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testCloseReader() throws Exception {
+        ObservationBus bus = new ObservationBus(4);
+        assertFalse(bus.hasReaders());
+        ObservationReader reader = bus.openReader();
+        assertTrue(bus.hasReaders());
+        reader.close();
+        reader.close();
+        assertFalse(bus.hasReaders());
+
+        bus.publish(observation(1));
+        assertEquals(0, reader.drain(new Collector(), 10));
+    }
+
+    @Test
+    public void testConcurrentReaderSeesOrderedSequences() throws Exception {
+        final ObservationBus bus = new ObservationBus(64);
+        final ObservationReader reader = bus.openReader();
+        final int total = 100000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < total; i++) {
+                    bus.publish(observation(i));
+                }
+            }
+        });
+        final long[] last = {-1};
+        final boolean[] ordered = {true};
+        ObservationReader.Callback callback = new ObservationReader.Callback() {
+            @Override
+            public void onObservation(long sequence, Observation observation) {
+                if (sequence <= last[0] || observation.getTimestamp() != sequence) {
+                    ordered[0] = false;
+                }
+                last[0] = sequence;
+            }
+        };
+        producer.start();
+        long read = 0;
+        while (producer.isAlive() || reader.available() > 0) {
+            read += reader.drain(callback, 32);
+        }
+        producer.join();
+
+        assertTrue(ordered[0]);
+        assertEquals(total, read + reader.getLost());
+    }
+}
@@ -0,0 +1,222 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class ObservationCodecTest {
+
+    private static class Recorder implements ObservationVisitor {
+        final List<String> events = new ArrayList<>();
+        double latitude;
+        double longitude;
+        float accuracy;
+        double altitude;
+        float speed;
+        float bearing;
+
+        @Override
+        public void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints) {
+            events.add("wifi " + timestamp + " " + elapsedRealtime + " " + accessPoints);
+        }
+
+        @Override
+        public void onAccessPoint(long bssid, String ssid, int level, int frequency) {
+            events.add("ap " + Long.toHexString(bssid) + " " + ssid + " " + level + " "
+                    + frequency);
+        }
+
+        @Override
+        public void onCellScan(long timestamp, long elapsedRealtime, int cells) {
+            events.add("cell " + timestamp + " " + elapsedRealtime + " " + cells);
+        }
+
+        @Override
+        public void onCell(int radioType, long globalId, int dbm, boolean registered) {
+            events.add("c " + radioType + " " + globalId + " " + dbm + " " + registered);
+        }
+
+        @Override
+        public void onLocation(long timestamp, long elapsedRealtime, String provider,
+                               double latitude, double longitude, float accuracy,
+                               double altitude, float speed, float bearing) {
+            events.add("location " + timestamp + " " + elapsedRealtime + " " + provider);
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy;
+            this.altitude = altitude;
+            this.speed = speed;
+            this.bearing = bearing;
+        }
+    }
+
+    private static ScanResult scan(String bssid, String ssid, int level, int frequency) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.SSID = ssid;
+        scanResult.level = level;
+        scanResult.frequency = frequency;
+        return scanResult;
+    }
+
+    @Test
+    public void testVarints() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        long[] values = {0, 1, -1, 63, -64, 64, 300, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            ObservationCodec.putSignedVarLong(buffer, value);
+        }
+        ObservationCodec.putSignedVarInt(buffer, Integer.MIN_VALUE);
+        ObservationCodec.putVarInt(buffer, -1);
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, ObservationCodec.getSignedVarLong(buffer));
+        }
+        assertEquals(Integer.MIN_VALUE, ObservationCodec.getSignedVarInt(buffer));
+        assertEquals(-1, ObservationCodec.getVarInt(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testSmallValuesUseOneByte() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        ObservationCodec.putSignedVarInt(buffer, -60);
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        String[] values = {null, "", "home", "caf\u00e9 \u20ac", "\ud83d\udcf6 wifi"};
+        List<ScanResult> scans = new ArrayList<>();
+        for (String value : values) {
+            scans.add(scan("00:00:00:00:00:01", value, -50, 2412));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        new ObservationEncoder().encode(new WifiObservation(0, 0, scans), buffer);
+        buffer.flip();
+
+        Recorder recorder = new Recorder();
+        new ObservationDecoder().decode(buffer, recorder);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("ap 1 " + values[i] + " -50 2412", recorder.events.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogateReplaced() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ObservationEncoder encoder = new ObservationEncoder();
+        encoder.encode(new WifiObservation(0, 0, Collections.singletonList(
+                scan("00:00:00:00:00:01", "a\ud83db", -50, 2412))), buffer);
+        buffer.flip();
+
+        Recorder recorder = new Recorder();
+        new ObservationDecoder().decode(buffer, recorder);
+        assertEquals("ap 1 a?b -50 2412", recorder.events.get(1));
+    }
+
+    @Test
+    public void testRoundTripWithDeltaTimestamps() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ObservationEncoder encoder = new ObservationEncoder();
+        encoder.writeHeader(buffer);
+        encoder.encode(new WifiObservation(1500000000000L, 20000, Arrays.asList(
+                scan("a0:b1:c2:03:04:ff", "home", -48, 5180),
+                scan("00:11:22:33:44:55", null, -91, 2437))), buffer);
+        encoder.encode(new CellObservation(1500000001000L, 21000, Arrays.asList(
+                new CellRecord(new CellKey(CellRecord.RADIO_LTE, 123456789L), -95, true),
+                new CellRecord(new CellKey(CellRecord.RADIO_GSM, 42), CellRecord.UNAVAILABLE,
+                        false))), buffer);
+        encoder.encodeLocation(buffer, 1500000000500L, 19000, "gps", 40.4167754, -3.7037902,
+                4.5f, 657.25, Float.NaN, 359.99f);
+        buffer.flip();
+
+        ObservationDecoder decoder = new ObservationDecoder();
+        Recorder recorder = new Recorder();
+        assertEquals(ObservationCodec.VERSION, decoder.readHeader(buffer));
+        while (buffer.hasRemaining()) {
+            decoder.decode(buffer, recorder);
+        }
+        assertEquals(Arrays.asList(
+                "wifi 1500000000000 20000 2",
+                "ap a0b1c20304ff home -48 5180",
+                "ap 1122334455 null -91 2437",
+                "cell 1500000001000 21000 2",
+                "c " + CellRecord.RADIO_LTE + " 123456789 -95 true",
+                "c " + CellRecord.RADIO_GSM + " 42 " + CellRecord.UNAVAILABLE + " false",
+                "location 1500000000500 19000 gps"), recorder.events);
+        assertEquals(40.4167754, recorder.latitude, 1e-7);
+        assertEquals(-3.7037902, recorder.longitude, 1e-7);
+        assertEquals(4.5f, recorder.accuracy, 0.01f);
+        assertEquals(657.25, recorder.altitude, 0.01);
+        assertTrue(Float.isNaN(recorder.speed));
+        assertEquals(359.99f, recorder.bearing, 0.01f);
+    }
+
+    @Test
+    public void testLaterRecordsAreSmaller() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ObservationEncoder encoder = new ObservationEncoder();
+        encoder.encode(new CellObservation(1500000000000L, 20000,
+                Collections.<CellRecord>emptyList()), buffer);
+        int first = buffer.position();
+        encoder.encode(new CellObservation(1500000001000L, 21000,
+                Collections.<CellRecord>emptyList()), buffer);
+        int second = buffer.position() - first;
+        assertTrue(second < first);
+        assertEquals(6, second);
+    }
+
+    @Test
+    public void testOverflowKeepsState() throws Exception {
+        ObservationEncoder encoder = new ObservationEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        encoder.encode(new CellObservation(1000, 1000, Collections.<CellRecord>emptyList()),
+                buffer);
+        try {
+            encoder.encode(new WifiObservation(2000, 2000, Arrays.asList(
+                    scan("00:00:00:00:00:01", "a long network name", -50, 2412),
+                    scan("00:00:00:00:00:02", "another long network name", -50, 2412),
+                    scan("00:00:00:00:00:03", "a third long network name", -50, 2412))),
+                    ByteBuffer.allocate(16));
+            fail();
+        } catch (BufferOverflowException expected) {
+        }
+        encoder.encode(new CellObservation(3000, 3000, Collections.<CellRecord>emptyList()),
+                buffer);
+        buffer.flip();
+
+        Recorder recorder = new Recorder();
+        ObservationDecoder decoder = new ObservationDecoder();
+        decoder.decode(buffer, recorder);
+        decoder.decode(buffer, recorder);
+        assertEquals(Arrays.asList("cell 1000 1000 0", "cell 3000 3000 0"), recorder.events);
+    }
+
+    @Test
+    public void testUnsupportedVersionRejected() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{'P', 'T', 'O',
+                (byte) (ObservationCodec.VERSION + 1)});
+        try {
+            new ObservationDecoder().readHeader(buffer);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
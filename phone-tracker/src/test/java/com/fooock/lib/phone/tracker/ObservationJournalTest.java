@@ -0,0 +1,227 @@
+package com.fooock.lib.phone.tracker;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class ObservationJournalTest {
+
+    private static class Recorder implements ObservationVisitor {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints) {
+            events.add("wifi " + timestamp + " " + elapsedRealtime + " " + accessPoints);
+        }
+
+        @Override
+        public void onAccessPoint(long bssid, String ssid, int level, int frequency) {
+            events.add("ap " + Long.toHexString(bssid) + " " + ssid + " " + level + " "
+                    + frequency);
+        }
+
+        @Override
+        public void onCellScan(long timestamp, long elapsedRealtime, int cells) {
+            events.add("cell " + timestamp + " " + elapsedRealtime + " " + cells);
+        }
+
+        @Override
+        public void onCell(int radioType, long globalId, int dbm, boolean registered) {
+            events.add("c " + radioType + " " + globalId + " " + dbm + " " + registered);
+        }
+
+        @Override
+        public void onLocation(long timestamp, long elapsedRealtime, String provider,
+                               double latitude, double longitude, float accuracy,
+                               double altitude, float speed, float bearing) {
+            events.add("location " + timestamp + " " + elapsedRealtime + " " + provider + " "
+                    + Float.isNaN(accuracy) + " " + Double.isNaN(altitude));
+        }
+    }
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("journal", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private Configuration.Journal configuration(int segmentSize, int maxSegments) {
+        Configuration.Journal configuration = new Configuration.Journal(directory);
+        configuration.setSegmentSize(segmentSize);
+        configuration.setMaxSegments(maxSegments);
+        return configuration;
+    }
+
+    private static ScanResult scan(String bssid, String ssid, int level) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.SSID = ssid;
+        scanResult.level = level;
+        scanResult.frequency = 2412;
+        return scanResult;
+    }
+
+    private static CellObservation cell(long timestamp) {
+        return new CellObservation(timestamp, timestamp, Collections.<CellRecord>emptyList());
+    }
+
+    private File[] segments() {
+        File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ObservationJournal journal = ObservationJournal.open(configuration(4096, 2));
+        journal.append(new WifiObservation(1, 2, Arrays.asList(
+                scan("00:11:22:33:44:55", "home", -50), scan("00:11:22:33:44:66", null, -80))));
+        journal.append(new CellObservation(3, 4, Collections.singletonList(
+                new CellRecord(new CellKey(1, 1234), -90, true))));
+        journal.append(new LocationObservation(5, 6, mock(Location.class)));
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        assertEquals(3, ObservationJournal.read(directory, recorder));
+        assertEquals(Arrays.asList(
+                "wifi 1 2 2",
+                "ap 1122334455 home -50 2412",
+                "ap 1122334466 null -80 2412",
+                "cell 3 4 1",
+                "c 1 1234 -90 true",
+                "location 5 6 null true true"), recorder.events);
+    }
+
+    @Test
+    public void testAppendAfterReopen() throws Exception {
+        ObservationJournal journal = ObservationJournal.open(configuration(4096, 2));
+        journal.append(cell(1));
+        journal.close();
+
+        journal = ObservationJournal.open(configuration(4096, 2));
+        journal.append(cell(2));
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, ObservationJournal.read(directory, recorder));
+        assertEquals(Arrays.asList("cell 1 1 0", "cell 2 2 0"), recorder.events);
+        assertEquals(1, segments().length);
+    }
+
+    @Test
+    public void testTornRecordDiscardedOnRecovery() throws Exception {
+        ObservationJournal journal = ObservationJournal.open(configuration(4096, 2));
+        journal.append(cell(1));
+        journal.close();
+        int end = 8 + recordSize(cell(1));
+
+        // length of a record whose payload was not completely written
+        RandomAccessFile file = new RandomAccessFile(segments()[0], "rw");
+        file.seek(end);
+        file.writeInt(recordSize(cell(2)));
+        file.writeInt(0xdeadbeef);
+        file.close();
+        assertEquals(1, ObservationJournal.read(directory, new Recorder()));
+
+        journal = ObservationJournal.open(configuration(4096, 2));
+        assertEquals(1, journal.getDiscardedRecords());
+        journal.append(cell(2));
+        journal.close();
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, ObservationJournal.read(directory, recorder));
+        assertEquals(Arrays.asList("cell 1 1 0", "cell 2 2 0"), recorder.events);
+    }
+
+    @Test
+    public void testSegmentsRolledAndRetained() throws Exception {
+        ObservationJournal journal = ObservationJournal.open(configuration(4096, 2));
+        int records = 3 * (4096 - 8) / recordSize(cell(1));
+        for (int i = 0; i < records; i++) {
+            journal.append(cell(i));
+        }
+        journal.close();
+
+        File[] segments = segments();
+        assertEquals(2, segments.length);
+        assertFalse(segments[0].getName().startsWith("0000000000000000"));
+
+        Recorder recorder = new Recorder();
+        long read = ObservationJournal.read(directory, recorder);
+        assertTrue(read < records);
+        assertEquals("cell " + (records - 1) + " " + (records - 1) + " 0",
+                recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    public void testRetentionAppliedWhenSegmentSizeChanges() throws Exception {
+        ObservationJournal journal = ObservationJournal.open(configuration(4096, 2));
+        journal.append(cell(1));
+        journal.close();
+        journal = ObservationJournal.open(configuration(8192, 2));
+        journal.append(cell(2));
+        journal.close();
+        assertEquals(2, segments().length);
+
+        // each size change starts a new segment
+        journal = ObservationJournal.open(configuration(4096, 2));
+        journal.append(cell(3));
+        journal.close();
+        File[] segments = segments();
+        assertEquals(2, segments.length);
+        assertFalse(segments[0].getName().startsWith("0000000000000000"));
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, ObservationJournal.read(directory, recorder));
+        assertEquals(Arrays.asList("cell 2 2 0", "cell 3 3 0"), recorder.events);
+    }
+
+    @Test
+    public void testReadMissingDirectory() throws Exception {
+        Recorder recorder = new Recorder();
+        assertEquals(0, ObservationJournal.read(new File(directory, "missing"), recorder));
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    /**
+     * @return Size of the record of the observation when it is the first of a segment
+     */
+    private static int recordSize(Observation observation) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        new ObservationEncoder().encode(observation, buffer);
+        return 8 + buffer.position();
+    }
+}
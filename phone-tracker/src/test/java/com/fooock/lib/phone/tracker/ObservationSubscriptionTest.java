@@ -0,0 +1,216 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ObservationSubscriptionTest {
+
+    /**
+     * Executor that runs the tasks only when asked, to simulate a slow subscriber
+     */
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class Collector implements ObservationReader.Callback {
+        final List<Long> sequences = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onObservation(long sequence, Observation observation) {
+            sequences.add(sequence);
+        }
+    }
+
+    private final List<ObservationSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private ObservationSubscription subscribe(Executor executor, int capacity,
+                                              OverflowPolicy policy, Collector collector) {
+        ObservationSubscription subscription = new ObservationSubscription(
+                subscriptions, executor, capacity, policy, collector);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    private static Observation observation(long timestamp) {
+        return new LocationObservation(timestamp, timestamp, null);
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Collector collector = new Collector();
+        ObservationSubscription subscription = subscribe(
+                executor, 2, OverflowPolicy.DROP_OLDEST, collector);
+        for (int i = 0; i < 5; i++) {
+            subscription.offer(observation(i));
+        }
+        assertEquals(3, subscription.getDropped());
+        executor.runAll();
+        assertEquals(Arrays.asList(3L, 4L), collector.sequences);
+        assertEquals(2, subscription.getDelivered());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Collector collector = new Collector();
+        ObservationSubscription subscription = subscribe(
+                executor, 2, OverflowPolicy.DROP_NEWEST, collector);
+        for (int i = 0; i < 5; i++) {
+            subscription.offer(observation(i));
+        }
+        assertEquals(3, subscription.getDropped());
+        executor.runAll();
+        assertEquals(Arrays.asList(0L, 1L), collector.sequences);
+    }
+
+    @Test
+    public void testLatestKeepsOnlyNewest() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Collector collector = new Collector();
+        ObservationSubscription subscription = subscribe(
+                executor, 10, OverflowPolicy.LATEST, collector);
+        for (int i = 0; i < 5; i++) {
+            subscription.offer(observation(i));
+        }
+        assertEquals(1, subscription.getQueued());
+        executor.runAll();
+        assertEquals(Arrays.asList(4L), collector.sequences);
+        assertEquals(4, subscription.getDropped());
+    }
+
+    @Test
+    public void testSingleDrainScheduled() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        ObservationSubscription subscription = subscribe(
+                executor, 10, OverflowPolicy.DROP_OLDEST, new Collector());
+        subscription.offer(observation(1));
+        subscription.offer(observation(2));
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void testBlockWaitsForSubscriber() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Collector collector = new Collector();
+        ObservationSubscription subscription = subscribe(executor, 1, OverflowPolicy.BLOCK,
+                new Collector() {
+                    @Override
+                    public void onObservation(long sequence, Observation observation) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        collector.onObservation(sequence, observation);
+                    }
+                });
+        subscription.offer(observation(0));
+        // the subscriber holds the first observation, the second one fills the queue
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        subscription.offer(observation(1));
+        release.countDown();
+        // blocks until the subscriber takes the second observation
+        subscription.offer(observation(2));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L, 1L, 2L), collector.sequences);
+        assertEquals(0, subscription.getDropped());
+    }
+
+    @Test
+    public void testBlockDropsWhenDeliveredInOfferingThread() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final CountDownLatch offered = new CountDownLatch(1);
+        final Collector collector = new Collector() {
+            @Override
+            public void onObservation(long sequence, Observation observation) {
+                super.onObservation(sequence, observation);
+                delivered.countDown();
+            }
+        };
+        final ObservationSubscription subscription = subscribe(executor, 1,
+                OverflowPolicy.BLOCK, collector);
+        // the producer and the subscriber share the thread, like a subscriber in the looper
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                subscription.offer(observation(0));
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                subscription.offer(observation(1));
+                subscription.offer(observation(2));
+                offered.countDown();
+            }
+        });
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L, 1L), collector.sequences);
+        assertEquals(1, subscription.getDropped());
+    }
+
+    @Test
+    public void testRejectedDeliveryCancels() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        Collector collector = new Collector();
+        ObservationSubscription subscription = subscribe(
+                executor, 2, OverflowPolicy.DROP_OLDEST, collector);
+        subscription.offer(observation(0));
+        assertTrue(subscription.isCancelled());
+        assertFalse(subscriptions.contains(subscription));
+        subscription.offer(observation(1));
+        assertEquals(0, subscription.getQueued());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Collector collector = new Collector();
+        ObservationSubscription subscription = subscribe(
+                executor, 2, OverflowPolicy.DROP_OLDEST, collector);
+        subscription.offer(observation(0));
+        subscription.cancel();
+        assertTrue(subscription.isCancelled());
+        assertFalse(subscriptions.contains(subscription));
+        subscription.offer(observation(1));
+        executor.runAll();
+        assertTrue(collector.sequences.isEmpty());
+    }
+}
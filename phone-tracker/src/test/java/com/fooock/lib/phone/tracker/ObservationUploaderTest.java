@@ -0,0 +1,354 @@
+package com.fooock.lib.phone.tracker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class ObservationUploaderTest {
+
+    /**
+     * Local stand-in of the upload server. Answers each request with the next status, and with
+     * the last one when there are no more
+     */
+    private static class UploadServer implements HttpHandler {
+        final List<byte[]> bodies = Collections.synchronizedList(new ArrayList<byte[]>());
+        final List<Integer> statuses = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        volatile CountDownLatch release;
+        HttpServer server;
+        ExecutorService executor;
+
+        void start() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/upload", this);
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String endpoint() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/upload";
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final int current = concurrent.incrementAndGet();
+            maxConcurrent.set(Math.max(maxConcurrent.get(), current));
+            try {
+                final byte[] body = readAll(new GZIPInputStream(exchange.getRequestBody()));
+                if (release != null) {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                final int request = requests.getAndIncrement();
+                final int status = statuses.isEmpty() ? 200
+                        : statuses.get(Math.min(request, statuses.size() - 1));
+                if (status == 200) {
+                    bodies.add(body);
+                }
+                exchange.sendResponseHeaders(status, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+                exchange.close();
+            }
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private final UploadServer server = new UploadServer();
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        server.start();
+        directory = File.createTempFile("upload", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private Configuration.Upload configuration(String endpoint) {
+        Configuration.Upload configuration = new Configuration.Upload(endpoint, directory);
+        configuration.setMaxBatchSize(3);
+        configuration.setInitialBackoff(20);
+        configuration.setMaxBackoff(100);
+        return configuration;
+    }
+
+    private static CellObservation cell(long timestamp) {
+        return new CellObservation(timestamp, timestamp, Collections.<CellRecord>emptyList());
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static void await(Condition condition) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.isMet()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private static List<Long> decodeTimestamps(byte[] body) {
+        final List<Long> timestamps = new ArrayList<>();
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final ObservationDecoder decoder = new ObservationDecoder();
+        decoder.readHeader(buffer);
+        while (buffer.hasRemaining()) {
+            decoder.decode(buffer, new ObservationVisitor() {
+                @Override
+                public void onWifiScan(long timestamp, long elapsedRealtime, int accessPoints) {
+                }
+
+                @Override
+                public void onAccessPoint(long bssid, String ssid, int level, int frequency) {
+                }
+
+                @Override
+                public void onCellScan(long timestamp, long elapsedRealtime, int cells) {
+                    timestamps.add(timestamp);
+                }
+
+                @Override
+                public void onCell(int radioType, long globalId, int dbm, boolean registered) {
+                }
+
+                @Override
+                public void onLocation(long timestamp, long elapsedRealtime, String provider,
+                                       double latitude, double longitude, float accuracy,
+                                       double altitude, float speed, float bearing) {
+                }
+            });
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void testFullBatchUploaded() throws Exception {
+        final UploadQueue queue = new UploadQueue(configuration(server.endpoint()));
+        queue.start();
+        ObservationUploader uploader = new ObservationUploader(mock(Scheduler.class),
+                configuration(server.endpoint()), queue);
+        for (int i = 1; i <= 4; i++) {
+            uploader.add(cell(i * 1000));
+        }
+        assertEquals(1, uploader.size());
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getUploadedBatches() == 1;
+            }
+        });
+        assertEquals(1, server.bodies.size());
+        assertEquals(3, decodeTimestamps(server.bodies.get(0)).size());
+        assertEquals(Long.valueOf(3000), decodeTimestamps(server.bodies.get(0)).get(2));
+        assertEquals(0, queue.getPendingBatches());
+
+        uploader.close();
+    }
+
+    @Test
+    public void testServerErrorRetriedWithBackoff() throws Exception {
+        server.statuses.add(503);
+        server.statuses.add(500);
+        server.statuses.add(200);
+        final UploadQueue queue = new UploadQueue(configuration(server.endpoint()));
+        queue.start();
+        queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getUploadedBatches() == 1;
+            }
+        });
+        assertEquals(2, queue.getFailedUploads());
+        assertEquals(3, server.requests.get());
+        assertEquals(0, queue.getPendingBatches());
+        queue.close();
+    }
+
+    @Test
+    public void testRejectedBatchDropped() throws Exception {
+        server.statuses.add(400);
+        final UploadQueue queue = new UploadQueue(configuration(server.endpoint()));
+        queue.start();
+        queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getDroppedBatches() == 1;
+            }
+        });
+        assertEquals(1, server.requests.get());
+        assertEquals(0, queue.getPendingBatches());
+        queue.close();
+    }
+
+    @Test
+    public void testOfflineBatchesUploadedOnNextStart() throws Exception {
+        server.stop();
+        final String endpoint = server.endpoint();
+        final UploadQueue offline = new UploadQueue(configuration(endpoint));
+        offline.start();
+        offline.enqueue(new byte[]{'P', 'T', 'O', 1});
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return offline.getFailedUploads() > 0;
+            }
+        });
+        offline.close();
+        assertEquals(1, offline.getPendingBatches());
+
+        server.start();
+        final UploadQueue online = new UploadQueue(configuration(server.endpoint()));
+        online.start();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return online.getUploadedBatches() == 1;
+            }
+        });
+        assertEquals(0, online.getPendingBatches());
+        online.close();
+    }
+
+    @Test
+    public void testConcurrentUploadsLimited() throws Exception {
+        server.release = new CountDownLatch(1);
+        Configuration.Upload configuration = configuration(server.endpoint());
+        configuration.setMaxConcurrentUploads(2);
+        final UploadQueue queue = new UploadQueue(configuration);
+        queue.start();
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        }
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return server.concurrent.get() == 2;
+            }
+        });
+        Thread.sleep(100);
+        server.release.countDown();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getUploadedBatches() == 5;
+            }
+        });
+        assertEquals(2, server.maxConcurrent.get());
+        queue.close();
+    }
+
+    @Test
+    public void testBatchesStoredDuringSlowUpload() throws Exception {
+        server.release = new CountDownLatch(1);
+        Configuration.Upload configuration = configuration(server.endpoint());
+        configuration.setMaxConcurrentUploads(1);
+        final UploadQueue queue = new UploadQueue(configuration);
+        queue.start();
+        queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return server.concurrent.get() == 1;
+            }
+        });
+        // the upload thread is blocked by the first request
+        queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getPendingBatches() == 3;
+            }
+        });
+        server.release.countDown();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getUploadedBatches() == 3;
+            }
+        });
+        queue.close();
+    }
+
+    @Test
+    public void testOldestPendingBatchesDeleted() throws Exception {
+        server.stop();
+        Configuration.Upload configuration = configuration(server.endpoint());
+        configuration.setMaxPendingBatches(2);
+        configuration.setInitialBackoff(60000);
+        final UploadQueue queue = new UploadQueue(configuration);
+        queue.start();
+        for (int i = 0; i < 4; i++) {
+            queue.enqueue(new byte[]{'P', 'T', 'O', 1});
+        }
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return queue.getDroppedBatches() == 2;
+            }
+        });
+        assertEquals(2, queue.getPendingBatches());
+        queue.close();
+    }
+}
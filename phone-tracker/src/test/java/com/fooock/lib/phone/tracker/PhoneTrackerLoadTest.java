@@ -0,0 +1,546 @@
+package com.fooock.lib.phone.tracker;
+
+import android.hardware.Sensor;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class PhoneTrackerLoadTest {
+
+    private static final long MINUTE = 60000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private VirtualClock clock;
+    private SyntheticEnvironment environment;
+    private PhoneTracker tracker;
+
+    private long wifiScans;
+    private long accessPoints;
+    private long cellScans;
+    private List<CellRecord> lastCells;
+    private long locations;
+    private long lastTimestamp;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new VirtualClock();
+        environment = new SyntheticEnvironment(clock, 5000, 40, 1000, 42);
+        tracker = new PhoneTracker(environment.getContext(), clock, clock,
+                clock.backgroundScheduler());
+        tracker.setWifiScanListener(new PhoneTracker.WifiScanListener() {
+            @Override
+            public void onWifiScansReceived(long timestamp, List<ScanResult> scans) {
+                checkTimestamp(timestamp);
+                wifiScans++;
+                accessPoints += scans.size();
+            }
+        });
+        tracker.setCellRecordListener(new PhoneTracker.CellRecordListener() {
+            @Override
+            public void onCellRecordsReceived(long timestamp, List<CellRecord> cells) {
+                checkTimestamp(timestamp);
+                cellScans++;
+                lastCells = cells;
+            }
+        });
+        tracker.setGpsLocationListener(new PhoneTracker.GpsLocationListener() {
+            @Override
+            public void onLocationReceived(long timestamp, Location location) {
+                checkTimestamp(timestamp);
+                locations++;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CheckVersion.sdkVersion = Build.VERSION.SDK_INT;
+    }
+
+    private void checkTimestamp(long timestamp) {
+        assertEquals(clock.currentTimeMillis(), timestamp);
+        assertTrue(timestamp >= lastTimestamp);
+        lastTimestamp = timestamp;
+    }
+
+    private static Configuration configuration(boolean useWifi, boolean useGps, int scanDelay,
+                                               long minTimeUpdate) {
+        final Configuration.Wifi wifiConf = new Configuration.Wifi();
+        wifiConf.setScanDelay(scanDelay);
+        final Configuration.Cell cellConf = new Configuration.Cell();
+        cellConf.setScanDelay(scanDelay * 2);
+        final Configuration.Gps gpsConf = new Configuration.Gps();
+        gpsConf.setMinTimeUpdate(minTimeUpdate);
+        return new Configuration.Builder()
+                .useWifi(useWifi)
+                .useGps(useGps)
+                .wifi(wifiConf)
+                .cell(cellConf)
+                .gps(gpsConf)
+                .create();
+    }
+
+    private void assertReleased() {
+        // the last tasks posted by stop
+        clock.advance(MINUTE);
+        assertEquals(0, clock.pendingTasks());
+        assertEquals(0, environment.getRegisteredReceivers());
+        assertEquals(0, environment.getPhoneStateListeners());
+        assertEquals(0, environment.getLocationListeners());
+        assertEquals(0, environment.getMotionListeners());
+    }
+
+    @Test
+    public void testHoursOfTracking() throws Exception {
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        int maxPendingTasks = 0;
+        for (long time = 0; time < 8 * HOUR; time += MINUTE) {
+            clock.advance(MINUTE);
+            maxPendingTasks = Math.max(maxPendingTasks, clock.pendingTasks());
+        }
+        tracker.stop();
+        assertFalse(tracker.isRunning());
+        assertReleased();
+
+        // a scan every 10 seconds, delivered 2 seconds later. The results of the last one
+        // arrive after the stop
+        assertEquals(8 * 360 + 1, environment.getScanRequests());
+        assertEquals(8 * 360, wifiScans);
+        assertEquals(150 * wifiScans, accessPoints);
+        // a cell scan every 20 seconds and a location every second
+        assertEquals(8 * 180 + 1, cellScans);
+        assertEquals(8 * 3600, locations);
+        assertEquals(environment.getDeliveredLocations(), locations);
+        // the scan loops and the streams are not accumulated
+        assertTrue("Pending tasks " + maxPendingTasks, maxPendingTasks <= 5);
+    }
+
+    @Test
+    public void testHoursOfTrackingInAndroidO() throws Exception {
+        CheckVersion.sdkVersion = Build.VERSION_CODES.O;
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        int maxPendingTasks = 0;
+        for (long time = 0; time < 2 * HOUR; time += MINUTE) {
+            clock.advance(MINUTE);
+            maxPendingTasks = Math.max(maxPendingTasks, clock.pendingTasks());
+        }
+        tracker.stop();
+        assertFalse(tracker.isRunning());
+        assertReleased();
+
+        assertEquals(2 * 360 + 1, environment.getScanRequests());
+        assertEquals(2 * 360, wifiScans);
+        assertEquals(150 * wifiScans, accessPoints);
+        assertEquals(2 * 180 + 1, cellScans);
+        assertEquals(2 * 3600, locations);
+        assertEquals(environment.getDeliveredLocations(), locations);
+        assertTrue("Pending tasks " + maxPendingTasks, maxPendingTasks <= 5);
+
+        // the cells are read from the cell info, not from the neighboring cells
+        assertEquals(7, lastCells.size());
+        final CellRecord registered = lastCells.get(0);
+        assertEquals(CellRecord.RADIO_LTE, registered.getRadioType());
+        assertEquals(214, registered.getMcc());
+        assertEquals(7, registered.getMnc());
+        assertTrue(registered.isRegistered());
+        assertFalse(lastCells.get(1).isRegistered());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final AtomicTrackerMetrics metrics = new AtomicTrackerMetrics();
+        tracker.setMetrics(metrics);
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        clock.advance(HOUR);
+        tracker.stop();
+        assertReleased();
+
+        final AtomicTrackerMetrics.Snapshot snapshot = metrics.snapshot();
+        final int wifi = TrackerMetrics.SENSOR_WIFI;
+        assertEquals(environment.getScanRequests(),
+                snapshot.getCount(wifi, TrackerMetrics.COUNTER_SCAN_REQUESTED));
+        assertEquals(wifiScans, snapshot.getCount(wifi, TrackerMetrics.COUNTER_OBSERVATION));
+        assertEquals(wifiScans, snapshot.getLatencyCount(wifi, TrackerMetrics.LATENCY_SCAN));
+        // the synthetic scans take 2 seconds
+        assertEquals(2000000000L, snapshot.getLatencyMax(wifi, TrackerMetrics.LATENCY_SCAN));
+        assertEquals(2000000000L,
+                snapshot.getLatencyPercentile(wifi, TrackerMetrics.LATENCY_SCAN, 50));
+        assertEquals(wifiScans,
+                snapshot.getLatencyCount(wifi, TrackerMetrics.LATENCY_PLATFORM_CALL));
+        assertEquals(cellScans, snapshot.getCount(TrackerMetrics.SENSOR_CELL,
+                TrackerMetrics.COUNTER_OBSERVATION));
+        assertEquals(locations, snapshot.getCount(TrackerMetrics.SENSOR_GPS,
+                TrackerMetrics.COUNTER_OBSERVATION));
+        assertEquals(locations, snapshot.getLatencyCount(TrackerMetrics.SENSOR_GPS,
+                TrackerMetrics.LATENCY_LISTENER));
+    }
+
+    @Test
+    public void testEnergyReportComparesConfigurations() throws Exception {
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        tracker.resetEnergyReport();
+        clock.advance(HOUR);
+        final EnergyReport fast = tracker.resetEnergyReport();
+
+        tracker.updateConfiguration(configuration(true, false, 30000, 1000));
+        clock.advance(HOUR);
+        final EnergyReport slow = tracker.resetEnergyReport();
+        tracker.stop();
+        assertReleased();
+
+        final int wifi = TrackerMetrics.SENSOR_WIFI;
+        assertEquals(HOUR, fast.getInterval());
+        // the scan at the end of the hour is delivered in the next one
+        assertEquals(361, fast.getRadioWakeups(wifi));
+        assertEquals(360, fast.getObservations(wifi));
+        assertEquals(HOUR, fast.getProviderOnTime(LocationManager.GPS_PROVIDER));
+        assertEquals(3600, fast.getObservations(TrackerMetrics.SENSOR_GPS));
+
+        // a third of the wifi scans, and no gps
+        assertEquals(120, slow.getRadioWakeups(wifi), 1);
+        assertTrue(slow.getEnergy(wifi) < fast.getEnergy(wifi) / 2);
+        assertEquals(0, slow.getProviderOnTime(LocationManager.GPS_PROVIDER));
+        assertTrue(slow.getTotalEnergy() < fast.getTotalEnergy());
+        // the cost of each wifi scan doesn't depend on the interval
+        assertEquals(fast.getEnergyPerObservation(wifi), slow.getEnergyPerObservation(wifi),
+                fast.getEnergyPerObservation(wifi) * 0.05);
+    }
+
+    /**
+     * @return Tasks run in an hour of idle wifi and cell scans with the default intervals
+     */
+    private static long idleHourWakeups(boolean aligned) {
+        final VirtualClock clock = new VirtualClock();
+        final SyntheticEnvironment environment = new SyntheticEnvironment(clock, 50, 10, 1000, 1);
+        final PhoneTracker tracker = new PhoneTracker(environment.getContext(), clock, clock,
+                clock.backgroundScheduler());
+        final Configuration.Wifi wifiConf = new Configuration.Wifi();
+        final Configuration.Cell cellConf = new Configuration.Cell();
+        if (!aligned) {
+            wifiConf.setAlignmentWindow(0);
+            cellConf.setAlignmentWindow(0);
+        }
+        tracker.setConfiguration(new Configuration.Builder()
+                .useGps(false)
+                .wifi(wifiConf)
+                .cell(cellConf)
+                .wakeupAlignment(aligned ? 1000 : 0)
+                .create());
+        tracker.start();
+        clock.advance(HOUR);
+        tracker.stop();
+        // the scan results delivered by the environment are the same in both runs
+        return clock.executedTasks() - environment.getDeliveredScans();
+    }
+
+    @Test
+    public void testAlignedWakeups() throws Exception {
+        final long unaligned = idleHourWakeups(false);
+        final long aligned = idleHourWakeups(true);
+        // a wifi scan every 4 seconds and a cell poll every 7 seconds, together every 28
+        assertTrue("Unaligned wakeups " + unaligned, unaligned >= 900 + 514 - 129);
+        // the cell polls are done in the wakeups of the wifi scans
+        assertTrue("Aligned wakeups " + aligned, aligned <= 901);
+    }
+
+    @Test
+    public void testStationaryGating() throws Exception {
+        final Configuration.Wifi wifiConf = new Configuration.Wifi();
+        wifiConf.setScanDelay(10000);
+        // walking, 30% of the access points change in 90 seconds, before the still time
+        tracker.setConfiguration(new Configuration.Builder()
+                .wifi(wifiConf)
+                .stationary(new Configuration.Stationary())
+                .create());
+        tracker.start();
+        clock.advance(10 * MINUTE);
+        assertFalse(tracker.isStationary());
+        assertEquals(1, environment.getLocationListeners());
+
+        // on a desk the gps is removed and the wifi is scanned six times less
+        environment.setWalking(false);
+        clock.advance(5 * MINUTE);
+        assertTrue(tracker.isStationary());
+        assertEquals(0, environment.getLocationListeners());
+        final long stationaryScans = environment.getScanRequests();
+        final long stationaryLocations = locations;
+        clock.advance(HOUR);
+        assertTrue(tracker.isStationary());
+        assertEquals(60, environment.getScanRequests() - stationaryScans, 1);
+        assertEquals(stationaryLocations, locations);
+
+        // the changes of the access points resume the tracking
+        environment.setWalking(true);
+        clock.advance(3 * MINUTE);
+        assertFalse(tracker.isStationary());
+        assertEquals(1, environment.getLocationListeners());
+        final long movingScans = environment.getScanRequests();
+        clock.advance(10 * MINUTE);
+        // a scan every 10 seconds, up to the alignment window late
+        final long movingRequests = environment.getScanRequests() - movingScans;
+        assertTrue("Scans " + movingRequests, movingRequests >= 55 && movingRequests <= 60);
+        tracker.stop();
+        assertReleased();
+        assertFalse(tracker.isStationary());
+    }
+
+    @Test
+    public void testSignificantMotionEndsStationary() throws Exception {
+        CheckVersion.sdkVersion = Build.VERSION_CODES.O;
+        environment.setMotionSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        tracker.setConfiguration(new Configuration.Builder()
+                .stationary(new Configuration.Stationary())
+                .create());
+        environment.setWalking(false);
+        tracker.start();
+        clock.advance(5 * MINUTE);
+        assertTrue(tracker.isStationary());
+        assertEquals(1, environment.getMotionListeners());
+        assertEquals(0, environment.getMotionEvents());
+
+        // the trigger ends the stationary state long before the access points change
+        tracker.resetEnergyReport();
+        environment.setWalking(true);
+        clock.advance(10000);
+        assertFalse(tracker.isStationary());
+        assertEquals(1, environment.getLocationListeners());
+        assertTrue(environment.getMotionEvents() > 0);
+        assertEquals(environment.getMotionEvents(),
+                tracker.getEnergyReport().getWakeups(TrackerMetrics.SENSOR_MOTION));
+        tracker.stop();
+        assertReleased();
+    }
+
+    @Test
+    public void testAccelerometerEndsStationary() throws Exception {
+        environment.setMotionSensor(Sensor.TYPE_ACCELEROMETER);
+        tracker.setConfiguration(new Configuration.Builder()
+                .stationary(new Configuration.Stationary())
+                .create());
+        environment.setWalking(false);
+        tracker.start();
+        clock.advance(5 * MINUTE);
+        assertTrue(tracker.isStationary());
+        assertEquals(1, environment.getMotionListeners());
+        // sampled once a second, every sample is a wakeup
+        assertEquals(5 * 60, environment.getMotionEvents(), 1);
+        assertEquals(environment.getMotionEvents(),
+                tracker.getEnergyReport().getWakeups(TrackerMetrics.SENSOR_MOTION));
+
+        environment.setWalking(true);
+        clock.advance(2000);
+        assertFalse(tracker.isStationary());
+        assertEquals(1, environment.getLocationListeners());
+        tracker.stop();
+        assertReleased();
+    }
+
+    @Test
+    public void testStationaryDetectionDisabled() throws Exception {
+        tracker.setConfiguration(new Configuration.Builder()
+                .stationary(new Configuration.Stationary())
+                .create());
+        environment.setWalking(false);
+        tracker.start();
+        clock.advance(5 * MINUTE);
+        assertTrue(tracker.isStationary());
+        assertEquals(0, environment.getLocationListeners());
+
+        tracker.updateConfiguration(new Configuration.Builder().create());
+        clock.advance(MINUTE);
+        assertFalse(tracker.isStationary());
+        assertEquals(1, environment.getLocationListeners());
+        tracker.stop();
+        assertReleased();
+    }
+
+    @Test
+    public void testBackgroundWindows() throws Exception {
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        clock.advance(MINUTE);
+        final long foregroundScans = environment.getScanRequests();
+        final long foregroundLocations = locations;
+
+        tracker.setBackground(true);
+        assertEquals(0, environment.getRegisteredReceivers());
+        assertEquals(0, environment.getLocationListeners());
+        for (int window = 0; window < 32; window++) {
+            // between the windows nothing is registered
+            clock.advance(15 * MINUTE - 1);
+            assertEquals(0, environment.getRegisteredReceivers());
+            assertEquals(0, environment.getLocationListeners());
+            clock.advance(1);
+            assertEquals(1, environment.getRegisteredReceivers());
+            assertEquals(1, environment.getLocationListeners());
+        }
+        clock.advance(MINUTE);
+        final VirtualClock.VirtualBackgroundScheduler windows = clock.backgroundScheduler();
+        assertEquals(32, windows.getStartedWindows());
+        assertEquals(0, windows.getRunningWindows());
+        // a wifi scan and ten locations in each window of ten seconds
+        assertEquals(foregroundScans + 32, environment.getScanRequests());
+        assertEquals(foregroundLocations + 32 * 10, locations, 32);
+
+        // back in foreground the scans are continuous again
+        final long backgroundLocations = locations;
+        tracker.setBackground(false);
+        clock.advance(MINUTE);
+        assertEquals(1, environment.getRegisteredReceivers());
+        assertEquals(backgroundLocations + 60, locations);
+        tracker.stop();
+        assertReleased();
+        assertEquals(32, windows.getStartedWindows());
+    }
+
+    @Test
+    public void testBackgroundConfigurationAndStop() throws Exception {
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.setBackground(true);
+        tracker.start();
+        assertEquals(0, environment.getRegisteredReceivers());
+
+        final Configuration.Background backgroundConf = new Configuration.Background();
+        backgroundConf.setInterval(30 * MINUTE);
+        tracker.updateConfiguration(new Configuration.Builder()
+                .useGps(false)
+                .background(backgroundConf)
+                .create());
+        clock.advance(HOUR);
+        final VirtualClock.VirtualBackgroundScheduler windows = clock.backgroundScheduler();
+        assertEquals(2, windows.getStartedWindows());
+        assertEquals(0, locations);
+
+        // stopped in the middle of a window
+        clock.advance(30 * MINUTE + 5000);
+        assertEquals(1, windows.getRunningWindows());
+        assertEquals(1, environment.getRegisteredReceivers());
+        tracker.stop();
+        assertReleased();
+        assertEquals(0, windows.getRunningWindows());
+        assertEquals(3, windows.getStartedWindows());
+    }
+
+    @Test
+    public void testStartStopChurn() throws Exception {
+        final Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            tracker.setConfiguration(configuration(random.nextBoolean(), random.nextBoolean(),
+                    4000 + random.nextInt(30000), 1000 + random.nextInt(10000)));
+            tracker.start();
+            assertTrue(tracker.isRunning());
+            clock.advance(random.nextInt(10) * MINUTE);
+            tracker.stop();
+            clock.advance(random.nextInt(1000));
+        }
+        assertReleased();
+        assertTrue(wifiScans > 0);
+        assertTrue(cellScans > 0);
+        assertTrue(locations > 0);
+    }
+
+    @Test
+    public void testUpdateConfigurationChurn() throws Exception {
+        final Random random = new Random(11);
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        for (int i = 0; i < 1000; i++) {
+            tracker.updateConfiguration(configuration(random.nextBoolean(),
+                    random.nextBoolean(), 4000 + random.nextInt(30000),
+                    1000 + random.nextInt(10000)));
+            clock.advance(random.nextInt(5) * MINUTE);
+            assertTrue(clock.pendingTasks() <= 5);
+            assertTrue(environment.getRegisteredReceivers() <= 1);
+            assertTrue(environment.getLocationListeners() <= 1);
+        }
+        tracker.stop();
+        assertReleased();
+    }
+
+    @Test
+    public void testUpdateConfigurationWhileStopped() throws Exception {
+        tracker.setConfiguration(configuration(true, true, 10000, 1000));
+        tracker.start();
+        clock.advance(MINUTE);
+        tracker.stop();
+
+        // the new configuration is used when the tracker is started again
+        tracker.updateConfiguration(configuration(false, false, 10000, 1000));
+        tracker.start();
+        clock.advance(MINUTE);
+        assertEquals(0, environment.getRegisteredReceivers());
+        assertEquals(0, environment.getLocationListeners());
+        tracker.stop();
+        assertReleased();
+    }
+
+    @Test
+    public void testReplayPacedAndReplacedByUpdate() throws Exception {
+        final File trace = File.createTempFile("replay", ".trace");
+        try {
+            // the wall clock was set back during the recording
+            final TraceRecorder recorder = new TraceRecorder(trace);
+            recorder.add(new CellObservation(1000000, 5000,
+                    Collections.<CellRecord>emptyList()));
+            recorder.add(new CellObservation(900000, 15000,
+                    Collections.<CellRecord>emptyList()));
+            recorder.add(new CellObservation(3000000, 45000,
+                    Collections.<CellRecord>emptyList()));
+            recorder.close();
+
+            final List<Long> replayed = new ArrayList<>();
+            tracker.setCellRecordListener(new PhoneTracker.CellRecordListener() {
+                @Override
+                public void onCellRecordsReceived(long timestamp, List<CellRecord> cells) {
+                    replayed.add(clock.elapsedRealtime());
+                }
+            });
+            tracker.setConfiguration(new Configuration.Builder()
+                    .useWifi(false)
+                    .useGps(false)
+                    .replay(new Configuration.Replay(trace))
+                    .create());
+            tracker.start();
+            clock.advance(MINUTE);
+            assertEquals(3, replayed.size());
+            assertEquals(10000, replayed.get(1) - replayed.get(0), 1000);
+            assertEquals(40000, replayed.get(2) - replayed.get(0), 1000);
+            assertEquals(0, environment.getPhoneStateListeners());
+
+            // the receivers of the sensors replace the trace
+            tracker.updateConfiguration(configuration(true, true, 10000, 1000));
+            clock.advance(MINUTE);
+            assertTrue(tracker.isRunning());
+            assertEquals(1, environment.getRegisteredReceivers());
+            assertEquals(1, environment.getLocationListeners());
+            assertTrue(wifiScans > 0);
+            assertTrue(locations > 0);
+            tracker.stop();
+            assertReleased();
+        } finally {
+            trace.delete();
+        }
+    }
+}
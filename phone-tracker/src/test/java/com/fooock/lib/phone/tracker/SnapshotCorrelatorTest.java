@@ -0,0 +1,158 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class SnapshotCorrelatorTest {
+
+    private final List<EnvironmentSnapshot> snapshots = new ArrayList<>();
+    private SnapshotCorrelator correlator;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshots.clear();
+        correlator = new SnapshotCorrelator(10000, 2000, new SnapshotCorrelator.Callback() {
+            @Override
+            public void onSnapshot(EnvironmentSnapshot snapshot) {
+                snapshots.add(snapshot);
+            }
+        });
+    }
+
+    private static WifiObservation wifi(long elapsedRealtime) {
+        return new WifiObservation(0, elapsedRealtime, Collections.<ScanResult>emptyList());
+    }
+
+    private static CellObservation cell(long elapsedRealtime) {
+        return new CellObservation(0, elapsedRealtime, Collections.<CellRecord>emptyList());
+    }
+
+    private static LocationObservation location(long elapsedRealtime) {
+        return new LocationObservation(0, elapsedRealtime, null);
+    }
+
+    @Test
+    public void testWindowClosedAfterWatermark() throws Exception {
+        WifiObservation wifi = wifi(1000);
+        CellObservation cell = cell(4000);
+        LocationObservation location = location(9000);
+        correlator.add(wifi);
+        correlator.add(cell);
+        correlator.add(location);
+        // watermark 10000 - 2000 doesn't pass the window end yet
+        correlator.add(wifi(10000));
+        assertTrue(snapshots.isEmpty());
+
+        correlator.add(cell(12000));
+        assertEquals(1, snapshots.size());
+        EnvironmentSnapshot snapshot = snapshots.get(0);
+        assertEquals(0, snapshot.getWindowStart());
+        assertEquals(10000, snapshot.getWindowEnd());
+        assertSame(wifi, snapshot.getWifi());
+        assertSame(cell, snapshot.getCell());
+        assertSame(location, snapshot.getLocation());
+        assertTrue(snapshot.isComplete());
+    }
+
+    @Test
+    public void testLastObservationOfWindowKept() throws Exception {
+        WifiObservation newest = wifi(5000);
+        correlator.add(newest);
+        // out of order but inside the same window
+        correlator.add(wifi(3000));
+        correlator.flush();
+        assertSame(newest, snapshots.get(0).getWifi());
+        assertNull(snapshots.get(0).getCell());
+        assertFalse(snapshots.get(0).isComplete());
+    }
+
+    @Test
+    public void testLateObservationInsideLatenessAccepted() throws Exception {
+        correlator.add(wifi(10500));
+        // belongs to the first window, the watermark is 8500
+        LocationObservation late = location(9500);
+        correlator.add(late);
+        correlator.add(wifi(12500));
+        assertEquals(1, snapshots.size());
+        assertSame(late, snapshots.get(0).getLocation());
+        assertEquals(0, correlator.getLateObservations());
+    }
+
+    @Test
+    public void testLateObservationAfterCloseDropped() throws Exception {
+        correlator.add(wifi(1000));
+        correlator.add(wifi(13000));
+        assertEquals(1, snapshots.size());
+
+        correlator.add(location(9000));
+        assertEquals(1, correlator.getLateObservations());
+        correlator.flush();
+        assertEquals(2, snapshots.size());
+        assertNull(snapshots.get(1).getLocation());
+    }
+
+    @Test
+    public void testCachedWifiJoinedAtDeliveryTime() throws Exception {
+        correlator.add(cell(1000));
+        correlator.add(cell(13000));
+        assertEquals(1, snapshots.size());
+
+        // cached results of a scan of the closed window, delivered in the second window
+        WifiObservation cached = wifi(5000);
+        correlator.add(cached, 14000);
+        assertEquals(0, correlator.getLateObservations());
+        correlator.flush();
+        assertEquals(2, snapshots.size());
+        assertEquals(10000, snapshots.get(1).getWindowStart());
+        assertSame(cached, snapshots.get(1).getWifi());
+    }
+
+    @Test
+    public void testCachedWifiNotJoinedInOldWindow() throws Exception {
+        // the first scan delivered is cached from long before, its window would close at once
+        WifiObservation cached = wifi(1000);
+        correlator.add(cached, 35000);
+        correlator.add(cell(36000));
+        correlator.flush();
+        assertEquals(1, snapshots.size());
+        assertEquals(30000, snapshots.get(0).getWindowStart());
+        assertSame(cached, snapshots.get(0).getWifi());
+    }
+
+    @Test
+    public void testFreshWifiKeepsScanTime() throws Exception {
+        WifiObservation wifi = wifi(9000);
+        correlator.add(wifi, 10500);
+        correlator.flush();
+        assertEquals(0, snapshots.get(0).getWindowStart());
+        assertSame(wifi, snapshots.get(0).getWifi());
+    }
+
+    @Test
+    public void testWindowsEmittedInOrder() throws Exception {
+        correlator.add(wifi(1000));
+        correlator.add(cell(15000));
+        correlator.add(location(45000));
+        assertEquals(2, snapshots.size());
+        assertEquals(0, snapshots.get(0).getWindowStart());
+        assertEquals(10000, snapshots.get(1).getWindowStart());
+
+        correlator.flush();
+        assertEquals(40000, snapshots.get(2).getWindowStart());
+    }
+}
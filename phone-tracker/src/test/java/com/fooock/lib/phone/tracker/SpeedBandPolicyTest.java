@@ -0,0 +1,73 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class SpeedBandPolicyTest {
+
+    @Test
+    public void testInitialBandIsWalking() throws Exception {
+        SpeedBandPolicy policy = new SpeedBandPolicy();
+        assertEquals(SpeedBandPolicy.BAND_WALKING, policy.getBand());
+    }
+
+    @Test
+    public void testBandChangesAfterConsecutiveSamples() throws Exception {
+        SpeedBandPolicy policy = new SpeedBandPolicy();
+        assertFalse(policy.onSpeed(20));
+        assertFalse(policy.onSpeed(20));
+        assertTrue(policy.onSpeed(20));
+        assertEquals(SpeedBandPolicy.BAND_DRIVING, policy.getBand());
+        assertFalse(policy.onSpeed(20));
+    }
+
+    @Test
+    public void testSingleOutlierIgnored() throws Exception {
+        SpeedBandPolicy policy = new SpeedBandPolicy();
+        assertFalse(policy.onSpeed(0));
+        assertFalse(policy.onSpeed(0));
+        assertFalse(policy.onSpeed(1.5f));
+        assertFalse(policy.onSpeed(0));
+        assertFalse(policy.onSpeed(0));
+        assertEquals(SpeedBandPolicy.BAND_WALKING, policy.getBand());
+        assertTrue(policy.onSpeed(0));
+        assertEquals(SpeedBandPolicy.BAND_STATIONARY, policy.getBand());
+    }
+
+    @Test
+    public void testSpeedNearThresholdKeepsBand() throws Exception {
+        SpeedBandPolicy policy = new SpeedBandPolicy();
+        for (int i = 0; i < 3; i++) {
+            policy.onSpeed(20);
+        }
+        assertEquals(SpeedBandPolicy.BAND_DRIVING, policy.getBand());
+        // slightly below the driving threshold, inside the hysteresis margin
+        for (int i = 0; i < 10; i++) {
+            assertFalse(policy.onSpeed(4.5f));
+        }
+        assertEquals(SpeedBandPolicy.BAND_DRIVING, policy.getBand());
+    }
+
+    @Test
+    public void testMinTimeOfBand() throws Exception {
+        Configuration.Gps config = new Configuration.Gps();
+        config.setStationaryMinTime(60000);
+        config.setWalkingMinTime(8000);
+        config.setDrivingMinTime(2000);
+
+        SpeedBandPolicy policy = new SpeedBandPolicy();
+        assertEquals(8000, policy.getMinTime(config));
+        for (int i = 0; i < 3; i++) {
+            policy.onSpeed(0);
+        }
+        assertEquals(60000, policy.getMinTime(config));
+        policy.reset();
+        assertEquals(8000, policy.getMinTime(config));
+    }
+}
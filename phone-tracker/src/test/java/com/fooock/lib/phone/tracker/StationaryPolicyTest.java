@@ -0,0 +1,142 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class StationaryPolicyTest {
+
+    private StationaryPolicy policy;
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration.Stationary config = new Configuration.Stationary();
+        config.setStillTime(60000);
+        config.setStableScans(3);
+        policy = new StationaryPolicy();
+        policy.reloadConfiguration(config, true);
+        policy.reset(0);
+    }
+
+    /**
+     * @return Scans of the access points from {@code first} to {@code last}, both included
+     */
+    private static List<ScanResult> scans(int first, int last) {
+        List<ScanResult> scans = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            ScanResult scan = mock(ScanResult.class);
+            scan.BSSID = "ap-" + i;
+            scans.add(scan);
+        }
+        return scans;
+    }
+
+    @Test
+    public void testStationaryAfterStillTimeAndStableScans() throws Exception {
+        assertFalse(policy.onWifiScan(10000, scans(0, 9)));
+        assertFalse(policy.onWifiScan(20000, scans(0, 9)));
+        assertFalse(policy.onWifiScan(30000, scans(0, 9)));
+        // enough stable scans, but the still time didn't elapse
+        assertFalse(policy.update(50000));
+        assertEquals(10000, policy.untilStill(50000));
+        assertTrue(policy.update(60000));
+        assertTrue(policy.isStationary());
+        assertFalse(policy.update(70000));
+    }
+
+    @Test
+    public void testStillTimeWaitsForStableScans() throws Exception {
+        assertFalse(policy.update(60000));
+        assertFalse(policy.onWifiScan(70000, scans(0, 9)));
+        assertFalse(policy.onWifiScan(80000, scans(0, 9)));
+        assertTrue(policy.onWifiScan(90000, scans(0, 9)));
+        assertTrue(policy.isStationary());
+    }
+
+    @Test
+    public void testSmallChangesAreStable() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            // a weak access point is not always seen
+            policy.onWifiScan(10000 * i, scans(0, i % 2 == 0 ? 9 : 8));
+        }
+        assertTrue(policy.update(60000));
+    }
+
+    @Test
+    public void testSlowWalkIsNotStationary() throws Exception {
+        // one new access point each scan, compared with the first scan
+        for (int i = 0; i < 12; i++) {
+            policy.onWifiScan(10000 * i, scans(i, i + 9));
+        }
+        assertFalse(policy.update(120000));
+        assertFalse(policy.isStationary());
+        assertTrue(policy.untilStill(120000) > 0);
+    }
+
+    @Test
+    public void testMotionEndsStationary() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            policy.onWifiScan(10000 * i, scans(0, 9));
+        }
+        assertTrue(policy.update(60000));
+        assertTrue(policy.onMotion(70000));
+        assertFalse(policy.isStationary());
+        assertFalse(policy.onMotion(71000));
+        // the stable scans start again
+        assertEquals(60000, policy.untilStill(71000));
+        assertFalse(policy.update(131000));
+    }
+
+    @Test
+    public void testDifferentAccessPointsEndStationary() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            policy.onWifiScan(10000 * i, scans(0, 9));
+        }
+        assertTrue(policy.update(60000));
+        assertTrue(policy.onWifiScan(70000, scans(5, 14)));
+        assertFalse(policy.isStationary());
+        // the new access points are the reference
+        assertFalse(policy.onWifiScan(80000, scans(5, 14)));
+    }
+
+    @Test
+    public void testEmptyScansAreNotEvidence() throws Exception {
+        // no access points visible is not a stable place
+        for (int i = 0; i < 3; i++) {
+            assertFalse(policy.onWifiScan(10000 * i, new ArrayList<ScanResult>()));
+        }
+        assertFalse(policy.onWifiScan(40000, null));
+        assertFalse(policy.update(60000));
+
+        for (int i = 0; i < 3; i++) {
+            policy.onWifiScan(70000 + 10000 * i, scans(0, 9));
+        }
+        assertTrue(policy.isStationary());
+        // and losing the access points is not motion
+        assertFalse(policy.onWifiScan(100000, new ArrayList<ScanResult>()));
+        assertTrue(policy.isStationary());
+        assertFalse(policy.onWifiScan(110000, scans(0, 9)));
+        assertTrue(policy.isStationary());
+    }
+
+    @Test
+    public void testWithoutWifiOnlyTheStillTime() throws Exception {
+        Configuration.Stationary config = new Configuration.Stationary();
+        config.setStillTime(60000);
+        policy.reloadConfiguration(config, false);
+        assertFalse(policy.update(59999));
+        assertTrue(policy.update(60000));
+    }
+}
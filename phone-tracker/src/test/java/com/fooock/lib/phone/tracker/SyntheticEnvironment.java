@@ -0,0 +1,551 @@
+package com.fooock.lib.phone.tracker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.NeighboringCellInfo;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Fake wifi, telephony and location services of a device that walks along a route, driven by
+ * a {@link VirtualClock}. The route has the given access points and cells placed in order, and
+ * each scan sees the ones around the current position. A wifi scan request delivers the results
+ * after a short latency, and each location listener receives locations at the rate requested
+ * by the tracker, limited by the rate of the environment. The walk can be stopped and resumed.
+ * Since android 4.2 the cells are given as lte cells, before as neighboring cells. A motion
+ * sensor can be added: the significant motion sensor triggers a few seconds after the walk
+ * starts, and the accelerometer measures the gravity plus the acceleration of the walk
+ */
+final class SyntheticEnvironment {
+
+    private static final long SCAN_LATENCY = 2000;
+    private static final int VISIBLE_ACCESS_POINTS = 150;
+    private static final int VISIBLE_CELLS = 7;
+    private static final double ACCESS_POINTS_PER_SECOND = 0.5;
+    private static final long CELL_DURATION = 120000;
+    private static final float SPEED = 1.4f;
+    private static final long TRIGGER_LATENCY = 5000;
+    private static final float WALK_ACCELERATION = 2f;
+
+    private final VirtualClock clock;
+    private final Scheduler scheduler;
+    private final Random random;
+    private final int accessPoints;
+    private final int cells;
+    private final long locationInterval;
+
+    private final Context context = mock(Context.class);
+    private final WifiManager wifiManager = mock(WifiManager.class);
+    private final TelephonyManager telephonyManager = mock(TelephonyManager.class);
+    private final LocationManager locationManager = mock(LocationManager.class);
+    private final Intent scanIntent = mock(Intent.class);
+    private final SensorManager sensorManager = mock(SensorManager.class);
+    private final Sensor motionSensor = mock(Sensor.class);
+
+    private final List<BroadcastReceiver> receivers = new ArrayList<>();
+    private final List<PhoneStateListener> phoneStateListeners = new ArrayList<>();
+    private final Map<LocationListener, Runnable> locationStreams = new HashMap<>();
+    private final List<TriggerEventListener> triggerListeners = new ArrayList<>();
+    private final Map<SensorEventListener, Runnable> sensorStreams = new HashMap<>();
+
+    private List<ScanResult> scanResults = Collections.emptyList();
+    private long scanRequests;
+    private long deliveredScans;
+    private long deliveredLocations;
+    private long motionEvents;
+
+    private boolean walking = true;
+    private long walkedMillis;
+    private long walkStartTime;
+
+    private final Runnable deliverScan = new Runnable() {
+        @Override
+        public void run() {
+            scanResults = createScanResults();
+            deliveredScans++;
+            for (BroadcastReceiver receiver : new ArrayList<>(receivers)) {
+                receiver.onReceive(context, scanIntent);
+            }
+        }
+    };
+
+    /**
+     * The significant motion sensor is disabled after it triggers
+     */
+    private final Runnable triggerMotion = new Runnable() {
+        @Override
+        public void run() {
+            final List<TriggerEventListener> listeners = new ArrayList<>(triggerListeners);
+            triggerListeners.clear();
+            for (TriggerEventListener listener : listeners) {
+                motionEvents++;
+                listener.onTrigger(mock(TriggerEvent.class, withSettings().stubOnly()));
+            }
+        }
+    };
+
+    /**
+     * @param clock            Clock of the tracker
+     * @param accessPoints     Number of access points along the route
+     * @param cells            Number of cells along the route
+     * @param locationInterval Minimum milliseconds between the locations of a provider
+     * @param seed             Seed of the signal values
+     */
+    SyntheticEnvironment(VirtualClock clock, int accessPoints, int cells, long locationInterval,
+                         long seed) {
+        this.clock = clock;
+        this.scheduler = clock.create(null);
+        this.random = new Random(seed);
+        this.accessPoints = accessPoints;
+        this.cells = cells;
+        this.locationInterval = locationInterval;
+        mockContext();
+        mockWifiManager();
+        mockTelephonyManager();
+        mockLocationManager();
+        mockSensorManager();
+    }
+
+    /**
+     * @return Context that gives the fake services
+     */
+    Context getContext() {
+        return context;
+    }
+
+    /**
+     * Stop or resume the walk along the route. While stopped the scans see the same access
+     * points and cells, and the locations don't move
+     *
+     * @param walking True to walk, false to stay in the current position
+     */
+    void setWalking(boolean walking) {
+        walkedMillis = walkedMillis();
+        walkStartTime = clock.elapsedRealtime();
+        this.walking = walking;
+        scheduleTrigger();
+    }
+
+    /**
+     * Give the device a motion sensor. Must be set before the tracker is started
+     *
+     * @param type Type of the sensor, {@code Sensor.TYPE_SIGNIFICANT_MOTION} or
+     *             {@code Sensor.TYPE_ACCELEROMETER}
+     */
+    void setMotionSensor(int type) {
+        when(context.getSystemService(Context.SENSOR_SERVICE)).thenReturn(sensorManager);
+        when(sensorManager.getDefaultSensor(type)).thenReturn(motionSensor);
+    }
+
+    /**
+     * @return Number of registered broadcast receivers
+     */
+    int getRegisteredReceivers() {
+        return receivers.size();
+    }
+
+    /**
+     * @return Number of listeners of the telephony service
+     */
+    int getPhoneStateListeners() {
+        return phoneStateListeners.size();
+    }
+
+    /**
+     * @return Number of listeners receiving locations
+     */
+    int getLocationListeners() {
+        return locationStreams.size();
+    }
+
+    /**
+     * @return Number of listeners of the motion sensor, requested triggers included
+     */
+    int getMotionListeners() {
+        return triggerListeners.size() + sensorStreams.size();
+    }
+
+    /**
+     * @return Number of events delivered by the motion sensor
+     */
+    long getMotionEvents() {
+        return motionEvents;
+    }
+
+    /**
+     * @return Number of wifi scans requested
+     */
+    long getScanRequests() {
+        return scanRequests;
+    }
+
+    /**
+     * @return Number of wifi scan results delivered
+     */
+    long getDeliveredScans() {
+        return deliveredScans;
+    }
+
+    /**
+     * @return Number of locations delivered to all the listeners
+     */
+    long getDeliveredLocations() {
+        return deliveredLocations;
+    }
+
+    private void mockContext() {
+        when(context.getApplicationContext()).thenReturn(context);
+        when(context.getSystemService(Context.WIFI_SERVICE)).thenReturn(wifiManager);
+        when(context.getSystemService(Context.TELEPHONY_SERVICE)).thenReturn(telephonyManager);
+        when(context.getSystemService(Context.LOCATION_SERVICE)).thenReturn(locationManager);
+        when(context.registerReceiver(any(BroadcastReceiver.class), any(), any(), any()))
+                .thenAnswer(new Answer<Intent>() {
+                    @Override
+                    public Intent answer(InvocationOnMock invocation) {
+                        receivers.add(invocation.<BroadcastReceiver>getArgument(0));
+                        return null;
+                    }
+                });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                if (!receivers.remove(invocation.<BroadcastReceiver>getArgument(0))) {
+                    throw new IllegalArgumentException("Receiver not registered");
+                }
+                return null;
+            }
+        }).when(context).unregisterReceiver(any(BroadcastReceiver.class));
+    }
+
+    private void mockWifiManager() {
+        when(scanIntent.getBooleanExtra(eq(WifiManager.EXTRA_RESULTS_UPDATED), anyBoolean()))
+                .thenReturn(true);
+        when(wifiManager.startScan()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                scanRequests++;
+                scheduler.postDelayed(deliverScan, SCAN_LATENCY);
+                return true;
+            }
+        });
+        when(wifiManager.getScanResults()).thenAnswer(new Answer<List<ScanResult>>() {
+            @Override
+            public List<ScanResult> answer(InvocationOnMock invocation) {
+                return scanResults;
+            }
+        });
+    }
+
+    private void mockTelephonyManager() {
+        when(telephonyManager.getNetworkOperator()).thenReturn("21407");
+        when(telephonyManager.getAllCellInfo()).thenAnswer(new Answer<List<CellInfo>>() {
+            @Override
+            public List<CellInfo> answer(InvocationOnMock invocation) {
+                return createCellInfo();
+            }
+        });
+        when(telephonyManager.getNeighboringCellInfo()).thenAnswer(
+                new Answer<List<NeighboringCellInfo>>() {
+                    @Override
+                    public List<NeighboringCellInfo> answer(InvocationOnMock invocation) {
+                        return createNeighboringCells();
+                    }
+                });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final PhoneStateListener listener = invocation.getArgument(0);
+                phoneStateListeners.remove(listener);
+                if (invocation.<Integer>getArgument(1) != PhoneStateListener.LISTEN_NONE) {
+                    phoneStateListeners.add(listener);
+                }
+                return null;
+            }
+        }).when(telephonyManager).listen(any(PhoneStateListener.class), anyInt());
+    }
+
+    private void mockLocationManager() {
+        when(locationManager.isProviderEnabled(anyString())).thenReturn(true);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final String provider = invocation.getArgument(0);
+                final long minTime = invocation.<Long>getArgument(1);
+                final LocationListener listener = invocation.getArgument(3);
+                // a new request of the same listener replaces the previous one
+                removeUpdates(listener);
+                startLocations(provider, Math.max(minTime, locationInterval), listener);
+                return null;
+            }
+        }).when(locationManager).requestLocationUpdates(anyString(), anyLong(), anyFloat(),
+                any(LocationListener.class), any());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                removeUpdates(invocation.<LocationListener>getArgument(0));
+                return null;
+            }
+        }).when(locationManager).removeUpdates(any(LocationListener.class));
+    }
+
+    private void mockSensorManager() {
+        when(sensorManager.requestTriggerSensor(any(TriggerEventListener.class),
+                any(Sensor.class))).thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        final TriggerEventListener listener = invocation.getArgument(0);
+                        if (!triggerListeners.contains(listener)) {
+                            triggerListeners.add(listener);
+                        }
+                        scheduleTrigger();
+                        return true;
+                    }
+                });
+        when(sensorManager.cancelTriggerSensor(any(TriggerEventListener.class),
+                any(Sensor.class))).thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        triggerListeners.remove(invocation.<TriggerEventListener>getArgument(0));
+                        scheduleTrigger();
+                        return true;
+                    }
+                });
+        when(sensorManager.registerListener(any(SensorEventListener.class), any(Sensor.class),
+                anyInt(), any())).thenAnswer(new Answer<Boolean>() {
+                    @Override
+                    public Boolean answer(InvocationOnMock invocation) {
+                        final SensorEventListener listener = invocation.getArgument(0);
+                        final int periodMicros = invocation.<Integer>getArgument(2);
+                        stopSensorEvents(listener);
+                        startSensorEvents(Math.max(1, periodMicros / 1000), listener);
+                        return true;
+                    }
+                });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                stopSensorEvents(invocation.<SensorEventListener>getArgument(0));
+                return null;
+            }
+        }).when(sensorManager).unregisterListener(any(SensorEventListener.class));
+    }
+
+    /**
+     * Trigger the requested significant motion sensors a few seconds after the walk starts
+     */
+    private void scheduleTrigger() {
+        scheduler.removeCallbacks(triggerMotion);
+        if (walking && !triggerListeners.isEmpty()) {
+            scheduler.postDelayed(triggerMotion, TRIGGER_LATENCY);
+        }
+    }
+
+    private void startSensorEvents(final long interval, final SensorEventListener listener) {
+        final Runnable stream = new Runnable() {
+            @Override
+            public void run() {
+                motionEvents++;
+                scheduler.postDelayed(this, interval);
+                listener.onSensorChanged(createSensorEvent());
+            }
+        };
+        sensorStreams.put(listener, stream);
+        scheduler.postDelayed(stream, interval);
+    }
+
+    private void stopSensorEvents(SensorEventListener listener) {
+        final Runnable stream = sensorStreams.remove(listener);
+        if (stream != null) {
+            scheduler.removeCallbacks(stream);
+        }
+    }
+
+    private void startLocations(final String provider, final long interval,
+                                final LocationListener listener) {
+        final Runnable stream = new Runnable() {
+            @Override
+            public void run() {
+                deliveredLocations++;
+                scheduler.postDelayed(this, interval);
+                listener.onLocationChanged(createLocation(provider));
+            }
+        };
+        locationStreams.put(listener, stream);
+        scheduler.postDelayed(stream, interval);
+    }
+
+    private void removeUpdates(LocationListener listener) {
+        final Runnable stream = locationStreams.remove(listener);
+        if (stream != null) {
+            scheduler.removeCallbacks(stream);
+        }
+    }
+
+    /**
+     * @return Milliseconds walked since the device was booted
+     */
+    private long walkedMillis() {
+        if (!walking) {
+            return walkedMillis;
+        }
+        return walkedMillis + clock.elapsedRealtime() - walkStartTime;
+    }
+
+    /**
+     * @return Seconds walked since the device was booted
+     */
+    private double walkedSeconds() {
+        return walkedMillis() / 1000.0;
+    }
+
+    private List<ScanResult> createScanResults() {
+        final int visible = Math.min(VISIBLE_ACCESS_POINTS, accessPoints);
+        final int center = (int) (walkedSeconds() * ACCESS_POINTS_PER_SECOND);
+        final List<ScanResult> scans = new ArrayList<>(visible);
+        for (int i = 0; i < visible; i++) {
+            final int distance = i - visible / 2;
+            final int index = Math.abs((center + distance) % accessPoints);
+            final ScanResult scan = mock(ScanResult.class, withSettings().stubOnly());
+            scan.BSSID = String.format("02:%02x:%02x:%02x:%02x:%02x", index >> 24 & 0xff,
+                    index >> 16 & 0xff, index >> 8 & 0xff, index & 0xff, index * 31 & 0xff);
+            scan.SSID = "network-" + (index % 500);
+            scan.capabilities = index % 3 == 0 ? "[ESS]" : "[WPA2-PSK-CCMP][ESS]";
+            scan.level = -35 - Math.abs(distance) / 2 - random.nextInt(6);
+            scan.frequency = index % 2 == 0 ? 2412 + 5 * (index % 13) : 5180 + 20 * (index % 8);
+            scan.timestamp = clock.elapsedRealtime() * 1000;
+            scans.add(scan);
+        }
+        return scans;
+    }
+
+    private List<NeighboringCellInfo> createNeighboringCells() {
+        final int visible = Math.min(VISIBLE_CELLS, cells);
+        final int center = (int) (walkedMillis() / CELL_DURATION);
+        final List<NeighboringCellInfo> neighbors = new ArrayList<>(visible);
+        for (int i = 0; i < visible; i++) {
+            final int index = (center + i) % cells;
+            final Map<String, Object> values = new HashMap<>();
+            values.put("getNetworkType", TelephonyManager.NETWORK_TYPE_EDGE);
+            values.put("getLac", 1000 + index / 10);
+            values.put("getCid", 20000 + index);
+            values.put("getRssi", 5 + random.nextInt(20));
+            final NeighboringCellInfo cell = mock(NeighboringCellInfo.class,
+                    withSettings().stubOnly().defaultAnswer(new ValuesAnswer(values)));
+            neighbors.add(cell);
+        }
+        return neighbors;
+    }
+
+    private List<CellInfo> createCellInfo() {
+        final int visible = Math.min(VISIBLE_CELLS, cells);
+        final int center = (int) (walkedMillis() / CELL_DURATION);
+        final List<CellInfo> cellInfo = new ArrayList<>(visible);
+        for (int i = 0; i < visible; i++) {
+            final int index = (center + i) % cells;
+            final Map<String, Object> identityValues = new HashMap<>();
+            identityValues.put("getMcc", 214);
+            identityValues.put("getMnc", 7);
+            identityValues.put("getTac", 1000 + index / 10);
+            identityValues.put("getCi", 20000 + index);
+            final Map<String, Object> signalValues = new HashMap<>();
+            signalValues.put("getDbm", -80 - random.nextInt(40));
+            signalValues.put("getLevel", 1 + random.nextInt(4));
+            final Map<String, Object> values = new HashMap<>();
+            values.put("isRegistered", i == 0);
+            values.put("getCellIdentity", mock(CellIdentityLte.class, withSettings().stubOnly()
+                    .defaultAnswer(new ValuesAnswer(identityValues))));
+            values.put("getCellSignalStrength", mock(CellSignalStrengthLte.class,
+                    withSettings().stubOnly().defaultAnswer(new ValuesAnswer(signalValues))));
+            cellInfo.add(mock(CellInfoLte.class, withSettings().stubOnly()
+                    .defaultAnswer(new ValuesAnswer(values))));
+        }
+        return cellInfo;
+    }
+
+    private SensorEvent createSensorEvent() {
+        final SensorEvent event = mock(SensorEvent.class, withSettings().stubOnly());
+        final float z = SensorManager.GRAVITY_EARTH + (walking ? WALK_ACCELERATION : 0);
+        try {
+            // the values are a final field set by the hidden constructor
+            final Field values = SensorEvent.class.getField("values");
+            values.setAccessible(true);
+            values.set(event, new float[]{0, 0, z});
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return event;
+    }
+
+    private Location createLocation(String provider) {
+        final double meters = walkedSeconds() * SPEED;
+        final Map<String, Object> values = new HashMap<>();
+        values.put("getProvider", provider);
+        values.put("getLatitude", 40.4 + meters / 111000);
+        values.put("getLongitude", -3.7);
+        values.put("hasAccuracy", true);
+        values.put("getAccuracy", LocationManager.GPS_PROVIDER.equals(provider) ? 8f : 40f);
+        values.put("hasSpeed", true);
+        values.put("getSpeed", walking ? SPEED : 0f);
+        values.put("getTime", clock.currentTimeMillis());
+        values.put("getElapsedRealtimeNanos", clock.elapsedRealtime() * 1000000);
+        return mock(Location.class, withSettings().stubOnly().defaultAnswer(
+                new ValuesAnswer(values)));
+    }
+
+    /**
+     * Returns the values of the getters by method name, without stubbing each mock
+     */
+    private static final class ValuesAnswer implements Answer<Object> {
+        private final Map<String, Object> values;
+
+        ValuesAnswer(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            final Object value = values.get(invocation.getMethod().getName());
+            return value != null ? value : RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class TraceReaderTest {
+
+    private File traceFile;
+
+    @Before
+    public void setUp() throws Exception {
+        traceFile = File.createTempFile("trace", ".trace");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        traceFile.delete();
+    }
+
+    private static ScanResult scan(String bssid, String ssid, int level) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.SSID = ssid;
+        scanResult.level = level;
+        scanResult.frequency = 2437;
+        return scanResult;
+    }
+
+    private static CellObservation cell(long timestamp) {
+        return new CellObservation(timestamp, timestamp, Collections.singletonList(
+                new CellRecord(new CellKey(CellRecord.RADIO_LTE, timestamp), -90, true)));
+    }
+
+    @Test
+    public void testRecordedObservationsReplayed() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(traceFile);
+        recorder.add(new WifiObservation(1000, 500, Arrays.asList(
+                scan("00:11:22:33:44:55", "home", -45), scan("00:11:22:33:44:66", "work", -80))));
+        recorder.add(cell(2000));
+        recorder.add(new WifiObservation(3000, 2500, Collections.<ScanResult>emptyList()));
+        recorder.close();
+
+        TraceReader reader = new TraceReader(traceFile);
+        WifiObservation wifi = (WifiObservation) reader.next();
+        assertEquals(1000, wifi.getTimestamp());
+        assertEquals(500, wifi.getElapsedRealtime());
+        List<ScanResult> scans = wifi.getScans();
+        assertEquals(2, scans.size());
+        assertEquals("00:11:22:33:44:55", scans.get(0).BSSID);
+        assertEquals("home", scans.get(0).SSID);
+        assertEquals(-45, scans.get(0).level);
+        assertEquals(2437, scans.get(0).frequency);
+        assertEquals(500000, scans.get(0).timestamp);
+        assertEquals("work", scans.get(1).SSID);
+
+        CellObservation cell = (CellObservation) reader.next();
+        assertEquals(2000, cell.getTimestamp());
+        assertEquals(1, cell.getCells().size());
+        assertEquals(CellRecord.RADIO_LTE, cell.getCells().get(0).getRadioType());
+        assertEquals(2000, cell.getCells().get(0).getGlobalId());
+        assertEquals(-90, cell.getCells().get(0).getDbm());
+        assertTrue(cell.getCells().get(0).isRegistered());
+
+        assertTrue(((WifiObservation) reader.next()).getScans().isEmpty());
+        assertNull(reader.next());
+        assertEquals(0, reader.getSkipped());
+        reader.close();
+    }
+
+    @Test
+    public void testLargeTraceWrittenInChunks() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(traceFile);
+        for (int i = 0; i < 10000; i++) {
+            recorder.add(cell(i));
+        }
+        recorder.close();
+
+        TraceReader reader = new TraceReader(traceFile);
+        int read = 0;
+        Observation observation;
+        while ((observation = reader.next()) != null) {
+            assertEquals(read, observation.getTimestamp());
+            read++;
+        }
+        assertEquals(10000, read);
+        reader.close();
+    }
+
+    @Test
+    public void testTruncatedTraceReadUntilLastObservation() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(traceFile);
+        recorder.add(cell(1000));
+        recorder.add(cell(2000));
+        recorder.close();
+
+        RandomAccessFile file = new RandomAccessFile(traceFile, "rw");
+        file.setLength(file.length() - 2);
+        file.close();
+
+        TraceReader reader = new TraceReader(traceFile);
+        assertEquals(1000, reader.next().getTimestamp());
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testNotATrace() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(traceFile, "rw");
+        file.writeInt(42);
+        file.close();
+        new TraceReader(traceFile);
+    }
+}
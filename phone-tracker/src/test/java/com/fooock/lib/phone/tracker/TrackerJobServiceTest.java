@@ -0,0 +1,104 @@
+package com.fooock.lib.phone.tracker;
+
+import android.app.job.JobParameters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ */
+public class TrackerJobServiceTest {
+
+    private static final int JOB_ID = 7;
+
+    private TrackerJobService service;
+    private JobParameters params;
+    private WindowCallback callback;
+
+    @Before
+    public void setUp() throws Exception {
+        service = spy(new TrackerJobService());
+        doNothing().when(service).jobFinished(any(JobParameters.class), anyBoolean());
+        params = mock(JobParameters.class);
+        when(params.getJobId()).thenReturn(JOB_ID);
+        callback = new WindowCallback();
+        TrackerJobService.setCallback(JOB_ID, callback);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TrackerJobService.removeCallback(JOB_ID, callback);
+    }
+
+    @Test
+    public void testFinishedOnce() throws Exception {
+        assertTrue(service.onStartJob(params));
+        callback.finished.run();
+        callback.finished.run();
+        verify(service, times(1)).jobFinished(params, false);
+    }
+
+    @Test
+    public void testNotFinishedAfterStop() throws Exception {
+        assertTrue(service.onStartJob(params));
+        assertFalse(service.onStopJob(params));
+        assertTrue(callback.stopped);
+
+        // the tracker finishes the stopped window after its flush
+        callback.finished.run();
+        verify(service, never()).jobFinished(any(JobParameters.class), anyBoolean());
+
+        // the next window of the job is finished again
+        assertTrue(service.onStartJob(params));
+        callback.finished.run();
+        verify(service, times(1)).jobFinished(params, false);
+    }
+
+    @Test
+    public void testJobIdOfAnotherTrackerRejected() throws Exception {
+        final WindowCallback other = new WindowCallback();
+        try {
+            TrackerJobService.setCallback(JOB_ID, other);
+            fail("The job id of another tracker is replaced");
+        } catch (IllegalStateException expected) {
+        }
+        // the same tracker can schedule again
+        TrackerJobService.setCallback(JOB_ID, callback);
+
+        // removing the other tracker keeps the windows of the first one
+        TrackerJobService.removeCallback(JOB_ID, other);
+        assertTrue(service.onStartJob(params));
+        assertNotNull(callback.finished);
+    }
+
+    private static final class WindowCallback implements BackgroundScheduler.Callback {
+        private Runnable finished;
+        private boolean stopped;
+
+        @Override
+        public void onWindowStart(Runnable finished) {
+            this.finished = finished;
+        }
+
+        @Override
+        public void onWindowStop() {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.fooock.lib.phone.tracker;
+
+import android.os.Looper;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Clock and schedulers of the tracker driven by the test. The time only moves when
+ * {@link #advance(long)} is called, running the tasks that are due in order, so hours of
+ * tracking are simulated in the time needed to run their tasks
+ */
+final class VirtualClock implements Clock, Scheduler.Factory {
+
+    private static final long EPOCH = 1533000000000L;
+
+    private final Looper looper = mock(Looper.class);
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    // the device was booted some time ago
+    private long now = 3600000;
+    private long sequence;
+    private long executed;
+    private final VirtualBackgroundScheduler backgroundScheduler =
+            new VirtualBackgroundScheduler();
+
+    @Override
+    public long currentTimeMillis() {
+        return EPOCH + now;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return now;
+    }
+
+    @Override
+    public Scheduler create(Looper looper) {
+        return new VirtualScheduler();
+    }
+
+    @Override
+    public Looper getMainLooper() {
+        return looper;
+    }
+
+    @Override
+    public Looper startLooper(String name) {
+        // the tasks of all the loopers run when the time advances
+        return looper;
+    }
+
+    /**
+     * @return Background scheduler that starts a window every interval, like a periodic job
+     */
+    VirtualBackgroundScheduler backgroundScheduler() {
+        return backgroundScheduler;
+    }
+
+    /**
+     * Move the time forward, running the tasks that are due
+     *
+     * @param millis Milliseconds
+     */
+    void advance(long millis) {
+        final long end = now + millis;
+        while (!tasks.isEmpty() && tasks.peek().time <= end) {
+            final Task task = tasks.poll();
+            now = task.time;
+            executed++;
+            task.runnable.run();
+        }
+        now = end;
+    }
+
+    /**
+     * @return Number of tasks waiting to run
+     */
+    int pendingTasks() {
+        return tasks.size();
+    }
+
+    /**
+     * @return Number of tasks run
+     */
+    long executedTasks() {
+        return executed;
+    }
+
+    private void schedule(VirtualScheduler owner, Runnable runnable, long delay) {
+        tasks.add(new Task(owner, runnable, now + Math.max(0, delay), sequence++));
+    }
+
+    private void remove(VirtualScheduler owner, Runnable runnable) {
+        final Iterator<Task> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            final Task task = iterator.next();
+            if (task.owner == owner && (runnable == null || task.runnable == runnable)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Scheduler of the virtual clock. Each one only removes its own tasks
+     */
+    final class VirtualScheduler implements Scheduler {
+
+        @Override
+        public Looper getLooper() {
+            return null;
+        }
+
+        @Override
+        public void post(Runnable task) {
+            schedule(this, task, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delay) {
+            schedule(this, task, delay);
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delay, long window) {
+            schedule(this, task, delay);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            remove(this, task);
+        }
+
+        @Override
+        public void removeAll() {
+            remove(this, null);
+        }
+    }
+
+    /**
+     * Background scheduler of the virtual clock
+     */
+    final class VirtualBackgroundScheduler implements BackgroundScheduler {
+        private final VirtualScheduler scheduler = new VirtualScheduler();
+        private int started;
+        private int running;
+
+        @Override
+        public void schedule(final Configuration.Background backgroundConfiguration,
+                             final Callback callback) {
+            cancel();
+            scheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.postDelayed(this, backgroundConfiguration.getInterval());
+                    started++;
+                    running++;
+                    callback.onWindowStart(new Runnable() {
+                        @Override
+                        public void run() {
+                            running--;
+                        }
+                    });
+                }
+            }, backgroundConfiguration.getInterval());
+        }
+
+        @Override
+        public void cancel() {
+            scheduler.removeAll();
+        }
+
+        /**
+         * @return Number of windows started
+         */
+        int getStartedWindows() {
+            return started;
+        }
+
+        /**
+         * @return Number of windows started and not finished
+         */
+        int getRunningWindows() {
+            return running;
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+        private final VirtualScheduler owner;
+        private final Runnable runnable;
+        private final long time;
+        private final long sequence;
+
+        Task(VirtualScheduler owner, Runnable runnable, long time, long sequence) {
+            this.owner = owner;
+            this.runnable = runnable;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            // tasks of the same time run in the order they were posted
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.fooock.lib.phone.tracker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class WakeupAlignerTest {
+
+    private VirtualClock clock;
+    private WakeupAligner aligner;
+    private long start;
+    private final List<String> runs = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new VirtualClock();
+        aligner = new WakeupAligner(clock.create(null), clock, 1000);
+        start = clock.elapsedRealtime();
+        runs.clear();
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runs.add(name + "@" + (clock.elapsedRealtime() - start));
+            }
+        };
+    }
+
+    @Test
+    public void testOverlappingWindowsShareWakeup() throws Exception {
+        final Scheduler wifi = aligner.create();
+        final Scheduler cell = aligner.create();
+        wifi.postDelayed(task("wifi"), 4000, 1000);
+        cell.postDelayed(task("cell"), 4500, 0);
+        assertEquals(1, aligner.pendingWakeups());
+
+        clock.advance(10000);
+        assertEquals(2, runs.size());
+        assertEquals("wifi@4500", runs.get(0));
+        assertEquals("cell@4500", runs.get(1));
+        assertEquals(1, clock.executedTasks());
+    }
+
+    @Test
+    public void testNeverRunEarly() throws Exception {
+        final Scheduler wifi = aligner.create();
+        final Scheduler cell = aligner.create();
+        wifi.postDelayed(task("wifi"), 1300, 0);
+        cell.postDelayed(task("cell"), 3000, 500);
+        assertEquals(2, aligner.pendingWakeups());
+
+        clock.advance(10000);
+        assertEquals("wifi@1300", runs.get(0));
+        assertEquals("cell@3000", runs.get(1));
+    }
+
+    @Test
+    public void testAlignedToGrid() throws Exception {
+        final Scheduler wifi = aligner.create();
+        wifi.postDelayed(task("late"), 1300, 1000);
+        // the window doesn't reach the next tick
+        wifi.postDelayed(task("short"), 5300, 500);
+        clock.advance(10000);
+        assertEquals("late@2000", runs.get(0));
+        assertEquals("short@5300", runs.get(1));
+    }
+
+    @Test
+    public void testRemoveOnlyOwnTasks() throws Exception {
+        final Scheduler wifi = aligner.create();
+        final Scheduler cell = aligner.create();
+        final Runnable wifiTask = task("wifi");
+        wifi.postDelayed(wifiTask, 1000, 0);
+        wifi.postDelayed(task("other"), 2000, 0);
+        cell.postDelayed(task("cell"), 1000, 0);
+
+        wifi.removeCallbacks(wifiTask);
+        clock.advance(1500);
+        assertEquals(1, runs.size());
+        assertEquals("cell@1000", runs.get(0));
+
+        wifi.removeAll();
+        clock.advance(10000);
+        assertEquals(1, runs.size());
+        assertEquals(0, aligner.pendingWakeups());
+        assertEquals(0, clock.pendingTasks());
+    }
+
+    @Test
+    public void testTaskCancelledByTaskOfSameWakeup() throws Exception {
+        final Scheduler wifi = aligner.create();
+        final Scheduler cell = aligner.create();
+        cell.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                wifi.removeAll();
+            }
+        }, 1000, 0);
+        wifi.postDelayed(task("wifi"), 1000, 0);
+        clock.advance(2000);
+        assertTrue(runs.isEmpty());
+    }
+
+    @Test
+    public void testThrowingTaskKeepsLaterWakeups() throws Exception {
+        final Scheduler wifi = aligner.create();
+        final Scheduler cell = aligner.create();
+        wifi.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Scan failed");
+            }
+        }, 1000, 0);
+        cell.postDelayed(task("cell"), 3000, 0);
+        try {
+            clock.advance(2000);
+            fail("The exception of the task is not thrown");
+        } catch (IllegalStateException expected) {
+        }
+
+        // the next wakeup runs, and its tasks can still be removed by other tasks
+        cell.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                wifi.removeAll();
+            }
+        }, 1000, 0);
+        wifi.postDelayed(task("wifi"), 1000, 0);
+        clock.advance(2000);
+        assertEquals(1, runs.size());
+        assertEquals("cell@3000", runs.get(0));
+        assertEquals(0, aligner.pendingWakeups());
+    }
+
+    @Test
+    public void testLoopsShareWakeups() throws Exception {
+        final Scheduler wifi = aligner.create();
+        final Scheduler cell = aligner.create();
+        final int[] scans = new int[2];
+        wifi.post(new Runnable() {
+            @Override
+            public void run() {
+                scans[0]++;
+                wifi.postDelayed(this, 4000, 1000);
+            }
+        });
+        cell.post(new Runnable() {
+            @Override
+            public void run() {
+                scans[1]++;
+                cell.postDelayed(this, 7000, 2000);
+            }
+        });
+        clock.advance(3600000);
+
+        // never faster than the delays, and at most the window slower
+        assertTrue(scans[0] <= 901 && scans[0] >= 3600000 / 5000);
+        assertTrue(scans[1] <= 515 && scans[1] >= 3600000 / 9000);
+        // cell polls share the wakeup of a wifi scan
+        assertTrue("Wakeups " + clock.executedTasks(), clock.executedTasks() <= scans[0] + 1);
+    }
+}
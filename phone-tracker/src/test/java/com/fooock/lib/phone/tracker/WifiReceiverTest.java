@@ -0,0 +1,111 @@
+package com.fooock.lib.phone.tracker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ */
+public class WifiReceiverTest {
+
+    private static final long MINUTE = 60000;
+
+    private VirtualClock clock;
+    private Context context;
+    private WifiManager wifiManager;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new VirtualClock();
+        context = mock(Context.class);
+        wifiManager = mock(WifiManager.class);
+        when(context.getApplicationContext()).thenReturn(context);
+        when(context.getSystemService(Context.WIFI_SERVICE)).thenReturn(wifiManager);
+    }
+
+    private WifiReceiver passiveReceiver(long maxStaleness) {
+        final Configuration.Wifi wifiConf = new Configuration.Wifi();
+        wifiConf.setPassiveScan(true);
+        wifiConf.setMaxStaleness(maxStaleness);
+        wifiConf.setAlignmentWindow(0);
+        final Scheduler scheduler = clock.create(null);
+        final EnergyAccountant energy = new EnergyAccountant(clock, new Configuration.Energy());
+        return new WifiReceiver(context, scheduler, clock,
+                new SensorMetrics(TrackerMetrics.NONE, TrackerMetrics.SENSOR_WIFI), energy,
+                wifiConf, null,
+                new StationaryDetector(context, scheduler, clock, energy,
+                        new Configuration.Builder().create()),
+                null, null, null);
+    }
+
+    @Test
+    public void testPassiveScanWithoutResultsWaitsScanDelay() throws Exception {
+        // the wifi permissions are not granted, so no scan can be requested
+        when(context.checkPermission(anyString(), anyInt(), anyInt())).thenReturn(-1);
+        final WifiReceiver receiver = passiveReceiver(30000);
+        receiver.register();
+        clock.advance(MINUTE);
+        verify(wifiManager, never()).startScan();
+        // a check every 4 seconds, the default scan delay
+        assertTrue("Tasks " + clock.executedTasks(), clock.executedTasks() <= 16);
+        receiver.unregister();
+    }
+
+    @Test
+    public void testPassiveScanStaleCacheWaitsMaxStaleness() throws Exception {
+        // the scans are refused and the cached results are never refreshed
+        when(wifiManager.startScan()).thenReturn(false);
+        final WifiReceiver receiver = passiveReceiver(30000);
+        receiver.register();
+        clock.advance(10 * MINUTE);
+        verify(wifiManager, times(21)).startScan();
+        assertEquals(21, clock.executedTasks());
+        receiver.unregister();
+        assertEquals(0, clock.pendingTasks());
+    }
+
+    @Test
+    public void testPassiveScanZeroStalenessWaitsScanDelay() throws Exception {
+        when(wifiManager.startScan()).thenReturn(false);
+        final WifiReceiver receiver = passiveReceiver(0);
+        receiver.register();
+        clock.advance(MINUTE);
+        verify(wifiManager, times(16)).startScan();
+        assertEquals(16, clock.executedTasks());
+        receiver.unregister();
+    }
+
+    @Test
+    public void testPassiveScanFreshResultsWaitMaxStaleness() throws Exception {
+        final WifiReceiver receiver = passiveReceiver(30000);
+        receiver.register();
+        clock.advance(1000);
+        // results of a scan requested by the system
+        final ArgumentCaptor<BroadcastReceiver> captor =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(context).registerReceiver(captor.capture(), any(), any(), any());
+        captor.getValue().onReceive(context, mock(Intent.class));
+        clock.advance(29000);
+        verify(wifiManager, times(1)).startScan();
+        clock.advance(1000);
+        verify(wifiManager, times(2)).startScan();
+        receiver.unregister();
+    }
+}
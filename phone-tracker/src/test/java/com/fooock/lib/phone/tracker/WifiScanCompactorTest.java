@@ -0,0 +1,91 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class WifiScanCompactorTest {
+
+    private static ScanResult scan(String bssid, String ssid, String capabilities) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.SSID = ssid;
+        scanResult.capabilities = capabilities;
+        scanResult.level = -60;
+        scanResult.frequency = 2412;
+        return scanResult;
+    }
+
+    @Test
+    public void testPackBssid() throws Exception {
+        long packed = WifiScanCompactor.packBssid("a0:B1:c2:03:04:ff");
+        assertEquals(0xa0b1c20304ffL, packed);
+        assertEquals("a0:b1:c2:03:04:ff", CompactWifiScan.formatBssid(packed));
+    }
+
+    @Test
+    public void testPackInvalidBssid() throws Exception {
+        assertEquals(CompactWifiScan.INVALID_BSSID, WifiScanCompactor.packBssid(null));
+        assertEquals(CompactWifiScan.INVALID_BSSID, WifiScanCompactor.packBssid("a0:b1:c2"));
+        assertEquals(CompactWifiScan.INVALID_BSSID,
+                WifiScanCompactor.packBssid("zz:b1:c2:03:04:ff"));
+        assertEquals(CompactWifiScan.INVALID_BSSID,
+                WifiScanCompactor.packBssid("a0:b1:c2:03:04:ff:00"));
+    }
+
+    @Test
+    public void testParseCapabilities() throws Exception {
+        int flags = WifiScanCompactor.parseCapabilities("[WPA2-PSK-CCMP][WPS][ESS]");
+        assertEquals(CompactWifiScan.CAPABILITY_WPA2 | CompactWifiScan.CAPABILITY_PSK
+                | CompactWifiScan.CAPABILITY_CCMP | CompactWifiScan.CAPABILITY_WPS
+                | CompactWifiScan.CAPABILITY_ESS, flags);
+        assertEquals(CompactWifiScan.CAPABILITY_ESS, WifiScanCompactor.parseCapabilities("[ESS]"));
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        WifiScanCompactor compactor = new WifiScanCompactor();
+        CompactWifiScan compact = compactor.compact(Arrays.asList(
+                scan("00:00:00:00:00:01", "home", "[WEP][ESS]"),
+                scan("00:00:00:00:00:02", "office", "[WPA2-EAP-CCMP][ESS]")));
+        assertEquals(2, compact.size());
+        assertEquals(1, compact.getBssid(0));
+        assertEquals(-60, compact.getRssi(0));
+        assertEquals(2412, compact.getFrequency(1));
+        assertEquals("office", compact.getSsid(1));
+        assertTrue(compact.hasCapability(0, CompactWifiScan.CAPABILITY_WEP));
+        assertTrue(compact.hasCapability(1, CompactWifiScan.CAPABILITY_EAP));
+        assertFalse(compact.hasCapability(1, CompactWifiScan.CAPABILITY_WEP));
+
+        // the same instance is reused
+        assertSame(compact, compactor.compact(null));
+        assertEquals(0, compact.size());
+    }
+
+    @Test
+    public void testInternSsid() throws Exception {
+        WifiScanCompactor compactor = new WifiScanCompactor();
+        String first = new String("office");
+        String second = new String("office");
+        assertNotSame(first, second);
+        assertSame(first, compactor.intern(first));
+        assertSame(first, compactor.intern(second));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidIndex() throws Exception {
+        new WifiScanCompactor().compact(null).getRssi(0);
+    }
+}
@@ -0,0 +1,83 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class WifiScanDeltaTest {
+
+    private static ScanResult scan(String bssid, int level) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.level = level;
+        return scanResult;
+    }
+
+    @Test
+    public void testFirstScanIsAdded() throws Exception {
+        WifiScanDelta delta = new WifiScanDelta();
+        assertTrue(delta.update(Arrays.asList(scan("a", -50), scan("b", -60)), 5));
+        assertEquals(2, delta.added().size());
+        assertEquals(0, delta.removed().size());
+        assertEquals(0, delta.changed().size());
+    }
+
+    @Test
+    public void testSameScanHasNoChanges() throws Exception {
+        WifiScanDelta delta = new WifiScanDelta();
+        delta.update(Arrays.asList(scan("a", -50), scan("b", -60)), 5);
+        assertFalse(delta.update(Arrays.asList(scan("a", -52), scan("b", -58)), 5));
+    }
+
+    @Test
+    public void testAddedRemovedAndChanged() throws Exception {
+        WifiScanDelta delta = new WifiScanDelta();
+        ScanResult removed = scan("b", -60);
+        delta.update(Arrays.asList(scan("a", -50), removed), 5);
+
+        ScanResult changed = scan("a", -70);
+        ScanResult added = scan("c", -80);
+        assertTrue(delta.update(Arrays.asList(changed, added), 5));
+        assertSame(added, delta.added().get(0));
+        assertSame(removed, delta.removed().get(0));
+        assertSame(changed, delta.changed().get(0));
+    }
+
+    @Test
+    public void testSlowDriftIsAccumulated() throws Exception {
+        WifiScanDelta delta = new WifiScanDelta();
+        delta.update(Collections.singletonList(scan("a", -50)), 5);
+        assertFalse(delta.update(Collections.singletonList(scan("a", -53)), 5));
+        assertTrue(delta.update(Collections.singletonList(scan("a", -56)), 5));
+        assertEquals(1, delta.changed().size());
+    }
+
+    @Test
+    public void testNullScansRemoveAll() throws Exception {
+        WifiScanDelta delta = new WifiScanDelta();
+        delta.update(Arrays.asList(scan("a", -50), scan("b", -60)), 5);
+        assertTrue(delta.update(null, 5));
+        assertEquals(2, delta.removed().size());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        WifiScanDelta delta = new WifiScanDelta();
+        delta.update(Collections.singletonList(scan("a", -50)), 5);
+        delta.reset();
+        assertTrue(delta.update(Collections.singletonList(scan("a", -50)), 5));
+        assertEquals(1, delta.added().size());
+    }
+}
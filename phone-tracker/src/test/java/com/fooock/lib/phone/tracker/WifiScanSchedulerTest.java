@@ -0,0 +1,85 @@
+package com.fooock.lib.phone.tracker;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ *
+ */
+public class WifiScanSchedulerTest {
+
+    private static Configuration.Wifi config() {
+        Configuration.Wifi wifi = new Configuration.Wifi();
+        wifi.setAdaptiveScan(true);
+        wifi.setScanDelay(1000);
+        wifi.setMaxScanDelay(8000);
+        wifi.setScanBudget(2);
+        wifi.setScanBudgetWindow(10000);
+        return wifi;
+    }
+
+    private static List<ScanResult> scans(long timestamp) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = "a";
+        scanResult.timestamp = timestamp;
+        return Collections.singletonList(scanResult);
+    }
+
+    @Test
+    public void testBudgetSuppressesRequests() throws Exception {
+        WifiScanScheduler scheduler = new WifiScanScheduler(config());
+        assertTrue(scheduler.tryRequestScan(0));
+        assertTrue(scheduler.tryRequestScan(1000));
+        assertFalse(scheduler.tryRequestScan(2000));
+        assertEquals(1, scheduler.getSuppressedRequests());
+
+        // wait until the oldest request leaves the window
+        assertEquals(8000, scheduler.nextDelay(2000));
+        assertTrue(scheduler.tryRequestScan(10000));
+    }
+
+    @Test
+    public void testBackOffWhenStable() throws Exception {
+        WifiScanScheduler scheduler = new WifiScanScheduler(config());
+        assertEquals(1000, scheduler.getEffectiveDelay());
+        scheduler.onScanResults(false);
+        assertEquals(1500, scheduler.getEffectiveDelay());
+        for (int i = 0; i < 10; i++) {
+            scheduler.onScanResults(false);
+        }
+        assertEquals(8000, scheduler.getEffectiveDelay());
+    }
+
+    @Test
+    public void testTightenWhenChanged() throws Exception {
+        WifiScanScheduler scheduler = new WifiScanScheduler(config());
+        for (int i = 0; i < 10; i++) {
+            scheduler.onScanResults(false);
+        }
+        scheduler.onScanResults(true);
+        assertEquals(4000, scheduler.getEffectiveDelay());
+        for (int i = 0; i < 10; i++) {
+            scheduler.onScanResults(true);
+        }
+        assertEquals(1000, scheduler.getEffectiveDelay());
+    }
+
+    @Test
+    public void testStaleResults() throws Exception {
+        WifiScanScheduler scheduler = new WifiScanScheduler(config());
+        assertFalse(scheduler.isStale(scans(100)));
+        assertTrue(scheduler.isStale(scans(100)));
+        assertFalse(scheduler.isStale(scans(200)));
+        assertFalse(scheduler.isStale(Collections.<ScanResult>emptyList()));
+        assertEquals(1, scheduler.getStaleResults());
+    }
+}